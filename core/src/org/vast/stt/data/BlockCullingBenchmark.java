@@ -0,0 +1,284 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.data;
+
+import org.vast.cdm.common.DataType;
+import org.vast.data.AbstractDataBlock;
+import org.vast.data.DataGroup;
+import org.vast.data.DataValue;
+import org.vast.util.SpatialExtent;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * Block Culling Benchmark
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Measures frame time and number of styled blocks on a dense global
+ * dataset (one block per lon/lat cell, each holding a small grid of
+ * points), for views of decreasing size. Each view is styled three ways:
+ * without culling (all blocks styled, as before block extents were
+ * used), with the block filter only (all blocks visited but blocks
+ * outside the view skipped before styling) and with the spatial index
+ * (only candidate blocks visited, then filtered). Styling a block
+ * converts all its points to ECEF, standing for the mapping and
+ * projection work done by stylers. The view test is the one done by
+ * GLBlockFilter, which cannot be used here since it needs a GL context.
+ * Run with: BlockCullingBenchmark [cell size in degrees]
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Mar 16, 2009
+ * @version 1.0
+ */
+public class BlockCullingBenchmark
+{
+    protected final static double DTR = Math.PI/180.;
+    protected final static int POINTS_PER_SIDE = 4;
+    protected final static int NUM_RUNS = 5;
+    protected final static double[][] VIEWS = new double[][]
+    {
+        {-180, 180, -90, 90},  // global
+        {-20, 40, 30, 70},     // continent
+        {0, 10, 40, 50},       // region
+        {2, 3, 48, 49},        // city
+    };
+    
+    protected double cellSize;
+    protected double checkSum;
+    protected int styledCount;
+    protected int visitedCount;
+    
+    
+    /**
+     * Filter rejecting blocks outside a lon/lat window,
+     * with the same test as GLBlockFilter
+     */
+    protected static class ViewFilter implements BlockFilter
+    {
+        protected SpatialExtent viewExtent = new SpatialExtent();
+        
+        public ViewFilter(double[] view)
+        {
+            viewExtent.setMinX(view[0] * DTR);
+            viewExtent.setMaxX(view[1] * DTR);
+            viewExtent.setMinY(view[2] * DTR);
+            viewExtent.setMaxY(view[3] * DTR);
+        }
+        
+        public boolean filterBlock(BlockInfo blockInfo)
+        {
+            if (blockInfo == null || !blockInfo.hasSpatialExtent())
+                return false;
+            
+            SpatialExtent blockExtent = blockInfo.getSpatialExtent();
+            if (blockExtent.getMinY() > viewExtent.getMaxY() || blockExtent.getMaxY() < viewExtent.getMinY())
+                return true;
+            
+            double minX = viewExtent.getMinX();
+            double maxX = viewExtent.getMaxX();
+            if (maxX - minX >= 2*Math.PI)
+                return false;
+            
+            for (int i = -1; i <= 1; i++)
+            {
+                double shift = i * 2*Math.PI;
+                if (blockExtent.getMinX() <= maxX + shift && blockExtent.getMaxX() >= minX + shift)
+                    return false;
+            }
+            
+            return true;
+        }
+        
+        public SpatialExtent getSpatialExtent()
+        {
+            return viewExtent;
+        }
+    }
+    
+    
+    public BlockCullingBenchmark(double cellSize)
+    {
+        this.cellSize = cellSize;
+    }
+    
+    
+    /**
+     * Creates one block per cell with lat/lon/value of each point
+     * and attaches the cell extent to it, as providers do on ingest
+     * @return list of blocks covering the globe
+     */
+    protected BlockList createList()
+    {
+        int numPoints = POINTS_PER_SIDE * POINTS_PER_SIDE;
+        DataGroup record = new DataGroup(numPoints * 3);
+        record.setName("grid");
+        for (int p=0; p<numPoints; p++)
+        {
+            record.addComponent("lat" + p, new DataValue(DataType.DOUBLE));
+            record.addComponent("lon" + p, new DataValue(DataType.DOUBLE));
+            record.addComponent("val" + p, new DataValue(DataType.DOUBLE));
+        }
+        
+        BlockList list = new BlockList();
+        list.setBlockStructure(record);
+        
+        for (double lat = -90; lat < 90; lat += cellSize)
+        {
+            for (double lon = -180; lon < 180; lon += cellSize)
+            {
+                AbstractDataBlock block = (AbstractDataBlock)record.createDataBlock();
+                double step = cellSize / (POINTS_PER_SIDE - 1);
+                int i = 0;
+                for (int u=0; u<POINTS_PER_SIDE; u++)
+                {
+                    for (int v=0; v<POINTS_PER_SIDE; v++)
+                    {
+                        block.setDoubleValue(i++, (lat + u*step) * DTR);
+                        block.setDoubleValue(i++, (lon + v*step) * DTR);
+                        block.setDoubleValue(i++, u + v);
+                    }
+                }
+                
+                BlockListItem item = list.addBlock(block);
+                BlockInfo info = new BlockInfo();
+                info.getSpatialExtent().setMinX(lon * DTR);
+                info.getSpatialExtent().setMaxX((lon + cellSize) * DTR);
+                info.getSpatialExtent().setMinY(lat * DTR);
+                info.getSpatialExtent().setMaxY((lat + cellSize) * DTR);
+                item.setInfo(info);
+            }
+        }
+        
+        return list;
+    }
+    
+    
+    /**
+     * Converts all points of the block to ECEF coordinates
+     * @param block
+     */
+    protected void styleBlock(AbstractDataBlock block)
+    {
+        int numPoints = POINTS_PER_SIDE * POINTS_PER_SIDE;
+        for (int p=0; p<numPoints; p++)
+        {
+            double lat = block.getDoubleValue(3*p);
+            double lon = block.getDoubleValue(3*p+1);
+            double cosLat = Math.cos(lat);
+            double x = cosLat * Math.cos(lon);
+            double y = cosLat * Math.sin(lon);
+            double z = Math.sin(lat);
+            checkSum += x + y + z + block.getDoubleValue(3*p+2);
+        }
+        
+        styledCount++;
+    }
+    
+    
+    /**
+     * Styles one frame like AbstractStyler does
+     * @param list
+     * @param filter block filter or null to style all blocks
+     * @param useIndex true to iterate through spatial index candidates
+     */
+    protected void styleFrame(BlockList list, BlockFilter filter, boolean useIndex)
+    {
+        BlockListIterator it;
+        if (useIndex)
+            it = list.getIterator(filter.getSpatialExtent());
+        else
+            it = list.getIterator();
+        
+        while (it.hasNext())
+        {
+            BlockListItem item = it.next();
+            visitedCount++;
+            
+            if (filter != null && filter.filterBlock(item.getInfo()))
+                continue;
+            
+            styleBlock(item.getData());
+        }
+        
+        it.close();
+    }
+    
+    
+    protected void run(String name, BlockList list, BlockFilter filter, boolean useIndex)
+    {
+        long frameTime = Long.MAX_VALUE;
+        for (int r=0; r<NUM_RUNS; r++)
+        {
+            styledCount = 0;
+            visitedCount = 0;
+            long t0 = System.nanoTime();
+            styleFrame(list, filter, useIndex);
+            frameTime = Math.min(frameTime, System.nanoTime() - t0);
+        }
+        
+        System.out.println("  " + name + ": frame = " + (frameTime / 1000000.0) + "ms, " +
+                           "visited = " + visitedCount + ", styled = " + styledCount);
+    }
+    
+    
+    public void run()
+    {
+        BlockList list = createList();
+        System.out.println(list.getSize() + " blocks of " + (POINTS_PER_SIDE*POINTS_PER_SIDE) +
+                           " points (" + cellSize + " deg cells), best of " + NUM_RUNS + " frames");
+        
+        // build index once so that first frame is not penalized
+        list.getSpatialIndex().getCount();
+        
+        for (int v=0; v<VIEWS.length; v++)
+        {
+            double[] view = VIEWS[v];
+            System.out.println("View " + view[0] + "," + view[2] + " to " + view[1] + "," + view[3] + ":");
+            
+            ViewFilter filter = new ViewFilter(view);
+            run("no culling", list, null, false);
+            run("block filter", list, filter, false);
+            run("spatial index + filter", list, filter, true);
+        }
+        
+        // prevents JIT from removing loops
+        if (checkSum == 0.0)
+            System.out.println();
+    }
+    
+    
+    public static void main(String[] args)
+    {
+        double cellSize = 0.5;
+        if (args.length > 0)
+            cellSize = Double.parseDouble(args[0]);
+        
+        new BlockCullingBenchmark(cellSize).run();
+    }
+}
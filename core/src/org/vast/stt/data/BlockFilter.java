@@ -26,6 +26,7 @@
 package org.vast.stt.data;
 
 import org.vast.stt.data.BlockInfo;
+import org.vast.util.SpatialExtent;
 
 
 /**
@@ -44,5 +45,18 @@ import org.vast.stt.data.BlockInfo;
  */
 public interface BlockFilter
 {
+    /**
+     * Checks if a block should be skipped
+     * @param blockInfo
+     * @return true if block is filtered out
+     */
     public boolean filterBlock(BlockInfo blockInfo);
+    
+    
+    /**
+     * Gets the lon/lat window (in radians) used to filter blocks,
+     * so that a spatial index can be used to find candidate blocks
+     * @return window or null if blocks are not filtered spatially
+     */
+    public SpatialExtent getSpatialExtent();
 }
@@ -36,6 +36,8 @@ import org.vast.stt.provider.STTTimeExtent;
  *
  * <p><b>Description:</b><br/>
  * Additional (optional) info for a BlockListItem.
+ * Spatial extents are expressed in the same units as the data
+ * geometry, that is longitude (X) and latitude (Y) in radians.
  * </p>
  *
  * <p>Copyright (c) 2007</p>
@@ -64,6 +66,12 @@ public class BlockInfo
     {
         this.spatialExtent = spatialExtent;
     }
+    
+    
+    public boolean hasSpatialExtent()
+    {
+        return (spatialExtent != null);
+    }
 
 
     public STTTimeExtent getTimeExtent()
@@ -27,6 +27,7 @@ package org.vast.stt.data;
 
 import org.vast.cdm.common.DataComponent;
 import org.vast.data.AbstractDataBlock;
+import org.vast.util.SpatialExtent;
 
 
 /**
@@ -35,7 +36,14 @@ import org.vast.data.AbstractDataBlock;
  * </p>
  *
  * <p><b>Description:</b><br/>
- * TODO BlockList type description
+ * Doubly linked list of data blocks. Modifications are synchronized
+ * and publish a new BlockListSnapshot, so that iterators and random
+ * access only read the last published snapshot and never lock the list
+ * or see it in an inconsistent state. Items are accessed by index in
+ * constant time in the snapshot array. When a block pool is set, blocks
+ * are recycled on clear() only after all iterators reading the cleared
+ * snapshots have been reset or closed. Blocks removed from the list can
+ * be given back to a pool the same way with recycle().
  * </p>
  *
  * <p>Copyright (c) 2007</p>
@@ -45,13 +53,17 @@ import org.vast.data.AbstractDataBlock;
  */
 public class BlockList
 {
-    protected int size = 0;
+    protected final static int MIN_CAPACITY = 16;
+    protected volatile int size = 0;
     protected DataComponent blockStructure;
     protected BlockListItem firstItem;
     protected BlockListItem lastItem;
-    protected BlockListItem currentItem;
-    protected int currentIndex = -1;
-    //protected BlockListItem[] fastAccessBlocks; // use if random access needed
+    protected BlockListItem currentItem; // last item read with get() by the calling thread
+    protected BlockListTimeIndex timeIndex;
+    protected volatile BlockListSpatialIndex spatialIndex;
+    protected volatile BlockListSnapshot snapshot;
+    protected int snapshotHighMark; // highest end published with current snapshot array
+    protected DataBlockPool blockPool;
     
     
     public BlockList()
@@ -74,13 +86,87 @@ public class BlockList
     }
     
     
-    public void clear()
+    /**
+     * Gets an iterator going only through blocks within the given
+     * time window if this list has a time index, or through all
+     * blocks otherwise
+     * @param startTime
+     * @param stopTime
+     * @return iterator
+     */
+    public BlockListIterator getIterator(double startTime, double stopTime)
+    {
+        if (timeIndex == null)
+            return getIterator();
+        
+        return new TimeWindowIterator(this, startTime, stopTime);
+    }
+    
+    
+    /**
+     * Gets an iterator going only through blocks that may intersect
+     * the given lon/lat window (in radians) if this list supports
+     * spatial indexing, or through all blocks otherwise
+     * @param window
+     * @return iterator
+     */
+    public BlockListIterator getIterator(SpatialExtent window)
+    {
+        if (getSpatialIndex() == null)
+            return getIterator();
+        
+        return new SpatialWindowIterator(this, window);
+    }
+    
+    
+    public synchronized void clear()
     {
         this.firstItem = null;
         this.lastItem = null;
         this.currentItem = null;
-        this.currentIndex = -1;
         this.size = 0;
+        
+        // clear indexes before publishing the new epoch so that
+        // readers of the new epoch never see items of the old one
+        if (timeIndex != null)
+            timeIndex.clear();
+        
+        if (spatialIndex != null)
+            spatialIndex.clear();
+        
+        BlockListSnapshot oldSnapshot = snapshot;
+        long version = (oldSnapshot == null) ? 0 : oldSnapshot.getVersion() + 1;
+        this.snapshot = new BlockListSnapshot(new BlockListItem[MIN_CAPACITY], 0, 0, version, new BlockListEpoch());
+        this.snapshotHighMark = 0;
+        
+        // give blocks back to pool once readers of old snapshots are done
+        if (oldSnapshot != null)
+        {
+            AbstractDataBlock[] blocks = null;
+            if (blockPool != null)
+            {
+                blocks = new AbstractDataBlock[oldSnapshot.getCount()];
+                for (int i = 0; i < blocks.length; i++)
+                    blocks[i] = oldSnapshot.getItem(i).getData();
+            }
+            
+            oldSnapshot.getEpoch().retire(blockPool, blocks);
+        }
+    }
+    
+    
+    /**
+     * Gives blocks that were removed from this list back to the pool
+     * once no iterator can read them anymore, that is once all iterators
+     * reading snapshots published so far have been reset or closed
+     * @param pool
+     * @param blocks
+     */
+    public synchronized void recycle(DataBlockPool pool, AbstractDataBlock[] blocks)
+    {
+        BlockListSnapshot s = snapshot;
+        snapshot = new BlockListSnapshot(s.items, s.start, s.end, s.version + 1, new BlockListEpoch(s.epoch));
+        s.epoch.retire(pool, blocks);
     }
     
     
@@ -122,12 +208,44 @@ public class BlockList
         // set both prev and next to null
         item.nextItem = null;
         item.prevItem = null;
+        publishIndexedRemove(item);
         
         // reduce list size
         size--;        
     }
     
     
+    /**
+     * Removes all blocks whose time stamp is before the given time.
+     * This is only possible if this list is indexed by time.
+     * @param time
+     * @return removed items or null if none
+     */
+    public synchronized BlockListItem[] removeBefore(double time)
+    {
+        if (timeIndex == null)
+            return null;
+        
+        // collect items first since index changes as they are removed
+        BlockListItem[] removedItems;
+        synchronized (timeIndex)
+        {
+            int count = timeIndex.findFirst(time);
+            if (count == 0)
+                return null;
+            
+            removedItems = new BlockListItem[count];
+            for (int i = 0; i < count; i++)
+                removedItems[i] = timeIndex.getItem(i);
+        }
+        
+        for (int i = 0; i < removedItems.length; i++)
+            remove(removedItems[i]);
+        
+        return removedItems;
+    }
+    
+    
     public boolean contains(BlockListItem item)
     {
     	if (item.nextItem != null || item.prevItem != null)
@@ -165,6 +283,7 @@ public class BlockList
         lastItem = newItem;
         
         size++;
+        publishIndexedAppend(newItem);
     }
     
     
@@ -185,6 +304,13 @@ public class BlockList
             firstItem = newItem;
         
         size++;
+        rebuildSnapshot();
+        
+        if (timeIndex != null)
+            timeIndex.invalidate();
+        
+        if (spatialIndex != null)
+            spatialIndex.invalidate();
     }
     
     
@@ -202,52 +328,189 @@ public class BlockList
         existingItem.nextItem = newItem;
         
         if (existingItem == lastItem)
+        {
             lastItem = newItem;
-        
-        size++;
+            size++;
+            publishIndexedAppend(newItem);
+        }
+        else
+        {
+            size++;
+            rebuildSnapshot();
+            
+            if (timeIndex != null)
+                timeIndex.invalidate();
+            
+            if (spatialIndex != null)
+                spatialIndex.invalidate();
+        }
     }
     
     
+    /**
+     * Gets block at the given index in the last published snapshot.
+     * Index past the end of the list returns the last block.
+     * Only the item reference is recorded as current item, so that
+     * concurrent readers never leave an inconsistent cursor behind.
+     * Readers other than the thread filling the list should use
+     * BlockListIterator.get() so that the block cannot be recycled
+     * while they read it.
+     * @param index
+     * @return data block or null if list is empty
+     */
     public AbstractDataBlock get(int index)
     {
-        BlockListItem item = null;
+        BlockListSnapshot items = snapshot;
+        int count = items.getCount();
+        if (count == 0)
+            return null;
         
-        int distCurrent = index - currentIndex;
-        int distFirst = index;
-        //int distLast = size - 1 - index;
-            
-        if (currentIndex != -1 && Math.abs(distCurrent) <= distFirst)
+        BlockListItem item = items.getItem(Math.min(index, count-1));
+        currentItem = item;
+        return item.data;
+    }
+    
+    
+    /**
+     * Retrieves the list item at the given index in the last
+     * published snapshot, in constant time
+     * @param index
+     * @return item at given index
+     */
+    public BlockListItem getItem(int index)
+    {
+        return snapshot.getItem(index);
+    }
+    
+    
+    /**
+     * Gets the last published snapshot of the list items.
+     * This never blocks, even while the list is being modified.
+     * @return snapshot
+     */
+    public BlockListSnapshot getSnapshot()
+    {
+        return snapshot;
+    }
+    
+    
+    /**
+     * Publishes a new snapshot with the item appended at the end,
+     * writing in the current array if no previous snapshot can see that slot
+     * @param newItem
+     */
+    protected void publishAppend(BlockListItem newItem)
+    {
+        BlockListSnapshot s = snapshot;
+        BlockListItem[] items = s.items;
+        
+        if (s.end == snapshotHighMark && s.end < items.length)
         {
-            item = currentItem;
-            
-            if (distCurrent >= 0)
+            items[s.end] = newItem;
+            snapshotHighMark = s.end + 1;
+            snapshot = new BlockListSnapshot(items, s.start, s.end + 1, s.version + 1, s.epoch);
+        }
+        else
+        {
+            int count = s.getCount();
+            BlockListItem[] newItems = new BlockListItem[Math.max(MIN_CAPACITY, count * 2 + 1)];
+            System.arraycopy(items, s.start, newItems, 0, count);
+            newItems[count] = newItem;
+            snapshotHighMark = count + 1;
+            snapshot = new BlockListSnapshot(newItems, 0, count + 1, s.version + 1, s.epoch);
+        }
+    }
+    
+    
+    /**
+     * Publishes the appended item and adds it to the indexes while
+     * holding the index locks, so that an index rebuilt concurrently
+     * from the published snapshot cannot index the item a second time.
+     * Locks are always taken in order list, time index, spatial index.
+     * @param newItem
+     */
+    protected void publishIndexedAppend(BlockListItem newItem)
+    {
+        BlockListTimeIndex ti = timeIndex;
+        BlockListSpatialIndex si = spatialIndex;
+        
+        synchronized ((ti != null) ? ti : this)
+        {
+            synchronized ((si != null) ? si : this)
             {
-                while (item.nextItem != null && currentIndex != index)
-                {
-                    item = item.nextItem;
-                    currentIndex++;
-                }
+                publishAppend(newItem);
+                
+                if (ti != null)
+                    ti.append(newItem);
+                
+                if (si != null)
+                    si.append(newItem);
             }
-            else
+        }
+    }
+    
+    
+    /**
+     * Publishes removal of the item and removes it from the indexes
+     * while holding the index locks (see publishIndexedAppend)
+     * @param item
+     */
+    protected void publishIndexedRemove(BlockListItem item)
+    {
+        BlockListTimeIndex ti = timeIndex;
+        BlockListSpatialIndex si = spatialIndex;
+        
+        synchronized ((ti != null) ? ti : this)
+        {
+            synchronized ((si != null) ? si : this)
             {
-                while (item.prevItem != null && currentIndex != index)
-                {
-                    item = item.prevItem;
-                    currentIndex--;
-                }
+                publishRemove(item);
+                
+                if (ti != null)
+                    ti.remove(item);
+                
+                if (si != null)
+                    si.remove(item);
             }
         }
+    }
+    
+    
+    /**
+     * Publishes a new snapshot without the given item. Removing the first
+     * or last item just shrinks the window over the current array.
+     * @param item
+     */
+    protected void publishRemove(BlockListItem item)
+    {
+        BlockListSnapshot s = snapshot;
+        
+        if (s.getCount() > 0 && s.items[s.start] == item)
+            snapshot = new BlockListSnapshot(s.items, s.start + 1, s.end, s.version + 1, s.epoch);
+        else if (s.getCount() > 0 && s.items[s.end - 1] == item)
+            snapshot = new BlockListSnapshot(s.items, s.start, s.end - 1, s.version + 1, s.epoch);
         else
+            rebuildSnapshot();
+    }
+    
+    
+    /**
+     * Publishes a new snapshot by copying all items to a new array
+     */
+    protected void rebuildSnapshot()
+    {
+        BlockListItem[] newItems = new BlockListItem[Math.max(MIN_CAPACITY, size * 3 / 2 + 1)];
+        
+        int count = 0;
+        BlockListItem item = firstItem;
+        while (item != null && count < newItems.length)
         {
-            item = firstItem;
-            int i;
-            for (i=0; i<index && item.nextItem != null; i++)
-                item = item.nextItem;
-            currentIndex = i;
+            newItems[count++] = item;
+            item = item.nextItem;
         }
         
-        currentItem = item;
-        return item.data;
+        snapshotHighMark = count;
+        snapshot = new BlockListSnapshot(newItems, 0, count, snapshot.version + 1, snapshot.epoch);
     }
     
     
@@ -320,4 +583,68 @@ public class BlockList
     {
         this.blockStructure = blockStructure;
     }
+    
+    
+    public DataBlockPool getBlockPool()
+    {
+        return blockPool;
+    }
+    
+    
+    /**
+     * Sets the pool to which data blocks are released when the list
+     * is cleared, or null to disable recycling. Pooling must not be used
+     * if blocks are kept elsewhere than in the list (i.e. by a cache).
+     * @param blockPool
+     */
+    public void setBlockPool(DataBlockPool blockPool)
+    {
+        this.blockPool = blockPool;
+    }
+    
+    
+    public BlockListTimeIndex getTimeIndex()
+    {
+        return timeIndex;
+    }
+    
+    
+    /**
+     * Gets the spatial index of this list, creating it on first call.
+     * The index is then maintained as blocks are added and removed.
+     * Only creation locks the list since this is called for every frame.
+     * @return spatial index
+     */
+    public BlockListSpatialIndex getSpatialIndex()
+    {
+        BlockListSpatialIndex index = spatialIndex;
+        if (index != null)
+            return index;
+        
+        synchronized (this)
+        {
+            if (spatialIndex == null)
+            {
+                index = new BlockListSpatialIndex(this);
+                index.invalidate();
+                spatialIndex = index;
+            }
+            
+            return spatialIndex;
+        }
+    }
+    
+    
+    /**
+     * Enables time indexing of blocks using the given component
+     * @param timePath path of time component relative to block structure root,
+     *        or null to disable time indexing 
+     */
+    public void setTimeComponent(String timePath)
+    {
+        if (timePath == null)
+            this.timeIndex = null;
+        else
+            this.timeIndex = new BlockListTimeIndex(this, timePath);
+    }
 }
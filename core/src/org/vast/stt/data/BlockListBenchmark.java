@@ -0,0 +1,278 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+
+package org.vast.stt.data;
+
+import java.util.Random;
+import org.vast.cdm.common.DataType;
+import org.vast.data.AbstractDataBlock;
+import org.vast.data.DataGroup;
+import org.vast.data.DataValue;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * Block List Benchmark
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Measures indexed access to large block lists created through
+ * DataNode.createList with each storage option (default, columnar
+ * and bounded), and compares it with the linked list walk that get()
+ * used before items were published in snapshot arrays. Access patterns
+ * are those of stylers (one sequential pass reading each block once),
+ * of charts (x then y value of each item) and of random lookups.
+ * Random lookups are measured on a fixed number of accesses since the
+ * linked walk is O(n) per lookup. Iteration with a BlockListIterator
+ * and heap used by each list are also reported to compare columns
+ * with the linked data blocks of the default list.
+ * Run with: BlockListBenchmark [number of blocks]
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Mar 16, 2009
+ * @version 1.0
+ */
+public class BlockListBenchmark
+{
+    protected final static int NUM_RANDOM = 2000;
+    protected final static int NUM_RUNS = 5;
+    
+    protected int numBlocks;
+    protected double checkSum;
+    
+    
+    /**
+     * Emulates the cursor based get() of the original linked list,
+     * walking from the last accessed item or from the first item
+     */
+    protected static class LinkedCursor
+    {
+        protected BlockList list;
+        protected BlockListItem currentItem;
+        protected int currentIndex = -1;
+        
+        
+        protected LinkedCursor(BlockList list)
+        {
+            this.list = list;
+        }
+        
+        
+        protected AbstractDataBlock get(int index)
+        {
+            BlockListItem item;
+            int distCurrent = index - currentIndex;
+            
+            if (currentIndex != -1 && Math.abs(distCurrent) <= index)
+            {
+                item = currentItem;
+                while (distCurrent > 0 && item.nextItem != null)
+                {
+                    item = item.nextItem;
+                    distCurrent--;
+                }
+                while (distCurrent < 0 && item.prevItem != null)
+                {
+                    item = item.prevItem;
+                    distCurrent++;
+                }
+            }
+            else
+            {
+                item = list.getFirstItem();
+                for (int i=0; i<index && item.nextItem != null; i++)
+                    item = item.nextItem;
+            }
+            
+            currentIndex = index;
+            currentItem = item;
+            return item.getData();
+        }
+    }
+    
+    
+    public BlockListBenchmark(int numBlocks)
+    {
+        this.numBlocks = numBlocks;
+    }
+    
+    
+    protected BlockList createList(DataNode node)
+    {
+        DataGroup record = new DataGroup(4);
+        record.setName("record");
+        record.addComponent("time", new DataValue(DataType.DOUBLE));
+        record.addComponent("lat", new DataValue(DataType.DOUBLE));
+        record.addComponent("lon", new DataValue(DataType.DOUBLE));
+        record.addComponent("value", new DataValue(DataType.DOUBLE));
+        
+        BlockList list = node.createList(record);
+        for (int i=0; i<numBlocks; i++)
+        {
+            AbstractDataBlock block = (AbstractDataBlock)record.createDataBlock();
+            block.setDoubleValue(0, i);
+            block.setDoubleValue(1, (i % 180) - 90.0);
+            block.setDoubleValue(2, (i % 360) - 180.0);
+            block.setDoubleValue(3, i * 0.5);
+            list.addBlock(block);
+        }
+        
+        return list;
+    }
+    
+    
+    /**
+     * Runs all access patterns on one list
+     * @param name
+     * @param list
+     * @param linked true to access blocks by walking the linked items
+     */
+    protected void run(String name, BlockList list, boolean linked)
+    {
+        LinkedCursor cursor = new LinkedCursor(list);
+        long stylerTime = Long.MAX_VALUE;
+        long chartTime = Long.MAX_VALUE;
+        long randomTime = Long.MAX_VALUE;
+        long iteratorTime = Long.MAX_VALUE;
+        
+        for (int r=0; r<NUM_RUNS; r++)
+        {
+            // styler pass
+            long t0 = System.nanoTime();
+            for (int u=0; u<numBlocks; u++)
+            {
+                AbstractDataBlock block = linked ? cursor.get(u) : list.get(u);
+                checkSum += block.getDoubleValue(3);
+            }
+            stylerTime = Math.min(stylerTime, System.nanoTime() - t0);
+            
+            // chart pass reads x and y with separate calls
+            t0 = System.nanoTime();
+            for (int u=0; u<numBlocks; u++)
+            {
+                AbstractDataBlock xBlock = linked ? cursor.get(u) : list.get(u);
+                checkSum += xBlock.getDoubleValue(0);
+                AbstractDataBlock yBlock = linked ? cursor.get(u) : list.get(u);
+                checkSum += yBlock.getDoubleValue(3);
+            }
+            chartTime = Math.min(chartTime, System.nanoTime() - t0);
+            
+            // random lookups
+            Random random = new Random(r);
+            t0 = System.nanoTime();
+            for (int i=0; i<NUM_RANDOM; i++)
+            {
+                AbstractDataBlock block = linked ? cursor.get(random.nextInt(numBlocks)) : list.get(random.nextInt(numBlocks));
+                checkSum += block.getDoubleValue(3);
+            }
+            randomTime = Math.min(randomTime, System.nanoTime() - t0);
+            
+            // iterator pass
+            t0 = System.nanoTime();
+            BlockListIterator it = list.getIterator();
+            while (it.hasNext())
+                checkSum += it.next().getData().getDoubleValue(3);
+            it.close();
+            iteratorTime = Math.min(iteratorTime, System.nanoTime() - t0);
+        }
+        
+        System.out.println(name + ": styler pass = " + (stylerTime / 1000000.0) + "ms, " +
+                           "chart pass = " + (chartTime / 1000000.0) + "ms, " +
+                           "random access = " + (randomTime / NUM_RANDOM) + "ns/block, " +
+                           "iterator pass = " + (iteratorTime / 1000000.0) + "ms");
+    }
+    
+    
+    /**
+     * Measures heap retained by a list created with the given node
+     * @param name
+     * @param node
+     */
+    protected void measureMemory(String name, DataNode node)
+    {
+        long before = getUsedMemory();
+        BlockList list = createList(node);
+        long after = getUsedMemory();
+        
+        System.out.println(name + ": " + ((after - before) / numBlocks) + " bytes/block" +
+                           " (" + ((after - before) / 1024) + "KB for " + list.getSize() + " blocks)");
+    }
+    
+    
+    protected long getUsedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i=0; i<4; i++)
+        {
+            System.gc();
+            try { Thread.sleep(50); }
+            catch (InterruptedException e) { }
+        }
+        
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    
+    public void run()
+    {
+        System.out.println(numBlocks + " blocks per list, best of " + NUM_RUNS + " runs");
+        
+        DataNode node = new DataNode();
+        BlockList list = createList(node);
+        run("Linked walk (original get)", list, true);
+        run("BlockList", list, false);
+        
+        node = new DataNode();
+        node.setColumnarStorage(true);
+        run("ColumnarBlockList", createList(node), false);
+        
+        node = new DataNode();
+        node.setMaxBlockCount(numBlocks);
+        run("BoundedBlockList", createList(node), false);
+        
+        node = new DataNode();
+        measureMemory("BlockList memory", node);
+        node = new DataNode();
+        node.setColumnarStorage(true);
+        measureMemory("ColumnarBlockList memory", node);
+        
+        // prevents JIT from removing loops
+        if (checkSum == 0.0)
+            System.out.println();
+    }
+    
+    
+    public static void main(String[] args)
+    {
+        int numBlocks = 200000;
+        if (args.length > 0)
+            numBlocks = Integer.parseInt(args[0]);
+        
+        new BlockListBenchmark(numBlocks).run();
+    }
+}
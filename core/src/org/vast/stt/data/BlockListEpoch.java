@@ -0,0 +1,181 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+
+package org.vast.stt.data;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.vast.data.AbstractDataBlock;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * Block List Epoch
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Tracks readers of the snapshots published by a BlockList between two
+ * calls to clear() or recycle(). Iterators enter the epoch of the snapshot
+ * they read and exit it when they are reset or closed. When the list is
+ * cleared or blocks are recycled, the epoch is retired and its blocks are
+ * only given back to the pool once the last reader has exited, so that a
+ * block is never refilled while a styler or renderer still reads it.
+ * An epoch started by recycle() shares blocks with the previous one, so
+ * it also waits for the previous epoch to be released.
+ * Lists keeping other resources per epoch (e.g. mapped files) can
+ * free them in onRelease().
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Mar 16, 2009
+ * @version 1.0
+ */
+public class BlockListEpoch
+{
+    protected final AtomicInteger readerCount = new AtomicInteger();
+    protected final AtomicBoolean released = new AtomicBoolean();
+    protected final AtomicBoolean previousReleased = new AtomicBoolean();
+    protected volatile boolean retired;
+    protected volatile BlockListEpoch nextEpoch;
+    protected DataBlockPool blockPool;
+    protected AbstractDataBlock[] retiredBlocks;
+    
+    
+    /**
+     * Creates an epoch whose snapshots share no block with previous ones
+     */
+    public BlockListEpoch()
+    {
+        previousReleased.set(true);
+    }
+    
+    
+    /**
+     * Creates an epoch whose snapshots can contain blocks of the previous
+     * epoch, so that it is only released after the previous one
+     * @param previousEpoch
+     */
+    public BlockListEpoch(BlockListEpoch previousEpoch)
+    {
+        // previous epoch counts as a reader until it is released
+        readerCount.set(1);
+        previousEpoch.nextEpoch = this;
+        if (previousEpoch.released.get())
+            onPreviousReleased();
+    }
+    
+    
+    /**
+     * Registers a new reader of this epoch
+     * @return false if the epoch was retired, in which case the
+     *         reader must read the new snapshot of the list instead
+     */
+    public boolean enter()
+    {
+        readerCount.incrementAndGet();
+        if (retired)
+        {
+            exit();
+            return false;
+        }
+        
+        return true;
+    }
+    
+    
+    /**
+     * Unregisters a reader, releasing the blocks of a retired
+     * epoch if this was the last reader
+     */
+    public void exit()
+    {
+        if (readerCount.decrementAndGet() == 0 && retired)
+            releaseBlocks();
+    }
+    
+    
+    /**
+     * Retires this epoch when the list is cleared. Blocks are released
+     * to the pool right away if no reader is registered, or when the
+     * last reader exits otherwise.
+     * @param blockPool pool to release blocks to, or null if none
+     * @param blocks blocks of the last snapshot of this epoch
+     */
+    public void retire(DataBlockPool blockPool, AbstractDataBlock[] blocks)
+    {
+        this.blockPool = blockPool;
+        this.retiredBlocks = blocks;
+        this.retired = true;
+        
+        if (readerCount.get() == 0)
+            releaseBlocks();
+    }
+    
+    
+    public boolean isRetired()
+    {
+        return retired;
+    }
+    
+    
+    protected void releaseBlocks()
+    {
+        // make sure blocks are only released once
+        if (!released.compareAndSet(false, true))
+            return;
+        
+        if (blockPool != null && retiredBlocks != null)
+        {
+            for (int i = 0; i < retiredBlocks.length; i++)
+                blockPool.release(retiredBlocks[i]);
+        }
+        
+        retiredBlocks = null;
+        onRelease();
+        
+        BlockListEpoch next = nextEpoch;
+        if (next != null)
+            next.onPreviousReleased();
+    }
+    
+    
+    /**
+     * Called once when the epoch is released, that is once it was
+     * retired and its last reader has exited
+     */
+    protected void onRelease()
+    {
+    }
+    
+    
+    protected void onPreviousReleased()
+    {
+        // can be called both by constructor and previous epoch
+        if (previousReleased.compareAndSet(false, true))
+            exit();
+    }
+}
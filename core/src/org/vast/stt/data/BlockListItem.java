@@ -43,7 +43,7 @@ import org.vast.data.AbstractDataBlock;
  */
 public class BlockListItem
 {
-    //protected BlockInfo info;
+    protected BlockInfo info;
     protected AbstractDataBlock data;    
     protected BlockListItem nextItem;
     protected BlockListItem prevItem;
@@ -77,19 +77,20 @@ public class BlockListItem
     }
 
 
-//    public BlockInfo getInfo()
-//    {
-//        if (info == null)
-//            info = new BlockInfo();
-//        
-//        return info;
-//    }
-//
-//
-//    public void setInfo(BlockInfo info)
-//    {
-//        this.info = info;
-//    }
+    /**
+     * Gets optional info (i.e. extents) attached to this block
+     * @return block info or null if none was computed
+     */
+    public BlockInfo getInfo()
+    {
+        return info;
+    }
+
+
+    public void setInfo(BlockInfo info)
+    {
+        this.info = info;
+    }
     
     
     public boolean isHidden()
@@ -26,6 +26,7 @@
 package org.vast.stt.data;
 
 import java.util.Iterator;
+import org.vast.data.AbstractDataBlock;
 
 
 /**
@@ -35,6 +36,14 @@ import java.util.Iterator;
  *
  * <p><b>Description:</b><br/>
  * Iterator to loop through BlockList elements.
+ * The iterator goes through the snapshot of the list taken when
+ * it was created or last reset, so it never needs to lock the list
+ * and is not affected by blocks added or removed concurrently.
+ * The iterator registers as a reader of the snapshot epoch so that
+ * blocks are not recycled by the list until it is reset or closed.
+ * An iterator that is never closed only prevents recycling of the blocks
+ * it has seen, which are then garbage collected with the iterator.
+ * Blocks can also be accessed by index in the same snapshot.
  * </p>
  *
  * <p>Copyright (c) 2007</p>
@@ -46,6 +55,9 @@ public class BlockListIterator implements Iterator<BlockListItem>
 {
     protected BlockList list;
     protected BlockListItem currentItem;
+    protected BlockListSnapshot snapshot;
+    protected BlockListEpoch epoch;
+    protected int nextIndex;
     
     
     public BlockListIterator(BlockList list)
@@ -57,40 +69,99 @@ public class BlockListIterator implements Iterator<BlockListItem>
     
     public boolean hasNext()
     {
-        if (currentItem == null)
-            return (list.firstItem != null);
-        
-        if (currentItem.nextItem == null)
-            return false;
-        else
-            return true;
+        return (snapshot != null && nextIndex < snapshot.getCount());
     }
     
     
     public BlockListItem next()
     {
-    	BlockListItem item;
-    	
-    	if (currentItem == null)
-    	    item = list.firstItem;
-    	else
-    	    item = currentItem.nextItem;
-    	
-        currentItem = item;
-        return item;
+        currentItem = snapshot.getItem(nextIndex++);
+        return currentItem;
     }
     
     
     public void reset()
     {
         currentItem = null;
+        snapshot = enterSnapshot();
+        nextIndex = 0;
+    }
+    
+    
+    /**
+     * Reads the last published snapshot of the list and registers
+     * as a reader of its epoch, after leaving the previous one
+     * @return snapshot
+     */
+    protected BlockListSnapshot enterSnapshot()
+    {
+        close();
+        
+        // retry if list was cleared in between
+        BlockListSnapshot s;
+        do s = list.getSnapshot();
+        while (!s.getEpoch().enter());
+        
+        epoch = s.getEpoch();
+        return s;
+    }
+    
+    
+    /**
+     * Checks that the list was not cleared since the snapshot was entered
+     * @return true if the list is still in the same epoch
+     */
+    protected boolean isCurrentEpoch()
+    {
+        return (list.getSnapshot().getEpoch() == epoch);
+    }
+    
+    
+    /**
+     * Releases the snapshot read by this iterator so that its blocks can
+     * be recycled. The iterator can be used again after calling reset().
+     */
+    public void close()
+    {
+        if (epoch != null)
+        {
+            epoch.exit();
+            epoch = null;
+        }
+        
+        currentItem = null;
+        snapshot = null;
+    }
+    
+    
+    /**
+     * Gets block at the given index in the snapshot read by this iterator.
+     * Index past the end of the snapshot returns the last block.
+     * @param index
+     * @return data block
+     */
+    public AbstractDataBlock get(int index)
+    {
+        return snapshot.getItem(Math.min(index, snapshot.getCount()-1)).getData();
+    }
+    
+    
+    /**
+     * @return number of blocks in the snapshot read by this iterator
+     */
+    public int getCount()
+    {
+        return (snapshot == null) ? 0 : snapshot.getCount();
     }
     
     
     public void remove()
     {
-        currentItem = currentItem.nextItem;
-        list.remove(currentItem);
+        if (currentItem != null)
+        {
+            list.remove(currentItem);
+            currentItem = null;
+        }
     }
 
 
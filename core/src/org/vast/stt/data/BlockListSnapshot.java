@@ -0,0 +1,93 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.data;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * Block List Snapshot
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Immutable view of the items of a BlockList at a given version.
+ * Snapshots are published by the list each time it is modified so
+ * that readers can iterate or access items by index without locking,
+ * while writers keep modifying the list. Appending or removing items
+ * at either end shares the item array with previous snapshots, other
+ * modifications copy it. All snapshots published between two calls
+ * to clear() share the same epoch, which keeps track of their readers.
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Feb 20, 2009
+ * @version 1.0
+ */
+public class BlockListSnapshot
+{
+    protected final BlockListItem[] items;
+    protected final int start;
+    protected final int end;
+    protected final long version;
+    protected final BlockListEpoch epoch;
+    
+    
+    public BlockListSnapshot(BlockListItem[] items, int start, int end, long version, BlockListEpoch epoch)
+    {
+        this.items = items;
+        this.start = start;
+        this.end = end;
+        this.version = version;
+        this.epoch = epoch;
+    }
+    
+    
+    public BlockListItem getItem(int index)
+    {
+        if (index < 0 || index >= end - start)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (end - start));
+        
+        return items[start + index];
+    }
+    
+    
+    public int getCount()
+    {
+        return end - start;
+    }
+    
+    
+    public long getVersion()
+    {
+        return version;
+    }
+    
+    
+    public BlockListEpoch getEpoch()
+    {
+        return epoch;
+    }
+}
@@ -0,0 +1,314 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.data;
+
+import java.util.BitSet;
+import org.vast.util.SpatialExtent;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * Block List Spatial Index
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Uniform grid index of the spatial extents of all blocks in a BlockList.
+ * The grid covers the whole earth in lon/lat (radians) and each cell
+ * keeps the positions of blocks intersecting it. Blocks with no extent
+ * or covering too many cells are always returned by queries.
+ * The index is updated in constant time when blocks are appended at the
+ * end of the list or when the first block is removed. Removed positions
+ * are skipped by queries until they outnumber the indexed blocks, at which
+ * point the index is compacted. Any other modification marks it as invalid
+ * so that it is rebuilt on the next query. Positions follow the list order
+ * so that query results can be visited in the same order as the list.
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Feb 16, 2009
+ * @version 1.0
+ */
+public class BlockListSpatialIndex
+{
+    protected final static int MIN_CAPACITY = 16;
+    protected final static int GRID_WIDTH = 64;
+    protected final static int GRID_HEIGHT = 32;
+    protected final static int MAX_CELLS_PER_BLOCK = 64;
+    protected final static double MIN_X = -Math.PI;
+    protected final static double MIN_Y = -Math.PI/2;
+    protected final static double CELL_SIZE = 2*Math.PI / GRID_WIDTH;
+    protected BlockList list;
+    protected BlockListItem[] items;
+    protected int first;
+    protected int count;
+    protected int[][] cells;
+    protected int[] cellCounts;
+    protected int[] unbounded;
+    protected int unboundedCount;
+    protected boolean valid;
+    
+    
+    public BlockListSpatialIndex(BlockList list)
+    {
+        this.list = list;
+        this.clear();
+    }
+    
+    
+    /**
+     * Adds the item at the end of the index if it is valid
+     * @param item
+     */
+    public synchronized void append(BlockListItem item)
+    {
+        if (!valid)
+            return;
+        
+        addItem(item);
+    }
+    
+    
+    /**
+     * Removes the item from the index in constant time if it is
+     * the first indexed item, or invalidates the index otherwise
+     * @param item
+     */
+    public synchronized void remove(BlockListItem item)
+    {
+        if (valid && first < count && items[first] == item)
+        {
+            items[first] = null;
+            first++;
+            
+            // compact once removed positions outnumber indexed items
+            if (first > MIN_CAPACITY && first > count - first)
+                valid = false;
+        }
+        else
+            valid = false;
+    }
+    
+    
+    public synchronized void invalidate()
+    {
+        valid = false;
+    }
+    
+    
+    public synchronized void clear()
+    {
+        items = new BlockListItem[MIN_CAPACITY];
+        cells = new int[GRID_WIDTH*GRID_HEIGHT][];
+        cellCounts = new int[GRID_WIDTH*GRID_HEIGHT];
+        unbounded = new int[MIN_CAPACITY];
+        unboundedCount = 0;
+        first = 0;
+        count = 0;
+        valid = true;
+    }
+    
+    
+    /**
+     * Finds positions of all blocks whose extent may intersect the given
+     * extent. Longitudes outside of [-PI, PI] are wrapped around.
+     * @param extent lon/lat extent in radians
+     * @return set of matching positions in index
+     */
+    public synchronized BitSet query(SpatialExtent extent)
+    {
+        if (!valid)
+            rebuild();
+        
+        BitSet result = new BitSet(count);
+        for (int i = 0; i < unboundedCount; i++)
+            result.set(unbounded[i]);
+        
+        double minX = extent.getMinX();
+        double maxX = extent.getMaxX();
+        int y0 = getCellY(extent.getMinY());
+        int y1 = getCellY(extent.getMaxY());
+        
+        // split in two ranges if crossing the date line
+        if (maxX - minX >= 2*Math.PI)
+            collect(0, GRID_WIDTH-1, y0, y1, result);
+        else if (minX < -Math.PI)
+        {
+            collect(getCellX(minX + 2*Math.PI), GRID_WIDTH-1, y0, y1, result);
+            collect(0, getCellX(maxX), y0, y1, result);
+        }
+        else if (maxX > Math.PI)
+        {
+            collect(getCellX(minX), GRID_WIDTH-1, y0, y1, result);
+            collect(0, getCellX(maxX - 2*Math.PI), y0, y1, result);
+        }
+        else
+            collect(getCellX(minX), getCellX(maxX), y0, y1, result);
+        
+        // skip positions of removed items
+        result.clear(0, first);
+        
+        return result;
+    }
+    
+    
+    /**
+     * Copies items whose extent may intersect the given extent so that
+     * they can be iterated while the index is modified or rebuilt
+     * @param extent lon/lat extent in radians
+     * @return array of matching items in list order (may be empty)
+     */
+    public synchronized BlockListItem[] getItems(SpatialExtent extent)
+    {
+        BitSet positions = query(extent);
+        BlockListItem[] windowItems = new BlockListItem[positions.cardinality()];
+        
+        int i = 0;
+        for (int pos = positions.nextSetBit(0); pos >= 0; pos = positions.nextSetBit(pos + 1))
+            windowItems[i++] = items[pos];
+        
+        return windowItems;
+    }
+    
+    
+    public synchronized BlockListItem getItem(int position)
+    {
+        return items[position];
+    }
+    
+    
+    public synchronized int getCount()
+    {
+        if (!valid)
+            rebuild();
+        
+        return count - first;
+    }
+    
+    
+    protected void collect(int x0, int x1, int y0, int y1, BitSet result)
+    {
+        for (int y = y0; y <= y1; y++)
+        {
+            for (int x = x0; x <= x1; x++)
+            {
+                int cell = y*GRID_WIDTH + x;
+                int[] positions = cells[cell];
+                for (int i = 0; i < cellCounts[cell]; i++)
+                    result.set(positions[i]);
+            }
+        }
+    }
+    
+    
+    /**
+     * Rebuilds the index from the list content
+     */
+    protected void rebuild()
+    {
+        clear();
+        
+        BlockListIterator it = list.getIterator();
+        while (it.hasNext())
+            addItem(it.next());
+        it.close();
+    }
+    
+    
+    protected void addItem(BlockListItem item)
+    {
+        // grow item array if needed
+        if (count == items.length)
+        {
+            BlockListItem[] oldItems = items;
+            items = new BlockListItem[count * 3 / 2 + 1];
+            System.arraycopy(oldItems, 0, items, 0, count);
+        }
+        
+        int position = count++;
+        items[position] = item;
+        
+        // blocks with no extent are always visited
+        BlockInfo info = item.getInfo();
+        if (info == null || !info.hasSpatialExtent() || info.getSpatialExtent().isNull())
+        {
+            unbounded = addPosition(unbounded, unboundedCount++, position);
+            return;
+        }
+        
+        SpatialExtent extent = info.getSpatialExtent();
+        int x0 = getCellX(extent.getMinX());
+        int x1 = getCellX(extent.getMaxX());
+        int y0 = getCellY(extent.getMinY());
+        int y1 = getCellY(extent.getMaxY());
+        
+        // large blocks are also always visited
+        if ((x1-x0+1) * (y1-y0+1) > MAX_CELLS_PER_BLOCK)
+        {
+            unbounded = addPosition(unbounded, unboundedCount++, position);
+            return;
+        }
+        
+        for (int y = y0; y <= y1; y++)
+        {
+            for (int x = x0; x <= x1; x++)
+            {
+                int cell = y*GRID_WIDTH + x;
+                if (cells[cell] == null)
+                    cells[cell] = new int[4];
+                cells[cell] = addPosition(cells[cell], cellCounts[cell]++, position);
+            }
+        }
+    }
+    
+    
+    protected int[] addPosition(int[] positions, int index, int position)
+    {
+        if (index == positions.length)
+        {
+            int[] oldPositions = positions;
+            positions = new int[index * 3 / 2 + 1];
+            System.arraycopy(oldPositions, 0, positions, 0, index);
+        }
+        
+        positions[index] = position;
+        return positions;
+    }
+    
+    
+    protected int getCellX(double x)
+    {
+        int cellX = (int)Math.floor((x - MIN_X) / CELL_SIZE);
+        return Math.max(0, Math.min(GRID_WIDTH-1, cellX));
+    }
+    
+    
+    protected int getCellY(double y)
+    {
+        int cellY = (int)Math.floor((y - MIN_Y) / CELL_SIZE);
+        return Math.max(0, Math.min(GRID_HEIGHT-1, cellY));
+    }
+}
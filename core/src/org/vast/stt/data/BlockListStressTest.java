@@ -0,0 +1,300 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.data;
+
+import java.util.Random;
+import org.vast.cdm.common.DataComponent;
+import org.vast.cdm.common.DataType;
+import org.vast.data.AbstractDataBlock;
+import org.vast.data.DataGroup;
+import org.vast.data.DataValue;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * Block List Stress Test
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Checks that readers iterating BlockList snapshots without locking
+ * always see a consistent list while a writer thread keeps appending,
+ * removing and clearing. Each block carries a sequence number and
+ * its copy, written before the block is added. Readers check that
+ * sequence numbers are increasing in each iteration and that both
+ * values of each block are still equal after it has been read, which
+ * would not be the case if a block was reused while being read.
+ * Lists with a block pool recycle blocks on each clear and after they
+ * are removed, and the first reader of a time indexed list uses a time
+ * window iterator.
+ * The list is checked for consistency once the writer has stopped.
+ * Run with: BlockListStressTest [duration in seconds]
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Mar 16, 2009
+ * @version 1.0
+ */
+public class BlockListStressTest
+{
+    protected final static int NUM_READERS = 3;
+    protected final static int MAX_SIZE = 1000;
+    
+    protected BlockList list;
+    protected DataComponent blockStructure;
+    protected volatile boolean done;
+    protected volatile String error;
+    protected long iterationCount;
+    protected long writeCount;
+    
+    
+    public BlockListStressTest(BlockList list)
+    {
+        DataGroup record = new DataGroup(2);
+        record.setName("record");
+        record.addComponent("seq", new DataValue(DataType.DOUBLE));
+        record.addComponent("check", new DataValue(DataType.DOUBLE));
+        this.blockStructure = record;
+        
+        this.list = list;
+        list.setBlockStructure(record);
+    }
+    
+    
+    protected AbstractDataBlock createBlock(long seq)
+    {
+        AbstractDataBlock block = null;
+        
+        if (list.getBlockPool() != null)
+            block = list.getBlockPool().acquire();
+        
+        if (block == null)
+            block = (AbstractDataBlock)blockStructure.createDataBlock();
+        
+        block.setDoubleValue(0, seq);
+        block.setDoubleValue(1, seq);
+        return block;
+    }
+    
+    
+    protected void write()
+    {
+        Random random = new Random(1);
+        long seq = 0;
+        
+        while (!done && error == null)
+        {
+            int op = random.nextInt(100);
+            BlockListSnapshot snapshot = list.getSnapshot();
+            int count = snapshot.getCount();
+            
+            if (op < 1)
+            {
+                list.clear();
+            }
+            else if (op < 15 && count > 0)
+            {
+                // remove first or last item
+                int index = (op < 10) ? 0 : count - 1;
+                removeItem(snapshot.getItem(index));
+            }
+            else if (op < 20 && count > 2)
+            {
+                // remove item in the middle
+                removeItem(snapshot.getItem(1 + random.nextInt(count - 2)));
+            }
+            else if (count < MAX_SIZE)
+            {
+                list.addBlock(createBlock(seq++));
+            }
+            
+            writeCount++;
+        }
+    }
+    
+    
+    protected void removeItem(BlockListItem item)
+    {
+        list.remove(item);
+        
+        if (list.getBlockPool() != null)
+            list.recycle(list.getBlockPool(), new AbstractDataBlock[] {item.getData()});
+    }
+    
+    
+    protected void read(int readerIndex)
+    {
+        Random random = new Random(readerIndex);
+        BlockListIterator it;
+        if (readerIndex == 0 && list.getTimeIndex() != null)
+            it = list.getIterator(0.0, Double.MAX_VALUE);
+        else
+            it = list.getIterator();
+        long count = 0;
+        
+        while (!done && error == null)
+        {
+            // iterate through whole snapshot
+            it.reset();
+            double lastSeq = -1;
+            while (it.hasNext())
+            {
+                BlockListItem item = it.next();
+                if (item == null)
+                {
+                    error = "Null item returned by iterator";
+                    return;
+                }
+                
+                AbstractDataBlock block = item.getData();
+                double seq = block.getDoubleValue(0);
+                if (seq <= lastSeq)
+                {
+                    error = "Sequence " + seq + " found after " + lastSeq;
+                    return;
+                }
+                
+                Thread.yield();
+                if (block.getDoubleValue(1) != seq || block.getDoubleValue(0) != seq)
+                {
+                    error = "Block " + seq + " was modified while being read";
+                    return;
+                }
+                
+                lastSeq = seq;
+            }
+            
+            // random access in iterator snapshot
+            int size = it.getCount();
+            if (size > 0)
+            {
+                AbstractDataBlock block = it.get(random.nextInt(size));
+                double seq = block.getDoubleValue(0);
+                Thread.yield();
+                if (block.getDoubleValue(1) != seq || block.getDoubleValue(0) != seq)
+                {
+                    error = "Inconsistent block returned by get()";
+                    return;
+                }
+            }
+            
+            count++;
+        }
+        
+        it.close();
+        
+        synchronized (this)
+        {
+            iterationCount += count;
+        }
+    }
+    
+    
+    public boolean run(long duration) throws InterruptedException
+    {
+        Thread writer = new Thread("Writer")
+        {
+            public void run()
+            {
+                write();
+            }
+        };
+        
+        Thread[] readers = new Thread[NUM_READERS];
+        for (int i = 0; i < NUM_READERS; i++)
+        {
+            final int readerIndex = i;
+            readers[i] = new Thread("Reader " + i)
+            {
+                public void run()
+                {
+                    read(readerIndex);
+                }
+            };
+        }
+        
+        writer.start();
+        for (int i = 0; i < NUM_READERS; i++)
+            readers[i].start();
+        
+        Thread.sleep(duration);
+        done = true;
+        
+        writer.join();
+        for (int i = 0; i < NUM_READERS; i++)
+            readers[i].join();
+        
+        // check list is consistent after all modifications
+        if (error == null)
+        {
+            try
+            {
+                list.checkConsistency();
+                if (list.getSnapshot().getCount() != list.getSize())
+                    error = "Snapshot count differs from list size";
+                else if (list.getTimeIndex() != null && list.getTimeIndex().getCount() != list.getSize())
+                    error = "Time index count differs from list size";
+            }
+            catch (IllegalStateException e)
+            {
+                error = "Inconsistent linked list";
+            }
+        }
+        
+        String listType = list.getClass().getSimpleName();
+        if (list.getTimeIndex() != null)
+            listType += " with time index";
+        if (list.getBlockPool() != null)
+            listType += " with block pool (" + list.getBlockPool().getHitCount() + " hits)";
+        
+        if (error != null)
+            System.out.println(listType + " FAILED: " + error);
+        else
+            System.out.println(listType + " OK: " + writeCount + " writes, " + iterationCount + " iterations");
+        
+        return (error == null);
+    }
+    
+    
+    public static void main(String[] args) throws InterruptedException
+    {
+        long duration = 5000;
+        if (args.length > 0)
+            duration = Long.parseLong(args[0]) * 1000;
+        
+        boolean ok = true;
+        ok &= new BlockListStressTest(new BlockList()).run(duration);
+        
+        // blocks are recycled when list is cleared
+        BlockListStressTest pooledTest = new BlockListStressTest(new BlockList());
+        pooledTest.list.setTimeComponent("seq");
+        pooledTest.list.setBlockPool(new DataBlockPool(2, MAX_SIZE));
+        ok &= pooledTest.run(duration);
+        
+        if (!ok)
+            System.exit(1);
+    }
+}
@@ -0,0 +1,348 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.data;
+
+import java.util.Arrays;
+import org.vast.cdm.common.DataComponent;
+import org.vast.data.AbstractDataBlock;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * Block List Time Index
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Sorted index of the time stamps of all blocks in a BlockList.
+ * The index is updated in constant time when blocks are appended in
+ * chronological order or when the oldest block is removed. Any other
+ * modification marks it as invalid so
+ * that it is rebuilt (and sorted if needed) on the next lookup.
+ * Lookups are done by binary search so that a time window can be
+ * found in O(log n).
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Feb 10, 2009
+ * @version 1.0
+ */
+public class BlockListTimeIndex
+{
+    protected final static int MIN_CAPACITY = 16;
+    protected BlockList list;
+    protected String timePath;
+    protected DataComponent blockStructure;
+    protected DataComponent timeComponent;
+    protected double[] times;
+    protected BlockListItem[] items;
+    protected int first;
+    protected int count;
+    protected boolean valid;
+    
+    
+    protected static class TimeEntry implements Comparable<TimeEntry>
+    {
+        protected double time;
+        protected BlockListItem item;
+        
+        public int compareTo(TimeEntry entry)
+        {
+            return Double.compare(time, entry.time);
+        }
+    }
+    
+    
+    /**
+     * Creates an index for the given list
+     * @param list
+     * @param timePath path of the time component relative to the block structure root
+     */
+    public BlockListTimeIndex(BlockList list, String timePath)
+    {
+        this.list = list;
+        this.timePath = timePath;
+        
+        // use our own copy of block structure to read time values
+        this.blockStructure = list.getBlockStructure().copy();
+        this.timeComponent = blockStructure;
+        String[] names = timePath.split("/");
+        for (int i = 0; i < names.length; i++)
+        {
+            timeComponent = timeComponent.getComponent(names[i]);
+            if (timeComponent == null)
+                throw new IllegalArgumentException("Unknown time component: " + timePath);
+        }
+        
+        this.clear();
+    }
+    
+    
+    /**
+     * Reads time stamp from the given data block
+     * @param block
+     * @return time stamp as julian time
+     */
+    public double getTime(AbstractDataBlock block)
+    {
+        blockStructure.setData(block);
+        return timeComponent.getData().getDoubleValue();
+    }
+    
+    
+    /**
+     * Adds the item at the end of the index if its time is greater than
+     * the last indexed time, or invalidates the index otherwise
+     * @param item
+     */
+    public synchronized void append(BlockListItem item)
+    {
+        if (!valid)
+            return;
+        
+        double time = getTime(item.getData());
+        if (count > 0 && time < times[first+count-1])
+        {
+            valid = false;
+            return;
+        }
+        
+        ensureCapacity(count + 1);
+        times[first+count] = time;
+        items[first+count] = item;
+        count++;
+    }
+    
+    
+    /**
+     * Removes the item from the index in constant time if it is
+     * the first indexed item, or invalidates the index otherwise
+     * @param item
+     */
+    public synchronized void remove(BlockListItem item)
+    {
+        if (valid && count > 0 && items[first] == item)
+        {
+            items[first] = null;
+            first++;
+            count--;
+        }
+        else
+            valid = false;
+    }
+    
+    
+    public synchronized void invalidate()
+    {
+        valid = false;
+    }
+    
+    
+    public synchronized void clear()
+    {
+        times = new double[MIN_CAPACITY];
+        items = new BlockListItem[MIN_CAPACITY];
+        first = 0;
+        count = 0;
+        valid = true;
+    }
+    
+    
+    /**
+     * Finds the first indexed block whose time is greater or equal to the given time
+     * @param time
+     * @return position in index, or getCount() if no such block exists
+     */
+    public synchronized int findFirst(double time)
+    {
+        if (!valid)
+            rebuild();
+        
+        int low = 0;
+        int high = count;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (times[first+mid] < time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        
+        return low;
+    }
+    
+    
+    /**
+     * Finds the last indexed block whose time is lower or equal to the given time
+     * @param time
+     * @return position in index, or -1 if no such block exists
+     */
+    public synchronized int findLast(double time)
+    {
+        if (!valid)
+            rebuild();
+        
+        int low = 0;
+        int high = count;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (times[first+mid] <= time)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        
+        return low - 1;
+    }
+    
+    
+    /**
+     * Copies items whose time stamp is within the given time window so
+     * that they can be iterated while the index is modified or rebuilt
+     * @param startTime
+     * @param stopTime
+     * @return array of items in chronological order (may be empty)
+     */
+    public synchronized BlockListItem[] getItems(double startTime, double stopTime)
+    {
+        int firstPos = findFirst(startTime);
+        int lastPos = findLast(stopTime);
+        int itemCount = Math.max(0, lastPos - firstPos + 1);
+        
+        BlockListItem[] windowItems = new BlockListItem[itemCount];
+        System.arraycopy(items, first + firstPos, windowItems, 0, itemCount);
+        return windowItems;
+    }
+    
+    
+    public synchronized BlockListItem getItem(int position)
+    {
+        return items[first+position];
+    }
+    
+    
+    public synchronized double getTime(int position)
+    {
+        return times[first+position];
+    }
+    
+    
+    public synchronized int getCount()
+    {
+        if (!valid)
+            rebuild();
+        
+        return count;
+    }
+    
+    
+    public String getTimePath()
+    {
+        return timePath;
+    }
+    
+    
+    /**
+     * Rebuilds the index from the list content, sorting
+     * it only if blocks are not in chronological order
+     */
+    protected void rebuild()
+    {
+        first = 0;
+        count = 0;
+        times = new double[Math.max(list.getSize(), MIN_CAPACITY)];
+        items = new BlockListItem[times.length];
+        boolean sorted = true;
+        
+        BlockListIterator it = list.getIterator();
+        while (it.hasNext())
+        {
+            BlockListItem item = it.next();
+            double time = getTime(item.getData());
+            
+            if (count > 0 && time < times[count-1])
+                sorted = false;
+            
+            ensureCapacity(count + 1);
+            times[count] = time;
+            items[count] = item;
+            count++;
+        }
+        it.close();
+        
+        if (!sorted)
+            sortEntries();
+        
+        valid = true;
+    }
+    
+    
+    protected void sortEntries()
+    {
+        TimeEntry[] entries = new TimeEntry[count];
+        for (int i = 0; i < count; i++)
+        {
+            entries[i] = new TimeEntry();
+            entries[i].time = times[i];
+            entries[i].item = items[i];
+        }
+        
+        Arrays.sort(entries);
+        
+        for (int i = 0; i < count; i++)
+        {
+            times[i] = entries[i].time;
+            items[i] = entries[i].item;
+        }
+    }
+    
+    
+    protected void ensureCapacity(int minCapacity)
+    {
+        if (first + minCapacity > times.length)
+        {
+            double[] oldTimes = times;
+            BlockListItem[] oldItems = items;
+            
+            // grow only if more than half the arrays is used
+            if (minCapacity > times.length / 2)
+            {
+                int newCapacity = Math.max(minCapacity, times.length * 3 / 2 + 1);
+                times = new double[newCapacity];
+                items = new BlockListItem[newCapacity];
+            }
+            
+            // move entries back to the start of the arrays
+            System.arraycopy(oldTimes, first, times, 0, count);
+            System.arraycopy(oldItems, first, items, 0, count);
+            if (items == oldItems)
+                Arrays.fill(items, count, first + count, null);
+            first = 0;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.data;
+
+import java.util.ArrayList;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * Bounded Block List
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * BlockList used as a ring buffer for real-time feeds. The oldest
+ * blocks are evicted as new ones are appended, when the list holds
+ * more than the maximum number of blocks and/or when they are older
+ * than the maximum age relative to the newest block. Block time is
+ * read from the time component if the list is indexed by time, or is
+ * the time at which the block was added otherwise.
+ * Append and eviction are O(1). Evicted items are kept until they are
+ * polled so that the provider can tell stylers and renderers to release
+ * the corresponding resources. Providers poll them after each update and
+ * streaming handlers after each block. If nobody polls, only the most
+ * recent evicted items are kept so that they do not pile up.
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Feb 24, 2009
+ * @version 1.0
+ */
+public class BoundedBlockList extends BlockList
+{
+    protected final static int MAX_EVICTED_ITEMS = 10000;
+    protected int maxBlockCount;
+    protected double maxBlockAge;
+    protected BlockListItem[] ringItems;
+    protected double[] ringTimes;
+    protected int ringHead;
+    protected int ringCount;
+    protected ArrayList<BlockListItem> evictedItems;
+    
+    
+    /**
+     * Creates a bounded list
+     * @param maxBlockCount maximum number of blocks, or 0 for no limit
+     * @param maxBlockAge maximum block age in seconds, or 0 for no limit
+     */
+    public BoundedBlockList(int maxBlockCount, double maxBlockAge)
+    {
+        super();
+        this.maxBlockCount = maxBlockCount;
+        this.maxBlockAge = maxBlockAge;
+    }
+    
+    
+    @Override
+    public BlockList copy()
+    {
+        BlockList newList = new BoundedBlockList(maxBlockCount, maxBlockAge);
+        newList.blockStructure = this.blockStructure.copy();
+        return newList;
+    }
+    
+    
+    @Override
+    public synchronized void clear()
+    {
+        super.clear();
+        ringItems = new BlockListItem[MIN_CAPACITY];
+        ringTimes = new double[MIN_CAPACITY];
+        ringHead = 0;
+        ringCount = 0;
+        evictedItems = new ArrayList<BlockListItem>();
+    }
+    
+    
+    @Override
+    public synchronized void add(BlockListItem newItem)
+    {
+        super.add(newItem);
+        
+        double time = getBlockTime(newItem);
+        pushRing(newItem, time);
+        evictOldest(time);
+    }
+    
+    
+    /**
+     * Gets items evicted since last call to this method
+     * @return array of evicted items or null if none
+     */
+    public synchronized BlockListItem[] pollEvictedItems()
+    {
+        if (evictedItems.isEmpty())
+            return null;
+        
+        BlockListItem[] items = evictedItems.toArray(new BlockListItem[evictedItems.size()]);
+        evictedItems.clear();
+        return items;
+    }
+    
+    
+    /**
+     * Removes oldest blocks until list is within count and age limits
+     * @param newestTime time of the last block added
+     */
+    protected void evictOldest(double newestTime)
+    {
+        while (ringCount > 0)
+        {
+            BlockListItem oldestItem = ringItems[ringHead];
+            
+            // skip items that were already removed from list
+            if (contains(oldestItem))
+            {
+                boolean tooMany = (maxBlockCount > 0 && size > maxBlockCount);
+                boolean tooOld = (maxBlockAge > 0 && ringTimes[ringHead] < newestTime - maxBlockAge);
+                if (!tooMany && !tooOld)
+                    break;
+                
+                super.remove(oldestItem);
+                addEvictedItem(oldestItem);
+            }
+            
+            ringItems[ringHead] = null;
+            ringHead = (ringHead + 1) % ringItems.length;
+            ringCount--;
+        }
+    }
+    
+    
+    /**
+     * Keeps an evicted item until polled, dropping the oldest
+     * half of pending items when they are never polled
+     * @param item
+     */
+    protected void addEvictedItem(BlockListItem item)
+    {
+        if (evictedItems.size() >= MAX_EVICTED_ITEMS)
+            evictedItems.subList(0, MAX_EVICTED_ITEMS / 2).clear();
+        
+        evictedItems.add(item);
+    }
+    
+    
+    protected void pushRing(BlockListItem item, double time)
+    {
+        // grow ring if full
+        if (ringCount == ringItems.length)
+        {
+            int newCapacity = ringItems.length * 2;
+            BlockListItem[] newItems = new BlockListItem[newCapacity];
+            double[] newTimes = new double[newCapacity];
+            
+            for (int i = 0; i < ringCount; i++)
+            {
+                int index = (ringHead + i) % ringItems.length;
+                newItems[i] = ringItems[index];
+                newTimes[i] = ringTimes[index];
+            }
+            
+            ringItems = newItems;
+            ringTimes = newTimes;
+            ringHead = 0;
+        }
+        
+        int tail = (ringHead + ringCount) % ringItems.length;
+        ringItems[tail] = item;
+        ringTimes[tail] = time;
+        ringCount++;
+    }
+    
+    
+    protected double getBlockTime(BlockListItem item)
+    {
+        if (timeIndex != null)
+        {
+            synchronized (timeIndex)
+            {
+                return timeIndex.getTime(item.getData());
+            }
+        }
+        
+        return System.currentTimeMillis() / 1000.0;
+    }
+
+
+    public int getMaxBlockCount()
+    {
+        return maxBlockCount;
+    }
+
+
+    public double getMaxBlockAge()
+    {
+        return maxBlockAge;
+    }
+}
@@ -0,0 +1,702 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.data;
+
+import org.vast.cdm.common.DataComponent;
+import org.vast.cdm.common.DataType;
+import org.vast.data.AbstractDataBlock;
+import org.vast.data.DataGroup;
+import org.vast.data.DataValue;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * Columnar Block List
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * BlockList storing fixed size records of scalars in one primitive
+ * array per field instead of one data block per record.
+ * Items returned by the iterator are lightweight views: the data block
+ * they return is shared by the iterator and is reloaded with the row
+ * values each time getData() is called, so it should not be kept after
+ * moving to another item. get() returns a new block filled with the row
+ * values so that it can be called from several threads.
+ * Columns are published as immutable column sets the same way BlockList
+ * publishes snapshots: appends write past the published row count,
+ * other modifications copy the columns and start a new generation.
+ * Iterators read the column set taken when they were reset, and items
+ * are identified by generation and row so that items of rows shifted
+ * by a removal or a refill are never mistaken for older ones.
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Feb 5, 2009
+ * @version 1.0
+ */
+public class ColumnarBlockList extends BlockList
+{
+    protected final static int MIN_CAPACITY = 64;
+    protected final static int DOUBLE_COL = 0;
+    protected final static int FLOAT_COL = 1;
+    protected final static int INT_COL = 2;
+    
+    protected int fieldCount;
+    protected int[] columnTypes;
+    protected int[] columnIndex;
+    protected int[] columnCounts;
+    protected volatile ColumnSet columns;
+    protected int columnsHighMark; // highest row count published with current arrays
+    protected volatile int currentRow = -1;
+    
+    
+    /**
+     * Column arrays published by the list. Rows below count are
+     * never moved, rows are only shifted in a new generation.
+     */
+    protected static class ColumnSet
+    {
+        protected final double[][] doubleColumns;
+        protected final float[][] floatColumns;
+        protected final int[][] intColumns;
+        protected final int count;
+        protected final long generation;
+        
+        public ColumnSet(double[][] doubleColumns, float[][] floatColumns, int[][] intColumns, int count, long generation)
+        {
+            this.doubleColumns = doubleColumns;
+            this.floatColumns = floatColumns;
+            this.intColumns = intColumns;
+            this.count = count;
+            this.generation = generation;
+        }
+        
+        public int getCapacity()
+        {
+            if (doubleColumns.length > 0)
+                return doubleColumns[0].length;
+            else if (floatColumns.length > 0)
+                return floatColumns[0].length;
+            else
+                return intColumns[0].length;
+        }
+    }
+    
+    
+    /**
+     * Item pointing to one row of a column set.
+     * Equality is based on list, generation and row so that items created
+     * by successive iterations can be used as hash keys (e.g. for display lists)
+     */
+    protected static class ColumnarItem extends BlockListItem
+    {
+        protected ColumnarBlockList list;
+        protected ColumnSet columns;
+        protected int row;
+        
+        public ColumnarItem(ColumnarBlockList list, ColumnSet columns, int row, AbstractDataBlock view)
+        {
+            super(view, null, null);
+            this.list = list;
+            this.columns = columns;
+            this.row = row;
+        }
+        
+        @Override
+        public AbstractDataBlock getData()
+        {
+            list.loadRow(columns, row, data);
+            return data;
+        }
+        
+        @Override
+        public void setData(AbstractDataBlock data)
+        {
+            list.updateRow(this, data);
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            return 31 * (31 * System.identityHashCode(list) + (int)columns.generation) + row;
+        }
+        
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof ColumnarItem))
+                return false;
+            
+            ColumnarItem item = (ColumnarItem)obj;
+            return (item.list == list && item.columns.generation == columns.generation && item.row == row);
+        }
+    }
+    
+    
+    /**
+     * Iterator with its own view block so that several iterators
+     * can be used on the same list concurrently
+     */
+    protected class ColumnarIterator extends BlockListIterator
+    {
+        protected AbstractDataBlock iteratorView;
+        protected ColumnSet iteratorColumns;
+        protected int nextRow;
+        
+        public ColumnarIterator()
+        {
+            super(ColumnarBlockList.this);
+            this.iteratorView = createView();
+        }
+        
+        @Override
+        public boolean hasNext()
+        {
+            return (iteratorColumns != null && nextRow < iteratorColumns.count);
+        }
+        
+        @Override
+        public BlockListItem next()
+        {
+            currentItem = new ColumnarItem(ColumnarBlockList.this, iteratorColumns, nextRow++, iteratorView);
+            return currentItem;
+        }
+        
+        @Override
+        public void reset()
+        {
+            currentItem = null;
+            iteratorColumns = columns;
+            nextRow = 0;
+        }
+        
+        @Override
+        public void close()
+        {
+            currentItem = null;
+            iteratorColumns = null;
+        }
+        
+        @Override
+        public AbstractDataBlock get(int index)
+        {
+            int row = Math.min(index, iteratorColumns.count-1);
+            if (row < 0)
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: 0");
+            
+            loadRow(iteratorColumns, row, iteratorView);
+            return iteratorView;
+        }
+        
+        @Override
+        public int getCount()
+        {
+            return (iteratorColumns == null) ? 0 : iteratorColumns.count;
+        }
+        
+        @Override
+        public void remove()
+        {
+            if (currentItem != null)
+            {
+                ColumnarBlockList.this.remove(currentItem);
+                currentItem = null;
+            }
+        }
+    }
+    
+    
+    public ColumnarBlockList()
+    {
+        super();
+    }
+    
+    
+    /**
+     * Checks if the given structure can be stored in columns,
+     * that is if it is a record containing only numerical scalars
+     * @param component
+     * @return true if the structure is supported by this list
+     */
+    public static boolean isSupported(DataComponent component)
+    {
+        if (!(component instanceof DataGroup) || component.getComponentCount() == 0)
+            return false;
+        
+        for (int i = 0; i < component.getComponentCount(); i++)
+        {
+            DataComponent child = component.getComponent(i);
+            if (!(child instanceof DataValue))
+                return false;
+            
+            if (getColumnType(((DataValue)child).getDataType()) < 0)
+                return false;
+        }
+        
+        return true;
+    }
+    
+    
+    protected static int getColumnType(DataType dataType)
+    {
+        if (dataType == null)
+            return -1;
+        
+        switch (dataType)
+        {
+            case DOUBLE:
+                return DOUBLE_COL;
+                
+            case FLOAT:
+                return FLOAT_COL;
+                
+            case INT:
+            case SHORT:
+            case BYTE:
+                return INT_COL;
+                
+            default:
+                return -1;
+        }
+    }
+    
+    
+    @Override
+    public synchronized void setBlockStructure(DataComponent blockStructure)
+    {
+        if (!isSupported(blockStructure))
+            throw new IllegalArgumentException("Block structure " + blockStructure.getName() + " cannot be stored in columns");
+        
+        this.blockStructure = blockStructure;
+        this.fieldCount = blockStructure.getComponentCount();
+        this.columnTypes = new int[fieldCount];
+        this.columnIndex = new int[fieldCount];
+        
+        // assign each field to a column of the right type
+        columnCounts = new int[3];
+        for (int i = 0; i < fieldCount; i++)
+        {
+            DataValue child = (DataValue)blockStructure.getComponent(i);
+            int colType = getColumnType(child.getDataType());
+            columnTypes[i] = colType;
+            columnIndex[i] = columnCounts[colType]++;
+        }
+        
+        publishColumns(allocateColumns(MIN_CAPACITY), 0, nextGeneration());
+    }
+    
+    
+    /**
+     * Time and spatial indexing are not supported since items
+     * are only views created on demand and are not kept by the list
+     */
+    @Override
+    public void setTimeComponent(String timePath)
+    {
+    }
+    
+    
+    @Override
+    public BlockListSpatialIndex getSpatialIndex()
+    {
+        return null;
+    }
+    
+    
+    @Override
+    public BlockList copy()
+    {
+        BlockList newList = new ColumnarBlockList();
+        newList.setBlockStructure(this.blockStructure.copy());
+        return newList;
+    }
+    
+    
+    @Override
+    public BlockListIterator getIterator()
+    {
+        return new ColumnarIterator();
+    }
+    
+    
+    /**
+     * Publishes new empty columns so that iterators still
+     * reading the previous ones are not affected
+     */
+    @Override
+    public synchronized void clear()
+    {
+        super.clear();
+        currentRow = -1;
+        
+        if (blockStructure != null)
+            publishColumns(allocateColumns(MIN_CAPACITY), 0, nextGeneration());
+    }
+    
+    
+    @Override
+    public BlockListItem addBlock(AbstractDataBlock dataBlock)
+    {
+        ColumnSet cols;
+        int row;
+        
+        synchronized (this)
+        {
+            row = columns.count;
+            insertRow(row, dataBlock);
+            cols = columns;
+        }
+        
+        return new ColumnarItem(this, cols, row, createView());
+    }
+    
+    
+    @Override
+    public synchronized void add(BlockListItem newItem)
+    {
+        moveOrInsert(newItem, columns.count);
+    }
+    
+    
+    @Override
+    public synchronized void insertBefore(BlockListItem newItem, BlockListItem existingItem)
+    {
+        moveOrInsert(newItem, getRow(existingItem));
+    }
+    
+    
+    @Override
+    public synchronized void insertAfter(BlockListItem newItem, BlockListItem existingItem)
+    {
+        moveOrInsert(newItem, getRow(existingItem) + 1);
+    }
+    
+    
+    @Override
+    public synchronized void remove(BlockListItem item)
+    {
+        if (contains(item))
+            removeRow(((ColumnarItem)item).row);
+    }
+    
+    
+    /**
+     * An item is part of the list only if it was created
+     * from the current generation of columns
+     */
+    @Override
+    public boolean contains(BlockListItem item)
+    {
+        if (!(item instanceof ColumnarItem))
+            return false;
+        
+        ColumnSet cols = columns;
+        ColumnarItem colItem = (ColumnarItem)item;
+        return (colItem.list == this && colItem.columns.generation == cols.generation &&
+                colItem.row >= 0 && colItem.row < cols.count);
+    }
+    
+    
+    @Override
+    public AbstractDataBlock get(int index)
+    {
+        ColumnSet cols = columns;
+        if (cols.count == 0)
+            return null;
+        
+        int row = Math.min(index, cols.count-1);
+        AbstractDataBlock view = createView();
+        loadRow(cols, row, view);
+        currentRow = row;
+        return view;
+    }
+    
+    
+    @Override
+    public BlockListItem getFirstItem()
+    {
+        ColumnSet cols = columns;
+        if (cols.count == 0)
+            return null;
+        
+        return new ColumnarItem(this, cols, 0, createView());
+    }
+    
+    
+    @Override
+    public BlockListItem getLastItem()
+    {
+        ColumnSet cols = columns;
+        if (cols.count == 0)
+            return null;
+        
+        return new ColumnarItem(this, cols, cols.count-1, createView());
+    }
+    
+    
+    @Override
+    public BlockListItem getCurrentItem()
+    {
+        ColumnSet cols = columns;
+        int row = currentRow;
+        if (row < 0 || row >= cols.count)
+            return null;
+        
+        return new ColumnarItem(this, cols, row, createView());
+    }
+    
+    
+    @Override
+    public void checkConsistency()
+    {
+        ColumnSet cols = columns;
+        if (cols.count < 0 || cols.count > cols.getCapacity() || size != cols.count)
+            throw new IllegalStateException();
+    }
+    
+    
+    protected int getRow(BlockListItem item)
+    {
+        if (!contains(item))
+            throw new IllegalArgumentException("Item is not part of this list");
+        
+        return ((ColumnarItem)item).row;
+    }
+    
+    
+    protected AbstractDataBlock createView()
+    {
+        return (AbstractDataBlock)blockStructure.createDataBlock();
+    }
+    
+    
+    /**
+     * Inserts data of the item at the given row, removing it first
+     * if it is already part of this list (same as BlockList behavior)
+     * @param newItem
+     * @param row
+     */
+    protected void moveOrInsert(BlockListItem newItem, int row)
+    {
+        AbstractDataBlock data = newItem.getData();
+        
+        if (contains(newItem))
+        {
+            int oldRow = ((ColumnarItem)newItem).row;
+            removeRow(oldRow);
+            if (oldRow < row)
+                row--;
+        }
+        
+        insertRow(row, data);
+    }
+    
+    
+    /**
+     * Copies values of the given row to the view block
+     * @param cols
+     * @param row
+     * @param view
+     */
+    protected void loadRow(ColumnSet cols, int row, AbstractDataBlock view)
+    {
+        for (int i = 0; i < fieldCount; i++)
+        {
+            int col = columnIndex[i];
+            
+            switch (columnTypes[i])
+            {
+                case DOUBLE_COL:
+                    view.setDoubleValue(i, cols.doubleColumns[col][row]);
+                    break;
+                    
+                case FLOAT_COL:
+                    view.setFloatValue(i, cols.floatColumns[col][row]);
+                    break;
+                    
+                case INT_COL:
+                    view.setIntValue(i, cols.intColumns[col][row]);
+                    break;
+            }
+        }
+    }
+    
+    
+    /**
+     * Copies values of the data block to the given row
+     * @param cols
+     * @param row
+     * @param dataBlock
+     */
+    protected void storeRow(ColumnSet cols, int row, AbstractDataBlock dataBlock)
+    {
+        for (int i = 0; i < fieldCount; i++)
+        {
+            int col = columnIndex[i];
+            
+            switch (columnTypes[i])
+            {
+                case DOUBLE_COL:
+                    cols.doubleColumns[col][row] = dataBlock.getDoubleValue(i);
+                    break;
+                    
+                case FLOAT_COL:
+                    cols.floatColumns[col][row] = dataBlock.getFloatValue(i);
+                    break;
+                    
+                case INT_COL:
+                    cols.intColumns[col][row] = dataBlock.getIntValue(i);
+                    break;
+            }
+        }
+    }
+    
+    
+    /**
+     * Stores new values of an item in place, like modifying
+     * a data block of a regular list. Ignored if the item
+     * is not part of the current generation anymore.
+     * @param item
+     * @param dataBlock
+     */
+    protected synchronized void updateRow(ColumnarItem item, AbstractDataBlock dataBlock)
+    {
+        if (contains(item))
+            storeRow(columns, item.row, dataBlock);
+    }
+    
+    
+    protected void insertRow(int row, AbstractDataBlock dataBlock)
+    {
+        ColumnSet cols = columns;
+        int count = cols.count;
+        
+        // append in place if no published column set can see the slot
+        if (row == count && count == columnsHighMark && count < cols.getCapacity())
+        {
+            storeRow(cols, row, dataBlock);
+            publishColumns(cols, count + 1, cols.generation);
+            return;
+        }
+        
+        // otherwise copy to new columns, shifting following rows
+        int capacity = cols.getCapacity();
+        if (count + 1 > capacity)
+            capacity = capacity * 3 / 2 + 1;
+        ColumnSet newCols = allocateColumns(capacity);
+        copyRows(cols, 0, newCols, 0, row);
+        copyRows(cols, row, newCols, row + 1, count - row);
+        storeRow(newCols, row, dataBlock);
+        
+        // rows keep their index when appending
+        long generation = (row == count) ? cols.generation : nextGeneration();
+        publishColumns(newCols, count + 1, generation);
+    }
+    
+    
+    protected void removeRow(int row)
+    {
+        ColumnSet cols = columns;
+        int count = cols.count;
+        
+        // removing last row just shrinks the published row count but
+        // starts a new generation so that an item created later for the
+        // same row is not mistaken for the removed one
+        if (row == count - 1)
+        {
+            publishColumns(cols, count - 1, nextGeneration());
+            return;
+        }
+        
+        ColumnSet newCols = allocateColumns(cols.getCapacity());
+        copyRows(cols, 0, newCols, 0, row);
+        copyRows(cols, row + 1, newCols, row, count - row - 1);
+        publishColumns(newCols, count - 1, nextGeneration());
+    }
+    
+    
+    protected void copyRows(ColumnSet src, int srcRow, ColumnSet dest, int destRow, int count)
+    {
+        for (int c = 0; c < src.doubleColumns.length; c++)
+            System.arraycopy(src.doubleColumns[c], srcRow, dest.doubleColumns[c], destRow, count);
+        
+        for (int c = 0; c < src.floatColumns.length; c++)
+            System.arraycopy(src.floatColumns[c], srcRow, dest.floatColumns[c], destRow, count);
+        
+        for (int c = 0; c < src.intColumns.length; c++)
+            System.arraycopy(src.intColumns[c], srcRow, dest.intColumns[c], destRow, count);
+    }
+    
+    
+    /**
+     * Allocates new empty columns, to be published with publishColumns()
+     * @param capacity
+     * @return column set with count and generation set to 0
+     */
+    protected ColumnSet allocateColumns(int capacity)
+    {
+        double[][] doubleColumns = new double[columnCounts[DOUBLE_COL]][capacity];
+        float[][] floatColumns = new float[columnCounts[FLOAT_COL]][capacity];
+        int[][] intColumns = new int[columnCounts[INT_COL]][capacity];
+        return new ColumnSet(doubleColumns, floatColumns, intColumns, 0, 0);
+    }
+    
+    
+    protected void publishColumns(ColumnSet cols, int count, long generation)
+    {
+        if (cols.count != count || cols.generation != generation)
+            cols = new ColumnSet(cols.doubleColumns, cols.floatColumns, cols.intColumns, count, generation);
+        
+        if (columns == null || cols.doubleColumns != columns.doubleColumns ||
+            cols.floatColumns != columns.floatColumns || cols.intColumns != columns.intColumns)
+            columnsHighMark = count;
+        else
+            columnsHighMark = Math.max(columnsHighMark, count);
+        
+        columns = cols;
+        size = count;
+    }
+    
+    
+    protected long nextGeneration()
+    {
+        return (columns == null) ? 0 : columns.generation + 1;
+    }
+    
+    
+    /**
+     * @return number of bytes used by the column arrays
+     */
+    public long getMemorySize()
+    {
+        ColumnSet cols = columns;
+        if (cols == null)
+            return 0;
+        
+        return (long)cols.getCapacity() * (8 * cols.doubleColumns.length + 4 * cols.floatColumns.length + 4 * cols.intColumns.length);
+    }
+}
@@ -0,0 +1,158 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.data;
+
+import org.vast.data.AbstractDataBlock;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * Data Block Pool
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Pool of data blocks with the same structure that can be reused
+ * instead of allocating new blocks each time a list is refilled.
+ * Blocks released when a list is cleared are handed back to the
+ * parser for the next refresh, so that a whole generation of blocks
+ * doesn't become garbage at each update. Only blocks with the expected
+ * number of atoms are accepted. Hit and miss counts are kept so that
+ * pool efficiency can be monitored.
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Feb 26, 2009
+ * @version 1.0
+ */
+public class DataBlockPool
+{
+    protected final static int MIN_CAPACITY = 16;
+    protected AbstractDataBlock[] blocks;
+    protected int count;
+    protected int maxSize;
+    protected int atomCount;
+    protected long hitCount;
+    protected long missCount;
+    
+    
+    /**
+     * Creates a pool for blocks of the given size
+     * @param atomCount number of atoms in pooled blocks
+     * @param maxSize maximum number of blocks kept in pool
+     */
+    public DataBlockPool(int atomCount, int maxSize)
+    {
+        this.atomCount = atomCount;
+        this.maxSize = maxSize;
+        this.blocks = new AbstractDataBlock[MIN_CAPACITY];
+    }
+    
+    
+    /**
+     * Computes how many blocks fit in the given memory, counting
+     * 8 bytes per atom (i.e. the size of the largest scalars)
+     * @param atomCount number of atoms in pooled blocks
+     * @param maxMemory memory available to the pool in bytes
+     * @return maximum number of blocks to keep in pool
+     */
+    public static int getMaxSize(int atomCount, long maxMemory)
+    {
+        long blockSize = 8L * Math.max(1, atomCount);
+        return (int)Math.min(Integer.MAX_VALUE, maxMemory / blockSize);
+    }
+    
+    
+    /**
+     * Gets a block from the pool
+     * @return a recycled block or null if pool is empty
+     */
+    public synchronized AbstractDataBlock acquire()
+    {
+        if (count == 0)
+        {
+            missCount++;
+            return null;
+        }
+        
+        hitCount++;
+        AbstractDataBlock block = blocks[--count];
+        blocks[count] = null;
+        return block;
+    }
+    
+    
+    /**
+     * Gives a block back to the pool, if it has the right size
+     * and the pool is not full
+     * @param block
+     */
+    public synchronized void release(AbstractDataBlock block)
+    {
+        if (count >= maxSize || block.getAtomCount() != atomCount)
+            return;
+        
+        if (count == blocks.length)
+        {
+            AbstractDataBlock[] oldBlocks = blocks;
+            blocks = new AbstractDataBlock[Math.min(maxSize, count * 2)];
+            System.arraycopy(oldBlocks, 0, blocks, 0, count);
+        }
+        
+        blocks[count++] = block;
+    }
+    
+    
+    public synchronized void clear()
+    {
+        blocks = new AbstractDataBlock[MIN_CAPACITY];
+        count = 0;
+    }
+    
+    
+    public synchronized int getSize()
+    {
+        return count;
+    }
+    
+    
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+    
+    
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+    
+    
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+}
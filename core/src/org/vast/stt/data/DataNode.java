@@ -25,6 +25,7 @@
 
 package org.vast.stt.data;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
@@ -33,6 +34,8 @@ import org.vast.cdm.common.DataComponent;
 import org.vast.data.DataArray;
 import org.vast.data.DataGroup;
 import org.vast.data.DataValue;
+import org.vast.stt.provider.cache.BlockListBDB;
+import org.vast.sweCommon.SweConstants;
 
 
 /**
@@ -56,6 +59,11 @@ public class DataNode
     protected Hashtable<String, BlockList> listMap;
     protected ArrayList<BlockList> listArray;
     protected boolean nodeStructureReady;
+    protected boolean columnarStorage;
+    protected boolean offHeapStorage;
+    protected File segmentDir;
+    protected int maxBlockCount;
+    protected double maxBlockAge;
         
     
     public DataNode()
@@ -75,8 +83,38 @@ public class DataNode
     
     public BlockList createList(DataComponent component)
     {
-        BlockList newList = new BlockList();
+        // use ring buffer if list size or age is bounded
+        if (isBounded())
+            return createList(component, new BoundedBlockList(maxBlockCount, maxBlockAge));
+        
+        // keep blocks in memory mapped files if enabled
+        if (offHeapStorage)
+            return createList(component, new BlockListBDB(getSegmentDir()));
+        
+        // use columnar storage if enabled and possible for this structure
+        if (columnarStorage && ColumnarBlockList.isSupported(component))
+            return createList(component, new ColumnarBlockList());
+        
+        return createList(component, new BlockList());
+    }
+    
+    
+    /**
+     * Creates a list using the given BlockList implementation
+     * (e.g. a BoundedBlockList with limits specific to this list)
+     * @param component block structure of the new list
+     * @param newList empty list instance to register in this node
+     * @return the new list
+     */
+    public BlockList createList(DataComponent component, BlockList newList)
+    {
         newList.setBlockStructure(component);
+        
+        // index blocks by time if structure has a time stamp
+        String timePath = findTimeComponent(component, null);
+        if (timePath != null)
+            newList.setTimeComponent(timePath);
+        
         listMap.put(component.getName(), newList);
         listArray.add(newList);
         rebuildMappings(component);
@@ -94,7 +132,12 @@ public class DataNode
     public void removeList(String name)
     {
         BlockList list = listMap.remove(name);
-        listArray.remove(list);
+        if (list != null)
+        {
+            // also frees off heap storage of the list
+            list.clear();
+            listArray.remove(list);
+        }
     }
     
     
@@ -111,6 +154,37 @@ public class DataNode
     }
     
     
+    /**
+     * Collects items evicted from bounded lists since last call
+     * @return array of evicted items or null if none
+     */
+    public Object[] pollEvictedItems()
+    {
+        ArrayList<Object> evictedItems = null;
+        
+        for (int i=0; i<listArray.size(); i++)
+        {
+            BlockList list = listArray.get(i);
+            if (list instanceof BoundedBlockList)
+            {
+                BlockListItem[] items = ((BoundedBlockList)list).pollEvictedItems();
+                if (items != null)
+                {
+                    if (evictedItems == null)
+                        evictedItems = new ArrayList<Object>(items.length);
+                    for (int j=0; j<items.length; j++)
+                        evictedItems.add(items[j]);
+                }
+            }
+        }
+        
+        if (evictedItems == null)
+            return null;
+        
+        return evictedItems.toArray();
+    }
+    
+    
     public boolean hasData()
     {
     	for (int i=0; i<listArray.size(); i++)
@@ -129,6 +203,41 @@ public class DataNode
     }
     
     
+    /**
+     * Looks for a scalar time component in the block structure,
+     * descending only in records so that there is one time per block
+     * @param component
+     * @param componentPath
+     * @return path of time component relative to block structure root
+     */
+    protected String findTimeComponent(DataComponent component, String componentPath)
+    {
+        if (component instanceof DataGroup)
+        {
+            for (int i = 0; i < component.getComponentCount(); i++)
+            {
+                DataComponent childComponent = component.getComponent(i);
+                String childPath = childComponent.getName();
+                if (componentPath != null)
+                    childPath = componentPath + '/' + childPath;
+                
+                String timePath = findTimeComponent(childComponent, childPath);
+                if (timePath != null)
+                    return timePath;
+            }
+        }
+        
+        else if (component instanceof DataValue && componentPath != null)
+        {
+            String defUri = (String)component.getProperty(SweConstants.DEF_URI);
+            if (defUri != null && defUri.toLowerCase().contains("time"))
+                return componentPath;
+        }
+        
+        return null;
+    }
+    
+    
     private void findPossibleMappings(DataComponent component, String componentPath)
     {
         // for each array, build an array mapper
@@ -182,4 +291,98 @@ public class DataNode
     {
         this.nodeStructureReady = nodeStructureReady;
     }
+
+
+    public boolean isColumnarStorage()
+    {
+        return columnarStorage;
+    }
+
+
+    /**
+     * Enables storage of new lists in primitive columns when their
+     * structure is a record of numerical scalars (see ColumnarBlockList)
+     * @param columnarStorage
+     */
+    public void setColumnarStorage(boolean columnarStorage)
+    {
+        this.columnarStorage = columnarStorage;
+    }
+    
+    
+    public boolean isOffHeapStorage()
+    {
+        return offHeapStorage;
+    }
+
+
+    /**
+     * Enables storage of new lists in memory mapped segment files
+     * instead of the java heap (see BlockListBDB). Segment files
+     * are deleted when lists are cleared.
+     * @param offHeapStorage
+     */
+    public void setOffHeapStorage(boolean offHeapStorage)
+    {
+        this.offHeapStorage = offHeapStorage;
+    }
+
+
+    public File getSegmentDir()
+    {
+        if (segmentDir == null)
+            return new File(System.getProperty("java.io.tmpdir"));
+        
+        return segmentDir;
+    }
+
+
+    /**
+     * Sets the directory where segment files of off heap lists are created
+     * @param segmentDir directory or null to use the temp directory
+     */
+    public void setSegmentDir(File segmentDir)
+    {
+        this.segmentDir = segmentDir;
+    }
+    
+    
+    public boolean isBounded()
+    {
+        return (maxBlockCount > 0 || maxBlockAge > 0);
+    }
+
+
+    public int getMaxBlockCount()
+    {
+        return maxBlockCount;
+    }
+
+
+    /**
+     * Sets the maximum number of blocks kept in new lists.
+     * Oldest blocks are evicted when this count is reached.
+     * @param maxBlockCount max number of blocks or 0 for no limit
+     */
+    public void setMaxBlockCount(int maxBlockCount)
+    {
+        this.maxBlockCount = maxBlockCount;
+    }
+
+
+    public double getMaxBlockAge()
+    {
+        return maxBlockAge;
+    }
+
+
+    /**
+     * Sets the maximum age of blocks kept in new lists, relative
+     * to the newest block. Older blocks are evicted.
+     * @param maxBlockAge max age in seconds or 0 for no limit
+     */
+    public void setMaxBlockAge(double maxBlockAge)
+    {
+        this.maxBlockAge = maxBlockAge;
+    }
 }
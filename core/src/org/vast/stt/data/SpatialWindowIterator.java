@@ -0,0 +1,128 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.data;
+
+import org.vast.util.SpatialExtent;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * Spatial Window Iterator
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Iterator going only through blocks whose spatial extent may intersect
+ * the given lon/lat window, in list order. Candidate blocks are found using
+ * the list spatial index so that blocks far from the window are never visited.
+ * Candidate items are copied from the index on reset so that the iterator is
+ * not affected by items removed concurrently or by the index being rebuilt.
+ * Access by index goes through all blocks of the list snapshot.
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Feb 16, 2009
+ * @version 1.0
+ */
+public class SpatialWindowIterator extends BlockListIterator
+{
+    protected BlockListSpatialIndex spatialIndex;
+    protected SpatialExtent window;
+    protected BlockListItem[] windowItems;
+    protected int nextPosition;
+    
+    
+    public SpatialWindowIterator(BlockList list, SpatialExtent window)
+    {
+        super(list);
+        this.spatialIndex = list.getSpatialIndex();
+        this.window = window;
+        this.reset();
+    }
+    
+    
+    @Override
+    public boolean hasNext()
+    {
+        return (windowItems != null && nextPosition < windowItems.length);
+    }
+    
+    
+    @Override
+    public BlockListItem next()
+    {
+        currentItem = windowItems[nextPosition++];
+        return currentItem;
+    }
+    
+    
+    @Override
+    public void reset()
+    {
+        currentItem = null;
+        nextPosition = 0;
+        
+        // called by super constructor before index is set
+        if (spatialIndex == null)
+        {
+            windowItems = null;
+            return;
+        }
+        
+        // copy again if list was cleared so that all items are from entered epoch
+        do
+        {
+            snapshot = enterSnapshot();
+            windowItems = spatialIndex.getItems(window);
+        }
+        while (!isCurrentEpoch());
+    }
+    
+    
+    @Override
+    public void close()
+    {
+        super.close();
+        windowItems = null;
+    }
+    
+    
+    @Override
+    public void remove()
+    {
+        if (currentItem != null)
+        {
+            list.remove(currentItem);
+            currentItem = null;
+        }
+    }
+    
+    
+    public SpatialExtent getWindow()
+    {
+        return window;
+    }
+}
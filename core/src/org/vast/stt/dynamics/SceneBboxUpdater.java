@@ -31,6 +31,7 @@ import org.vast.stt.event.STTEvent;
 import org.vast.stt.event.STTEventListener;
 import org.vast.stt.project.world.ViewSettings;
 import org.vast.stt.project.world.WorldScene;
+import org.vast.util.SpatialExtent;
 
 
 /**
@@ -53,6 +54,8 @@ public class SceneBboxUpdater extends SpatialExtentUpdater implements STTEventLi
     private WorldScene scene;
     private int tileSizeX = 0;
     private int tileSizeY = 0;
+    private ViewMotionPredictor motionPredictor = new ViewMotionPredictor();
+    private ViewFrustum viewFrustum;
         
     
     public SceneBboxUpdater(WorldScene scene)
@@ -77,6 +80,8 @@ public class SceneBboxUpdater extends SpatialExtentUpdater implements STTEventLi
         {
             ViewSettings viewSettings = scene.getViewSettings();
             viewSettings.getProjection().fitBboxToView(spatialExtent, scene);
+            motionPredictor.update(spatialExtent, System.currentTimeMillis());
+            viewFrustum = new ViewFrustum(viewSettings, scene.getRenderer().getViewWidth(), scene.getRenderer().getViewHeight());
             
             // compute factor to increase the number of tiles when view is tilted
             Vector3d diff = viewSettings.getCameraPos().copy();
@@ -99,6 +104,33 @@ public class SceneBboxUpdater extends SpatialExtentUpdater implements STTEventLi
     }
     
     
+    /**
+     * Gets the extent the view is expected to cover shortly,
+     * based on current camera motion.
+     * @return predicted extent or null if view is not moving
+     */
+    public SpatialExtent getPredictedExtent()
+    {
+        return motionPredictor.predict(spatialExtent);
+    }
+    
+    
+    public ViewMotionPredictor getMotionPredictor()
+    {
+        return motionPredictor;
+    }
+    
+    
+    /**
+     * Gets camera snapshot taken at the last view change
+     * @return view frustum or null if view was never updated
+     */
+    public ViewFrustum getViewFrustum()
+    {
+        return viewFrustum;
+    }
+    
+    
     public void setScene(WorldScene scene)
     {
         this.scene = scene;        
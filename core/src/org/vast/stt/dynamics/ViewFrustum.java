@@ -0,0 +1,276 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.dynamics;
+
+import org.vast.math.Vector3d;
+import org.vast.stt.project.world.Projection_ECEF;
+import org.vast.stt.project.world.ViewSettings;
+import org.vast.stt.project.world.ViewSettings.CameraMode;
+
+
+/**
+ * <p><b>Title:</b>
+ * View Frustum
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Snapshot of camera position, orientation and field of view taken
+ * when the scene view changes, so that tile selectors can cull bounding
+ * spheres against the view frustum and the earth horizon, and compute
+ * screen resolution, without reading view settings while they change.
+ * All positions are in scene coordinates (ECEF meters in globe views).
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Mar 11, 2009
+ * @version 1.0
+ */
+public class ViewFrustum
+{
+    protected final static double DTR = Math.PI/180.;
+    
+    protected boolean globeView;
+    protected boolean ortho;
+    protected double camX, camY, camZ;
+    protected double[] forward = new double[3];
+    protected double[] right = new double[3];
+    protected double[] up = new double[3];
+    protected double halfWidth, halfHeight; // ortho half sizes in meters
+    protected double tanX, tanY, secX, secY; // perspective half angles
+    protected int viewWidth, viewHeight; // pixels
+    
+    
+    public ViewFrustum(ViewSettings view, int viewWidth, int viewHeight)
+    {
+        Vector3d cameraPos = view.getCameraPos();
+        Vector3d targetPos = view.getTargetPos();
+        Vector3d upDir = view.getUpDirection();
+        
+        init(new double[] {cameraPos.x, cameraPos.y, cameraPos.z},
+             new double[] {targetPos.x, targetPos.y, targetPos.z},
+             new double[] {upDir.x, upDir.y, upDir.z},
+             view.getCameraFov(), view.getOrthoWidth(),
+             view.getCameraMode() != CameraMode.PERPECTIVE,
+             view.getProjection() instanceof Projection_ECEF,
+             viewWidth, viewHeight);
+    }
+    
+    
+    /**
+     * Creates a snapshot from raw camera parameters (i.e. for benchmarks)
+     * @param cameraPos camera position in scene coordinates
+     * @param targetPos target position in scene coordinates
+     * @param upDir camera up direction
+     * @param cameraFov vertical field of view in degrees
+     * @param orthoWidth width of view in meters, used in ortho mode
+     * @param ortho true for an orthographic camera
+     * @param globeView true if scene coordinates are ECEF
+     * @param viewWidth view width in pixels
+     * @param viewHeight view height in pixels
+     */
+    public ViewFrustum(double[] cameraPos, double[] targetPos, double[] upDir, double cameraFov, double orthoWidth,
+                       boolean ortho, boolean globeView, int viewWidth, int viewHeight)
+    {
+        init(cameraPos, targetPos, upDir, cameraFov, orthoWidth, ortho, globeView, viewWidth, viewHeight);
+    }
+    
+    
+    protected void init(double[] cameraPos, double[] targetPos, double[] upDir, double cameraFov, double orthoWidth,
+                        boolean ortho, boolean globeView, int viewWidth, int viewHeight)
+    {
+        this.globeView = globeView;
+        this.ortho = ortho;
+        this.viewWidth = Math.max(viewWidth, 1);
+        this.viewHeight = Math.max(viewHeight, 1);
+        
+        camX = cameraPos[0];
+        camY = cameraPos[1];
+        camZ = cameraPos[2];
+        
+        // camera frame
+        forward[0] = targetPos[0] - camX;
+        forward[1] = targetPos[1] - camY;
+        forward[2] = targetPos[2] - camZ;
+        normalize(forward);
+        cross(forward, upDir, right);
+        normalize(right);
+        cross(right, forward, up);
+        
+        double aspectRatio = (double)this.viewWidth / (double)this.viewHeight;
+        halfWidth = orthoWidth / 2;
+        halfHeight = halfWidth / aspectRatio;
+        
+        // camera fov is the vertical field of view in degrees
+        tanY = Math.tan(cameraFov / 2 * DTR);
+        tanX = tanY * aspectRatio;
+        secX = Math.sqrt(1 + tanX*tanX);
+        secY = Math.sqrt(1 + tanY*tanY);
+        
+        // fall back to ortho if no valid fov is set
+        if (tanY <= 0)
+            this.ortho = true;
+    }
+    
+    
+    /**
+     * Checks if the sphere is at least partly inside the view frustum
+     * @param center
+     * @param radius
+     * @return true if sphere may be visible
+     */
+    public boolean intersectsSphere(double[] center, double radius)
+    {
+        double dx = center[0] - camX;
+        double dy = center[1] - camY;
+        double dz = center[2] - camZ;
+        double x = dx*right[0] + dy*right[1] + dz*right[2];
+        double y = dx*up[0] + dy*up[1] + dz*up[2];
+        
+        if (ortho)
+            return (Math.abs(x) <= halfWidth + radius && Math.abs(y) <= halfHeight + radius);
+        
+        double z = dx*forward[0] + dy*forward[1] + dz*forward[2];
+        if (z < -radius)
+            return false;
+        
+        return (Math.abs(x) <= z*tanX + radius*secX && Math.abs(y) <= z*tanY + radius*secY);
+    }
+    
+    
+    /**
+     * Checks if the sphere is entirely hidden behind the earth.
+     * In ortho mode, the visible side is the hemisphere facing the camera.
+     * Otherwise, it is the part of the earth in front of the horizon plane
+     * seen from the camera position.
+     * @param center
+     * @param radius
+     * @param earthRadius
+     * @return true if sphere is beyond the horizon
+     */
+    public boolean isBeyondHorizon(double[] center, double radius, double earthRadius)
+    {
+        if (ortho)
+        {
+            double d = center[0]*forward[0] + center[1]*forward[1] + center[2]*forward[2];
+            return (d > radius);
+        }
+        
+        double camDist = Math.sqrt(camX*camX + camY*camY + camZ*camZ);
+        if (camDist <= earthRadius)
+            return false;
+        
+        double planeDist = earthRadius * earthRadius / camDist;
+        double centerDist = (center[0]*camX + center[1]*camY + center[2]*camZ) / camDist;
+        return (centerDist + radius < planeDist);
+    }
+    
+    
+    /**
+     * Computes the screen resolution at the nearest point of the sphere
+     * @param center
+     * @param radius
+     * @return number of pixels per meter
+     */
+    public double getPixelsPerMeter(double[] center, double radius)
+    {
+        if (ortho)
+            return viewWidth / (2 * halfWidth);
+        
+        double dx = center[0] - camX;
+        double dy = center[1] - camY;
+        double dz = center[2] - camZ;
+        double dist = Math.max(Math.sqrt(dx*dx + dy*dy + dz*dz) - radius, 1.0);
+        return viewHeight / (2 * dist * tanY);
+    }
+    
+    
+    /**
+     * Computes cosine of the angle between the earth normal
+     * at the given surface point and the direction to the camera
+     * @param point
+     * @return cosine, negative if surface faces away from camera
+     */
+    public double getCosIncidence(double[] point)
+    {
+        double norm = Math.sqrt(point[0]*point[0] + point[1]*point[1] + point[2]*point[2]);
+        if (norm == 0)
+            return 1.0;
+        
+        double vx, vy, vz;
+        if (ortho)
+        {
+            vx = -forward[0];
+            vy = -forward[1];
+            vz = -forward[2];
+        }
+        else
+        {
+            double[] v = new double[] {camX - point[0], camY - point[1], camZ - point[2]};
+            normalize(v);
+            vx = v[0];
+            vy = v[1];
+            vz = v[2];
+        }
+        
+        return (point[0]*vx + point[1]*vy + point[2]*vz) / norm;
+    }
+    
+    
+    protected void normalize(double[] v)
+    {
+        double norm = Math.sqrt(v[0]*v[0] + v[1]*v[1] + v[2]*v[2]);
+        if (norm > 0)
+        {
+            v[0] /= norm;
+            v[1] /= norm;
+            v[2] /= norm;
+        }
+    }
+    
+    
+    protected void cross(double[] a, double[] b, double[] res)
+    {
+        res[0] = a[1]*b[2] - a[2]*b[1];
+        res[1] = a[2]*b[0] - a[0]*b[2];
+        res[2] = a[0]*b[1] - a[1]*b[0];
+    }
+    
+    
+    /**
+     * @return true if view uses the ECEF globe projection
+     */
+    public boolean isGlobeView()
+    {
+        return globeView;
+    }
+    
+    
+    public boolean isOrtho()
+    {
+        return ortho;
+    }
+}
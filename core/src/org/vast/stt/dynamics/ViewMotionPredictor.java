@@ -0,0 +1,163 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.dynamics;
+
+import org.vast.util.SpatialExtent;
+
+
+/**
+ * <p><b>Title:</b>
+ * View Motion Predictor
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Tracks successive lon/lat view extents (in degrees) to estimate
+ * pan velocity and zoom rate, and extrapolates the extent the view
+ * will cover a short time ahead. Used to prefetch tiles while the
+ * camera is moving.
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Mar 6, 2009
+ * @version 1.0
+ */
+public class ViewMotionPredictor
+{
+    protected final static double SMOOTHING = 0.5;
+    protected final static double MIN_ZOOM_FACTOR = 0.5;
+    protected final static long MAX_IDLE_TIME = 500; // ms
+    
+    protected double lookAhead = 0.5; // s
+    protected boolean hasPreviousView;
+    protected long lastTime;
+    protected double lastCenterX, lastCenterY, lastSize;
+    protected double velocityX, velocityY; // deg/s
+    protected double zoomRate; // log of size ratio per second, < 0 when zooming in
+    
+    
+    /**
+     * Updates motion estimate with the new view extent
+     * @param bbox current view extent
+     * @param time time of view change in ms
+     */
+    public synchronized void update(SpatialExtent bbox, long time)
+    {
+        double centerX = (bbox.getMinX() + bbox.getMaxX()) / 2;
+        double centerY = (bbox.getMinY() + bbox.getMaxY()) / 2;
+        double size = Math.sqrt(Math.abs(bbox.getSizeX() * bbox.getSizeY()));
+        
+        if (hasPreviousView)
+        {
+            long dt = time - lastTime;
+            
+            // restart estimation if view was idle
+            if (dt > MAX_IDLE_TIME)
+            {
+                velocityX = 0;
+                velocityY = 0;
+                zoomRate = 0;
+            }
+            
+            // smooth instant velocities
+            else if (dt > 0 && size > 0 && lastSize > 0)
+            {
+                double dts = dt / 1000.;
+                velocityX = SMOOTHING * (centerX - lastCenterX) / dts + (1 - SMOOTHING) * velocityX;
+                velocityY = SMOOTHING * (centerY - lastCenterY) / dts + (1 - SMOOTHING) * velocityY;
+                zoomRate = SMOOTHING * Math.log(size / lastSize) / dts + (1 - SMOOTHING) * zoomRate;
+            }
+        }
+        
+        lastCenterX = centerX;
+        lastCenterY = centerY;
+        lastSize = size;
+        lastTime = time;
+        hasPreviousView = true;
+    }
+    
+    
+    /**
+     * Extrapolates the view extent after the look ahead time.
+     * When zooming in, the predicted extent is at least twice smaller
+     * so that tiles of the next finer level are selected.
+     * @param bbox current view extent
+     * @return predicted extent or null if view is not moving
+     */
+    public synchronized SpatialExtent predict(SpatialExtent bbox)
+    {
+        if (!isMoving())
+            return null;
+        
+        double scale = Math.exp(zoomRate * lookAhead);
+        if (zoomRate < 0)
+            scale = Math.min(scale, MIN_ZOOM_FACTOR);
+        
+        double centerX = (bbox.getMinX() + bbox.getMaxX()) / 2 + velocityX * lookAhead;
+        double centerY = (bbox.getMinY() + bbox.getMaxY()) / 2 + velocityY * lookAhead;
+        double halfX = bbox.getSizeX() / 2 * scale;
+        double halfY = bbox.getSizeY() / 2 * scale;
+        
+        SpatialExtent predicted = new SpatialExtent();
+        predicted.setMinX(centerX - halfX);
+        predicted.setMaxX(centerX + halfX);
+        predicted.setMinY(Math.max(centerY - halfY, -90.0));
+        predicted.setMaxY(Math.min(centerY + halfY, 90.0));
+        return predicted;
+    }
+    
+    
+    /**
+     * @return true if view changed recently with a significant pan or zoom
+     */
+    public synchronized boolean isMoving()
+    {
+        if (!hasPreviousView || System.currentTimeMillis() - lastTime > MAX_IDLE_TIME)
+            return false;
+        
+        // moving if view will shift or scale by more than 5% during look ahead
+        double shift = Math.sqrt(velocityX*velocityX + velocityY*velocityY) * lookAhead;
+        return (shift > 0.05 * lastSize || Math.abs(zoomRate * lookAhead) > 0.05);
+    }
+    
+    
+    public synchronized boolean isZoomingIn()
+    {
+        return zoomRate < 0;
+    }
+
+
+    public synchronized double getLookAhead()
+    {
+        return lookAhead;
+    }
+
+
+    public synchronized void setLookAhead(double lookAhead)
+    {
+        this.lookAhead = lookAhead;
+    }
+}
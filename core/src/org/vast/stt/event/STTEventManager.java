@@ -25,16 +25,46 @@
 
 package org.vast.stt.event;
 
+import java.util.HashMap;
 import java.util.List;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 
+/**
+ * <p><b>Title:</b>
+ * STT Event Manager
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Asynchronous event dispatcher. All events are queued and
+ * dispatched by a single thread, so that listeners (which are not
+ * thread safe) are never called concurrently and receive data
+ * and control events in the order they were sent. Pending events
+ * are indexed by (producer, source, type) so merging is O(1).
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Jul 8, 2006
+ * @version 1.0
+ */
 public class STTEventManager implements Runnable
 {
+    protected final static int STATS_PERIOD = 10000;
+    protected static Log log = LogFactory.getLog(STTEventManager.class);
     private static STTEventManager eventManager;
     private Thread dispatchThread;
-    private boolean started;
+    private volatile boolean started;
     private DispatchJob firstJob;
     private DispatchJob lastJob;
+    private HashMap<EventKey, DispatchJob> pendingJobs = new HashMap<EventKey, DispatchJob>();
+    private int queueDepth;
+    private int maxQueueDepth;
+    private long dispatchCount;
+    private long mergeCount;
+    private long totalLatency;
+    private long maxLatency;
 
     
     private class DispatchJob
@@ -42,6 +72,48 @@ public class STTEventManager implements Runnable
         public STTEvent event;
         public List<STTEventListener> listeners;
         public DispatchJob nextJob;
+        public long queueTime;
+    }
+    
+    
+    /**
+     * Key identifying events that can be merged together,
+     * consistent with STTEvent.equals(STTEvent)
+     */
+    private static class EventKey
+    {
+        public STTEventProducer producer;
+        public Object source;
+        public EventType type;
+        
+        
+        public EventKey(STTEvent event)
+        {
+            this.producer = event.producer;
+            this.source = event.source;
+            this.type = event.type;
+        }
+        
+        
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof EventKey))
+                return false;
+            
+            EventKey key = (EventKey)obj;
+            return (key.producer == producer && key.source == source && key.type == type);
+        }
+        
+        
+        @Override
+        public int hashCode()
+        {
+            int hash = System.identityHashCode(producer);
+            hash = hash*31 + System.identityHashCode(source);
+            hash = hash*31 + type.ordinal();
+            return hash;
+        }
     }
     
     
@@ -75,7 +147,15 @@ public class STTEventManager implements Runnable
                         wait();
                     currentJob = firstJob;
                     firstJob = firstJob.nextJob;
+                    if (firstJob == null)
+                        lastJob = null;
                     currentJob.nextJob = null;
+                    queueDepth--;
+                    
+                    // remove from index only if no newer job has the same key
+                    EventKey key = new EventKey(currentJob.event);
+                    if (pendingJobs.get(key) == currentJob)
+                        pendingJobs.remove(key);
                 }
                 
                 for (int i=0; i<currentJob.listeners.size(); i++)
@@ -84,6 +164,8 @@ public class STTEventManager implements Runnable
                     if (next != currentJob.event.source)
                         next.handleEvent(currentJob.event);
                 }
+                
+                updateStatistics(currentJob);
             }
         }
         catch (InterruptedException e)
@@ -97,6 +179,7 @@ public class STTEventManager implements Runnable
         DispatchJob newJob = new DispatchJob();
         newJob.event = event;
         newJob.listeners = listeners;
+        newJob.queueTime = System.nanoTime();
         
         if (firstJob == null)
         {
@@ -109,34 +192,89 @@ public class STTEventManager implements Runnable
             lastJob = newJob;
         }
         
+        pendingJobs.put(new EventKey(event), newJob);
+        queueDepth++;
+        if (queueDepth > maxQueueDepth)
+            maxQueueDepth = queueDepth;
+        
         notify();
     }
     
     
     public synchronized void mergeEvent(STTEvent event, List<STTEventListener> listeners)
     {
-    	boolean found = false;
-    	
-    	// look for similar event
-    	DispatchJob nextJob = firstJob;
-    	while (nextJob != null)
-    	{
-    		STTEvent e = nextJob.event;
-    		if (e.equals(event))
-    		{
-    			found = true;
-    			break;
-    		}
-    		nextJob = nextJob.nextJob;
-    	}
-    	
-    	// dispatch only if queue doesn't have an event of this kind
-    	if (!found)
-    		this.dispatchEvent(event, listeners);
-    }
-    
-    
-    public void start()
+        // dispatch only if queue doesn't have an event of this kind
+        if (pendingJobs.containsKey(new EventKey(event)))
+            mergeCount++;
+        else
+            dispatchEvent(event, listeners);
+    }
+    
+    
+    protected synchronized void updateStatistics(DispatchJob job)
+    {
+        long latency = System.nanoTime() - job.queueTime;
+        totalLatency += latency;
+        if (latency > maxLatency)
+            maxLatency = latency;
+        dispatchCount++;
+        
+        if (log.isDebugEnabled() && dispatchCount % STATS_PERIOD == 0)
+        {
+            log.debug(dispatchCount + " events dispatched, " +
+                      mergeCount + " merged, queue depth " + queueDepth +
+                      " (max " + maxQueueDepth + "), latency avg " +
+                      (totalLatency / dispatchCount / 1000) + "us (max " +
+                      (maxLatency / 1000) + "us)");
+        }
+    }
+    
+    
+    public synchronized int getQueueDepth()
+    {
+        return queueDepth;
+    }
+    
+    
+    public synchronized int getMaxQueueDepth()
+    {
+        return maxQueueDepth;
+    }
+    
+    
+    public synchronized long getDispatchCount()
+    {
+        return dispatchCount;
+    }
+    
+    
+    public synchronized long getMergeCount()
+    {
+        return mergeCount;
+    }
+    
+    
+    /**
+     * @return average time between queuing and end of dispatch, in nanoseconds
+     */
+    public synchronized long getAverageLatency()
+    {
+        if (dispatchCount == 0)
+            return 0;
+        return totalLatency / dispatchCount;
+    }
+    
+    
+    /**
+     * @return maximum time between queuing and end of dispatch, in nanoseconds
+     */
+    public synchronized long getMaxLatency()
+    {
+        return maxLatency;
+    }
+    
+    
+    public synchronized void start()
     {
         if (!started)
         {
@@ -147,8 +285,10 @@ public class STTEventManager implements Runnable
     }
     
     
-    public void stop()
+    public synchronized void stop()
     {
         started = false;
+        if (dispatchThread != null)
+            dispatchThread.interrupt();
     }
 }
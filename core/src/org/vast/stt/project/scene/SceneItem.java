@@ -32,6 +32,7 @@ import org.vast.ows.sld.Symbolizer;
 import org.vast.stt.event.EventType;
 import org.vast.stt.event.STTEvent;
 import org.vast.stt.event.STTEventListener;
+import org.vast.stt.project.tree.DataEntry;
 import org.vast.stt.project.tree.DataItem;
 import org.vast.stt.project.world.Projection;
 import org.vast.stt.provider.STTSpatialExtent;
@@ -62,6 +63,8 @@ public class SceneItem implements STTEventListener
     protected List<SceneItem> maskItems;
     protected Hashtable<Symbolizer, DataStyler> stylerTable;
     protected boolean visible;
+    protected double timeWindowStart = Double.NaN;
+    protected double timeWindowStop = Double.NaN;
 
 
     public SceneItem(Scene scene)
@@ -184,6 +187,44 @@ public class SceneItem implements STTEventListener
     }
     
     
+    /**
+     * Checks if the data item asked for its data to be rendered
+     * only within the scene time window
+     * @return true if time window is enabled
+     */
+    public boolean isTimeWindowEnabled()
+    {
+        return (dataItem.getOptions().get(DataEntry.TIME_WINDOW) != null);
+    }
+    
+    
+    /**
+     * Changes time window of all stylers (and masks) and clears
+     * cached rendering data since visible blocks will change
+     * @param startTime
+     * @param stopTime
+     */
+    public void setTimeWindow(double startTime, double stopTime)
+    {
+        // nothing to clear if window did not move
+        if (startTime == timeWindowStart && stopTime == timeWindowStop)
+            return;
+        
+        timeWindowStart = startTime;
+        timeWindowStop = stopTime;
+        
+        for (int i = 0; i < stylers.size(); i++)
+        {
+            DataStyler styler = stylers.get(i);
+            parentScene.getRenderer().cleanupAsync(styler, null, CleanupSection.ALL);
+            styler.setTimeWindow(startTime, stopTime);
+        }
+        
+        for (int i = 0; i < maskItems.size(); i++)
+            maskItems.get(i).setTimeWindow(startTime, stopTime);
+    }
+    
+    
     /**
      * Clears all rendering cache related to this item
      */
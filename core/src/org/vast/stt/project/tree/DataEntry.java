@@ -42,6 +42,7 @@ package org.vast.stt.project.tree;
 public interface DataEntry
 {
     public final static String MASK = "mask";
+    public final static String TIME_WINDOW = "timeWindow";
     
     
     public String getName();
@@ -252,6 +252,11 @@ public class DataTreeReader extends XMLReader
         else
             dataItem.setEnabled(false);
         
+        // only render data within scene time window ?
+        String timeWindow = dom.getAttributeValue(dataItemElt, "timeWindow");
+        if ((timeWindow != null) && (timeWindow.equalsIgnoreCase("true")))
+            dataItem.getOptions().put(DataEntry.TIME_WINDOW, true);
+        
 		return dataItem;
 	}
     
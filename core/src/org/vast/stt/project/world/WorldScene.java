@@ -27,6 +27,8 @@ package org.vast.stt.project.world;
 
 import org.vast.stt.event.STTEvent;
 import org.vast.stt.project.scene.Scene;
+import org.vast.stt.project.scene.SceneItem;
+import org.vast.stt.project.tree.DataEntry;
 import org.vast.stt.provider.STTTimeExtent;
 import org.vast.stt.style.DataStyler;
 
@@ -63,6 +65,33 @@ public class WorldScene extends Scene
     protected void prepareStyler(DataStyler styler)
     {
         styler.setProjection(viewSettings.getProjection());
+        
+        // time window is only used by items that ask for it
+        if (timeExtent != null && styler.getDataItem().getOptions().get(DataEntry.TIME_WINDOW) != null)
+            styler.setTimeWindow(timeExtent.getAdjustedLagTime(), timeExtent.getAdjustedLeadTime());
+    }
+    
+    
+    /**
+     * Restricts rendering of items that enabled the time window
+     * to the current scene time window. Other items are not affected
+     * so that static layers or data with their own time extent
+     * are still fully rendered.
+     */
+    protected void updateTimeWindow()
+    {
+        if (timeExtent == null)
+            return;
+        
+        double startTime = timeExtent.getAdjustedLagTime();
+        double stopTime = timeExtent.getAdjustedLeadTime();
+        
+        for (int i = 0; i < sceneItems.size(); i++)
+        {
+            SceneItem item = sceneItems.get(i);
+            if (item.isTimeWindowEnabled())
+                item.setTimeWindow(startTime, stopTime);
+        }
     }
 
 
@@ -145,6 +174,7 @@ public class WorldScene extends Scene
                 break;
                 
             case TIME_EXTENT_CHANGED:
+                updateTimeWindow();
                 dispatchEvent(event.copy(), false);
                 break;
         }
@@ -25,12 +25,14 @@
 
 package org.vast.stt.provider;
 
+import java.util.concurrent.Future;
 import org.vast.stt.data.DataException;
 import org.vast.stt.data.DataNode;
 import org.vast.stt.event.EventType;
 import org.vast.stt.event.STTEvent;
 import org.vast.stt.event.STTEventListener;
 import org.vast.stt.event.STTEventListeners;
+import org.vast.stt.project.tree.DataItem;
 import org.vast.util.ExceptionSystem;
 
 
@@ -49,7 +51,7 @@ import org.vast.util.ExceptionSystem;
  * @date Nov 9, 2005
  * @version 1.0
  */
-public abstract class AbstractProvider implements DataProvider
+public abstract class AbstractProvider implements DataProvider, HttpClientManager.Cancelable
 {
     protected static final String initError = "Error while initializing data provider ";
     protected static final String updateError = "Error while updating data provider ";
@@ -57,7 +59,7 @@ public abstract class AbstractProvider implements DataProvider
     protected String name;
     protected String description;
     protected boolean enabled = false;
-	protected boolean canceled = false;
+	protected volatile boolean canceled = false;
     protected boolean error = false;
     protected boolean redoUpdate = true;
     protected boolean updating = false;
@@ -68,6 +70,12 @@ public abstract class AbstractProvider implements DataProvider
 	protected STTSpatialExtent maxSpatialExtent;
     protected STTEventListeners listeners;
     protected Object lock = new Object();
+    protected Future<?> updateFuture;
+    protected boolean updateRunning;
+    protected int updateCount;
+    protected long lastQueueDelay;
+    protected long lastUpdateTime;
+    protected long totalUpdateTime;
     
     
     public abstract void init() throws DataException;
@@ -111,40 +119,49 @@ public abstract class AbstractProvider implements DataProvider
         
         Runnable updateRunnable = new Runnable()
         {
+            private boolean firstPass = true;
+            
             public void run()
             {
                 try
                 {
-                    dispatchEvent(new STTEvent(this, EventType.PROVIDER_UPDATE_START), false);
+                    if (firstPass)
+                    {
+                        firstPass = false;
+                        dispatchEvent(new STTEvent(this, EventType.PROVIDER_UPDATE_START), false);
+                    }
                     
-                    do
+                    try
                     {
-                        try
-                        {                             
+                        synchronized(lock)
+                        {
+                            // clear interrupt left by the cancel of a previous pass
+                            Thread.interrupted();
                             canceled = false;
-                            
-                            synchronized(lock)
-                            {
-                                if (!canceled)
-                                    redoUpdate = false;
-                                else
-                                    break;
-                            }
-                            
-                            // init provider
-                            if (!dataNode.isNodeStructureReady())
-                                init();
-                            
-                            updateData();                
+                            redoUpdate = false;
+                            updateRunning = true;
                         }
-                        catch (DataException e)
+                        
+                        // init provider
+                        if (!dataNode.isNodeStructureReady())
+                            init();
+                        
+                        updateData();
+                        dispatchEvictedItems();
+                    }
+                    catch (DataException e)
+                    {
+                        if (!canceled)
                         {
                             error = true;
                             redoUpdate = false;
                             ExceptionSystem.display(e);
                             dispatchEvent(new STTEvent(e, EventType.PROVIDER_ERROR), false);
                         }
-                        catch (Exception e)
+                    }
+                    catch (Exception e)
+                    {
+                        if (!canceled)
                         {
                             error = true;
                             redoUpdate = false;
@@ -152,9 +169,22 @@ public abstract class AbstractProvider implements DataProvider
                             dispatchEvent(new STTEvent(e, EventType.PROVIDER_ERROR), false);
                         }
                     }
-                    while (redoUpdate);
                     
-                    updating = false;
+                    synchronized(lock)
+                    {
+                        updateRunning = false;
+                        
+                        // restart in a new task if update was forced during this
+                        // pass, since the future of this one may have been canceled
+                        if (redoUpdate && !error)
+                        {
+                            updateFuture = ProviderUpdateExecutor.getInstance().submit(AbstractProvider.this, this, getUpdatePriority());
+                            return;
+                        }
+                        
+                        updating = false;
+                        updateFuture = null;
+                    }
                     
                     // send event
                     if (canceled)
@@ -168,15 +198,161 @@ public abstract class AbstractProvider implements DataProvider
             }
         };
         
-        Thread updateThread = new Thread(updateRunnable, "Updating: " + getName());
-        updateThread.setPriority(Thread.NORM_PRIORITY);
-        updateThread.start();
+        synchronized(lock)
+        {
+            updateFuture = ProviderUpdateExecutor.getInstance().submit(this, updateRunnable, getUpdatePriority());
+        }
+    }
+    
+    
+    /**
+     * Tells listeners to release resources of blocks evicted
+     * from bounded lists of the data node since last call
+     */
+    protected void dispatchEvictedItems()
+    {
+        Object[] evictedItems = dataNode.pollEvictedItems();
+        if (evictedItems != null)
+            dispatchEvent(new STTEvent(evictedItems, EventType.PROVIDER_DATA_REMOVED), false);
     }
     
     
+    /**
+     * Requests the current update to stop. updateData must check the
+     * canceled flag, and the thread running the update is interrupted
+     * so that waits for a host slot or a retry exit at once. Socket reads
+     * don't react to interrupts, so subclasses reading a stream override
+     * this method to also close it.
+     */
     public void cancelUpdate()
     {
         canceled = true;
+        interruptUpdate();
+    }
+    
+    
+    /**
+     * Interrupts the running update by canceling its future.
+     * Queued updates are not canceled since they must still run
+     * to reset the updating flag and send the done event.
+     */
+    protected void interruptUpdate()
+    {
+        if (!isInterruptible())
+            return;
+        
+        synchronized(lock)
+        {
+            if (updateFuture != null && updateRunning)
+                updateFuture.cancel(true);
+        }
+    }
+    
+    
+    /**
+     * Tells if the update thread can be interrupted. This is not the
+     * case if updates do I/O on file channels (e.g. off-heap lists or
+     * the cache database) since an interrupt would close the channel.
+     * @return true if cancelUpdate can interrupt the update thread
+     */
+    protected boolean isInterruptible()
+    {
+        return !dataNode.isOffHeapStorage();
+    }
+    
+    
+    public boolean isCanceled()
+    {
+        return canceled;
+    }
+    
+    
+    /**
+     * Tells if updates are unbounded streams (i.e. alerts) that keep
+     * running until canceled and so must not hold a shared update thread
+     * @return true if updates must run on a dedicated thread
+     */
+    public boolean isStreaming()
+    {
+        return false;
+    }
+    
+    
+    /**
+     * Computes priority of the next update from the state of the
+     * data items connected to this provider
+     * @return one of ProviderUpdateExecutor.PRIORITY_XXX
+     */
+    protected int getUpdatePriority()
+    {
+        int priority = ProviderUpdateExecutor.PRIORITY_BACKGROUND;
+        
+        for (int i=0; i<listeners.size(); i++)
+        {
+            if (listeners.get(i) instanceof DataItem)
+            {
+                DataItem item = (DataItem)listeners.get(i);
+                if (!item.isEnabled())
+                    continue;
+                
+                // scene items only listen to data items when visible
+                if (item.hasListeners())
+                    return ProviderUpdateExecutor.PRIORITY_VISIBLE;
+                
+                priority = ProviderUpdateExecutor.PRIORITY_ENABLED;
+            }
+        }
+        
+        return priority;
+    }
+    
+    
+    /**
+     * Called by the update executor after each update
+     * @param queueDelay time spent waiting in the queue, in nanoseconds
+     * @param updateTime time spent running the update, in nanoseconds
+     */
+    protected synchronized void updateStatistics(long queueDelay, long updateTime)
+    {
+        updateCount++;
+        lastQueueDelay = queueDelay;
+        lastUpdateTime = updateTime;
+        totalUpdateTime += updateTime;
+    }
+    
+    
+    public synchronized int getUpdateCount()
+    {
+        return updateCount;
+    }
+    
+    
+    /**
+     * @return time the last update waited for a thread, in nanoseconds
+     */
+    public synchronized long getLastQueueDelay()
+    {
+        return lastQueueDelay;
+    }
+    
+    
+    /**
+     * @return duration of the last update, in nanoseconds
+     */
+    public synchronized long getLastUpdateTime()
+    {
+        return lastUpdateTime;
+    }
+    
+    
+    /**
+     * @return average duration of updates, in nanoseconds
+     */
+    public synchronized long getAverageUpdateTime()
+    {
+        if (updateCount == 0)
+            return 0;
+        return totalUpdateTime / updateCount;
     }
 	
 	
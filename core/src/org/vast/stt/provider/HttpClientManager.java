@@ -0,0 +1,639 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.provider;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * HTTP Client Manager
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Shared HTTP client used by providers to fetch tiles and OWS responses.
+ * It limits the number of requests in flight to each host, applies
+ * connect and read timeouts, and retries transient failures (I/O errors
+ * including timeouts, HTTP 408, 429 and 5xx) with jittered exponential backoff.
+ * Streaming requests (i.e. alert streams) have no read timeout since
+ * the server can stay silent for a long time between messages, and
+ * they give back their host slot as soon as response headers arrive
+ * so that a long lived stream never blocks other requests.
+ * Waits for a host slot are bounded and give up if the caller is canceled.
+ * Connections are reused through the JDK keep-alive cache as long as
+ * response streams are read fully and closed.
+ * Latency and throughput counters are kept for each host.
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Mar 9, 2009
+ * @version 1.0
+ */
+public class HttpClientManager
+{
+    public final static int DEFAULT_MAX_REQUESTS_PER_HOST = 4;
+    public final static int DEFAULT_CONNECT_TIMEOUT = 10000; // ms
+    public final static int DEFAULT_READ_TIMEOUT = 30000; // ms
+    public final static int DEFAULT_MAX_RETRIES = 3;
+    public final static long BASE_RETRY_DELAY = 250; // ms
+    public final static long DEFAULT_PERMIT_TIMEOUT = 60000; // ms
+    public final static long PERMIT_POLL_PERIOD = 200; // ms
+    
+    protected static Log log = LogFactory.getLog(HttpClientManager.class);
+    private static HttpClientManager httpClient;
+    
+    protected Map<String, HostStatistics> hosts = new HashMap<String, HostStatistics>();
+    protected Random random = new Random();
+    protected int maxRequestsPerHost;
+    protected int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    protected int readTimeout = DEFAULT_READ_TIMEOUT;
+    protected int maxRetries = DEFAULT_MAX_RETRIES;
+    protected long permitTimeout = DEFAULT_PERMIT_TIMEOUT;
+    
+    
+    /**
+     * Implemented by callers that can be canceled while
+     * waiting for a host slot or before retrying a request
+     */
+    public interface Cancelable
+    {
+        public boolean isCanceled();
+    }
+    
+    
+    /**
+     * Per host request limiter and statistics
+     */
+    public static class HostStatistics
+    {
+        protected String host;
+        protected Semaphore permits;
+        protected int maxRequests;
+        protected long requestCount;
+        protected long failureCount;
+        protected long retryCount;
+        protected long totalLatency;
+        protected long bytesRead;
+        protected long totalTransferTime;
+        
+        
+        protected HostStatistics(String host, int maxRequests)
+        {
+            this.host = host;
+            this.maxRequests = maxRequests;
+            this.permits = new Semaphore(maxRequests, true);
+        }
+        
+        
+        protected synchronized void recordResponse(long latency)
+        {
+            requestCount++;
+            totalLatency += latency;
+        }
+        
+        
+        protected synchronized void recordFailure()
+        {
+            failureCount++;
+        }
+        
+        
+        protected synchronized void recordRetry()
+        {
+            retryCount++;
+        }
+        
+        
+        protected synchronized void recordTransfer(long byteCount, long transferTime)
+        {
+            bytesRead += byteCount;
+            totalTransferTime += transferTime;
+        }
+        
+        
+        public String getHost()
+        {
+            return host;
+        }
+        
+        
+        public int getRequestsInFlight()
+        {
+            return maxRequests - permits.availablePermits();
+        }
+        
+        
+        public synchronized long getRequestCount()
+        {
+            return requestCount;
+        }
+        
+        
+        public synchronized long getFailureCount()
+        {
+            return failureCount;
+        }
+        
+        
+        public synchronized long getRetryCount()
+        {
+            return retryCount;
+        }
+        
+        
+        /**
+         * @return average time to receive response headers, in ms
+         */
+        public synchronized double getAverageLatency()
+        {
+            if (requestCount == 0)
+                return 0.0;
+            return totalLatency / 1e6 / requestCount;
+        }
+        
+        
+        public synchronized long getBytesRead()
+        {
+            return bytesRead;
+        }
+        
+        
+        /**
+         * @return average throughput while reading responses, in bytes/s
+         */
+        public synchronized double getThroughput()
+        {
+            if (totalTransferTime == 0)
+                return 0.0;
+            return bytesRead / (totalTransferTime / 1e9);
+        }
+        
+        
+        public synchronized String toString()
+        {
+            return host + ": " + requestCount + " requests, " + failureCount + " failures, " +
+                   retryCount + " retries, latency = " + (int)getAverageLatency() + "ms, " +
+                   "throughput = " + (int)(getThroughput() / 1024) + "KB/s";
+        }
+    }
+    
+    
+    /**
+     * Response stream counting bytes read and releasing
+     * the host request permit when closed, if it holds one
+     */
+    public static class ResponseStream extends FilterInputStream
+    {
+        protected HttpURLConnection connection;
+        protected HostStatistics host;
+        protected long startTime;
+        protected long byteCount;
+        protected boolean holdsPermit;
+        protected boolean closed;
+        
+        
+        protected ResponseStream(InputStream is, HttpURLConnection connection, HostStatistics host, long startTime, boolean holdsPermit)
+        {
+            super(is);
+            this.connection = connection;
+            this.host = host;
+            this.startTime = startTime;
+            this.holdsPermit = holdsPermit;
+        }
+        
+        
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if (b >= 0)
+                byteCount++;
+            return b;
+        }
+        
+        
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException
+        {
+            int count = super.read(buf, off, len);
+            if (count > 0)
+                byteCount += count;
+            return count;
+        }
+        
+        
+        @Override
+        public void close() throws IOException
+        {
+            try
+            {
+                super.close();
+            }
+            finally
+            {
+                synchronized (this)
+                {
+                    if (!closed)
+                    {
+                        closed = true;
+                        host.recordTransfer(byteCount, System.nanoTime() - startTime);
+                        if (holdsPermit)
+                            host.permits.release();
+                    }
+                }
+            }
+        }
+        
+        
+        /**
+         * Closes the socket so that a read blocked in another thread
+         * exits at once, and releases the host permit. Used to cancel
+         * a transfer since close() may wait to drain the response.
+         */
+        public void abort()
+        {
+            connection.disconnect();
+            
+            try
+            {
+                close();
+            }
+            catch (IOException e)
+            {
+            }
+        }
+    }
+    
+    
+    public HttpClientManager(int maxRequestsPerHost)
+    {
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+    
+    
+    public synchronized static HttpClientManager getInstance()
+    {
+        if (httpClient != null)
+            return httpClient;
+        
+        // let JDK keep-alive cache hold as many connections as we allow requests
+        if (System.getProperty("http.maxConnections") == null)
+            System.setProperty("http.maxConnections", Integer.toString(DEFAULT_MAX_REQUESTS_PER_HOST));
+        
+        httpClient = new HttpClientManager(DEFAULT_MAX_REQUESTS_PER_HOST);
+        return httpClient;
+    }
+    
+    
+    /**
+     * Sends a GET request, waiting if too many requests are already in
+     * flight to the same host, and retrying on transient failures.
+     * The returned stream must be closed to release the host slot.
+     * @param urlString
+     * @param headers additional request headers or null
+     * @return response body stream
+     * @throws IOException if request failed after all retries,
+     *         or InterruptedIOException if the calling thread was interrupted
+     */
+    public InputStream get(String urlString, Map<String, String> headers) throws IOException
+    {
+        return get(urlString, headers, false, null);
+    }
+    
+    
+    /**
+     * Sends a GET request as above, optionally without read timeout.
+     * A streaming request releases its host slot once headers are
+     * received, so its stream can stay open without blocking the host.
+     * @param urlString
+     * @param headers additional request headers or null
+     * @param streaming true if response is a stream that can stay idle indefinitely
+     * @param caller object checked for cancellation while waiting, or null
+     * @return response body stream
+     * @throws IOException if request failed after all retries or no host slot
+     *         was available in time, or InterruptedIOException if the calling
+     *         thread was interrupted or the caller was canceled
+     */
+    public InputStream get(String urlString, Map<String, String> headers, boolean streaming, Cancelable caller) throws IOException
+    {
+        URL url = new URL(urlString);
+        HostStatistics host = getHost(url);
+        acquirePermit(host, caller);
+        
+        boolean success = false;
+        try
+        {
+            for (int attempt = 0; ; attempt++)
+            {
+                checkCanceled(host, caller);
+                long startTime = System.nanoTime();
+                HttpURLConnection connection = null;
+                int code = 0;
+                IOException error = null;
+                
+                // timeouts are transient but other
+                // InterruptedIOException are not
+                try
+                {
+                    connection = openConnection(url, headers, streaming ? 0 : readTimeout);
+                    code = connection.getResponseCode();
+                }
+                catch (SocketTimeoutException e)
+                {
+                    error = e;
+                }
+                catch (InterruptedIOException e)
+                {
+                    throw e;
+                }
+                catch (IOException e)
+                {
+                    error = e;
+                }
+                
+                if (error != null)
+                {
+                    host.recordFailure();
+                    if (attempt >= maxRetries)
+                        throw error;
+                    
+                    waitBeforeRetry(host, attempt, error.getMessage());
+                    continue;
+                }
+                
+                if (code >= 400)
+                {
+                    discardErrorStream(connection);
+                    host.recordFailure();
+                    
+                    if (!isTransient(code) || attempt >= maxRetries)
+                        throw new IOException("HTTP error " + code + " received from " + urlString);
+                    
+                    waitBeforeRetry(host, attempt, "HTTP error " + code);
+                    continue;
+                }
+                
+                InputStream is = connection.getInputStream();
+                host.recordResponse(System.nanoTime() - startTime);
+                success = true;
+                return new ResponseStream(is, connection, host, startTime, !streaming);
+            }
+        }
+        finally
+        {
+            // streams give back their slot once headers are received
+            if (!success || streaming)
+                host.permits.release();
+        }
+    }
+    
+    
+    /**
+     * Waits for a request slot on the given host, polling the caller
+     * so that canceled requests stop waiting
+     * @param host
+     * @param caller object checked for cancellation, or null
+     * @throws IOException if no slot was available before permit timeout
+     * @throws InterruptedIOException if thread was interrupted or caller canceled
+     */
+    protected void acquirePermit(HostStatistics host, Cancelable caller) throws IOException
+    {
+        long deadline = System.currentTimeMillis() + permitTimeout;
+        
+        try
+        {
+            while (!host.permits.tryAcquire(PERMIT_POLL_PERIOD, TimeUnit.MILLISECONDS))
+            {
+                checkCanceled(host, caller);
+                
+                if (System.currentTimeMillis() >= deadline)
+                    throw new IOException("No request slot available for " + host.getHost() +
+                                          " after " + permitTimeout + "ms");
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw new InterruptedIOException("Interrupted while waiting for " + host.getHost());
+        }
+    }
+    
+    
+    protected void checkCanceled(HostStatistics host, Cancelable caller) throws InterruptedIOException
+    {
+        if (caller != null && caller.isCanceled())
+            throw new InterruptedIOException("Request to " + host.getHost() + " canceled");
+    }
+    
+    
+    protected HttpURLConnection openConnection(URL url, Map<String, String> headers, int timeout) throws IOException
+    {
+        URLConnection connection = url.openConnection();
+        if (!(connection instanceof HttpURLConnection))
+            throw new IOException("Not an HTTP URL: " + url);
+        
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(timeout);
+        
+        if (headers != null)
+        {
+            Iterator<Map.Entry<String, String>> it = headers.entrySet().iterator();
+            while (it.hasNext())
+            {
+                Map.Entry<String, String> header = it.next();
+                connection.addRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        
+        return (HttpURLConnection)connection;
+    }
+    
+    
+    /**
+     * Reads and closes error stream so that connection can be reused
+     * @param connection
+     */
+    protected void discardErrorStream(HttpURLConnection connection)
+    {
+        InputStream es = connection.getErrorStream();
+        if (es == null)
+            return;
+        
+        try
+        {
+            byte[] buf = new byte[1024];
+            while (es.read(buf) > 0);
+            es.close();
+        }
+        catch (IOException e)
+        {
+        }
+    }
+    
+    
+    protected boolean isTransient(int code)
+    {
+        return (code == 408 || code == 429 || code >= 500);
+    }
+    
+    
+    /**
+     * Sleeps using exponential backoff with random jitter
+     * @param host
+     * @param attempt
+     * @param reason
+     * @throws InterruptedIOException if thread is interrupted while waiting
+     */
+    protected void waitBeforeRetry(HostStatistics host, int attempt, String reason) throws InterruptedIOException
+    {
+        host.recordRetry();
+        
+        long delay = BASE_RETRY_DELAY << attempt;
+        double jitter;
+        synchronized (random)
+        {
+            jitter = 0.5 + random.nextDouble();
+        }
+        delay = (long)(delay * jitter);
+        
+        if (log.isDebugEnabled())
+            log.debug("Retrying request to " + host.getHost() + " in " + delay + "ms (" + reason + ")");
+        
+        try
+        {
+            Thread.sleep(delay);
+        }
+        catch (InterruptedException e)
+        {
+            throw new InterruptedIOException("Interrupted while waiting to retry request to " + host.getHost());
+        }
+    }
+    
+    
+    protected synchronized HostStatistics getHost(URL url)
+    {
+        String hostKey = url.getHost();
+        if (url.getPort() >= 0)
+            hostKey += ":" + url.getPort();
+        
+        HostStatistics host = hosts.get(hostKey);
+        if (host == null)
+        {
+            host = new HostStatistics(hostKey, maxRequestsPerHost);
+            hosts.put(hostKey, host);
+        }
+        
+        return host;
+    }
+    
+    
+    /**
+     * @return statistics of all hosts contacted so far
+     */
+    public synchronized List<HostStatistics> getStatistics()
+    {
+        return new ArrayList<HostStatistics>(hosts.values());
+    }
+    
+    
+    public void logStatistics()
+    {
+        if (!log.isDebugEnabled())
+            return;
+        
+        List<HostStatistics> hostList = getStatistics();
+        for (int i=0; i<hostList.size(); i++)
+            log.debug(hostList.get(i));
+    }
+
+
+    public int getConnectTimeout()
+    {
+        return connectTimeout;
+    }
+
+
+    public void setConnectTimeout(int connectTimeout)
+    {
+        this.connectTimeout = connectTimeout;
+    }
+
+
+    public int getReadTimeout()
+    {
+        return readTimeout;
+    }
+
+
+    public void setReadTimeout(int readTimeout)
+    {
+        this.readTimeout = readTimeout;
+    }
+
+
+    public int getMaxRetries()
+    {
+        return maxRetries;
+    }
+
+
+    public void setMaxRetries(int maxRetries)
+    {
+        this.maxRetries = maxRetries;
+    }
+
+
+    public long getPermitTimeout()
+    {
+        return permitTimeout;
+    }
+
+
+    /**
+     * @param permitTimeout maximum time to wait for a host slot, in ms
+     */
+    public void setPermitTimeout(long permitTimeout)
+    {
+        this.permitTimeout = permitTimeout;
+    }
+}
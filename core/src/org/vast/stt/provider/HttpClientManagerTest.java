@@ -0,0 +1,403 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+
+package org.vast.stt.provider;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * HTTP Client Manager Test
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Runs the shared HTTP client against a local stand-in server and
+ * checks per host request limits, retries of transient errors with
+ * exponential backoff, streams not holding a host slot, and waits
+ * for a slot giving up on cancel or timeout.
+ * Run with: HttpClientManagerTest
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Mar 9, 2009
+ * @version 1.0
+ */
+public class HttpClientManagerTest
+{
+    protected final static long SLOW_DELAY = 200; // ms
+    
+    protected HttpServer server;
+    protected ExecutorService serverThreads;
+    protected String baseUrl;
+    protected AtomicInteger inFlight = new AtomicInteger();
+    protected AtomicInteger maxInFlight = new AtomicInteger();
+    protected AtomicInteger flakyCount = new AtomicInteger();
+    protected AtomicInteger failureCount = new AtomicInteger();
+    protected CountDownLatch streamEnd = new CountDownLatch(1);
+    
+    
+    /**
+     * Answers after a delay, keeping track of concurrent requests
+     */
+    protected class SlowHandler implements HttpHandler
+    {
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            int count = inFlight.incrementAndGet();
+            synchronized (maxInFlight)
+            {
+                if (count > maxInFlight.get())
+                    maxInFlight.set(count);
+            }
+            
+            try
+            {
+                Thread.sleep(SLOW_DELAY);
+            }
+            catch (InterruptedException e)
+            {
+            }
+            
+            inFlight.decrementAndGet();
+            sendText(exchange, 200, "slow");
+        }
+    }
+    
+    
+    /**
+     * Fails with 503 twice, then succeeds
+     */
+    protected class FlakyHandler implements HttpHandler
+    {
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            if (flakyCount.incrementAndGet() <= 2)
+                sendText(exchange, 503, "busy");
+            else
+                sendText(exchange, 200, "ok");
+        }
+    }
+    
+    
+    /**
+     * Always fails with the given code
+     */
+    protected class ErrorHandler implements HttpHandler
+    {
+        protected int code;
+        
+        protected ErrorHandler(int code)
+        {
+            this.code = code;
+        }
+        
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            failureCount.incrementAndGet();
+            sendText(exchange, code, "error");
+        }
+    }
+    
+    
+    /**
+     * Sends headers and a first message, then stays silent
+     * until the end of the test
+     */
+    protected class StreamHandler implements HttpHandler
+    {
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream os = exchange.getResponseBody();
+            os.write("alert\n".getBytes());
+            os.flush();
+            
+            try
+            {
+                streamEnd.await();
+            }
+            catch (InterruptedException e)
+            {
+            }
+            
+            os.close();
+        }
+    }
+    
+    
+    protected void sendText(HttpExchange exchange, int code, String text) throws IOException
+    {
+        byte[] body = text.getBytes();
+        exchange.sendResponseHeaders(code, body.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(body);
+        os.close();
+    }
+    
+    
+    protected void startServer() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/slow", new SlowHandler());
+        server.createContext("/flaky", new FlakyHandler());
+        server.createContext("/missing", new ErrorHandler(404));
+        server.createContext("/down", new ErrorHandler(503));
+        server.createContext("/stream", new StreamHandler());
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+    
+    
+    protected void stopServer()
+    {
+        streamEnd.countDown();
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+    
+    
+    protected static String readAll(InputStream is) throws IOException
+    {
+        StringBuffer text = new StringBuffer();
+        try
+        {
+            int c;
+            while ((c = is.read()) >= 0)
+                text.append((char)c);
+        }
+        finally
+        {
+            is.close();
+        }
+        
+        return text.toString();
+    }
+    
+    
+    protected static void check(boolean condition, String message)
+    {
+        if (!condition)
+            throw new IllegalStateException(message);
+    }
+    
+    
+    /**
+     * Sends many slow requests from several threads
+     * and checks that only 2 are ever in flight
+     */
+    public void testHostLimit() throws Exception
+    {
+        final HttpClientManager client = new HttpClientManager(2);
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        
+        for (int i=0; i<threads.length; i++)
+        {
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        readAll(client.get(baseUrl + "/slow", null));
+                    }
+                    catch (IOException e)
+                    {
+                        errors.incrementAndGet();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        
+        for (int i=0; i<threads.length; i++)
+            threads[i].join();
+        
+        HttpClientManager.HostStatistics host = client.getStatistics().get(0);
+        check(errors.get() == 0, errors.get() + " requests failed");
+        check(maxInFlight.get() == 2, maxInFlight.get() + " concurrent requests instead of 2");
+        check(host.getRequestsInFlight() == 0, host.getRequestsInFlight() + " slots not released");
+        System.out.println("Host limit OK: max " + maxInFlight.get() + " concurrent requests, " + host);
+    }
+    
+    
+    /**
+     * Checks that transient errors are retried after increasing
+     * delays and that other errors are not retried
+     */
+    public void testRetry() throws Exception
+    {
+        HttpClientManager client = new HttpClientManager(2);
+        
+        // 2 retries after 250ms then 500ms, jitter is at least 0.5
+        long t0 = System.currentTimeMillis();
+        String text = readAll(client.get(baseUrl + "/flaky", null));
+        long elapsed = System.currentTimeMillis() - t0;
+        HttpClientManager.HostStatistics host = client.getStatistics().get(0);
+        check(text.equals("ok"), "Wrong response after retries: " + text);
+        check(host.getRetryCount() == 2, host.getRetryCount() + " retries instead of 2");
+        long minDelay = (HttpClientManager.BASE_RETRY_DELAY + 2*HttpClientManager.BASE_RETRY_DELAY) / 2;
+        check(elapsed >= minDelay, "Backoff too short: " + elapsed + "ms < " + minDelay + "ms");
+        System.out.println("Retry OK: 2 retries in " + elapsed + "ms");
+        
+        // 404 is not retried
+        try
+        {
+            client.get(baseUrl + "/missing", null);
+            check(false, "No error for 404");
+        }
+        catch (IOException e)
+        {
+        }
+        check(failureCount.get() == 1, "404 sent " + failureCount.get() + " times");
+        
+        // 503 is retried maxRetries times
+        failureCount.set(0);
+        client.setMaxRetries(2);
+        try
+        {
+            client.get(baseUrl + "/down", null);
+            check(false, "No error for 503");
+        }
+        catch (IOException e)
+        {
+        }
+        check(failureCount.get() == 3, "503 sent " + failureCount.get() + " times instead of 3");
+        check(host.getRequestsInFlight() == 0, host.getRequestsInFlight() + " slots not released");
+        System.out.println("Retry limit OK: " + host);
+    }
+    
+    
+    /**
+     * Checks that an open stream doesn't hold a slot, and that
+     * waiting for a slot stops on cancel and on timeout
+     */
+    public void testSlotRelease() throws Exception
+    {
+        final HttpClientManager client = new HttpClientManager(1);
+        client.setPermitTimeout(1000);
+        
+        // open stream doesn't block other requests
+        InputStream alertStream = client.get(baseUrl + "/stream", null, true, null);
+        check(alertStream.read() == 'a', "Wrong stream content");
+        readAll(client.get(baseUrl + "/slow", null));
+        HttpClientManager.HostStatistics host = client.getStatistics().get(0);
+        check(host.getRequestsInFlight() == 0, "Stream holds a slot");
+        System.out.println("Stream slot OK");
+        
+        // a normal request holds the only slot until closed
+        InputStream heldStream = client.get(baseUrl + "/stream", null, false, null);
+        check(host.getRequestsInFlight() == 1, "Request doesn't hold a slot");
+        
+        // canceled caller stops waiting
+        final long cancelTime = System.currentTimeMillis() + 300;
+        HttpClientManager.Cancelable caller = new HttpClientManager.Cancelable()
+        {
+            public boolean isCanceled()
+            {
+                return System.currentTimeMillis() >= cancelTime;
+            }
+        };
+        
+        long t0 = System.currentTimeMillis();
+        try
+        {
+            client.get(baseUrl + "/slow", null, false, caller);
+            check(false, "Canceled request was sent");
+        }
+        catch (InterruptedIOException e)
+        {
+        }
+        long elapsed = System.currentTimeMillis() - t0;
+        check(elapsed < client.getPermitTimeout(), "Cancel took " + elapsed + "ms");
+        System.out.println("Cancel while waiting OK: " + elapsed + "ms");
+        
+        // wait times out
+        t0 = System.currentTimeMillis();
+        try
+        {
+            client.get(baseUrl + "/slow", null);
+            check(false, "Request was sent without slot");
+        }
+        catch (InterruptedIOException e)
+        {
+            check(false, "Timeout reported as interrupt");
+        }
+        catch (IOException e)
+        {
+        }
+        elapsed = System.currentTimeMillis() - t0;
+        check(elapsed >= client.getPermitTimeout(), "Timed out after " + elapsed + "ms");
+        System.out.println("Slot timeout OK: " + elapsed + "ms");
+        
+        // let server finish streams so that close doesn't wait
+        streamEnd.countDown();
+        heldStream.close();
+        alertStream.close();
+        check(host.getRequestsInFlight() == 0, host.getRequestsInFlight() + " slots not released");
+    }
+    
+    
+    public static void main(String[] args)
+    {
+        HttpClientManagerTest test = new HttpClientManagerTest();
+        
+        try
+        {
+            test.startServer();
+            test.testHostLimit();
+            test.testRetry();
+            test.testSlotRelease();
+            System.out.println("HTTP client OK");
+        }
+        catch (Exception e)
+        {
+            System.out.println("HTTP client FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+        finally
+        {
+            test.stopServer();
+        }
+        
+        System.exit(0);
+    }
+}
@@ -0,0 +1,252 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.provider;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * Provider Update Executor
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Shared pool of threads running provider updates.
+ * The number of concurrent updates is bounded and queued updates
+ * are run by priority: providers of visible items first, then
+ * providers of enabled items, then background providers.
+ * Updates with the same priority run in submission order.
+ * Streaming providers (i.e. alert streams) run until canceled, so
+ * they get a dedicated thread outside of the bounded pool.
+ * Updates are canceled through Future.cancel(true).
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Mar 2, 2009
+ * @version 1.0
+ */
+public class ProviderUpdateExecutor
+{
+    public final static int PRIORITY_VISIBLE = 0;
+    public final static int PRIORITY_ENABLED = 1;
+    public final static int PRIORITY_BACKGROUND = 2;
+    public final static int DEFAULT_POOL_SIZE = 8;
+    
+    protected static Log log = LogFactory.getLog(ProviderUpdateExecutor.class);
+    private static ProviderUpdateExecutor executor;
+    protected ThreadPoolExecutor threadPool;
+    protected ThreadPoolExecutor streamingPool;
+    protected AtomicLong sequence = new AtomicLong();
+    
+    
+    protected class UpdateTask extends FutureTask<Object> implements Comparable<UpdateTask>
+    {
+        protected AbstractProvider provider;
+        protected int priority;
+        protected long seqNum;
+        protected long queueTime;
+        
+        
+        public UpdateTask(AbstractProvider provider, Runnable runnable, int priority)
+        {
+            super(runnable, null);
+            this.provider = provider;
+            this.priority = priority;
+            this.seqNum = sequence.getAndIncrement();
+            this.queueTime = System.nanoTime();
+        }
+        
+        
+        @Override
+        public void run()
+        {
+            // skip updates canceled while queued
+            if (isDone())
+                return;
+            
+            Thread thread = Thread.currentThread();
+            String threadName = thread.getName();
+            long startTime = System.nanoTime();
+            
+            try
+            {
+                thread.setName("Updating: " + provider.getName());
+                super.run();
+            }
+            finally
+            {
+                long stopTime = System.nanoTime();
+                provider.updateStatistics(startTime - queueTime, stopTime - startTime);
+                thread.setName(threadName);
+                
+                if (log.isDebugEnabled())
+                {
+                    log.debug("Provider " + provider.getName() + " updated in " +
+                              (stopTime - startTime) / 1000000 + "ms (queued " +
+                              (startTime - queueTime) / 1000000 + "ms, priority " +
+                              priority + "), " + getQueueLength() + " update(s) waiting");
+                }
+            }
+        }
+        
+        
+        public int compareTo(UpdateTask task)
+        {
+            if (priority != task.priority)
+                return (priority < task.priority) ? -1 : 1;
+            
+            if (seqNum != task.seqNum)
+                return (seqNum < task.seqNum) ? -1 : 1;
+            
+            return 0;
+        }
+    }
+    
+    
+    protected ProviderUpdateExecutor(int poolSize)
+    {
+        threadPool = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                                            new PriorityBlockingQueue<Runnable>(),
+                                            createThreadFactory("STT Provider Update "));
+        threadPool.allowCoreThreadTimeOut(true);
+        
+        // one thread per stream, never queued
+        streamingPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+                                               new SynchronousQueue<Runnable>(),
+                                               createThreadFactory("STT Provider Stream "));
+    }
+    
+    
+    protected ThreadFactory createThreadFactory(final String namePrefix)
+    {
+        return new ThreadFactory()
+        {
+            private int threadCount = 0;
+            
+            public synchronized Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, namePrefix + (++threadCount));
+                thread.setPriority(Thread.NORM_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+    
+    
+    public synchronized static ProviderUpdateExecutor getInstance()
+    {
+        if (executor != null)
+            return executor;
+        
+        executor = new ProviderUpdateExecutor(DEFAULT_POOL_SIZE);
+        return executor;
+    }
+    
+    
+    /**
+     * Queues update runnable of the given provider, or starts it on
+     * a dedicated thread if the provider is streaming
+     * @param provider
+     * @param runnable
+     * @param priority one of the PRIORITY_XXX constants
+     * @return future used to cancel and interrupt the update
+     */
+    public Future<?> submit(AbstractProvider provider, Runnable runnable, int priority)
+    {
+        UpdateTask task = new UpdateTask(provider, runnable, priority);
+        
+        // use execute and not submit so that the task
+        // is queued as is and can be ordered by the queue
+        if (provider.isStreaming())
+            streamingPool.execute(task);
+        else
+            threadPool.execute(task);
+        
+        return task;
+    }
+    
+    
+    /**
+     * @return number of updates waiting for a thread
+     */
+    public int getQueueLength()
+    {
+        return threadPool.getQueue().size();
+    }
+    
+    
+    /**
+     * @return number of updates currently running in the bounded pool
+     */
+    public int getActiveCount()
+    {
+        return threadPool.getActiveCount();
+    }
+    
+    
+    /**
+     * @return number of streaming updates currently running
+     */
+    public int getStreamingCount()
+    {
+        return streamingPool.getActiveCount();
+    }
+    
+    
+    public int getPoolSize()
+    {
+        return threadPool.getMaximumPoolSize();
+    }
+    
+    
+    public void setPoolSize(int poolSize)
+    {
+        if (poolSize < 1)
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        
+        if (poolSize > threadPool.getMaximumPoolSize())
+        {
+            threadPool.setMaximumPoolSize(poolSize);
+            threadPool.setCorePoolSize(poolSize);
+        }
+        else
+        {
+            threadPool.setCorePoolSize(poolSize);
+            threadPool.setMaximumPoolSize(poolSize);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit Cache Engine".
+  
+ The Initial Developer of the Original Code is Sensia Software LLC.
+ Portions created by the Initial Developer are Copyright (C) 2008
+ the Initial Developer. All Rights Reserved.
+ 
+ Contributor(s): 
+    Alexandre Robin <alex.robin@sensiasoftware.com>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.provider.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import com.sleepycat.je.*;
+
+
+/**
+ * <p><b>Title:</b>
+ * BDBTileStore
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * TileStore backed by a Berkeley DB JE database. Records of a tile are
+ * stored as sorted duplicates of the tile key (big endian), ordered by
+ * their first byte (see DuplicateComparator).
+ * </p>
+ *
+ * <p>Copyright (c) 2008</p>
+ * @author Alexandre Robin
+ * @date Mar 14, 2009
+ * @version 1.0
+ */
+public class BDBTileStore implements TileStore
+{
+    protected Environment env;
+    protected Database db;
+    
+    
+    public BDBTileStore(File dbDir, String dbName) throws IOException
+    {
+        try
+        {
+            EnvironmentConfig envConfig = new EnvironmentConfig();
+            envConfig.setAllowCreate(true);
+            dbDir.mkdirs();
+            env = new Environment(dbDir, envConfig);
+            
+            // Open the database. Create it if it does not exist already
+            DatabaseConfig dbConfig = new DatabaseConfig();
+            dbConfig.setAllowCreate(true);
+            dbConfig.setSortedDuplicates(true);
+            dbConfig.setDuplicateComparator(new DuplicateComparator());
+            db = env.openDatabase(null, dbName, dbConfig);
+        }
+        catch (DatabaseException e)
+        {
+            throw new IOException("Cannot open cache database " + dbName, e);
+        }
+    }
+    
+    
+    public long seek(long key) throws IOException
+    {
+        DatabaseEntry keyEntry = new DatabaseEntry(encodeKey(key));
+        DatabaseEntry data = new DatabaseEntry();
+        data.setPartial(0, 0, true);
+        Cursor cursor = null;
+        
+        try
+        {
+            cursor = db.openCursor(null, null);
+            if (cursor.getSearchKeyRange(keyEntry, data, null) == OperationStatus.SUCCESS)
+                return decodeKey(keyEntry.getData());
+            else
+                return NO_KEY;
+        }
+        catch (DatabaseException e)
+        {
+            throw new IOException("Error while searching cache database", e);
+        }
+        finally
+        {
+            closeCursor(cursor);
+        }
+    }
+    
+    
+    public ByteBuffer get(long key, int recordIndex) throws IOException
+    {
+        DatabaseEntry keyEntry = new DatabaseEntry(encodeKey(key));
+        DatabaseEntry data = new DatabaseEntry(new byte[] {(byte)recordIndex});
+        Cursor cursor = null;
+        
+        try
+        {
+            // duplicate comparator only compares record index
+            cursor = db.openCursor(null, null);
+            if (cursor.getSearchBoth(keyEntry, data, null) == OperationStatus.SUCCESS)
+                return ByteBuffer.wrap(data.getData());
+            else
+                return null;
+        }
+        catch (DatabaseException e)
+        {
+            throw new IOException("Error while reading cache database", e);
+        }
+        finally
+        {
+            closeCursor(cursor);
+        }
+    }
+    
+    
+    public void put(long key, ByteBuffer record) throws IOException
+    {
+        byte[] bytes = new byte[record.remaining()];
+        record.duplicate().get(bytes);
+        
+        DatabaseEntry keyEntry = new DatabaseEntry(encodeKey(key));
+        DatabaseEntry data = new DatabaseEntry(bytes);
+        Cursor cursor = null;
+        
+        try
+        {
+            // replace existing record with same index if any
+            cursor = db.openCursor(null, null);
+            if (cursor.getSearchBoth(keyEntry, new DatabaseEntry(new byte[] {bytes[0]}), null) == OperationStatus.SUCCESS)
+                cursor.putCurrent(data);
+            else
+                cursor.put(keyEntry, data);
+        }
+        catch (DatabaseException e)
+        {
+            throw new IOException("Error while writing to cache database", e);
+        }
+        finally
+        {
+            closeCursor(cursor);
+        }
+    }
+    
+    
+    public void delete(long fromKey, long toKey) throws IOException
+    {
+        DatabaseEntry keyEntry = new DatabaseEntry(encodeKey(fromKey));
+        DatabaseEntry data = new DatabaseEntry();
+        data.setPartial(0, 0, true);
+        Cursor cursor = null;
+        
+        try
+        {
+            cursor = db.openCursor(null, null);
+            OperationStatus status = cursor.getSearchKeyRange(keyEntry, data, null);
+            while (status == OperationStatus.SUCCESS && decodeKey(keyEntry.getData()) < toKey)
+            {
+                cursor.delete();
+                status = cursor.getNext(keyEntry, data, null);
+            }
+        }
+        catch (DatabaseException e)
+        {
+            throw new IOException("Error while deleting from cache database", e);
+        }
+        finally
+        {
+            closeCursor(cursor);
+        }
+    }
+    
+    
+    public void flush() throws IOException
+    {
+        // deleted records are reclaimed by the JE log cleaner
+        try
+        {
+            env.sync();
+        }
+        catch (DatabaseException e)
+        {
+            throw new IOException("Error while syncing cache database", e);
+        }
+    }
+    
+    
+    public void close() throws IOException
+    {
+        try
+        {
+            db.close();
+            env.close();
+        }
+        catch (DatabaseException e)
+        {
+            throw new IOException("Error while closing cache database", e);
+        }
+    }
+    
+    
+    protected void closeCursor(Cursor cursor)
+    {
+        try
+        {
+            if (cursor != null)
+                cursor.close();
+        }
+        catch (DatabaseException e)
+        {
+            e.printStackTrace();
+        }
+    }
+    
+    
+    protected byte[] encodeKey(long key)
+    {
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        buf.putLong(key);
+        return buf.array();
+    }
+    
+    
+    protected long decodeKey(byte[] bytes)
+    {
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+}
@@ -20,12 +20,27 @@
  
 ******************************* END LICENSE BLOCK ***************************/
 
+
 package org.vast.stt.provider.cache;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import org.vast.cdm.common.BinaryEncoding;
+import org.vast.cdm.common.DataComponent;
 import org.vast.data.AbstractDataBlock;
 import org.vast.stt.data.BlockList;
+import org.vast.stt.data.BlockListEpoch;
 import org.vast.stt.data.BlockListItem;
 import org.vast.stt.data.BlockListIterator;
+import org.vast.stt.data.BlockListSpatialIndex;
+import org.vast.sweCommon.BinaryDataParser;
+import org.vast.sweCommon.BinaryDataWriter;
 
 
 /**
@@ -34,7 +49,17 @@ import org.vast.stt.data.BlockListIterator;
  * </p>
  *
  * <p><b>Description:</b><br/>
- * TODO BlockListBDB type description
+ * BlockList keeping its data off the java heap. Each block is serialized
+ * with the BinaryDataWriter (using the default binary encoding of the
+ * block structure) and appended to memory mapped segment files. Only the
+ * location of each block is kept in memory and blocks are decoded lazily
+ * when getData() is called on items returned by the iterator.
+ * Locations are published as immutable sets the same way ColumnarBlockList
+ * publishes its columns, so iterators never lock the list. Each clear()
+ * starts a new epoch with its own segment files: files of the previous
+ * epoch are closed and deleted only once the last iterator reading them
+ * has been reset or closed. Space of removed blocks is not reused before
+ * the list is cleared.
  * </p>
  *
  * <p>Copyright (c) 2008</p>
@@ -43,100 +68,761 @@ import org.vast.stt.data.BlockListIterator;
  */
 public class BlockListBDB extends BlockList
 {
+    protected final static int SEGMENT_SIZE = 32*1024*1024;
+    protected final static int MIN_LOCATIONS = 256;
+    
+    protected File segmentDir;
+    protected ArrayList<Segment> segments; // segments of current epoch
+    protected volatile Locations locations;
+    protected int locationsHighMark; // highest count published with current location arrays
+    protected volatile int currentIndex = -1;
+    protected BinaryDataWriter dataWriter;
+    protected BlockBuffer writeBuffer;
+    protected ThreadLocal<BinaryDataParser> dataParser;
+    
+    
+    protected static class Segment
+    {
+        protected File file;
+        protected RandomAccessFile raf;
+        protected MappedByteBuffer buffer;
+        protected int writePosition;
+    }
+    
+    
+    /**
+     * Location arrays published by the list. Locations below count
+     * are never modified, locations are only shifted in a new generation.
+     */
+    protected static class Locations
+    {
+        protected final ByteBuffer[] buffers;
+        protected final int[] blockSegments;
+        protected final int[] blockPositions;
+        protected final int[] blockLengths;
+        protected final int count;
+        protected final long generation;
+        protected final SegmentEpoch epoch;
+        
+        public Locations(ByteBuffer[] buffers, int[] blockSegments, int[] blockPositions, int[] blockLengths, int count, long generation, SegmentEpoch epoch)
+        {
+            this.buffers = buffers;
+            this.blockSegments = blockSegments;
+            this.blockPositions = blockPositions;
+            this.blockLengths = blockLengths;
+            this.count = count;
+            this.generation = generation;
+            this.epoch = epoch;
+        }
+    }
+    
+    
+    /**
+     * Epoch owning the segment files written until the list is cleared.
+     * Files are closed and deleted when the epoch is released.
+     */
+    protected static class SegmentEpoch extends BlockListEpoch
+    {
+        protected ArrayList<Segment> segments;
+        
+        public SegmentEpoch(ArrayList<Segment> segments)
+        {
+            this.segments = segments;
+        }
+        
+        @Override
+        protected void onRelease()
+        {
+            for (int i = 0; i < segments.size(); i++)
+                closeSegment(segments.get(i));
+            segments.clear();
+        }
+    }
+    
+    
+    /**
+     * Output buffer giving direct access to its internal array
+     * so it can be copied to the segment without an extra copy
+     */
+    protected static class BlockBuffer extends ByteArrayOutputStream
+    {
+        public void writeTo(ByteBuffer dest)
+        {
+            dest.put(buf, 0, count);
+        }
+    }
+    
+    
+    /**
+     * Item pointing to a block stored in the segments.
+     * Data is decoded on the first call to getData(), which must be
+     * done while the iterator that created the item is not closed.
+     * Equality is based on list, generation and index so that items created
+     * by successive iterations can be used as hash keys (e.g. for display lists)
+     */
+    protected static class MappedItem extends BlockListItem
+    {
+        protected BlockListBDB list;
+        protected Locations locations;
+        protected int index;
+        
+        public MappedItem(BlockListBDB list, Locations locations, int index, AbstractDataBlock data)
+        {
+            super(data, null, null);
+            this.list = list;
+            this.locations = locations;
+            this.index = index;
+        }
+        
+        @Override
+        public AbstractDataBlock getData()
+        {
+            if (data == null)
+                data = list.decodeBlock(locations, index);
+            
+            return data;
+        }
+        
+        @Override
+        public void setData(AbstractDataBlock data)
+        {
+            this.data = data;
+            list.replaceBlock(this, data);
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            return 31 * (31 * System.identityHashCode(list) + (int)locations.generation) + index;
+        }
+        
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof MappedItem))
+                return false;
+            
+            MappedItem item = (MappedItem)obj;
+            return (item.list == list && item.locations.generation == locations.generation && item.index == index);
+        }
+    }
+    
+    
+    /**
+     * Iterator registering as a reader of the epoch of the locations
+     * it reads so that their segment files are not deleted under it
+     */
+    protected class MappedIterator extends BlockListIterator
+    {
+        protected Locations iteratorLocations;
+        
+        public MappedIterator()
+        {
+            super(BlockListBDB.this);
+        }
+        
+        @Override
+        public boolean hasNext()
+        {
+            return (iteratorLocations != null && nextIndex < iteratorLocations.count);
+        }
+        
+        @Override
+        public BlockListItem next()
+        {
+            currentItem = new MappedItem(BlockListBDB.this, iteratorLocations, nextIndex++, null);
+            return currentItem;
+        }
+        
+        @Override
+        public void reset()
+        {
+            close();
+            iteratorLocations = enterLocations();
+            epoch = iteratorLocations.epoch;
+            nextIndex = 0;
+        }
+        
+        @Override
+        public void close()
+        {
+            super.close();
+            iteratorLocations = null;
+        }
+        
+        @Override
+        public AbstractDataBlock get(int index)
+        {
+            return decodeBlock(iteratorLocations, Math.min(index, iteratorLocations.count-1));
+        }
+        
+        @Override
+        public int getCount()
+        {
+            return (iteratorLocations == null) ? 0 : iteratorLocations.count;
+        }
+        
+        @Override
+        public void remove()
+        {
+            if (currentItem != null)
+            {
+                BlockListBDB.this.remove(currentItem);
+                currentItem = null;
+            }
+        }
+    }
+    
+    
+    public BlockListBDB()
+    {
+        this(new File(System.getProperty("java.io.tmpdir")));
+    }
+    
+    
+    public BlockListBDB(File segmentDir)
+    {
+        super();
+        this.segmentDir = segmentDir;
+    }
+
+
+    @Override
+    public synchronized void setBlockStructure(DataComponent blockStructure)
+    {
+        super.setBlockStructure(blockStructure);
+        
+        // init writer
+        DataComponent writerComponents = blockStructure.copy();
+        writeBuffer = new BlockBuffer();
+        dataWriter = new BinaryDataWriter();
+        dataWriter.setDataEncoding(BinaryEncoding.getDefaultEncoding(writerComponents));
+        dataWriter.setDataComponents(writerComponents);
+        dataWriter.setOutput(writeBuffer);
+        
+        // one parser per reading thread
+        final DataComponent parserStructure = blockStructure.copy();
+        dataParser = new ThreadLocal<BinaryDataParser>()
+        {
+            @Override
+            protected BinaryDataParser initialValue()
+            {
+                DataComponent parserComponents = parserStructure.copy();
+                BinaryDataParser parser = new BinaryDataParser();
+                parser.setDataEncoding(BinaryEncoding.getDefaultEncoding(parserComponents));
+                parser.setDataComponents(parserComponents);
+                return parser;
+            }
+        };
+    }
 
+
+    /**
+     * Starts a new epoch with new segment files. Files of the previous
+     * epoch are deleted once iterators still reading them are closed.
+     */
     @Override
-    public void add(BlockListItem newItem)
+    public synchronized void clear()
     {
-        // TODO Auto-generated method stub
-        super.add(newItem);
+        super.clear();
+        currentIndex = -1;
+        
+        Locations oldLocations = locations;
+        segments = new ArrayList<Segment>(1);
+        long generation = (oldLocations == null) ? 0 : oldLocations.generation + 1;
+        publishLocations(new Locations(new ByteBuffer[0], new int[MIN_LOCATIONS], new int[MIN_LOCATIONS], new int[MIN_LOCATIONS],
+                                       0, generation, new SegmentEpoch(segments)));
+        
+        if (oldLocations != null)
+            oldLocations.epoch.retire(null, null);
     }
 
 
     @Override
     public BlockListItem addBlock(AbstractDataBlock dataBlock)
     {
-        // TODO Auto-generated method stub
-        return super.addBlock(dataBlock);
+        Locations loc;
+        int index;
+        
+        synchronized (this)
+        {
+            index = locations.count;
+            insertBlock(index, dataBlock);
+            loc = locations;
+        }
+        
+        return new MappedItem(this, loc, index, dataBlock);
+    }
+    
+    
+    @Override
+    public synchronized void add(BlockListItem newItem)
+    {
+        moveOrInsert(newItem, locations.count);
+    }
+    
+    
+    @Override
+    public synchronized void insertBefore(BlockListItem newItem, BlockListItem existingItem)
+    {
+        moveOrInsert(newItem, getIndex(existingItem));
+    }
+    
+    
+    @Override
+    public synchronized void insertAfter(BlockListItem newItem, BlockListItem existingItem)
+    {
+        moveOrInsert(newItem, getIndex(existingItem) + 1);
     }
 
 
     @Override
-    public void clear()
+    public synchronized void remove(BlockListItem item)
     {
-        // TODO Auto-generated method stub
-        super.clear();
+        if (contains(item))
+            removeIndex(((MappedItem)item).index);
     }
 
 
+    /**
+     * An item is part of the list only if it was created
+     * from the current generation of locations
+     */
     @Override
     public boolean contains(BlockListItem item)
     {
-        // TODO Auto-generated method stub
-        return super.contains(item);
+        if (!(item instanceof MappedItem))
+            return false;
+        
+        Locations loc = locations;
+        MappedItem mappedItem = (MappedItem)item;
+        return (mappedItem.list == this && mappedItem.locations.generation == loc.generation &&
+                mappedItem.index >= 0 && mappedItem.index < loc.count);
     }
 
 
+    /**
+     * Time and spatial indexing are not supported since items
+     * are only views created on demand and are not kept by the list
+     */
+    @Override
+    public void setTimeComponent(String timePath)
+    {
+    }
+    
+    
+    @Override
+    public BlockListSpatialIndex getSpatialIndex()
+    {
+        return null;
+    }
+    
+    
     @Override
     public BlockList copy()
     {
-        // TODO Auto-generated method stub
-        return super.copy();
+        BlockList newList = new BlockListBDB(segmentDir);
+        newList.setBlockStructure(this.blockStructure.copy());
+        return newList;
     }
 
 
     @Override
-    public AbstractDataBlock get(int index)
+    public BlockListIterator getIterator()
     {
-        // TODO Auto-generated method stub
-        return super.get(index);
+        return new MappedIterator();
     }
 
 
+    /**
+     * Gets a new block decoded from the last published locations.
+     * Index past the end of the list returns the last block.
+     * @param index
+     * @return data block or null if list is empty
+     */
     @Override
-    public BlockListItem getCurrentItem()
+    public AbstractDataBlock get(int index)
     {
-        // TODO Auto-generated method stub
-        return super.getCurrentItem();
+        Locations loc = enterLocations();
+        
+        try
+        {
+            if (loc.count == 0)
+                return null;
+            
+            int i = Math.min(index, loc.count-1);
+            AbstractDataBlock block = decodeBlock(loc, i);
+            currentIndex = i;
+            return block;
+        }
+        finally
+        {
+            loc.epoch.exit();
+        }
     }
 
 
     @Override
-    public BlockListItem getFirstItem()
+    public BlockListItem getItem(int index)
     {
-        // TODO Auto-generated method stub
-        return super.getFirstItem();
+        return createItem(index);
     }
 
 
     @Override
-    public BlockListIterator getIterator()
+    public BlockListItem getCurrentItem()
     {
-        // TODO Auto-generated method stub
-        return super.getIterator();
+        return createItem(currentIndex);
     }
 
 
     @Override
-    public BlockListItem getLastItem()
+    public BlockListItem getFirstItem()
     {
-        // TODO Auto-generated method stub
-        return super.getLastItem();
+        return createItem(0);
     }
 
 
     @Override
-    public int getSize()
+    public BlockListItem getLastItem()
     {
-        // TODO Auto-generated method stub
-        return super.getSize();
+        return createItem(locations.count-1);
     }
-
-
+    
+    
     @Override
-    public void remove(BlockListItem item)
+    public void checkConsistency()
     {
-        // TODO Auto-generated method stub
-        super.remove(item);
+        Locations loc = locations;
+        if (loc.count < 0 || loc.count > loc.blockLengths.length || size != loc.count)
+            throw new IllegalStateException();
+    }
+    
+    
+    /**
+     * Reads the last published locations and registers as a reader
+     * of their epoch. Caller must exit the epoch when done.
+     * @return locations
+     */
+    protected Locations enterLocations()
+    {
+        // retry if list was cleared in between
+        Locations loc;
+        do loc = locations;
+        while (!loc.epoch.enter());
+        
+        return loc;
+    }
+    
+    
+    /**
+     * Creates an item whose data is decoded right away, since
+     * it is not protected by an iterator when used
+     * @param index
+     * @return item or null if index is out of range
+     */
+    protected BlockListItem createItem(int index)
+    {
+        Locations loc = enterLocations();
+        
+        try
+        {
+            if (index < 0 || index >= loc.count)
+                return null;
+            
+            return new MappedItem(this, loc, index, decodeBlock(loc, index));
+        }
+        finally
+        {
+            loc.epoch.exit();
+        }
+    }
+    
+    
+    protected int getIndex(BlockListItem item)
+    {
+        if (!contains(item))
+            throw new IllegalArgumentException("Item is not part of this list");
+        
+        return ((MappedItem)item).index;
+    }
+    
+    
+    protected void moveOrInsert(BlockListItem newItem, int index)
+    {
+        AbstractDataBlock data = newItem.getData();
+        
+        if (contains(newItem))
+        {
+            int oldIndex = ((MappedItem)newItem).index;
+            removeIndex(oldIndex);
+            if (oldIndex < index)
+                index--;
+        }
+        
+        insertBlock(index, data);
+    }
+    
+    
+    /**
+     * Serializes the block at the end of the current segment
+     * and inserts its location at the given index
+     * @param index
+     * @param dataBlock
+     */
+    protected void insertBlock(int index, AbstractDataBlock dataBlock)
+    {
+        Locations loc = locations;
+        int count = loc.count;
+        int length = writeBlock(dataBlock);
+        Segment segment = segments.get(segments.size() - 1);
+        ByteBuffer[] buffers = getBuffers(loc);
+        
+        // append in place if no published location set can see the slot
+        if (index == count && count == locationsHighMark && count < loc.blockLengths.length)
+        {
+            setLocation(loc, count, segment, length);
+            publishLocations(new Locations(buffers, loc.blockSegments, loc.blockPositions, loc.blockLengths,
+                                           count + 1, loc.generation, loc.epoch));
+            return;
+        }
+        
+        // otherwise copy to new arrays, shifting following locations
+        int capacity = loc.blockLengths.length;
+        if (count + 1 > capacity)
+            capacity = capacity * 3 / 2 + 1;
+        Locations newLoc = allocateLocations(loc, buffers, capacity);
+        copyLocations(loc, 0, newLoc, 0, index);
+        copyLocations(loc, index, newLoc, index + 1, count - index);
+        setLocation(newLoc, index, segment, length);
+        
+        // blocks keep their index when appending
+        long generation = (index == count) ? loc.generation : loc.generation + 1;
+        publishLocations(new Locations(buffers, newLoc.blockSegments, newLoc.blockPositions, newLoc.blockLengths,
+                                       count + 1, generation, loc.epoch));
+    }
+    
+    
+    /**
+     * Stores new data of an item at a new location, like modifying
+     * a data block of a regular list. Ignored if the item is not part
+     * of the current generation anymore.
+     * @param item
+     * @param dataBlock
+     */
+    protected synchronized void replaceBlock(MappedItem item, AbstractDataBlock dataBlock)
+    {
+        if (!contains(item))
+            return;
+        
+        // copy arrays since readers of this generation may read the location
+        Locations loc = locations;
+        int length = writeBlock(dataBlock);
+        Segment segment = segments.get(segments.size() - 1);
+        ByteBuffer[] buffers = getBuffers(loc);
+        Locations newLoc = allocateLocations(loc, buffers, loc.blockLengths.length);
+        copyLocations(loc, 0, newLoc, 0, loc.count);
+        setLocation(newLoc, item.index, segment, length);
+        publishLocations(new Locations(buffers, newLoc.blockSegments, newLoc.blockPositions, newLoc.blockLengths,
+                                       loc.count, loc.generation, loc.epoch));
+    }
+    
+    
+    protected void removeIndex(int index)
+    {
+        Locations loc = locations;
+        int count = loc.count;
+        
+        // removing last block just shrinks the published count but
+        // starts a new generation so that an item created later for the
+        // same index is not mistaken for the removed one
+        if (index == count - 1)
+        {
+            publishLocations(new Locations(loc.buffers, loc.blockSegments, loc.blockPositions, loc.blockLengths,
+                                           count - 1, loc.generation + 1, loc.epoch));
+            return;
+        }
+        
+        Locations newLoc = allocateLocations(loc, loc.buffers, loc.blockLengths.length);
+        copyLocations(loc, 0, newLoc, 0, index);
+        copyLocations(loc, index + 1, newLoc, index, count - index - 1);
+        publishLocations(new Locations(loc.buffers, newLoc.blockSegments, newLoc.blockPositions, newLoc.blockLengths,
+                                       count - 1, loc.generation + 1, loc.epoch));
+    }
+    
+    
+    /**
+     * Serializes the block at the end of the last segment,
+     * creating a new segment if it has not enough space
+     * @param dataBlock
+     * @return length of serialized block
+     */
+    protected int writeBlock(AbstractDataBlock dataBlock)
+    {
+        try
+        {
+            writeBuffer.reset();
+            dataWriter.reset();
+            dataWriter.write(dataBlock);
+            dataWriter.flush();
+            int length = writeBuffer.size();
+            
+            // write past the published blocks so readers are not affected
+            Segment segment = getWritableSegment(length);
+            ByteBuffer dest = segment.buffer.duplicate();
+            dest.position(segment.writePosition);
+            writeBuffer.writeTo(dest);
+            segment.writePosition += length;
+            
+            return length;
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Error while writing block to segment file", e);
+        }
+    }
+    
+    
+    /**
+     * Decodes block at the given index from the mapped segment.
+     * Caller must be registered as a reader of the locations epoch.
+     * @param loc
+     * @param index
+     * @return new data block containing decoded data
+     */
+    protected AbstractDataBlock decodeBlock(Locations loc, int index)
+    {
+        try
+        {
+            int position = loc.blockPositions[index];
+            ByteBuffer blockData = loc.buffers[loc.blockSegments[index]].duplicate();
+            blockData.limit(position + loc.blockLengths[index]);
+            blockData.position(position);
+            
+            BinaryDataParser parser = dataParser.get();
+            parser.setInput(new ByteBufferInputStream(blockData));
+            parser.reset();
+            return (AbstractDataBlock)parser.parse();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Error while reading block from segment file", e);
+        }
+    }
+    
+    
+    /**
+     * Gets the current segment if it has enough space for the
+     * block or creates a new one
+     * @param length
+     * @return segment to write to
+     */
+    protected Segment getWritableSegment(int length) throws IOException
+    {
+        Segment segment = null;
+        if (!segments.isEmpty())
+            segment = segments.get(segments.size() - 1);
+        
+        if (segment == null || segment.buffer.capacity() - segment.writePosition < length)
+        {
+            segment = new Segment();
+            segment.file = File.createTempFile("stt_blocks_", ".seg", segmentDir);
+            segment.file.deleteOnExit();
+            segment.raf = new RandomAccessFile(segment.file, "rw");
+            int segmentSize = Math.max(SEGMENT_SIZE, length);
+            segment.buffer = segment.raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            segments.add(segment);
+        }
+        
+        return segment;
+    }
+    
+    
+    /**
+     * Closes and deletes a segment file.
+     * Mapped memory is freed when the last location set
+     * referencing the buffer is garbage collected.
+     * @param segment
+     */
+    protected static void closeSegment(Segment segment)
+    {
+        try
+        {
+            segment.buffer = null;
+            segment.raf.close();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        
+        // file may not be deleted while still mapped on some platforms
+        // in this case it will be deleted when the VM exits
+        segment.file.delete();
+    }
+    
+    
+    /**
+     * @return buffers of all segments of current epoch,
+     *         reusing the array of given locations if up to date
+     */
+    protected ByteBuffer[] getBuffers(Locations loc)
+    {
+        if (loc.buffers.length == segments.size())
+            return loc.buffers;
+        
+        ByteBuffer[] buffers = new ByteBuffer[segments.size()];
+        for (int i = 0; i < buffers.length; i++)
+            buffers[i] = segments.get(i).buffer;
+        
+        return buffers;
+    }
+    
+    
+    protected void setLocation(Locations loc, int index, Segment segment, int length)
+    {
+        loc.blockSegments[index] = segments.size() - 1;
+        loc.blockPositions[index] = segment.writePosition - length;
+        loc.blockLengths[index] = length;
+    }
+    
+    
+    protected Locations allocateLocations(Locations loc, ByteBuffer[] buffers, int capacity)
+    {
+        return new Locations(buffers, new int[capacity], new int[capacity], new int[capacity], 0, loc.generation, loc.epoch);
+    }
+    
+    
+    protected void copyLocations(Locations src, int srcIndex, Locations dest, int destIndex, int count)
+    {
+        System.arraycopy(src.blockSegments, srcIndex, dest.blockSegments, destIndex, count);
+        System.arraycopy(src.blockPositions, srcIndex, dest.blockPositions, destIndex, count);
+        System.arraycopy(src.blockLengths, srcIndex, dest.blockLengths, destIndex, count);
+    }
+    
+    
+    protected void publishLocations(Locations loc)
+    {
+        Locations oldLoc = locations;
+        if (oldLoc == null || loc.blockLengths != oldLoc.blockLengths)
+            locationsHighMark = loc.count;
+        else
+            locationsHighMark = Math.max(locationsHighMark, loc.count);
+        
+        locations = loc;
+        size = loc.count;
+    }
+    
+    
+    /**
+     * @return total size of segment files of current epoch in bytes
+     */
+    public synchronized long getFileSize()
+    {
+        long fileSize = 0;
+        for (int i = 0; i < segments.size(); i++)
+            fileSize += segments.get(i).buffer.capacity();
+        
+        return fileSize;
     }
-
 }
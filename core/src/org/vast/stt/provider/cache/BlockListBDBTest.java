@@ -0,0 +1,340 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit Cache Engine".
+  
+ The Initial Developer of the Original Code is Sensia Software LLC.
+ Portions created by the Initial Developer are Copyright (C) 2008
+ the Initial Developer. All Rights Reserved.
+ 
+ Contributor(s): 
+    Alexandre Robin <alex.robin@sensiasoftware.com>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.provider.cache;
+
+import java.io.File;
+import java.io.IOException;
+import org.vast.cdm.common.DataType;
+import org.vast.data.AbstractDataBlock;
+import org.vast.data.DataGroup;
+import org.vast.data.DataValue;
+import org.vast.stt.data.BlockList;
+import org.vast.stt.data.BlockListItem;
+import org.vast.stt.data.BlockListIterator;
+import org.vast.stt.data.DataNode;
+
+
+/**
+ * <p><b>Title:</b>
+ * BlockListBDBTest
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Checks that lists created by a DataNode with off heap storage enabled
+ * keep their blocks in segment files, that iterators opened before a
+ * clear still read the old blocks and keep the old files until they are
+ * closed, that DataNode.clearAll() deletes all segment files, and that
+ * concurrent readers never see a partially written block while a writer
+ * appends, removes and clears. Each scenario writes to its own
+ * temporary directory.
+ * Run with: BlockListBDBTest [number of blocks]
+ * </p>
+ *
+ * <p>Copyright (c) 2008</p>
+ * @author Alexandre Robin
+ * @date Mar 16, 2009
+ * @version 1.0
+ */
+public class BlockListBDBTest
+{
+    protected final static int NUM_READERS = 3;
+    protected final static long STRESS_DURATION = 2000;
+    
+    protected int numBlocks;
+    protected volatile String readError;
+    
+    
+    public BlockListBDBTest(int numBlocks)
+    {
+        this.numBlocks = numBlocks;
+    }
+    
+    
+    protected DataNode createNode(File dir)
+    {
+        DataNode node = new DataNode();
+        node.setOffHeapStorage(true);
+        node.setSegmentDir(dir);
+        return node;
+    }
+    
+    
+    protected BlockList createList(DataNode node)
+    {
+        DataGroup record = new DataGroup(2);
+        record.setName("record");
+        record.addComponent("value", new DataValue(DataType.DOUBLE));
+        record.addComponent("check", new DataValue(DataType.DOUBLE));
+        
+        BlockList list = node.createList(record);
+        if (!(list instanceof BlockListBDB))
+            throw new IllegalStateException("DataNode did not create an off heap list");
+        
+        return list;
+    }
+    
+    
+    /**
+     * Adds blocks whose check value is derived from their value
+     * @param list
+     * @param first value of first block
+     * @param count
+     */
+    protected void addBlocks(BlockList list, int first, int count)
+    {
+        for (int i=0; i<count; i++)
+        {
+            AbstractDataBlock block = (AbstractDataBlock)list.getBlockStructure().createDataBlock();
+            block.setDoubleValue(0, first + i);
+            block.setDoubleValue(1, -2.0 * (first + i));
+            list.addBlock(block);
+        }
+    }
+    
+    
+    protected void checkBlock(AbstractDataBlock block, double expectedValue, String step)
+    {
+        if (block.getDoubleValue(0) != expectedValue || block.getDoubleValue(1) != -2.0 * expectedValue)
+            throw new IllegalStateException(step + ": block " + expectedValue + " read as " + block.getDoubleValue(0));
+    }
+    
+    
+    /**
+     * Checks that iteration and indexed access return blocks
+     * with consecutive values starting at first
+     */
+    protected void checkContent(BlockList list, int first, int count, String step)
+    {
+        if (list.getSize() != count)
+            throw new IllegalStateException(step + ": size is " + list.getSize() + " instead of " + count);
+        
+        BlockListIterator it = list.getIterator();
+        int i = 0;
+        while (it.hasNext())
+            checkBlock(it.next().getData(), first + i++, step);
+        
+        for (i=0; i<count; i+=Math.max(1, count/100))
+            checkBlock(it.get(i), first + i, step);
+        it.close();
+        
+        if (count > 0)
+            checkBlock(list.get(count + 10), first + count - 1, step + " (clamped get)");
+    }
+    
+    
+    protected int countFiles(File dir)
+    {
+        File[] files = dir.listFiles();
+        return (files == null) ? 0 : files.length;
+    }
+    
+    
+    public void testAccess(File dir)
+    {
+        DataNode node = createNode(dir);
+        BlockList list = createList(node);
+        addBlocks(list, 0, numBlocks);
+        checkContent(list, 0, numBlocks, "after append");
+        
+        if (countFiles(dir) == 0)
+            throw new IllegalStateException("no segment file created");
+        
+        // remove first block and reinsert it at the end
+        BlockListItem first = list.getFirstItem();
+        list.remove(first);
+        checkContent(list, 1, numBlocks - 1, "after remove");
+        
+        BlockListItem last = list.getLastItem();
+        AbstractDataBlock block = (AbstractDataBlock)list.getBlockStructure().createDataBlock();
+        block.setDoubleValue(0, numBlocks);
+        block.setDoubleValue(1, -2.0 * numBlocks);
+        list.insertAfter(new BlockListItem(block, null, null), last);
+        checkContent(list, 1, numBlocks, "after insert");
+        
+        node.clearAll();
+        if (countFiles(dir) != 0)
+            throw new IllegalStateException(countFiles(dir) + " segment files left after clearAll");
+    }
+    
+    
+    public void testClearWhileReading(File dir)
+    {
+        DataNode node = createNode(dir);
+        BlockList list = createList(node);
+        addBlocks(list, 0, numBlocks);
+        int oldFiles = countFiles(dir);
+        
+        // open iterator then clear and refill list
+        BlockListIterator it = list.getIterator();
+        list.clear();
+        addBlocks(list, 1000000, 10);
+        
+        if (countFiles(dir) <= oldFiles)
+            throw new IllegalStateException("segment files deleted while iterator is open");
+        
+        int i = 0;
+        while (it.hasNext())
+            checkBlock(it.next().getData(), i++, "cleared snapshot");
+        if (i != numBlocks)
+            throw new IllegalStateException("iterator read " + i + " blocks of cleared snapshot");
+        
+        // closing the last reader deletes old segment files
+        it.close();
+        if (countFiles(dir) != 1)
+            throw new IllegalStateException(countFiles(dir) + " segment files after closing iterator");
+        checkContent(list, 1000000, 10, "after refill");
+        
+        node.clearAll();
+        if (countFiles(dir) != 0)
+            throw new IllegalStateException(countFiles(dir) + " segment files left after clearAll");
+    }
+    
+    
+    public void testConcurrentReaders(File dir) throws InterruptedException
+    {
+        final DataNode node = createNode(dir);
+        final BlockList list = createList(node);
+        final long stopTime = System.currentTimeMillis() + STRESS_DURATION;
+        
+        Thread[] readers = new Thread[NUM_READERS];
+        for (int r=0; r<NUM_READERS; r++)
+        {
+            readers[r] = new Thread()
+            {
+                public void run()
+                {
+                    BlockListIterator it = list.getIterator();
+                    try
+                    {
+                        while (System.currentTimeMillis() < stopTime && readError == null)
+                        {
+                            it.reset();
+                            while (it.hasNext())
+                            {
+                                AbstractDataBlock block = it.next().getData();
+                                if (block.getDoubleValue(1) != -2.0 * block.getDoubleValue(0))
+                                    throw new IllegalStateException("torn block " + block.getDoubleValue(0));
+                            }
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        readError = e.toString();
+                    }
+                    finally
+                    {
+                        it.close();
+                    }
+                }
+            };
+            readers[r].start();
+        }
+        
+        // append, remove head blocks and clear periodically
+        int next = 0;
+        while (System.currentTimeMillis() < stopTime && readError == null)
+        {
+            addBlocks(list, next, 100);
+            next += 100;
+            
+            if (next % 1000 == 0)
+                list.remove(list.getFirstItem());
+            
+            if (next % 20000 == 0)
+                list.clear();
+        }
+        
+        for (int r=0; r<NUM_READERS; r++)
+            readers[r].join();
+        
+        if (readError != null)
+            throw new IllegalStateException(readError);
+        
+        node.clearAll();
+        if (countFiles(dir) != 0)
+            throw new IllegalStateException(countFiles(dir) + " segment files left after clearAll");
+    }
+    
+    
+    protected static File createTempDir(String name) throws IOException
+    {
+        File dir = File.createTempFile(name, "");
+        dir.delete();
+        dir.mkdirs();
+        return dir;
+    }
+    
+    
+    protected static void deleteDir(File dir)
+    {
+        File[] files = dir.listFiles();
+        if (files != null)
+        {
+            for (int i=0; i<files.length; i++)
+                files[i].delete();
+        }
+        
+        dir.delete();
+    }
+    
+    
+    public static void main(String[] args) throws IOException
+    {
+        int numBlocks = 100000;
+        if (args.length > 0)
+            numBlocks = Integer.parseInt(args[0]);
+        
+        String[] tests = new String[] {"Off heap access", "Clear while reading", "Concurrent readers"};
+        boolean ok = true;
+        
+        for (int t=0; t<tests.length; t++)
+        {
+            BlockListBDBTest test = new BlockListBDBTest(numBlocks);
+            File dir = createTempDir("stt-blocktest");
+            
+            try
+            {
+                switch (t)
+                {
+                    case 0: test.testAccess(dir); break;
+                    case 1: test.testClearWhileReading(dir); break;
+                    case 2: test.testConcurrentReaders(dir); break;
+                }
+                
+                System.out.println(tests[t] + " OK");
+            }
+            catch (Exception e)
+            {
+                System.out.println(tests[t] + " FAILED: " + e.getMessage());
+                ok = false;
+            }
+            finally
+            {
+                deleteDir(dir);
+            }
+        }
+        
+        if (!ok)
+            System.exit(1);
+    }
+}
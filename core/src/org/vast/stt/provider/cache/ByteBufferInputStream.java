@@ -0,0 +1,94 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit Cache Engine".
+  
+ The Initial Developer of the Original Code is Sensia Software LLC.
+ Portions created by the Initial Developer are Copyright (C) 2008
+ the Initial Developer. All Rights Reserved.
+ 
+ Contributor(s): 
+    Alexandre Robin <alex.robin@sensiasoftware.com>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.provider.cache;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * <p><b>Title:</b>
+ * ByteBufferInputStream
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Input stream reading directly from a ByteBuffer, so that
+ * records of memory mapped stores can be parsed without copy.
+ * </p>
+ *
+ * <p>Copyright (c) 2008</p>
+ * @author Alexandre Robin
+ * @date Mar 14, 2009
+ * @version 1.0
+ */
+public class ByteBufferInputStream extends InputStream
+{
+    protected ByteBuffer buffer;
+    
+    
+    public ByteBufferInputStream(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+    }
+    
+    
+    @Override
+    public int read()
+    {
+        if (!buffer.hasRemaining())
+            return -1;
+        
+        return buffer.get() & 0xFF;
+    }
+    
+    
+    @Override
+    public int read(byte[] b, int off, int len)
+    {
+        if (len == 0)
+            return 0;
+        
+        if (!buffer.hasRemaining())
+            return -1;
+        
+        len = Math.min(len, buffer.remaining());
+        buffer.get(b, off, len);
+        return len;
+    }
+    
+    
+    @Override
+    public long skip(long n)
+    {
+        int count = (int)Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + count);
+        return count;
+    }
+    
+    
+    @Override
+    public int available()
+    {
+        return buffer.remaining();
+    }
+}
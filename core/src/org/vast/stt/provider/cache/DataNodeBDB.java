@@ -22,8 +22,6 @@
 
 package org.vast.stt.provider.cache;
 
-import org.vast.cdm.common.DataComponent;
-import org.vast.stt.data.BlockList;
 import org.vast.stt.data.DataNode;
 
 
@@ -33,7 +31,9 @@ import org.vast.stt.data.DataNode;
  * </p>
  *
  * <p><b>Description:</b><br/>
- * TODO DataNodeBDB type description
+ * DataNode creating BlockListBDB lists so that all data is
+ * kept in memory mapped segment files instead of the java heap.
+ * Segment files are deleted when lists are cleared.
  * </p>
  *
  * <p>Copyright (c) 2008</p>
@@ -43,15 +43,9 @@ import org.vast.stt.data.DataNode;
 public class DataNodeBDB extends DataNode
 {
     
-    @Override
-    public BlockList createList(DataComponent component)
+    public DataNodeBDB()
     {
-        BlockList newList = new BlockListBDB();
-        newList.setBlockStructure(component);
-        listMap.put(component.getName(), newList);
-        listArray.add(newList);
-        rebuildMappings(component);
-        component.clearData();
-        return newList;
+        super();
+        setOffHeapStorage(true);
     }
 }
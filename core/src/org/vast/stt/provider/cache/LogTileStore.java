@@ -0,0 +1,631 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit Cache Engine".
+  
+ The Initial Developer of the Original Code is Sensia Software LLC.
+ Portions created by the Initial Developer are Copyright (C) 2008
+ the Initial Developer. All Rights Reserved.
+ 
+ Contributor(s): 
+    Alexandre Robin <alex.robin@sensiasoftware.com>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.provider.cache;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * <p><b>Title:</b>
+ * LogTileStore
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * TileStore writing records to an append-only log made of memory mapped
+ * segment files, with a sorted in-memory index of record locations that is
+ * rebuilt by replaying the log when the store is opened. Records are read
+ * directly from the mapped segments without being copied.
+ * 
+ * Each log entry is made of:
+ * <ul>
+ * <li>magic number (int)</li>
+ * <li>entry type (byte): put or delete range</li>
+ * <li>key (long)</li>
+ * <li>payload length (int)</li>
+ * <li>payload: the record or the end key of a deleted range</li>
+ * <li>CRC32 of type, key, length and payload (int)</li>
+ * </ul>
+ * Replay stops at the first invalid entry so a crash can only lose the last
+ * entries written, never entries in the middle of the log. Segments are
+ * forced to disk before a new segment is started.
+ * 
+ * Space used by replaced and deleted records is reclaimed on flush when
+ * there is more garbage than live data, by copying live records of the
+ * oldest segment to the head of the log and deleting the segment file.
+ * </p>
+ *
+ * <p>Copyright (c) 2008</p>
+ * @author Alexandre Robin
+ * @date Mar 14, 2009
+ * @version 1.0
+ */
+public class LogTileStore implements TileStore
+{
+    public final static int DEFAULT_SEGMENT_SIZE = 64*1024*1024;
+    protected final static String SEGMENT_EXT = ".seg";
+    protected final static int ENTRY_MAGIC = 0x53545443;
+    protected final static byte PUT_ENTRY = 1;
+    protected final static byte DELETE_ENTRY = 2;
+    protected final static int HEADER_SIZE = 17;
+    protected final static int ENTRY_OVERHEAD = HEADER_SIZE + 4;
+    
+    protected static Log log = LogFactory.getLog(LogTileStore.class);
+    
+    protected File dir;
+    protected int segmentSize;
+    protected TreeMap<Long, TileRefs> index;
+    protected LinkedList<Segment> segments;
+    protected Segment head;
+    protected long usedBytes;
+    protected long liveBytes;
+    protected List<File> filesToDelete;
+    protected CRC32 crc;
+    protected byte[] crcBuffer;
+    
+    
+    protected static class Segment
+    {
+        public int number;
+        public File file;
+        public FileChannel channel;
+        public MappedByteBuffer buffer;
+        public int writePos;
+        public long liveBytes;
+    }
+    
+    
+    protected static class RecordRef
+    {
+        public Segment segment;
+        public int offset; // offset of entry in segment
+        public int length; // record length
+        
+        
+        public RecordRef(Segment segment, int offset, int length)
+        {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+    
+    
+    /**
+     * Locations of all records of a tile. The info record is kept
+     * in its own field so that the array is only as long as the
+     * number of data records.
+     */
+    protected static class TileRefs
+    {
+        public RecordRef[] records = new RecordRef[0];
+        public RecordRef info;
+        
+        
+        public RecordRef get(int recordIndex)
+        {
+            if (recordIndex == INFO_RECORD)
+                return info;
+            
+            if (recordIndex >= records.length)
+                return null;
+            
+            return records[recordIndex];
+        }
+        
+        
+        /**
+         * Sets location of a record
+         * @param recordIndex
+         * @param ref
+         * @return previous location or null if record is new
+         */
+        public RecordRef set(int recordIndex, RecordRef ref)
+        {
+            RecordRef oldRef;
+            
+            if (recordIndex == INFO_RECORD)
+            {
+                oldRef = info;
+                info = ref;
+                return oldRef;
+            }
+            
+            if (recordIndex >= records.length)
+            {
+                RecordRef[] newRecords = new RecordRef[recordIndex + 1];
+                System.arraycopy(records, 0, newRecords, 0, records.length);
+                records = newRecords;
+            }
+            
+            oldRef = records[recordIndex];
+            records[recordIndex] = ref;
+            return oldRef;
+        }
+    }
+    
+    
+    public LogTileStore(File dir) throws IOException
+    {
+        this(dir, DEFAULT_SEGMENT_SIZE);
+    }
+    
+    
+    public LogTileStore(File dir, int segmentSize) throws IOException
+    {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.index = new TreeMap<Long, TileRefs>();
+        this.segments = new LinkedList<Segment>();
+        this.filesToDelete = new ArrayList<File>();
+        this.crc = new CRC32();
+        this.crcBuffer = new byte[8192];
+        open();
+    }
+    
+    
+    /**
+     * Maps existing segments and replays them to rebuild the index
+     * @throws IOException
+     */
+    protected void open() throws IOException
+    {
+        dir.mkdirs();
+        File[] files = dir.listFiles(new FileFilter()
+        {
+            public boolean accept(File file)
+            {
+                return file.getName().endsWith(SEGMENT_EXT);
+            }
+        });
+        
+        if (files == null)
+            throw new IOException("Cannot list segments in " + dir);
+        
+        Arrays.sort(files, new Comparator<File>()
+        {
+            public int compare(File f1, File f2)
+            {
+                int n1 = getSegmentNumber(f1);
+                int n2 = getSegmentNumber(f2);
+                return (n1 < n2) ? -1 : ((n1 == n2) ? 0 : 1);
+            }
+        });
+        
+        boolean truncated = false;
+        for (int i=0; i<files.length; i++)
+        {
+            // segments after a damaged one are not consistent anymore
+            if (truncated)
+            {
+                log.warn("Deleting segment " + files[i] + " written after damaged segment");
+                files[i].delete();
+                continue;
+            }
+            
+            Segment segment = mapSegment(files[i], getSegmentNumber(files[i]), (int)files[i].length());
+            segments.add(segment);
+            truncated = !replay(segment);
+            usedBytes += segment.writePos;
+            
+            if (truncated)
+            {
+                // erase damaged entries so that they cannot be replayed later
+                log.warn("Log segment " + files[i] + " truncated at offset " + segment.writePos);
+                for (int p=segment.writePos; p<segment.buffer.capacity(); p++)
+                    segment.buffer.put(p, (byte)0);
+            }
+        }
+        
+        if (segments.isEmpty())
+            head = newSegment(segmentSize);
+        else
+            head = segments.getLast();
+        
+        if (log.isDebugEnabled())
+            log.debug("Opened tile log " + dir + ": " + segments.size() + " segment(s), " +
+                      index.size() + " tiles, " + liveBytes + "/" + usedBytes + " bytes live");
+    }
+    
+    
+    /**
+     * Replays all valid entries of a segment
+     * @param segment
+     * @return true if segment ends cleanly, false if it has a damaged entry
+     */
+    protected boolean replay(Segment segment)
+    {
+        MappedByteBuffer buf = segment.buffer;
+        int limit = buf.capacity();
+        int pos = 0;
+        
+        while (pos + ENTRY_OVERHEAD <= limit)
+        {
+            int magic = buf.getInt(pos);
+            if (magic != ENTRY_MAGIC)
+            {
+                segment.writePos = pos;
+                return (magic == 0);
+            }
+            
+            byte type = buf.get(pos + 4);
+            long key = buf.getLong(pos + 5);
+            int length = buf.getInt(pos + 13);
+            
+            if (length < 1 || pos + ENTRY_OVERHEAD + length > limit ||
+                computeCrc(buf, pos + 4, HEADER_SIZE - 4 + length) != buf.getInt(pos + HEADER_SIZE + length))
+            {
+                segment.writePos = pos;
+                return false;
+            }
+            
+            if (type == PUT_ENTRY)
+                applyPut(key, segment, pos, length);
+            else if (type == DELETE_ENTRY && length == 8)
+                applyDelete(key, buf.getLong(pos + HEADER_SIZE));
+            else
+            {
+                segment.writePos = pos;
+                return false;
+            }
+            
+            pos += ENTRY_OVERHEAD + length;
+        }
+        
+        segment.writePos = pos;
+        return true;
+    }
+    
+    
+    public synchronized long seek(long key) throws IOException
+    {
+        Long nextKey = index.ceilingKey(key);
+        return (nextKey == null) ? NO_KEY : nextKey;
+    }
+    
+    
+    public synchronized ByteBuffer get(long key, int recordIndex) throws IOException
+    {
+        TileRefs refs = index.get(key);
+        RecordRef ref = (refs == null) ? null : refs.get(recordIndex);
+        if (ref == null)
+            return null;
+        
+        // return view of mapped segment
+        ByteBuffer buf = ref.segment.buffer.duplicate();
+        buf.position(ref.offset + HEADER_SIZE);
+        buf.limit(ref.offset + HEADER_SIZE + ref.length);
+        return buf.slice().asReadOnlyBuffer();
+    }
+    
+    
+    public synchronized void put(long key, ByteBuffer record) throws IOException
+    {
+        if (!record.hasRemaining())
+            throw new IllegalArgumentException("Record must at least contain the record index");
+        
+        int offset = writeEntry(PUT_ENTRY, key, record);
+        applyPut(key, head, offset, record.remaining());
+    }
+    
+    
+    public synchronized void delete(long fromKey, long toKey) throws IOException
+    {
+        if (fromKey >= toKey || index.subMap(fromKey, toKey).isEmpty())
+            return;
+        
+        ByteBuffer payload = ByteBuffer.allocate(8);
+        payload.putLong(0, toKey);
+        writeEntry(DELETE_ENTRY, fromKey, payload);
+        applyDelete(fromKey, toKey);
+    }
+    
+    
+    public synchronized void flush() throws IOException
+    {
+        compact();
+        head.buffer.force();
+        
+        // retry deleting files that were still mapped
+        Iterator<File> it = filesToDelete.iterator();
+        while (it.hasNext())
+        {
+            if (it.next().delete())
+                it.remove();
+        }
+    }
+    
+    
+    public synchronized void close() throws IOException
+    {
+        flush();
+        
+        for (Segment segment: segments)
+            segment.channel.close();
+    }
+    
+    
+    /**
+     * Appends entry at the end of the log, starting a new segment if needed
+     * @param type
+     * @param key
+     * @param payload
+     * @return offset of entry in head segment
+     * @throws IOException
+     */
+    protected int writeEntry(byte type, long key, ByteBuffer payload) throws IOException
+    {
+        int length = payload.remaining();
+        int entrySize = ENTRY_OVERHEAD + length;
+        
+        if (head.writePos + entrySize > head.buffer.capacity())
+        {
+            head.buffer.force();
+            head = newSegment(Math.max(segmentSize, entrySize));
+        }
+        
+        MappedByteBuffer buf = head.buffer;
+        int pos = head.writePos;
+        buf.put(pos + 4, type);
+        buf.putLong(pos + 5, key);
+        buf.putInt(pos + 13, length);
+        
+        ByteBuffer dest = buf.duplicate();
+        dest.position(pos + HEADER_SIZE);
+        dest.put(payload.duplicate());
+        
+        buf.putInt(pos + HEADER_SIZE + length, computeCrc(buf, pos + 4, HEADER_SIZE - 4 + length));
+        buf.putInt(pos, ENTRY_MAGIC);
+        
+        head.writePos += entrySize;
+        usedBytes += entrySize;
+        return pos;
+    }
+    
+    
+    protected void applyPut(long key, Segment segment, int offset, int length)
+    {
+        int recordIndex = segment.buffer.get(offset + HEADER_SIZE);
+        TileRefs refs = index.get(key);
+        
+        if (refs == null)
+        {
+            refs = new TileRefs();
+            index.put(key, refs);
+        }
+        
+        RecordRef oldRef = refs.set(recordIndex, new RecordRef(segment, offset, length));
+        if (oldRef != null)
+            removeRef(oldRef);
+        
+        segment.liveBytes += ENTRY_OVERHEAD + length;
+        liveBytes += ENTRY_OVERHEAD + length;
+    }
+    
+    
+    protected void applyDelete(long fromKey, long toKey)
+    {
+        SortedMap<Long, TileRefs> deleted = index.subMap(fromKey, toKey);
+        
+        for (TileRefs refs: deleted.values())
+        {
+            for (int i=0; i<refs.records.length; i++)
+            {
+                if (refs.records[i] != null)
+                    removeRef(refs.records[i]);
+            }
+            
+            if (refs.info != null)
+                removeRef(refs.info);
+        }
+        
+        deleted.clear();
+    }
+    
+    
+    protected void removeRef(RecordRef ref)
+    {
+        ref.segment.liveBytes -= ENTRY_OVERHEAD + ref.length;
+        liveBytes -= ENTRY_OVERHEAD + ref.length;
+    }
+    
+    
+    /**
+     * Rewrites live records of oldest segments until garbage
+     * is smaller than live data
+     * @throws IOException
+     */
+    protected void compact() throws IOException
+    {
+        while (segments.size() > 1 && usedBytes - liveBytes > liveBytes)
+        {
+            Segment oldest = segments.getFirst();
+            int copyCount = 0;
+            
+            // copy live records to head (this updates index refs)
+            // delete entries of the oldest segment can be dropped since
+            // there is no older segment where they could apply
+            for (Entry<Long, TileRefs> entry: index.entrySet())
+            {
+                TileRefs refs = entry.getValue();
+                for (int i=0; i<refs.records.length; i++)
+                {
+                    if (refs.records[i] != null && refs.records[i].segment == oldest)
+                    {
+                        refs.records[i] = copyToHead(entry.getKey(), refs.records[i]);
+                        copyCount++;
+                    }
+                }
+                
+                if (refs.info != null && refs.info.segment == oldest)
+                {
+                    refs.info = copyToHead(entry.getKey(), refs.info);
+                    copyCount++;
+                }
+            }
+            
+            // make sure copies are on disk before deleting segment
+            head.buffer.force();
+            segments.removeFirst();
+            usedBytes -= oldest.writePos;
+            oldest.channel.close();
+            if (!oldest.file.delete())
+                filesToDelete.add(oldest.file);
+            
+            if (log.isDebugEnabled())
+                log.debug("Compacted tile log segment " + oldest.file + ": " + copyCount + " record(s) copied");
+        }
+    }
+    
+    
+    /**
+     * Copies a live record to the head of the log
+     * @param key
+     * @param ref
+     * @return new location of record
+     * @throws IOException
+     */
+    protected RecordRef copyToHead(long key, RecordRef ref) throws IOException
+    {
+        ByteBuffer record = ref.segment.buffer.duplicate();
+        record.position(ref.offset + HEADER_SIZE);
+        record.limit(ref.offset + HEADER_SIZE + ref.length);
+        
+        int offset = writeEntry(PUT_ENTRY, key, record);
+        removeRef(ref);
+        head.liveBytes += ENTRY_OVERHEAD + ref.length;
+        liveBytes += ENTRY_OVERHEAD + ref.length;
+        return new RecordRef(head, offset, ref.length);
+    }
+    
+    
+    protected Segment newSegment(int size) throws IOException
+    {
+        int number = segments.isEmpty() ? 0 : segments.getLast().number + 1;
+        File file = new File(dir, String.format("%08d", number) + SEGMENT_EXT);
+        Segment segment = mapSegment(file, number, size);
+        segments.add(segment);
+        return segment;
+    }
+    
+    
+    protected Segment mapSegment(File file, int number, int size) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        
+        try
+        {
+            if (raf.length() < size)
+                raf.setLength(size);
+            
+            Segment segment = new Segment();
+            segment.number = number;
+            segment.file = file;
+            segment.channel = raf.getChannel();
+            segment.buffer = segment.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return segment;
+        }
+        catch (IOException e)
+        {
+            // don't leak file handle if mapping failed
+            raf.close();
+            throw e;
+        }
+    }
+    
+    
+    protected int getSegmentNumber(File file)
+    {
+        String name = file.getName();
+        try
+        {
+            return Integer.parseInt(name.substring(0, name.length() - SEGMENT_EXT.length()));
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+    
+    
+    protected int computeCrc(ByteBuffer buf, int offset, int length)
+    {
+        if (crcBuffer.length < length)
+            crcBuffer = new byte[length];
+        
+        ByteBuffer src = buf.duplicate();
+        src.position(offset);
+        src.get(crcBuffer, 0, length);
+        
+        crc.reset();
+        crc.update(crcBuffer, 0, length);
+        return (int)crc.getValue();
+    }
+    
+    
+    public synchronized int getTileCount()
+    {
+        return index.size();
+    }
+    
+    
+    public synchronized int getSegmentCount()
+    {
+        return segments.size();
+    }
+    
+    
+    /**
+     * @return bytes used by live records including log entry overhead
+     */
+    public synchronized long getLiveBytes()
+    {
+        return liveBytes;
+    }
+    
+    
+    /**
+     * @return bytes written to all segments, including garbage
+     */
+    public synchronized long getUsedBytes()
+    {
+        return usedBytes;
+    }
+}
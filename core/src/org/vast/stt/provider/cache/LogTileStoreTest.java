@@ -0,0 +1,390 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit Cache Engine".
+  
+ The Initial Developer of the Original Code is Sensia Software LLC.
+ Portions created by the Initial Developer are Copyright (C) 2008
+ the Initial Developer. All Rights Reserved.
+ 
+ Contributor(s): 
+    Alexandre Robin <alex.robin@sensiasoftware.com>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.provider.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.Map.Entry;
+
+
+/**
+ * <p><b>Title:</b>
+ * LogTileStoreTest
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Checks that LogTileStore keeps the same content as a reference map
+ * of tile records through restarts, torn writes, range deletions and
+ * compaction, and that it behaves like BDBTileStore when both are
+ * given the same random sequence of puts and deletes. Each scenario
+ * writes to its own temporary directory.
+ * Run with: LogTileStoreTest [number of random operations]
+ * </p>
+ *
+ * <p>Copyright (c) 2008</p>
+ * @author Alexandre Robin
+ * @date Mar 16, 2009
+ * @version 1.0
+ */
+public class LogTileStoreTest
+{
+    protected final static int SEGMENT_SIZE = 64*1024;
+    protected final static int NUM_RECORDS = 3;
+    
+    protected Random random = new Random(1);
+    protected TreeMap<Long, Map<Integer, byte[]>> model = new TreeMap<Long, Map<Integer, byte[]>>();
+    
+    
+    /**
+     * Creates a record with random content and stores it in the model
+     * @param key
+     * @param recordIndex
+     * @return record as passed to put()
+     */
+    protected ByteBuffer newRecord(long key, int recordIndex)
+    {
+        byte[] bytes = new byte[1 + random.nextInt(2000)];
+        random.nextBytes(bytes);
+        bytes[0] = (byte)recordIndex;
+        
+        Map<Integer, byte[]> records = model.get(key);
+        if (records == null)
+        {
+            records = new HashMap<Integer, byte[]>();
+            model.put(key, records);
+        }
+        records.put(recordIndex, bytes);
+        
+        return ByteBuffer.wrap(bytes);
+    }
+    
+    
+    /**
+     * Puts data records and info record of a tile
+     * @param store
+     * @param key
+     * @throws IOException
+     */
+    protected void putTile(TileStore store, long key) throws IOException
+    {
+        for (int i=0; i<NUM_RECORDS; i++)
+            store.put(key, newRecord(key, i));
+        store.put(key, newRecord(key, TileStore.INFO_RECORD));
+    }
+    
+    
+    protected void delete(TileStore store, long fromKey, long toKey) throws IOException
+    {
+        store.delete(fromKey, toKey);
+        model.subMap(fromKey, toKey).clear();
+    }
+    
+    
+    /**
+     * Checks that store contains exactly the tiles and records of the model
+     * @param store
+     * @param step
+     * @throws IOException
+     */
+    protected void checkContent(TileStore store, String step) throws IOException
+    {
+        // walk keys with seek
+        Iterator<Long> keys = model.keySet().iterator();
+        long key = store.seek(0);
+        while (key != TileStore.NO_KEY)
+        {
+            if (!keys.hasNext())
+                throw new IllegalStateException(step + ": unexpected tile " + key);
+            
+            long expectedKey = keys.next();
+            if (key != expectedKey)
+                throw new IllegalStateException(step + ": tile " + key + " found instead of " + expectedKey);
+            
+            key = store.seek(key + 1);
+        }
+        
+        if (keys.hasNext())
+            throw new IllegalStateException(step + ": tile " + keys.next() + " is missing");
+        
+        // compare records of each tile
+        for (Entry<Long, Map<Integer, byte[]>> entry: model.entrySet())
+        {
+            for (int i=0; i<=TileStore.INFO_RECORD; i++)
+            {
+                byte[] expected = entry.getValue().get(i);
+                ByteBuffer record = store.get(entry.getKey(), i);
+                
+                if (record == null && expected == null)
+                    continue;
+                
+                if (record == null || expected == null)
+                    throw new IllegalStateException(step + ": record " + i + " of tile " + entry.getKey() +
+                                                    ((record == null) ? " is missing" : " should not exist"));
+                
+                byte[] bytes = new byte[record.remaining()];
+                record.duplicate().get(bytes);
+                if (!Arrays.equals(bytes, expected))
+                    throw new IllegalStateException(step + ": record " + i + " of tile " + entry.getKey() + " differs");
+            }
+        }
+    }
+    
+    
+    /**
+     * Corrupts the last entry of the log, as if the process had crashed
+     * while writing it, and checks that only this entry is lost on replay
+     */
+    public void testTornTail(File dir) throws IOException
+    {
+        LogTileStore store = new LogTileStore(dir, SEGMENT_SIZE);
+        for (long key=1; key<=20; key++)
+            putTile(store, key);
+        checkContent(store, "before restart");
+        
+        // write last record and remember where it is
+        int tornPos = store.head.writePos;
+        File tornFile = store.head.file;
+        store.put(21, ByteBuffer.wrap(new byte[] {0, 1, 2, 3, 4, 5, 6, 7}));
+        store.close();
+        
+        // flip one payload byte so that CRC doesn't match
+        RandomAccessFile raf = new RandomAccessFile(tornFile, "rw");
+        try
+        {
+            raf.seek(tornPos + LogTileStore.HEADER_SIZE + 4);
+            raf.write(0xFF);
+        }
+        finally
+        {
+            raf.close();
+        }
+        
+        store = new LogTileStore(dir, SEGMENT_SIZE);
+        checkContent(store, "after torn write");
+        
+        // entries written after the damaged one must survive a restart
+        putTile(store, 22);
+        store.close();
+        store = new LogTileStore(dir, SEGMENT_SIZE);
+        checkContent(store, "after second restart");
+        store.close();
+    }
+    
+    
+    /**
+     * Checks that deleted ranges stay deleted after replay,
+     * including tiles written again after the deletion
+     */
+    public void testDeleteReplay(File dir) throws IOException
+    {
+        LogTileStore store = new LogTileStore(dir, SEGMENT_SIZE);
+        for (long key=1; key<=100; key++)
+            putTile(store, key);
+        
+        delete(store, 20, 50);
+        delete(store, 90, 1000);
+        putTile(store, 30);
+        checkContent(store, "after delete");
+        
+        store.close();
+        store = new LogTileStore(dir, SEGMENT_SIZE);
+        checkContent(store, "after replay");
+        
+        if (store.seek(20) != 30 || store.seek(31) != 50)
+            throw new IllegalStateException("seek() doesn't skip deleted tiles");
+        
+        store.close();
+    }
+    
+    
+    /**
+     * Overwrites the same tiles many times and checks that compaction
+     * reclaims the space without losing live records
+     */
+    public void testCompaction(File dir) throws IOException
+    {
+        LogTileStore store = new LogTileStore(dir, SEGMENT_SIZE);
+        
+        // these tiles must be copied when their segment is compacted
+        for (long key=100; key<110; key++)
+            putTile(store, key);
+        
+        for (int pass=0; pass<50; pass++)
+        {
+            for (long key=1; key<=20; key++)
+                putTile(store, key);
+            
+            if (pass % 10 == 9)
+                store.flush();
+        }
+        
+        store.flush();
+        checkContent(store, "after compaction");
+        
+        // live bytes must match model
+        long expectedLiveBytes = 0;
+        for (Map<Integer, byte[]> records: model.values())
+            for (byte[] record: records.values())
+                expectedLiveBytes += LogTileStore.ENTRY_OVERHEAD + record.length;
+        
+        if (store.getLiveBytes() != expectedLiveBytes)
+            throw new IllegalStateException("Live bytes = " + store.getLiveBytes() + " instead of " + expectedLiveBytes);
+        
+        long garbage = store.getUsedBytes() - store.getLiveBytes();
+        if (store.getSegmentCount() > 1 && garbage > store.getLiveBytes())
+            throw new IllegalStateException("Log not compacted: " + store.getSegmentCount() + " segments, " +
+                                            garbage + " bytes of garbage");
+        
+        File[] files = dir.listFiles();
+        if (files.length != store.getSegmentCount())
+            throw new IllegalStateException(files.length + " segment files for " + store.getSegmentCount() + " segments");
+        
+        store.close();
+        store = new LogTileStore(dir, SEGMENT_SIZE);
+        checkContent(store, "after compaction and replay");
+        store.close();
+    }
+    
+    
+    /**
+     * Applies the same random puts and deletes to both backends
+     * and checks that they end up with the same content
+     */
+    public void testBackends(File logDir, File bdbDir, int numOps) throws IOException
+    {
+        LogTileStore logStore = new LogTileStore(logDir, SEGMENT_SIZE);
+        BDBTileStore bdbStore = new BDBTileStore(bdbDir, "test");
+        
+        for (int i=0; i<numOps; i++)
+        {
+            int op = random.nextInt(100);
+            long key = 1 + random.nextInt(500);
+            
+            if (op < 5)
+            {
+                long toKey = key + random.nextInt(50);
+                logStore.delete(key, toKey);
+                bdbStore.delete(key, toKey);
+                model.subMap(key, toKey).clear();
+            }
+            else
+            {
+                int recordIndex = (op < 20) ? TileStore.INFO_RECORD : random.nextInt(NUM_RECORDS);
+                ByteBuffer record = newRecord(key, recordIndex);
+                logStore.put(key, record);
+                bdbStore.put(key, record);
+            }
+            
+            if (i % 1000 == 999)
+                logStore.flush();
+        }
+        
+        checkContent(logStore, "log store");
+        checkContent(bdbStore, "BDB store");
+        
+        logStore.close();
+        bdbStore.close();
+        logStore = new LogTileStore(logDir, SEGMENT_SIZE);
+        checkContent(logStore, "log store after replay");
+        logStore.close();
+    }
+    
+    
+    protected static File createTempDir(String name) throws IOException
+    {
+        File dir = File.createTempFile(name, "");
+        dir.delete();
+        dir.mkdirs();
+        return dir;
+    }
+    
+    
+    protected static void deleteDir(File dir)
+    {
+        File[] files = dir.listFiles();
+        if (files != null)
+        {
+            for (int i=0; i<files.length; i++)
+            {
+                if (files[i].isDirectory())
+                    deleteDir(files[i]);
+                else
+                    files[i].delete();
+            }
+        }
+        
+        dir.delete();
+    }
+    
+    
+    public static void main(String[] args) throws IOException
+    {
+        int numOps = 10000;
+        if (args.length > 0)
+            numOps = Integer.parseInt(args[0]);
+        
+        String[] tests = new String[] {"Torn tail replay", "Delete range replay", "Compaction", "Backend comparison"};
+        boolean ok = true;
+        
+        for (int t=0; t<tests.length; t++)
+        {
+            LogTileStoreTest test = new LogTileStoreTest();
+            File dir = createTempDir("stt-logtest");
+            File bdbDir = createTempDir("stt-bdbtest");
+            
+            try
+            {
+                switch (t)
+                {
+                    case 0: test.testTornTail(dir); break;
+                    case 1: test.testDeleteReplay(dir); break;
+                    case 2: test.testCompaction(dir); break;
+                    case 3: test.testBackends(dir, bdbDir, numOps); break;
+                }
+                
+                System.out.println(tests[t] + " OK: " + test.model.size() + " tiles");
+            }
+            catch (Exception e)
+            {
+                System.out.println(tests[t] + " FAILED: " + e.getMessage());
+                ok = false;
+            }
+            finally
+            {
+                deleteDir(dir);
+                deleteDir(bdbDir);
+            }
+        }
+        
+        if (!ok)
+            System.exit(1);
+    }
+}
@@ -0,0 +1,302 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit Cache Engine".
+  
+ The Initial Developer of the Original Code is Sensia Software LLC.
+ Portions created by the Initial Developer are Copyright (C) 2008
+ the Initial Developer. All Rights Reserved.
+ 
+ Contributor(s): 
+    Alexandre Robin <alex.robin@sensiasoftware.com>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.provider.cache;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * <p><b>Title:</b>
+ * TileRecordCodec
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Encodes and decodes TimeCache tile records, optionally compressing them.
+ * Each record starts with the block list index (used to sort duplicates)
+ * followed by the compression method and the raw payload length:
+ * <ul>
+ * <li>byte 0: block list index</li>
+ * <li>byte 1: compression method</li>
+ * <li>bytes 2-5: uncompressed payload length (big endian)</li>
+ * <li>bytes 6-: payload</li>
+ * </ul>
+ * Before compression, payload bytes are regrouped by their position in 4-byte
+ * words so that the similar high order bytes of successive float and int
+ * values end up next to each other, which helps Deflate a lot.
+ * Records are decoded according to the method they were written with so the
+ * compression method of a cache can be changed without clearing it.
+ * An instance must only be used by one thread at a time.
+ * </p>
+ *
+ * <p>Copyright (c) 2008</p>
+ * @author Alexandre Robin
+ * @date Mar 13, 2009
+ * @version 1.0
+ */
+public class TileRecordCodec
+{
+    public final static byte NONE = 0;
+    public final static byte DEFLATE_FAST = 1;
+    public final static byte DEFLATE = 2;
+    protected final static int HEADER_SIZE = 6;
+    protected final static int WORD_SIZE = 4;
+    
+    protected byte method;
+    protected Deflater deflater;
+    protected Inflater inflater;
+    protected long rawBytes;
+    protected long encodedBytes;
+    protected long decodedBytes;
+    protected long decodeTime;
+    
+    
+    public TileRecordCodec(byte method)
+    {
+        this.method = method;
+    }
+    
+    
+    /**
+     * Gets compression method from its name as used in project files
+     * @param name one of none, fast or deflate
+     * @return
+     */
+    public static byte getMethod(String name)
+    {
+        if (name.equalsIgnoreCase("none"))
+            return NONE;
+        else if (name.equalsIgnoreCase("fast"))
+            return DEFLATE_FAST;
+        else if (name.equalsIgnoreCase("deflate"))
+            return DEFLATE;
+        else
+            throw new IllegalArgumentException("Unsupported compression method: " + name);
+    }
+    
+    
+    /**
+     * Builds a record from the given raw payload
+     * @param listIndex
+     * @param payload
+     * @param length
+     * @return
+     */
+    public byte[] encode(int listIndex, byte[] payload, int length)
+    {
+        byte[] record = null;
+        
+        if (method != NONE)
+        {
+            if (deflater == null)
+                deflater = new Deflater((method == DEFLATE_FAST) ? Deflater.BEST_SPEED : Deflater.DEFAULT_COMPRESSION);
+            
+            deflater.reset();
+            deflater.setInput(shuffle(payload, length));
+            deflater.finish();
+            
+            // compress directly into record, stop if it gets larger than raw data
+            byte[] output = new byte[HEADER_SIZE + length];
+            int offset = HEADER_SIZE;
+            while (!deflater.finished() && offset < output.length)
+                offset += deflater.deflate(output, offset, output.length - offset);
+            
+            if (deflater.finished())
+            {
+                record = new byte[offset];
+                System.arraycopy(output, 0, record, 0, offset);
+                record[1] = method;
+            }
+        }
+        
+        // store raw data if not compressed
+        if (record == null)
+        {
+            record = new byte[HEADER_SIZE + length];
+            System.arraycopy(payload, 0, record, HEADER_SIZE, length);
+            record[1] = NONE;
+        }
+        
+        record[0] = (byte)listIndex;
+        ByteBuffer.wrap(record, 2, 4).putInt(length);
+        
+        rawBytes += length;
+        encodedBytes += record.length;
+        return record;
+    }
+    
+    
+    /**
+     * Extracts uncompressed payload from record.
+     * Uncompressed payloads are returned as a view of the record data.
+     * @param record
+     * @return
+     * @throws DataFormatException if record is corrupted
+     */
+    public ByteBuffer decode(ByteBuffer record) throws DataFormatException
+    {
+        long t0 = System.nanoTime();
+        int start = record.position();
+        int length = record.getInt(start + 2);
+        ByteBuffer payload;
+        
+        if (record.get(start + 1) == NONE)
+        {
+            payload = record.duplicate();
+            payload.position(start + HEADER_SIZE);
+            payload.limit(start + HEADER_SIZE + length);
+            payload = payload.slice();
+        }
+        else
+        {
+            if (inflater == null)
+                inflater = new Inflater();
+            
+            // inflater can only read from arrays
+            int inputLength = record.remaining() - HEADER_SIZE;
+            byte[] input;
+            int inputOffset;
+            if (record.hasArray())
+            {
+                input = record.array();
+                inputOffset = record.arrayOffset() + start + HEADER_SIZE;
+            }
+            else
+            {
+                input = new byte[inputLength];
+                inputOffset = 0;
+                ByteBuffer src = record.duplicate();
+                src.position(start + HEADER_SIZE);
+                src.get(input);
+            }
+            
+            inflater.reset();
+            inflater.setInput(input, inputOffset, inputLength);
+            
+            byte[] shuffled = new byte[length];
+            int offset = 0;
+            while (offset < length)
+            {
+                int count = inflater.inflate(shuffled, offset, length - offset);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    throw new DataFormatException("Truncated tile record");
+                offset += count;
+            }
+            
+            byte[] data = new byte[length];
+            unshuffle(shuffled, data);
+            payload = ByteBuffer.wrap(data);
+        }
+        
+        decodedBytes += length;
+        decodeTime += System.nanoTime() - t0;
+        return payload;
+    }
+    
+    
+    /**
+     * Groups bytes by position in words (all 1st bytes, then all 2nd bytes, etc.)
+     * Trailing bytes that don't form a full word are copied as is.
+     * @param data
+     * @param length
+     * @return
+     */
+    protected byte[] shuffle(byte[] data, int length)
+    {
+        byte[] shuffled = new byte[length];
+        int numWords = length / WORD_SIZE;
+        
+        for (int i=0; i<numWords; i++)
+            for (int j=0; j<WORD_SIZE; j++)
+                shuffled[j*numWords + i] = data[i*WORD_SIZE + j];
+        
+        int tail = numWords * WORD_SIZE;
+        System.arraycopy(data, tail, shuffled, tail, length - tail);
+        return shuffled;
+    }
+    
+    
+    protected void unshuffle(byte[] shuffled, byte[] data)
+    {
+        int length = data.length;
+        int numWords = length / WORD_SIZE;
+        
+        for (int i=0; i<numWords; i++)
+            for (int j=0; j<WORD_SIZE; j++)
+                data[i*WORD_SIZE + j] = shuffled[j*numWords + i];
+        
+        int tail = numWords * WORD_SIZE;
+        System.arraycopy(shuffled, tail, data, tail, length - tail);
+    }
+    
+    
+    /**
+     * Releases native resources used by compressor
+     */
+    public void dispose()
+    {
+        if (deflater != null)
+            deflater.end();
+        
+        if (inflater != null)
+            inflater.end();
+    }
+    
+    
+    public byte getMethod()
+    {
+        return method;
+    }
+    
+    
+    public void setMethod(byte method)
+    {
+        if (this.method != method && deflater != null)
+        {
+            deflater.end();
+            deflater = null;
+        }
+        
+        this.method = method;
+    }
+    
+    
+    /**
+     * @return ratio of stored bytes to raw bytes of encoded records
+     */
+    public double getCompressionRatio()
+    {
+        return (rawBytes == 0) ? 1.0 : ((double)encodedBytes) / rawBytes;
+    }
+    
+    
+    /**
+     * @return decoded MB per second
+     */
+    public double getDecodeThroughput()
+    {
+        return (decodeTime == 0) ? 0.0 : (decodedBytes * 1e9 / decodeTime) / (1024*1024);
+    }
+}
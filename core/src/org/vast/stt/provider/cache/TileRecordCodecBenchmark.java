@@ -0,0 +1,278 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit Cache Engine".
+  
+ The Initial Developer of the Original Code is Sensia Software LLC.
+ Portions created by the Initial Developer are Copyright (C) 2008
+ the Initial Developer. All Rights Reserved.
+ 
+ Contributor(s): 
+    Alexandre Robin <alex.robin@sensiasoftware.com>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.provider.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+
+/**
+ * <p><b>Title:</b>
+ * TileRecordCodecBenchmark
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Measures compression ratio and encoding/decoding throughput of
+ * TileRecordCodec for each compression method, with and without byte
+ * shuffling, on payloads shaped like serialized cache tiles: a track of
+ * time tagged positions and measurements, a float grid and 8-bit image
+ * data, plus random bytes as the worst case. Every record is decoded
+ * and compared with its original payload.
+ * Run with: TileRecordCodecBenchmark [number of records per payload]
+ * </p>
+ *
+ * <p>Copyright (c) 2008</p>
+ * @author Alexandre Robin
+ * @date Mar 18, 2009
+ * @version 1.0
+ */
+public class TileRecordCodecBenchmark
+{
+    protected final static int PAYLOAD_SIZE = 64*1024;
+    protected final static String[] METHOD_NAMES = new String[] {"none", "fast", "deflate"};
+    
+    protected Random random = new Random(1);
+    
+    
+    /**
+     * Codec storing bytes in their original order,
+     * used to see what shuffling brings
+     */
+    protected static class UnshuffledCodec extends TileRecordCodec
+    {
+        public UnshuffledCodec(byte method)
+        {
+            super(method);
+        }
+        
+        
+        protected byte[] shuffle(byte[] data, int length)
+        {
+            byte[] copy = new byte[length];
+            System.arraycopy(data, 0, copy, 0, length);
+            return copy;
+        }
+        
+        
+        protected void unshuffle(byte[] shuffled, byte[] data)
+        {
+            System.arraycopy(shuffled, 0, data, 0, data.length);
+        }
+    }
+    
+    
+    /**
+     * Records of a moving sensor: time as double,
+     * lat/lon/alt and 3 measurements as floats
+     */
+    protected byte[] createTrackPayload()
+    {
+        ByteBuffer buf = ByteBuffer.allocate(PAYLOAD_SIZE);
+        double time = 1.2e9 + random.nextInt(1000000);
+        float lat = 34.7f + random.nextFloat();
+        float lon = -86.6f + random.nextFloat();
+        float alt = 1000f * random.nextFloat();
+        
+        while (buf.remaining() >= 32)
+        {
+            time += 1.0;
+            lat += 1e-4f * random.nextFloat();
+            lon += 1e-4f * random.nextFloat();
+            alt += random.nextFloat() - 0.5f;
+            buf.putDouble(time);
+            buf.putFloat(lat);
+            buf.putFloat(lon);
+            buf.putFloat(alt);
+            buf.putFloat(20f + random.nextFloat());
+            buf.putFloat(1013f + 0.1f * random.nextFloat());
+            buf.putFloat(50f * random.nextFloat());
+        }
+        
+        return buf.array();
+    }
+    
+    
+    /**
+     * Smooth float field, as stored for gridded coverages
+     */
+    protected byte[] createGridPayload()
+    {
+        ByteBuffer buf = ByteBuffer.allocate(PAYLOAD_SIZE);
+        double phase = random.nextDouble();
+        
+        for (int i=0; buf.remaining() >= 4; i++)
+        {
+            double x = (i % 128) / 128.0;
+            double y = (i / 128) / 128.0;
+            buf.putFloat((float)(280.0 + 10.0*Math.sin(6*(x+phase)) * Math.cos(4*y) + 0.01*random.nextGaussian()));
+        }
+        
+        return buf.array();
+    }
+    
+    
+    /**
+     * 8-bit RGB pixels of a noisy gradient
+     */
+    protected byte[] createImagePayload()
+    {
+        byte[] data = new byte[PAYLOAD_SIZE];
+        int offset = random.nextInt(256);
+        
+        for (int i=0; i<data.length; i++)
+        {
+            int pixel = i / 3;
+            int value = offset + (pixel % 256) / 2 + (pixel / 256) / 4 + random.nextInt(8);
+            data[i] = (byte)value;
+        }
+        
+        return data;
+    }
+    
+    
+    protected byte[] createRandomPayload()
+    {
+        byte[] data = new byte[PAYLOAD_SIZE];
+        random.nextBytes(data);
+        return data;
+    }
+    
+    
+    protected byte[][] createPayloads(int type, int count)
+    {
+        byte[][] payloads = new byte[count][];
+        
+        for (int i=0; i<count; i++)
+        {
+            switch (type)
+            {
+                case 0: payloads[i] = createTrackPayload(); break;
+                case 1: payloads[i] = createGridPayload(); break;
+                case 2: payloads[i] = createImagePayload(); break;
+                default: payloads[i] = createRandomPayload(); break;
+            }
+        }
+        
+        return payloads;
+    }
+    
+    
+    /**
+     * Encodes and decodes all payloads, checks round trip and prints results
+     * @return false if a payload was not restored exactly
+     */
+    protected boolean run(String name, TileRecordCodec encoder, TileRecordCodec decoder, byte[][] payloads)
+    {
+        // warm up code paths and native buffers
+        for (int i=0; i<Math.min(10, payloads.length); i++)
+            encoder.encode(0, payloads[i], payloads[i].length);
+        
+        byte[][] records = new byte[payloads.length][];
+        long rawBytes = 0;
+        long encodedBytes = 0;
+        long t0 = System.nanoTime();
+        for (int i=0; i<payloads.length; i++)
+        {
+            records[i] = encoder.encode(i, payloads[i], payloads[i].length);
+            rawBytes += payloads[i].length;
+            encodedBytes += records[i].length;
+        }
+        long encodeTime = System.nanoTime() - t0;
+        
+        long decodeTime = 0;
+        for (int i=0; i<records.length; i++)
+        {
+            ByteBuffer payload;
+            long t1 = System.nanoTime();
+            try
+            {
+                payload = decoder.decode(ByteBuffer.wrap(records[i]));
+            }
+            catch (Exception e)
+            {
+                System.out.println(name + " FAILED: " + e.getMessage());
+                return false;
+            }
+            decodeTime += System.nanoTime() - t1;
+            
+            if (!payload.equals(ByteBuffer.wrap(payloads[i])))
+            {
+                System.out.println(name + " FAILED: record " + i + " differs after decoding");
+                return false;
+            }
+        }
+        
+        System.out.println(String.format("%-30s %6.1f%% %10.1f %10.1f", name,
+                           100.0 * encodedBytes / rawBytes,
+                           mbPerSecond(rawBytes, encodeTime),
+                           mbPerSecond(rawBytes, decodeTime)));
+        
+        return true;
+    }
+    
+    
+    protected static double mbPerSecond(long bytes, long nanos)
+    {
+        return (nanos == 0) ? 0.0 : (bytes * 1e9 / nanos) / (1024*1024);
+    }
+    
+    
+    public static void main(String[] args)
+    {
+        int numRecords = 200;
+        if (args.length > 0)
+            numRecords = Integer.parseInt(args[0]);
+        
+        String[] payloadNames = new String[] {"track", "grid", "image", "random"};
+        TileRecordCodecBenchmark bench = new TileRecordCodecBenchmark();
+        boolean ok = true;
+        
+        System.out.println(String.format("%-30s %7s %10s %10s", "Payload/method", "Ratio", "Enc MB/s", "Dec MB/s"));
+        for (int p=0; p<payloadNames.length; p++)
+        {
+            byte[][] payloads = bench.createPayloads(p, numRecords);
+            
+            for (byte method=TileRecordCodec.NONE; method<=TileRecordCodec.DEFLATE; method++)
+            {
+                String name = payloadNames[p] + "/" + METHOD_NAMES[method];
+                TileRecordCodec encoder = new TileRecordCodec(method);
+                TileRecordCodec decoder = new TileRecordCodec(method);
+                ok &= bench.run(name, encoder, decoder, payloads);
+                encoder.dispose();
+                decoder.dispose();
+                
+                if (method == TileRecordCodec.NONE)
+                    continue;
+                
+                encoder = new UnshuffledCodec(method);
+                decoder = new UnshuffledCodec(method);
+                ok &= bench.run(name + " (no shuffle)", encoder, decoder, payloads);
+                encoder.dispose();
+                decoder.dispose();
+            }
+        }
+        
+        if (!ok)
+            System.exit(1);
+    }
+}
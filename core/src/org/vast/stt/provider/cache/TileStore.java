@@ -0,0 +1,96 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit Cache Engine".
+  
+ The Initial Developer of the Original Code is Sensia Software LLC.
+ Portions created by the Initial Developer are Copyright (C) 2008
+ the Initial Developer. All Rights Reserved.
+ 
+ Contributor(s): 
+    Alexandre Robin <alex.robin@sensiasoftware.com>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.provider.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * <p><b>Title:</b>
+ * TileStore
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Storage backend used by TimeCache. Each tile is stored as a group of
+ * records sharing the same long key. The first byte of each record is the
+ * record index, so a tile can hold up to 128 records and putting a record
+ * replaces the one with the same index. The last index (INFO_RECORD) is
+ * reserved for tile metadata written after the data records, and data records
+ * are expected to use the first indices. Keys must be positive since some
+ * implementations compare them as unsigned. Implementations must be thread safe.
+ * </p>
+ *
+ * <p>Copyright (c) 2008</p>
+ * @author Alexandre Robin
+ * @date Mar 14, 2009
+ * @version 1.0
+ */
+public interface TileStore
+{
+    public final static long NO_KEY = Long.MIN_VALUE;
+    public final static int INFO_RECORD = 127;
+    
+    
+    /**
+     * Finds the first key greater or equal to the given key
+     * @param key
+     * @return next key or NO_KEY if there is none
+     */
+    public long seek(long key) throws IOException;
+    
+    
+    /**
+     * Retrieves one record of a tile.
+     * The returned buffer must not be modified.
+     * @param key
+     * @param recordIndex
+     * @return record data including the index byte or null if not found
+     */
+    public ByteBuffer get(long key, int recordIndex) throws IOException;
+    
+    
+    /**
+     * Stores a record, replacing the record of the same tile with the same index
+     * @param key
+     * @param record record data starting with the record index byte
+     */
+    public void put(long key, ByteBuffer record) throws IOException;
+    
+    
+    /**
+     * Deletes records of all tiles with fromKey <= key < toKey
+     * @param fromKey
+     * @param toKey
+     */
+    public void delete(long fromKey, long toKey) throws IOException;
+    
+    
+    /**
+     * Writes pending changes to disk and reclaims space if needed
+     */
+    public void flush() throws IOException;
+    
+    
+    public void close() throws IOException;
+}
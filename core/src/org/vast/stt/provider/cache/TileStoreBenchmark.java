@@ -0,0 +1,274 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit Cache Engine".
+  
+ The Initial Developer of the Original Code is Sensia Software LLC.
+ Portions created by the Initial Developer are Copyright (C) 2008
+ the Initial Developer. All Rights Reserved.
+ 
+ Contributor(s): 
+    Alexandre Robin <alex.robin@sensiasoftware.com>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.provider.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+
+/**
+ * <p><b>Title:</b>
+ * TileStoreBenchmark
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Runs the same TimeCache-like workload against LogTileStore and
+ * BDBTileStore and prints the time taken by each phase: tiles written
+ * in time order, reopening the store, random record reads, scanning
+ * tiles with seek(), rewriting recent tiles and deleting the oldest
+ * ones. Record sizes and contents are the same for both backends.
+ * Run with: TileStoreBenchmark [number of tiles] [log|bdb|both]
+ * </p>
+ *
+ * <p>Copyright (c) 2008</p>
+ * @author Alexandre Robin
+ * @date Mar 18, 2009
+ * @version 1.0
+ */
+public class TileStoreBenchmark
+{
+    protected final static int NUM_RECORDS = 3;
+    protected final static int NUM_CELLS = 4;
+    protected final static int MAX_RECORD_SIZE = 32*1024;
+    protected final static String[] PHASES = new String[] {"write", "reopen", "read", "scan", "rewrite", "delete"};
+    
+    protected int numTiles;
+    protected long[] keys;
+    protected int[] recordSizes;
+    protected byte[] content;
+    protected long bytesWritten;
+    
+    
+    public TileStoreBenchmark(int numTiles)
+    {
+        this.numTiles = numTiles;
+        Random random = new Random(1);
+        
+        // keys of successive time steps for a few grid cells, as in TimeCache
+        keys = new long[numTiles];
+        for (int i=0; i<numTiles; i++)
+            keys[i] = ((long)(i / NUM_CELLS) << 8) + (i % NUM_CELLS) + 1;
+        
+        recordSizes = new int[numTiles * NUM_RECORDS];
+        for (int i=0; i<recordSizes.length; i++)
+            recordSizes[i] = 1 + MAX_RECORD_SIZE/4 + random.nextInt(MAX_RECORD_SIZE*3/4);
+        
+        content = new byte[MAX_RECORD_SIZE + 1000];
+        random.nextBytes(content);
+    }
+    
+    
+    protected interface StoreFactory
+    {
+        public TileStore open(File dir) throws IOException;
+    }
+    
+    
+    protected ByteBuffer getRecord(int tile, int recordIndex)
+    {
+        int size = (recordIndex == TileStore.INFO_RECORD) ? 32 : recordSizes[tile*NUM_RECORDS + recordIndex];
+        ByteBuffer record = ByteBuffer.allocate(size);
+        record.put(0, (byte)recordIndex);
+        record.position(1);
+        record.put(content, tile % 1000, size - 1);
+        record.rewind();
+        return record;
+    }
+    
+    
+    protected void putTile(TileStore store, int tile) throws IOException
+    {
+        for (int i=0; i<NUM_RECORDS; i++)
+        {
+            ByteBuffer record = getRecord(tile, i);
+            bytesWritten += record.remaining();
+            store.put(keys[tile], record);
+        }
+        
+        store.put(keys[tile], getRecord(tile, TileStore.INFO_RECORD));
+    }
+    
+    
+    /**
+     * Runs all phases on a new store
+     * @return duration of each phase in ms
+     */
+    public long[] run(StoreFactory factory, File dir) throws IOException
+    {
+        long[] times = new long[PHASES.length];
+        Random random = new Random(2);
+        long t0;
+        
+        // write all tiles in time order, flushing regularly
+        t0 = System.nanoTime();
+        TileStore store = factory.open(dir);
+        for (int i=0; i<numTiles; i++)
+        {
+            putTile(store, i);
+            if (i % 100 == 99)
+                store.flush();
+        }
+        store.flush();
+        times[0] = System.nanoTime() - t0;
+        
+        // close and reopen
+        t0 = System.nanoTime();
+        store.close();
+        store = factory.open(dir);
+        times[1] = System.nanoTime() - t0;
+        
+        // read random records and check their size
+        t0 = System.nanoTime();
+        for (int i=0; i<numTiles; i++)
+        {
+            int tile = random.nextInt(numTiles);
+            int recordIndex = random.nextInt(NUM_RECORDS);
+            ByteBuffer record = store.get(keys[tile], recordIndex);
+            if (record == null || record.remaining() != recordSizes[tile*NUM_RECORDS + recordIndex])
+                throw new IllegalStateException("Wrong record " + recordIndex + " for tile " + keys[tile]);
+        }
+        times[2] = System.nanoTime() - t0;
+        
+        // scan all tiles and read their info record
+        t0 = System.nanoTime();
+        int count = 0;
+        long key = store.seek(0);
+        while (key != TileStore.NO_KEY)
+        {
+            if (store.get(key, TileStore.INFO_RECORD) == null)
+                throw new IllegalStateException("No info record for tile " + key);
+            count++;
+            key = store.seek(key + 1);
+        }
+        if (count != numTiles)
+            throw new IllegalStateException(count + " tiles found instead of " + numTiles);
+        times[3] = System.nanoTime() - t0;
+        
+        // rewrite most recent quarter of tiles
+        t0 = System.nanoTime();
+        for (int i=numTiles*3/4; i<numTiles; i++)
+            putTile(store, i);
+        store.flush();
+        times[4] = System.nanoTime() - t0;
+        
+        // delete oldest half by time range
+        t0 = System.nanoTime();
+        long splitKey = keys[numTiles/2] & ~0xFFL;
+        store.delete(0, splitKey);
+        store.flush();
+        if (store.seek(0) != splitKey + 1)
+            throw new IllegalStateException("Tiles before " + splitKey + " were not deleted");
+        times[5] = System.nanoTime() - t0;
+        
+        store.close();
+        
+        for (int i=0; i<times.length; i++)
+            times[i] /= 1000000;
+        return times;
+    }
+    
+    
+    protected static long getDirSize(File dir)
+    {
+        long size = 0;
+        File[] files = dir.listFiles();
+        if (files != null)
+        {
+            for (int i=0; i<files.length; i++)
+                size += files[i].isDirectory() ? getDirSize(files[i]) : files[i].length();
+        }
+        
+        return size;
+    }
+    
+    
+    public static void main(String[] args) throws IOException
+    {
+        int numTiles = 2000;
+        if (args.length > 0)
+            numTiles = Integer.parseInt(args[0]);
+        
+        String backends = "both";
+        if (args.length > 1)
+            backends = args[1];
+        
+        String[] names = new String[] {"log", "bdb"};
+        StoreFactory[] factories = new StoreFactory[]
+        {
+            new StoreFactory()
+            {
+                public TileStore open(File dir) throws IOException
+                {
+                    return new LogTileStore(dir);
+                }
+            },
+            new StoreFactory()
+            {
+                public TileStore open(File dir) throws IOException
+                {
+                    return new BDBTileStore(dir, "bench");
+                }
+            }
+        };
+        
+        StringBuffer header = new StringBuffer(String.format("%-8s", "Backend"));
+        for (int p=0; p<PHASES.length; p++)
+            header.append(String.format(" %8s", PHASES[p]));
+        header.append(String.format(" %10s", "Disk MB"));
+        System.out.println(header + "  (times in ms)");
+        
+        boolean ok = true;
+        for (int b=0; b<names.length; b++)
+        {
+            if (!backends.equals("both") && !backends.equals(names[b]))
+                continue;
+            
+            TileStoreBenchmark bench = new TileStoreBenchmark(numTiles);
+            File dir = LogTileStoreTest.createTempDir("stt-storebench");
+            
+            try
+            {
+                long[] times = bench.run(factories[b], dir);
+                StringBuffer line = new StringBuffer(String.format("%-8s", names[b]));
+                for (int p=0; p<times.length; p++)
+                    line.append(String.format(" %8d", times[p]));
+                line.append(String.format(" %10.1f", getDirSize(dir) / (1024.0*1024.0)));
+                System.out.println(line);
+            }
+            catch (Throwable e)
+            {
+                System.out.println(names[b] + " FAILED: " + e);
+                ok = false;
+            }
+            finally
+            {
+                LogTileStoreTest.deleteDir(dir);
+            }
+        }
+        
+        if (!ok)
+            System.exit(1);
+    }
+}
@@ -22,13 +22,29 @@
 
 package org.vast.stt.provider.cache;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.vast.cdm.common.BinaryEncoding;
 import org.vast.cdm.common.DataComponent;
 import org.vast.data.AbstractDataBlock;
@@ -45,7 +61,6 @@ import org.vast.stt.provider.STTTimeExtent;
 import org.vast.sweCommon.BinaryDataParser;
 import org.vast.sweCommon.BinaryDataWriter;
 import org.vast.util.DateTimeFormat;
-import com.sleepycat.je.*;
 
 
 /**
@@ -57,13 +72,42 @@ import com.sleepycat.je.*;
  * TODO TimeCache type description
  * 
  * <ul>
- * <li>Each group of duplicate records contains data for a tile</li>
- * <li>The record key is the julian time value for the start of the tile (big endian)</li>
+ * <li>Each group of records with the same key contains data for a tile</li>
+ * <li>The record key is the julian time value for the start of the tile (in ms)</li>
+ * <li>When spatial tiling is enabled, the key also contains the index of the tile
+ *     cell in a fixed global lat/lon grid (on the lowest CELL_BITS bits)</li>
  * <li>The record data is a list of datablocks serialized using the BinaryDataWriter (big endian),
- *     prefixed by the block list index (on one byte)</li>
- * <li>Tile data form multiple block lists are stored as duplicates</li>
+ *     optionally compressed, prefixed by the block list index (on one byte) and the
+ *     compression header (see TileRecordCodec)</li>
+ * <li>Tile data form multiple block lists are stored as separate records</li>
  * </ul>
  * 
+ * Records are kept in a TileStore, either a Berkeley DB database (storage "bdb",
+ * the default) or an append-only memory mapped log (storage "log").
+ * 
+ * Write time, last read time and size of each tile are tracked in an extra
+ * record of each tile (see TimeCacheIndex). A maintenance task periodically evicts tiles
+ * older than maxLifeTime, then least recently read tiles until the cache is
+ * smaller than maxCacheSize. Expired tiles that are requested before being
+ * evicted are fetched again from the sub-provider.
+ * 
+ * In write behind mode, data fetched from the sub-provider is published to
+ * the data node right away and tiles are written to the DB by a background
+ * writer thread. The tile info record is always written after all records of
+ * a tile so tiles with no info (i.e. partially written before a crash) or
+ * still queued for writing are never read from the DB.
+ * 
+ * With spatial tiling, the cache owns the spatial extent of the sub-provider
+ * and caches data of each grid cell covering the bbox separately, so cached
+ * cells are reused when the bbox changes. Neighboring cells missing the same
+ * time ranges are requested together when the location of blocks is known
+ * (see latData and lonData), and blocks are then assigned to the cell
+ * containing them. Cells are not clipped to the bbox, so some data outside
+ * of it can be published. Nothing is requested until the bbox is set.
+ * 
+ * Blocks read from DB and from the sub-provider are staged during the update
+ * and published sorted by time once all cells are loaded.
+ * 
  * </p>
  *
  * <p>Copyright (c) 2008</p>
@@ -73,17 +117,70 @@ import com.sleepycat.je.*;
  */
 public class TimeCache extends AbstractProvider implements CachedProvider
 {
+    public final static int MAINTENANCE_PERIOD = 60; // in seconds
+    public final static int WRITE_QUEUE_SIZE = 8;
+    public final static int CELL_BITS = 16;
+    
+    protected static Log log = LogFactory.getLog(TimeCache.class);
+    private static ScheduledExecutorService maintenanceTimer;
+    
     protected String timeData;
+    protected String latData;
+    protected String lonData;
     protected double tileSize; // in seconds
     protected int maxCacheSize; // in MB
     protected int maxLifeTime; // in minutes
+    protected double spatialTileSize; // in degrees, 0 if no spatial tiling
     protected DataProvider subProvider;
-    protected Database cacheDB;
+    protected String storage;
+    protected TileStore cacheStore;
+    protected TimeCacheIndex cacheIndex;
+    protected ScheduledFuture<?> maintenanceTask;
+    protected boolean writeBehind;
+    protected byte compression = TileRecordCodec.NONE;
+    protected TileRecordCodec recordEncoder; // used with writers
+    protected TileRecordCodec recordDecoder; // used with parsers
+    protected ThreadPoolExecutor tileWriter;
+    protected HashMap<Long, Integer> pendingTiles = new HashMap<Long, Integer>();
     protected BinaryDataParser[] parsers;
     protected BinaryDataWriter[] writers;
-    protected DataComponent timeDataComponent;
+    protected DataComponent timeDataComponent; // used with parsers
+    protected DataComponent writerTimeComponent; // used with writers
+    protected DataComponent latDataComponent; // used with parsers
+    protected DataComponent lonDataComponent; // used with parsers
     protected int timeListIndex;
-    protected boolean needsClear;
+    protected ArrayList<TimedBlocks> stagedBlocks = new ArrayList<TimedBlocks>();
+    
+    
+    /**
+     * Blocks of all lists sharing the same time stamp,
+     * staged until the end of the update
+     */
+    protected static class TimedBlocks
+    {
+        public double time;
+        public AbstractDataBlock[] blocks;
+    }
+    
+    
+    /**
+     * Rectangle of grid cells requested from sub-provider together
+     */
+    protected static class CellGroup
+    {
+        public int minCol, maxCol;
+        public int minRow, maxRow;
+        public List<double[]> missingRanges;
+    }
+    
+    
+    protected final static Comparator<TimedBlocks> TIME_ORDER = new Comparator<TimedBlocks>()
+    {
+        public int compare(TimedBlocks b1, TimedBlocks b2)
+        {
+            return Double.compare(b1.time, b2.time);
+        }
+    };
     
     
     public TimeCache()
@@ -98,22 +195,17 @@ public class TimeCache extends AbstractProvider implements CachedProvider
     {
         try
         {
-            // setup databases
-            EnvironmentConfig envConfig = new EnvironmentConfig();
-            envConfig.setAllowCreate(true);
-            //envConfig.setSharedCache(true);
-            String dbDir = System.getProperty("user.home");
-            File dbFile = new File(dbDir + "/stt/cache");
-            dbFile.mkdirs();
-            Environment env = new Environment(dbFile, envConfig);
+            // grid must fit in the CELL_BITS lowest bits of tile keys
+            if (spatialTileSize > 0 && spatialTileSize < 1.0)
+                throw new DataException("Spatial tile size must be at least 1 degree");
             
-            // Open the database. Create it if it does not exist already
+            // open tile store. Create it if it does not exist already
+            // spatial tiles are kept separately since their keys are different
             String dbName = subProvider.getName().replace(" " , "_");
-            DatabaseConfig dbConfig = new DatabaseConfig();
-            dbConfig.setAllowCreate(true);
-            dbConfig.setSortedDuplicates(true);
-            dbConfig.setDuplicateComparator(new DuplicateComparator());
-            cacheDB = env.openDatabase(null, dbName + "_DATA", dbConfig);
+            if (spatialTileSize > 0)
+                dbName += "_S" + spatialTileSize;
+            cacheStore = createStore(dbName);
+            cacheIndex = new TimeCacheIndex(cacheStore);
             
             // init sub provider and get block list array
             subProvider.init();
@@ -131,62 +223,308 @@ public class TimeCache extends AbstractProvider implements CachedProvider
             {
                 BlockList blockList = blockListArray.get(i);
                 
+                // blocks are kept by this node and by the background writer
+                // so the sub provider must not recycle them when it is cleared
+                blockList.setBlockPool(null);
+                
                 // copy output structure from sub provider
                 DataComponent dataComponents = blockList.getBlockStructure();
                 dataNode.createList(dataComponents.copy());
                 
-                // make another copy for the parser/writer
-                dataComponents = dataComponents.copy();
+                // make other copies for the parser and writer
+                // since writer can be used by a different thread
+                DataComponent parserComponents = dataComponents.copy();
+                DataComponent writerComponents = dataComponents.copy();
                 
                 // init parser
                 BinaryDataParser dataParser = new BinaryDataParser();
-                dataParser.setDataEncoding(BinaryEncoding.getDefaultEncoding(dataComponents));
-                dataParser.setDataComponents(dataComponents);
+                dataParser.setDataEncoding(BinaryEncoding.getDefaultEncoding(parserComponents));
+                dataParser.setDataComponents(parserComponents);
                 parsers[i] = dataParser;
                 
                 // init writer
                 BinaryDataWriter dataWriter = new BinaryDataWriter();
-                dataWriter.setDataEncoding(BinaryEncoding.getDefaultEncoding(dataComponents));
-                dataWriter.setDataComponents(dataComponents);
+                dataWriter.setDataEncoding(BinaryEncoding.getDefaultEncoding(writerComponents));
+                dataWriter.setDataComponents(writerComponents);
                 writers[i] = dataWriter;
                 
                 // find time data component
                 if (dataComponents.getName().equals(timeDataPath[0]))
                 {
-                    timeDataComponent = dataComponents;
-                    
-                    for (int j=1; j<timeDataPath.length; j++)
-                    {
-                        timeDataComponent = timeDataComponent.getComponent(timeDataPath[j]);                    
-                        if (timeDataComponent == null)
-                            throw new DataException("Unknown time component: " + timeData);
-                    }
-                    
+                    timeDataComponent = findComponent(parserComponents, timeDataPath);
+                    writerTimeComponent = findComponent(writerComponents, timeDataPath);
                     timeListIndex = i;
                 }
             }
             
+            // find location components used to split data of grouped cells
+            if (spatialTileSize > 0 && latData != null && lonData != null)
+            {
+                DataComponent timeListComponents = parsers[timeListIndex].getDataComponents();
+                String[] latDataPath = latData.split("/");
+                String[] lonDataPath = lonData.split("/");
+                if (!latDataPath[0].equals(timeDataPath[0]) || !lonDataPath[0].equals(timeDataPath[0]))
+                    throw new DataException("Location data must be in the same list as time data");
+                
+                latDataComponent = findComponent(timeListComponents, latDataPath);
+                lonDataComponent = findComponent(timeListComponents, lonDataPath);
+            }
+            
+            recordEncoder = new TileRecordCodec(compression);
+            recordDecoder = new TileRecordCodec(compression);
+            cacheIndex.load();
+            startMaintenance();
+            
             dataNode.setNodeStructureReady(true);
         }
-        catch (DatabaseException e)
+        catch (IOException e)
         {
-            e.printStackTrace();
+            throw new DataException("Cannot open cache storage", e);
         }        
     }
     
     
-    protected byte[] encodeKey(double julianTime)
+    protected TileStore createStore(String dbName) throws IOException, DataException
     {
-        ByteBuffer buf = ByteBuffer.allocate(8);
-        buf.putLong((long)julianTime*1000);
-        return buf.array();
+        String dbDir = System.getProperty("user.home");
+        File cacheDir = new File(dbDir + "/stt/cache");
+        
+        if (storage == null || storage.equalsIgnoreCase("bdb"))
+            return new BDBTileStore(cacheDir, dbName + "_DATA");
+        else if (storage.equalsIgnoreCase("log"))
+            return new LogTileStore(new File(cacheDir, "log/" + dbName));
+        else
+            throw new DataException("Unsupported cache storage: " + storage);
     }
     
     
-    protected double decodeKey(byte[] bytes)
+    protected DataComponent findComponent(DataComponent parent, String[] path) throws DataException
     {
-         ByteBuffer buf = ByteBuffer.wrap(bytes);
-         return ((double)buf.getLong()) / 1000.0;
+        DataComponent component = parent;
+        
+        for (int j=1; j<path.length; j++)
+        {
+            component = component.getComponent(path[j]);                    
+            if (component == null)
+                throw new DataException("Unknown data component: " + path[j]);
+        }
+        
+        return component;
+    }
+    
+    
+    protected synchronized static ScheduledExecutorService getMaintenanceTimer()
+    {
+        if (maintenanceTimer != null)
+            return maintenanceTimer;
+        
+        ThreadFactory threadFactory = new ThreadFactory()
+        {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "STT Cache Maintenance");
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        
+        maintenanceTimer = new ScheduledThreadPoolExecutor(1, threadFactory);
+        return maintenanceTimer;
+    }
+    
+    
+    protected void startMaintenance()
+    {
+        if (maintenanceTask != null)
+            maintenanceTask.cancel(false);
+        
+        Runnable task = new Runnable()
+        {
+            public void run()
+            {
+                doMaintenance();
+            }
+        };
+        
+        maintenanceTask = getMaintenanceTimer().scheduleWithFixedDelay(task,
+                MAINTENANCE_PERIOD, MAINTENANCE_PERIOD, TimeUnit.SECONDS);
+    }
+    
+    
+    /**
+     * Evicts expired and least recently read tiles and saves
+     * tile read times. Called periodically by the maintenance timer.
+     */
+    protected void doMaintenance()
+    {
+        try
+        {
+            List<Long> evicted = cacheIndex.selectEvictions(getMaxAge(), maxCacheSize*1024L*1024L);
+            
+            int count = 0;
+            for (int i=0; i<evicted.size(); i++)
+            {
+                long tileKey = evicted.get(i);
+                
+                // delete all records for this tile
+                try
+                {
+                    deleteTile(tileKey);
+                    count++;
+                }
+                catch (IOException e)
+                {
+                    log.warn("Cannot evict tile " + tileKey, e);
+                }
+            }
+            
+            cacheIndex.flush();
+            cacheStore.flush();
+            
+            if (log.isDebugEnabled())
+            {
+                log.debug("Cache " + getName() + ": " + count + " tile(s) evicted, " +
+                          cacheIndex.getTileCount() + " tiles, " + cacheIndex.getCurrentSize() / 1024 +
+                          "KB / " + maxCacheSize + "MB, hit ratio " + (int)(cacheIndex.getHitRatio()*100) + "%, " +
+                          "compression ratio " + (int)(recordEncoder.getCompressionRatio()*100) + "%, " +
+                          "decoding " + (int)recordDecoder.getDecodeThroughput() + "MB/s");
+            }
+        }
+        catch (Exception e)
+        {
+            log.error("Error during cache maintenance", e);
+        }
+    }
+    
+    
+    /**
+     * @return max tile age in ms or 0 if tiles never expire
+     */
+    protected long getMaxAge()
+    {
+        return maxLifeTime * 60L * 1000L;
+    }
+    
+    
+    protected long getTileKey(double julianTime, int cell)
+    {
+        long timeKey = (long)julianTime*1000;
+        
+        if (spatialTileSize > 0)
+            return (timeKey << CELL_BITS) | cell;
+        else
+            return timeKey;
+    }
+    
+    
+    protected double getTileTime(long tileKey)
+    {
+        if (spatialTileSize > 0)
+            tileKey >>= CELL_BITS;
+        
+        return ((double)tileKey) / 1000.0;
+    }
+    
+    
+    protected int getTileCell(long tileKey)
+    {
+        if (spatialTileSize > 0)
+            return (int)(tileKey & ((1 << CELL_BITS) - 1));
+        else
+            return 0;
+    }
+    
+    
+    protected int getGridColumns()
+    {
+        return (int)Math.ceil(360.0 / spatialTileSize);
+    }
+    
+    
+    protected int getGridRows()
+    {
+        return (int)Math.ceil(180.0 / spatialTileSize);
+    }
+    
+    
+    protected int getGridIndex(double coord, int numCells)
+    {
+        int index = (int)Math.floor(coord / spatialTileSize);
+        return Math.max(0, Math.min(index, numCells - 1));
+    }
+    
+    
+    /**
+     * Must not be called with spatial tiling if the spatial extent is not set
+     * @return indexes of grid cells intersecting the current spatial extent,
+     * in row order, or only cell 0 if spatial tiling is disabled
+     */
+    protected List<Integer> getCoveringCells()
+    {
+        ArrayList<Integer> cells = new ArrayList<Integer>();
+        
+        if (spatialTileSize <= 0)
+        {
+            cells.add(0);
+            return cells;
+        }
+        
+        int numCols = getGridColumns();
+        int numRows = getGridRows();
+        int minCol = getGridIndex(spatialExtent.getMinX() + 180.0, numCols);
+        int maxCol = getGridIndex(spatialExtent.getMaxX() + 180.0, numCols);
+        int minRow = getGridIndex(spatialExtent.getMinY() + 90.0, numRows);
+        int maxRow = getGridIndex(spatialExtent.getMaxY() + 90.0, numRows);
+        
+        for (int j=minRow; j<=maxRow; j++)
+            for (int i=minCol; i<=maxCol; i++)
+                cells.add(j*numCols + i);
+        
+        return cells;
+    }
+    
+    
+    /**
+     * Sets bbox to the lat/lon bounds of a group of grid cells
+     * @param bbox
+     * @param group
+     */
+    protected void setGroupExtent(STTSpatialExtent bbox, CellGroup group)
+    {
+        bbox.setMinX(group.minCol * spatialTileSize - 180.0);
+        bbox.setMaxX(Math.min((group.maxCol + 1) * spatialTileSize - 180.0, 180.0));
+        bbox.setMinY(group.minRow * spatialTileSize - 90.0);
+        bbox.setMaxY(Math.min((group.maxRow + 1) * spatialTileSize - 90.0, 90.0));
+    }
+    
+    
+    /**
+     * Finds the first tile of the given cell with a time greater or equal
+     * to tileTime, skipping tiles of other cells.
+     * @param tileTime
+     * @param cell
+     * @param stop
+     * @return tile key or TileStore.NO_KEY if no tile was found before stop
+     * @throws IOException
+     */
+    protected long findNextTile(double tileTime, int cell, double stop) throws IOException
+    {
+        long tileKey = cacheStore.seek(getTileKey(tileTime, cell));
+        
+        while (tileKey != TileStore.NO_KEY && getTileCell(tileKey) != cell)
+        {
+            long timeKey = tileKey >> CELL_BITS;
+            if (getTileCell(tileKey) > cell)
+                timeKey++;
+            
+            if (timeKey / 1000.0 >= stop)
+                return TileStore.NO_KEY;
+            
+            tileKey = cacheStore.seek((timeKey << CELL_BITS) | cell);
+        }
+        
+        return tileKey;
     }
     
 
@@ -199,69 +537,34 @@ public class TimeCache extends AbstractProvider implements CachedProvider
         
         double stop = this.timeExtent.getAdjustedLeadTime();
         stop = ((int)(stop / tileSize + 1)) * tileSize;
-                
-        DatabaseEntry key = new DatabaseEntry();
-        DatabaseEntry data = new DatabaseEntry();
-        Cursor dbCursor = null;
-        needsClear = true;
+        
+        // wait until bbox is set rather than requesting the whole grid
+        if (spatialTileSize > 0 && spatialExtent.isNull())
+            return;
         
         try
         {
-            double tileTime;
-            double request_begin = start;
-            double request_end = start;
-            OperationStatus status;
+            // read cached tiles of each grid cell intersecting bbox
+            // and find out what is missing
+            List<Integer> cells = getCoveringCells();
+            List<List<double[]>> missingRanges = new ArrayList<List<double[]>>(cells.size());
+            for (int c=0; c<cells.size() && !canceled; c++)
+                missingRanges.add(readCachedTiles(cells.get(c), start, stop));
             
-            dbCursor = cacheDB.openCursor(null, null);
-            key.setData(encodeKey(start));
-            
-            // get tiles data from DB or sub-provider if not in cache
-            boolean doSearch = true;
-            while (request_begin < stop)
+            // request missing tiles of neighboring cells together
+            List<CellGroup> groups = groupCells(cells, missingRanges);
+            for (int g=0; g<groups.size() && !canceled; g++)
             {
-                // first search for closest record (w/ key greater or equal to desired key)
-                // then call next non duplicate to iterate through DB records
-                if (doSearch)
-                {
-                    status = dbCursor.getSearchKeyRange(key, data, null);
-                    doSearch = false;
-                }
-                else
-                    status = dbCursor.getNextNoDup(key, data, null);
-                
-                // if no record found, set to +INF so that we request everything left
-                if (status == OperationStatus.SUCCESS)
-                    tileTime = decodeKey(key.getData());
-                else
-                    tileTime = Double.POSITIVE_INFINITY;
-                
-                // if we have tile, just read from DB
-                if (tileTime == request_begin)
+                CellGroup group = groups.get(g);
+                for (int r=0; r<group.missingRanges.size() && !canceled; r++)
                 {
-                    System.out.println("Found tile in DB @ " + DateTimeFormat.formatIso(decodeKey(key.getData()), 0));
-                    request_begin += tileSize;
-                    readBlocksFromDB(dbCursor, key, data);
-                }
-                
-                // otherwise load data from data provider
-                else
-                {
-                    request_end = Math.min(tileTime, stop);
-                    
-                    System.out.println("Loading Data for " + DateTimeFormat.formatIso(request_begin, 0) +
-                                                     " - " + DateTimeFormat.formatIso(request_end, 0));
-                    
-                    // get data for missing tiles
-                    subProvider.clearData();
-                    subProvider.getTimeExtent().setStartTime(request_begin);
-                    subProvider.getTimeExtent().setStopTime(request_end);
-                    subProvider.updateData();
-                    
-                    // put result in DB (serialize data for each tile to binary)
-                    writeBlocksToDB(dbCursor, request_begin, request_end);                    
-                    request_begin = request_end;
+                    double[] range = group.missingRanges.get(r);
+                    requestTiles(group, range[0], range[1]);
                 }
             }
+            
+            if (!canceled)
+                publishBlocks();
         }
         catch (Exception e)
         {
@@ -269,188 +572,619 @@ public class TimeCache extends AbstractProvider implements CachedProvider
         }
         finally
         {
-            try
+            stagedBlocks.clear();
+        }
+    }
+    
+    
+    /**
+     * Stages tiles of one grid cell that are in DB and finds
+     * the time ranges that must be requested from sub-provider
+     * @param cell
+     * @param start
+     * @param stop
+     * @return missing time ranges as {begin, end} pairs
+     * @throws IOException
+     */
+    protected List<double[]> readCachedTiles(int cell, double start, double stop) throws IOException
+    {
+        List<double[]> missingRanges = new ArrayList<double[]>();
+        double tileTime;
+        double request_begin = start;
+        double request_end = start;
+        
+        // get tiles data from DB or sub-provider if not in cache
+        while (request_begin < stop)
+        {
+            // search for closest tile (w/ key greater or equal to desired key)
+            // if no tile found, set to +INF so that we request everything left
+            long tileKey = findNextTile(request_begin, cell, stop);
+            if (tileKey != TileStore.NO_KEY)
+                tileTime = getTileTime(tileKey);
+            else
+                tileTime = Double.POSITIVE_INFINITY;
+            
+            if (tileTime == request_begin)
             {
-                System.out.println("Closing cursor");
+                // if tile is still being written, fetch it again
+                if (isWritePending(tileKey))
+                {
+                    tileTime = request_begin + tileSize;
+                }
                 
-                if (dbCursor != null)
-                    dbCursor.close();
+                // if tile is incomplete or has expired, delete it so that it is fetched again
+                else if (!cacheIndex.contains(tileKey) || cacheIndex.isExpired(tileKey, getMaxAge()))
+                {
+                    if (log.isDebugEnabled())
+                        log.debug("Dropping tile @ " + DateTimeFormat.formatIso(tileTime, 0));
+                    deleteTile(tileKey);
+                    tileTime = request_begin + tileSize;
+                }
+            }
+            
+            // if we have tile, just read from DB
+            if (tileTime == request_begin)
+            {
+                request_begin += tileSize;
+                readBlocksFromDB(tileKey);
+                cacheIndex.tileRead(tileKey);
+            }
+            
+            // otherwise remember range to load from data provider
+            else
+            {
+                request_end = Math.min(tileTime, stop);
+                missingRanges.add(new double[] {request_begin, request_end});
+                request_begin = request_end;
+            }
+        }
+        
+        return missingRanges;
+    }
+    
+    
+    /**
+     * Groups cells with the same missing time ranges into rectangles,
+     * first along rows and then across rows, so that each rectangle is
+     * requested at once. Cells are only grouped if location components
+     * are known, since blocks then need to be assigned back to their cell.
+     * Cells with nothing missing are left out.
+     * @param cells covering cells in row order
+     * @param missingRanges missing time ranges of each cell
+     * @return groups of cells to request
+     */
+    protected List<CellGroup> groupCells(List<Integer> cells, List<List<double[]>> missingRanges)
+    {
+        boolean canGroup = (latDataComponent != null && lonDataComponent != null);
+        int numCols = getGridColumns();
+        
+        // build runs of contiguous cells along each row
+        List<CellGroup> runs = new ArrayList<CellGroup>();
+        CellGroup run = null;
+        for (int c=0; c<cells.size(); c++)
+        {
+            List<double[]> ranges = missingRanges.get(c);
+            if (ranges.isEmpty())
+            {
+                run = null;
+                continue;
+            }
+            
+            int col = cells.get(c) % numCols;
+            int row = cells.get(c) / numCols;
+            
+            if (canGroup && run != null && run.minRow == row && run.maxCol == col - 1 &&
+                sameRanges(run.missingRanges, ranges))
+            {
+                run.maxCol = col;
+            }
+            else
+            {
+                run = new CellGroup();
+                run.minCol = run.maxCol = col;
+                run.minRow = run.maxRow = row;
+                run.missingRanges = ranges;
+                runs.add(run);
             }
-            catch (DatabaseException e)
+        }
+        
+        // merge runs spanning the same columns in consecutive rows
+        List<CellGroup> groups = new ArrayList<CellGroup>();
+        for (int r=0; r<runs.size(); r++)
+        {
+            run = runs.get(r);
+            CellGroup group = null;
+            
+            for (int g=0; canGroup && g<groups.size(); g++)
             {
-                e.printStackTrace();
+                CellGroup candidate = groups.get(g);
+                if (candidate.maxRow == run.minRow - 1 && candidate.minCol == run.minCol &&
+                    candidate.maxCol == run.maxCol && sameRanges(candidate.missingRanges, run.missingRanges))
+                {
+                    group = candidate;
+                    break;
+                }
             }
+            
+            if (group != null)
+                group.maxRow = run.maxRow;
+            else
+                groups.add(run);
         }
+        
+        return groups;
     }
+    
+    
+    protected boolean sameRanges(List<double[]> ranges1, List<double[]> ranges2)
+    {
+        if (ranges1.size() != ranges2.size())
+            return false;
         
+        for (int r=0; r<ranges1.size(); r++)
+        {
+            if (ranges1.get(r)[0] != ranges2.get(r)[0] || ranges1.get(r)[1] != ranges2.get(r)[1])
+                return false;
+        }
         
-    protected void writeBlocksToDB(Cursor dbCursor, double firstTile, double lastTile) throws IOException
+        return true;
+    }
+    
+    
+    /**
+     * Loads data of a group of cells from sub-provider, stages it and
+     * writes it to DB in tiles of each cell
+     * @param group
+     * @param begin
+     * @param end
+     * @throws Exception
+     */
+    protected void requestTiles(CellGroup group, double begin, double end) throws Exception
     {
-        double endTile = firstTile;
-        boolean isFirstTile = true;
+        int numCells = (group.maxCol - group.minCol + 1) * (group.maxRow - group.minRow + 1);
         
-        DatabaseEntry key = new DatabaseEntry();
-        DatabaseEntry data = new DatabaseEntry();
+        if (log.isDebugEnabled())
+            log.debug("Loading data for " + DateTimeFormat.formatIso(begin, 0) +
+                                      " - " + DateTimeFormat.formatIso(end, 0) + ", cells " +
+                                      group.minCol + "-" + group.maxCol + " x " + group.minRow + "-" + group.maxRow);
         
-        ArrayList<BlockList> blockLists = dataNode.getListArray();
+        // get data for missing tiles
+        subProvider.clearData();
+        subProvider.getTimeExtent().setStartTime(begin);
+        subProvider.getTimeExtent().setStopTime(end);
+        if (spatialTileSize > 0)
+            setGroupExtent(subProvider.getSpatialExtent(), group);
+        subProvider.updateData();
+        
+        cacheIndex.tilesMissed(numCells * (int)Math.round((end - begin) / tileSize));
+        
+        // stage data and put result in DB (serialize data for each tile to binary)
+        ArrayList<ArrayList<AbstractDataBlock>> blocks = stageBlocks();
+        if (spatialTileSize <= 0)
+        {
+            writeCellBlocks(blocks, begin, end, group.minRow*getGridColumns() + group.minCol);
+        }
+        else
+        {
+            Map<Integer, ArrayList<ArrayList<AbstractDataBlock>>> cellBlocks = splitBlocks(blocks, group);
+            for (Entry<Integer, ArrayList<ArrayList<AbstractDataBlock>>> entry: cellBlocks.entrySet())
+                writeCellBlocks(entry.getValue(), begin, end, entry.getKey());
+        }
+    }
+    
+    
+    protected void writeCellBlocks(ArrayList<ArrayList<AbstractDataBlock>> blocks, double firstTile, double lastTile, int cell) throws IOException
+    {
+        if (writeBehind)
+            queueBlocks(blocks, firstTile, lastTile, cell);
+        else
+            writeBlocksToDB(blocks, firstTile, lastTile, cell);
+    }
+    
+    
+    /**
+     * Assigns blocks loaded for a group of cells to the cell containing
+     * their location, keeping them in time order. Blocks outside of the
+     * group are dropped since they belong to tiles that were not requested
+     * and would be missing from other cells if stored in an edge cell.
+     * @param blocks
+     * @param group
+     * @return blocks of each cell that received data
+     */
+    protected Map<Integer, ArrayList<ArrayList<AbstractDataBlock>>> splitBlocks(ArrayList<ArrayList<AbstractDataBlock>> blocks, CellGroup group)
+    {
+        Map<Integer, ArrayList<ArrayList<AbstractDataBlock>>> cellBlocks = new HashMap<Integer, ArrayList<ArrayList<AbstractDataBlock>>>();
+        int numCols = getGridColumns();
+        int numRows = getGridRows();
+        int numLists = blocks.size();
+        int droppedCount = 0;
+        
+        ArrayList<AbstractDataBlock> timeBlocks = blocks.get(timeListIndex);
+        DataComponent timeListComponents = parsers[timeListIndex].getDataComponents();
+        for (int b=0; b<timeBlocks.size(); b++)
+        {
+            timeListComponents.setData(timeBlocks.get(b));
+            double lat = latDataComponent.getData().getDoubleValue();
+            double lon = lonDataComponent.getData().getDoubleValue();
+            int col = getGridIndex(lon + 180.0, numCols);
+            int row = getGridIndex(lat + 90.0, numRows);
+            
+            if (col < group.minCol || col > group.maxCol || row < group.minRow || row > group.maxRow)
+            {
+                droppedCount++;
+                continue;
+            }
+            
+            Integer cell = row*numCols + col;
+            
+            ArrayList<ArrayList<AbstractDataBlock>> lists = cellBlocks.get(cell);
+            if (lists == null)
+            {
+                lists = new ArrayList<ArrayList<AbstractDataBlock>>(numLists);
+                for (int i=0; i<numLists; i++)
+                    lists.add(new ArrayList<AbstractDataBlock>());
+                cellBlocks.put(cell, lists);
+            }
+            
+            for (int i=0; i<numLists; i++)
+                lists.get(i).add(blocks.get(i).get(b));
+        }
+        
+        if (droppedCount > 0 && log.isDebugEnabled())
+            log.debug(droppedCount + " block(s) outside of cells " + group.minCol + "-" + group.maxCol +
+                      " x " + group.minRow + "-" + group.maxRow + " were not cached");
+        
+        return cellBlocks;
+    }
+    
+    
+    /**
+     * Stages blocks loaded by sub-provider that are in the requested
+     * time range, so that they are published at the end of the update.
+     * @return blocks of all sub-provider lists, to be written to DB 
+     */
+    protected ArrayList<ArrayList<AbstractDataBlock>> stageBlocks()
+    {
         ArrayList<BlockList> subProviderBlockLists = subProvider.getDataNode().getListArray();
-        ByteArrayOutputStream[] outputStreams = new ByteArrayOutputStream[blockLists.size()];
+        int numLists = subProviderBlockLists.size();
         
-        // re-init iterators                    
-        ArrayList<BlockListIterator> blockIterators = new ArrayList<BlockListIterator>(subProviderBlockLists.size());                   
+        // re-init iterators
+        ArrayList<ArrayList<AbstractDataBlock>> blocks = new ArrayList<ArrayList<AbstractDataBlock>>(numLists);
+        ArrayList<BlockListIterator> blockIterators = new ArrayList<BlockListIterator>(numLists);
         for (BlockList blockList: subProviderBlockLists)
         {
-            BlockListIterator it = blockList.getIterator();
-            blockIterators.add(it);
+            blocks.add(new ArrayList<AbstractDataBlock>());
+            blockIterators.add(blockList.getIterator());
         }
         
-        System.out.println("*** Writing tiles to DB ***");
-        
-        // write sub-provider data to DB in tiles
         BlockListIterator it = blockIterators.get(timeListIndex);
+        DataComponent timeListComponents = parsers[timeListIndex].getDataComponents();
         while (it.hasNext())
         {
             // load next block from block list containing time
-            BinaryDataWriter dataWriter = writers[timeListIndex];
             AbstractDataBlock nextBlock = it.next().getData();
-            dataWriter.getDataComponents().setData(nextBlock);
+            timeListComponents.setData(nextBlock);
+            double nextBlockTime = timeDataComponent.getData().getDoubleValue();
+            boolean inRange = (nextBlockTime >= timeExtent.getStartTime() && nextBlockTime <= timeExtent.getStopTime());
+            
+            TimedBlocks timedBlocks = null;
+            if (inRange)
+            {
+                timedBlocks = new TimedBlocks();
+                timedBlocks.time = nextBlockTime;
+                timedBlocks.blocks = new AbstractDataBlock[numLists];
+                stagedBlocks.add(timedBlocks);
+            }
             
+            for (int i=0; i<numLists; i++)
+            {
+                AbstractDataBlock block;
+                if (i == timeListIndex)
+                    block = nextBlock;
+                else
+                    block = blockIterators.get(i).next().getData();
+                
+                blocks.get(i).add(block);
+                
+                // also stage for this data node if in range
+                if (inRange)
+                    timedBlocks.blocks[i] = block;
+            }
+        }
+        
+        for (BlockListIterator blockIterator: blockIterators)
+            blockIterator.close();
+        
+        return blocks;
+    }
+    
+    
+    /**
+     * Replaces content of this provider data node with all blocks staged
+     * during the update. Blocks are sorted by time first since tiles of
+     * different cells and time ranges loaded from DB or sub-provider are
+     * staged one after the other.
+     */
+    protected void publishBlocks()
+    {
+        ArrayList<BlockList> blockLists = dataNode.getListArray();
+        Collections.sort(stagedBlocks, TIME_ORDER);
+        
+        dataNode.clearAll();
+        for (int b=0; b<stagedBlocks.size(); b++)
+        {
+            AbstractDataBlock[] blocks = stagedBlocks.get(b).blocks;
+            for (int i=0; i<blocks.length; i++)
+                blockLists.get(i).addBlock(blocks[i]);
+        }
+        
+        stagedBlocks.clear();
+        dispatchEvent(new STTEvent(this, EventType.PROVIDER_DATA_CHANGED), false);
+    }
+    
+    
+    /**
+     * Queues blocks so that they are written to DB by the background writer.
+     * Blocks the caller if too many writes are already queued.
+     * @param blocks
+     * @param firstTile
+     * @param lastTile
+     * @param cell
+     */
+    protected void queueBlocks(final ArrayList<ArrayList<AbstractDataBlock>> blocks, final double firstTile, final double lastTile, final int cell)
+    {
+        setWritePending(firstTile, lastTile, cell, true);
+        
+        Runnable writeTask = new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    writeBlocksToDB(blocks, firstTile, lastTile, cell);
+                }
+                catch (Exception e)
+                {
+                    log.error("Error while writing tiles to DB", e);
+                }
+                finally
+                {
+                    setWritePending(firstTile, lastTile, cell, false);
+                }
+            }
+        };
+        
+        try
+        {
+            getTileWriter().execute(writeTask);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // update was interrupted, just don't cache these tiles
+            setWritePending(firstTile, lastTile, cell, false);
+        }
+    }
+    
+    
+    protected synchronized ThreadPoolExecutor getTileWriter()
+    {
+        if (tileWriter != null)
+            return tileWriter;
+        
+        ThreadFactory threadFactory = new ThreadFactory()
+        {
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "STT Cache Writer: " + getName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        
+        // wait for space in queue instead of rejecting tasks
+        RejectedExecutionHandler blockingHandler = new RejectedExecutionHandler()
+        {
+            public void rejectedExecution(Runnable task, ThreadPoolExecutor executor)
+            {
+                try
+                {
+                    executor.getQueue().put(task);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(e);
+                }
+            }
+        };
+        
+        tileWriter = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.SECONDS,
+                                            new ArrayBlockingQueue<Runnable>(WRITE_QUEUE_SIZE),
+                                            threadFactory, blockingHandler);
+        return tileWriter;
+    }
+    
+    
+    protected void setWritePending(double firstTile, double lastTile, int cell, boolean pending)
+    {
+        synchronized (pendingTiles)
+        {
+            for (double tileTime = firstTile; tileTime < lastTile; tileTime += tileSize)
+            {
+                Long tileKey = getTileKey(tileTime, cell);
+                Integer count = pendingTiles.get(tileKey);
+                int newCount = (count == null) ? 0 : count;
+                newCount += pending ? 1 : -1;
+                
+                if (newCount > 0)
+                    pendingTiles.put(tileKey, newCount);
+                else
+                    pendingTiles.remove(tileKey);
+            }
+        }
+    }
+    
+    
+    protected boolean isWritePending(long tileKey)
+    {
+        synchronized (pendingTiles)
+        {
+            return pendingTiles.containsKey(tileKey);
+        }
+    }
+    
+    
+    /**
+     * Serializes blocks to binary and writes them to DB in tiles.
+     * Only called by one thread at a time since it uses the writers. 
+     * @param blocks
+     * @param firstTile
+     * @param lastTile
+     * @param cell
+     * @throws IOException
+     */
+    protected void writeBlocksToDB(ArrayList<ArrayList<AbstractDataBlock>> blocks, double firstTile, double lastTile, int cell) throws IOException
+    {
+        double endTile = firstTile;
+        boolean isFirstTile = true;
+        int numLists = blocks.size();
+        ByteArrayOutputStream[] outputStreams = new ByteArrayOutputStream[numLists];
+        
+        // write sub-provider data to DB in tiles
+        ArrayList<AbstractDataBlock> timeBlocks = blocks.get(timeListIndex);
+        DataComponent timeListComponents = writers[timeListIndex].getDataComponents();
+        for (int b=0; b<timeBlocks.size(); b++)
+        {
             // extract block time
-            double nextBlockTime = timeDataComponent.getData().getDoubleValue();
+            timeListComponents.setData(timeBlocks.get(b));
+            double nextBlockTime = writerTimeComponent.getData().getDoubleValue();
             
             // if next block is part of next tile
             if (nextBlockTime >= endTile)
             {
                 if (!isFirstTile)
-                {
-                    key.setData(encodeKey(endTile - tileSize));
-                    System.out.println("Writing tile @ " + DateTimeFormat.formatIso(endTile - tileSize, 0));
-                    
-                    for (int i=0; i<subProviderBlockLists.size(); i++)
-                    {
-                        // insert each record in DB
-                        try
-                        {
-                            writers[i].flush();
-                            data.setData(outputStreams[i].toByteArray());
-                            OperationStatus status = dbCursor.put(key, data);
-                            System.out.println("  List #" + i + ": " + status + ": " + data.getData().length + " bytes written");
-                        }
-                        catch (DatabaseException e)
-                        {
-                            e.printStackTrace();
-                        }
-                    }
-                    
-                    dispatchEvent(new STTEvent(this, EventType.PROVIDER_DATA_CHANGED), false);
-                }
+                    writeTile(endTile - tileSize, cell, outputStreams);
                 
                 // init writers
-                for (int i=0; i<subProviderBlockLists.size(); i++)
+                for (int i=0; i<numLists; i++)
                 {
                     if (!isFirstTile)
                         writers[i].close();
                     
                     ByteArrayOutputStream os = new ByteArrayOutputStream((int)tileSize*1000);
-                    os.write(i); // write list index first for proper duplicate sorting!                    
                     outputStreams[i] = os;
                     writers[i].setOutput(os);
                     writers[i].reset();
                 }
                 
-                endTile += tileSize;
+                // skip empty tiles
+                endTile += (Math.floor((nextBlockTime - endTile) / tileSize) + 1) * tileSize;
                 isFirstTile = false;
             }
             
-            System.out.println("Block @ " + DateTimeFormat.formatIso(nextBlockTime, 0));
-            
             // serialize blocks to binary
-            for (int i=0; i<subProviderBlockLists.size(); i++)
+            for (int i=0; i<numLists; i++)
+                writers[i].write(blocks.get(i).get(b));
+        }
+        
+        // also write last tile if it was fully loaded
+        if (!isFirstTile && endTile <= lastTile)
+            writeTile(endTile - tileSize, cell, outputStreams);
+    }
+    
+    
+    /**
+     * Writes records of one tile to DB. Tile info is written last so
+     * that a tile only becomes visible once all its records are stored.
+     * @param tileTime
+     * @param cell
+     * @param outputStreams
+     * @throws IOException
+     */
+    protected void writeTile(double tileTime, int cell, ByteArrayOutputStream[] outputStreams) throws IOException
+    {
+        long tileKey = getTileKey(tileTime, cell);
+        long tileBytes = 0;
+        
+        for (int i=0; i<outputStreams.length; i++)
+        {
+            // insert each record in DB
+            try
             {
-                dataWriter = writers[i];
-                BlockListIterator it2 = blockIterators.get(i);
-                
-                AbstractDataBlock block;
-                if (i == timeListIndex)
-                    block = nextBlock;
-                else
-                    block = it2.next().getData();
-                
-                dataWriter.write(block);
-                
-                // also add to this data node if in range
-                if (nextBlockTime >= timeExtent.getStartTime() && nextBlockTime <= timeExtent.getStopTime())
-                {
-                    if (needsClear)
-                    {
-                        dataNode.clearAll();
-                        needsClear = false;
-                    }
-                    
-                    blockLists.get(i).addBlock(block);
-                }
+                writers[i].flush();
+                byte[] payload = outputStreams[i].toByteArray();
+                byte[] record = recordEncoder.encode(i, payload, payload.length);
+                cacheStore.put(tileKey, ByteBuffer.wrap(record));
+                tileBytes += record.length;
+            }
+            catch (IOException e)
+            {
+                log.error("Error while writing tile @ " + DateTimeFormat.formatIso(tileTime, 0), e);
+                return;
             }
         }
+        
+        cacheIndex.tileWritten(tileKey, tileBytes);
+        
+        if (log.isDebugEnabled())
+            log.debug("Tile written @ " + DateTimeFormat.formatIso(tileTime, 0) + ": " + tileBytes + " bytes");
+    }
+    
+    
+    /**
+     * Deletes all records of a tile, including its info record.
+     * Tile is removed from index first so that its info is not written again.
+     * @param tileKey
+     * @throws IOException
+     */
+    protected void deleteTile(long tileKey) throws IOException
+    {
+        cacheIndex.tileRemoved(tileKey);
+        cacheStore.delete(tileKey, tileKey + 1);
     }
     
     
-    protected void readBlocksFromDB(Cursor dbCursor, DatabaseEntry key, DatabaseEntry data) throws IOException, DatabaseException
+    /**
+     * Stages all blocks of a tile read from DB
+     * @param tileKey
+     * @throws IOException
+     */
+    protected void readBlocksFromDB(long tileKey) throws IOException
     {
         ArrayList<BlockList> blockLists = dataNode.getListArray();
-        ByteArrayInputStream[] inputStreams = new ByteArrayInputStream[blockLists.size()];
-        double tileTime = decodeKey(key.getData()); 
+        double tileTime = getTileTime(tileKey); 
         
-        System.out.println("Loading Tile from DB @ " + DateTimeFormat.formatIso(tileTime, 0));
-        
-        // init parsers
-        OperationStatus status = OperationStatus.SUCCESS;
-        for (int i=0; i<inputStreams.length; i++)
+        // init parsers, reading directly from store buffers when possible
+        for (int i=0; i<blockLists.size(); i++)
         {
-            ByteArrayInputStream is = new ByteArrayInputStream(data.getData());
-            is.skip(1); // skip list index
-            inputStreams[i] = is;
-            parsers[i].setInput(is);
-            parsers[i].reset();
-            
-            System.out.println("  List #" + i + ": " + status + ": " + data.getData().length + " bytes read");
-            
-            if (i < inputStreams.length-1)
-                status = dbCursor.getNextDup(key, data, null);
-            
-            if (status != OperationStatus.SUCCESS)
+            ByteBuffer record = cacheStore.get(tileKey, i);
+            if (record == null)
             {
-                System.out.println("  List #" + i + ": " + status);
+                log.warn("Missing record for list #" + i + " in tile @ " + DateTimeFormat.formatIso(tileTime, 0));
                 return;
             }
+            
+            parsers[i].setInput(new ByteBufferInputStream(decodeRecord(record)));
+            parsers[i].reset();
         }
         
-        // read blocks and copy them to all block lists
+        // read blocks of all lists and stage them with their time
+        DataComponent timeListComponents = parsers[timeListIndex].getDataComponents();
         while (parsers[0].moreData())
         {
-            double blockTime = 0.0;
+            TimedBlocks timedBlocks = new TimedBlocks();
+            timedBlocks.blocks = new AbstractDataBlock[blockLists.size()];
             
             for (int i=0; i<blockLists.size(); i++)
-            {
-                BinaryDataParser parser = parsers[i];
-                AbstractDataBlock block = (AbstractDataBlock)parser.parse();
-                
-                if (needsClear)
-                {
-                    dataNode.clearAll();
-                    needsClear = false;
-                }
-                
-                blockLists.get(i).addBlock(block);
-                
-                if (i == timeListIndex)
-                    blockTime = timeDataComponent.getData().getDoubleValue();
-            }
+                timedBlocks.blocks[i] = (AbstractDataBlock)parsers[i].parse();
             
-            System.out.println("Block @ " + DateTimeFormat.formatIso(blockTime, 0));
+            timeListComponents.setData(timedBlocks.blocks[timeListIndex]);
+            timedBlocks.time = timeDataComponent.getData().getDoubleValue();
+            stagedBlocks.add(timedBlocks);
         }
         
-        dispatchEvent(new STTEvent(this, EventType.PROVIDER_DATA_CHANGED), false);
-        System.out.println("Tile Loaded\n");
+        if (log.isDebugEnabled())
+            log.debug("Tile loaded from DB @ " + DateTimeFormat.formatIso(tileTime, 0));
     }
        
     
@@ -464,6 +1198,39 @@ public class TimeCache extends AbstractProvider implements CachedProvider
     {
         this.timeData = timeData;
     }
+    
+    
+    public String getLatData()
+    {
+        return latData;
+    }
+    
+    
+    /**
+     * Sets path of latitude component, in the same list as time.
+     * Location is needed to request neighboring grid cells together.
+     * @param latData
+     */
+    public void setLatData(String latData)
+    {
+        this.latData = latData;
+    }
+    
+    
+    public String getLonData()
+    {
+        return lonData;
+    }
+    
+    
+    /**
+     * Sets path of longitude component, in the same list as time
+     * @param lonData
+     */
+    public void setLonData(String lonData)
+    {
+        this.lonData = lonData;
+    }
 
 
     public double getTileSize()
@@ -490,6 +1257,80 @@ public class TimeCache extends AbstractProvider implements CachedProvider
     }
 
 
+    protected ByteBuffer decodeRecord(ByteBuffer record) throws IOException
+    {
+        try
+        {
+            return recordDecoder.decode(record);
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException("Corrupted tile record", e);
+        }
+    }
+    
+    
+    public String getStorage()
+    {
+        return storage;
+    }
+    
+    
+    /**
+     * Sets type of storage backend, must be called before init()
+     * @param storage bdb or log
+     */
+    public void setStorage(String storage)
+    {
+        this.storage = storage;
+    }
+    
+    
+    public byte getCompression()
+    {
+        return compression;
+    }
+    
+    
+    /**
+     * Sets compression method used for new records
+     * @param compression one of the TileRecordCodec constants
+     */
+    public void setCompression(byte compression)
+    {
+        this.compression = compression;
+    }
+    
+    
+    public boolean isWriteBehind()
+    {
+        return writeBehind;
+    }
+    
+    
+    public void setWriteBehind(boolean writeBehind)
+    {
+        this.writeBehind = writeBehind;
+    }
+    
+    
+    public double getSpatialTileSize()
+    {
+        return spatialTileSize;
+    }
+    
+    
+    /**
+     * Sets size of global grid cells used for spatial tiling.
+     * Must be called before setSubProvider() and init()
+     * @param spatialTileSize in degrees, 0 to disable spatial tiling
+     */
+    public void setSpatialTileSize(double spatialTileSize)
+    {
+        this.spatialTileSize = spatialTileSize;
+    }
+    
+    
     public int getMaxLifeTime()
     {
         return maxLifeTime;
@@ -502,6 +1343,36 @@ public class TimeCache extends AbstractProvider implements CachedProvider
     }
     
     
+    /**
+     * @return current size of cached tiles in bytes
+     */
+    public long getCacheOccupancy()
+    {
+        return cacheIndex.getCurrentSize();
+    }
+    
+    
+    /**
+     * @return ratio of tiles read from cache to all tiles requested
+     */
+    public double getHitRatio()
+    {
+        return cacheIndex.getHitRatio();
+    }
+    
+    
+    /**
+     * Cache store is accessed through file channels which would be
+     * closed by an interrupt. Loads from the sub provider are not
+     * interrupted either so that partial data is never cached.
+     */
+    @Override
+    protected boolean isInterruptible()
+    {
+        return false;
+    }
+    
+    
     @Override
     public String getDescription()
     {
@@ -574,7 +1445,18 @@ public class TimeCache extends AbstractProvider implements CachedProvider
             this.subProvider = subProvider;
             
             if (this.subProvider != null)
+            {
                 this.subProvider.addListener(this);
+                
+                // take over sub-provider bbox so that
+                // it can be set to each grid cell separately
+                if (spatialTileSize > 0)
+                {
+                    STTSpatialExtent bbox = this.subProvider.getSpatialExtent();
+                    this.subProvider.setSpatialExtent(bbox.copy());
+                    setSpatialExtent(bbox);
+                }
+            }
         }
     }
     
@@ -605,6 +1487,13 @@ public class TimeCache extends AbstractProvider implements CachedProvider
                     startUpdate(true);
                     break;
                 }
+                
+            case SPATIAL_EXTENT_CHANGED:
+                if (spatialTileSize > 0 && isEnabled())
+                {
+                    startUpdate(true);
+                    break;
+                }
         }        
     }  
 }
@@ -0,0 +1,357 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit Cache Engine".
+  
+ The Initial Developer of the Original Code is Sensia Software LLC.
+ Portions created by the Initial Developer are Copyright (C) 2008
+ the Initial Developer. All Rights Reserved.
+ 
+ Contributor(s): 
+    Alexandre Robin <alex.robin@sensiasoftware.com>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.provider.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+
+/**
+ * <p><b>Title:</b>
+ * TimeCacheIndex
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Keeps track of the write time, last read time and byte size
+ * of each tile stored by a TimeCache, so that expired tiles and
+ * least recently read tiles can be evicted. Tile info is persisted
+ * as an extra record of each tile (with index INFO_RECORD) so that
+ * it survives restarts. Last read times are only written back when
+ * flush() is called. Info of a new tile must be registered after all
+ * tile records have been written, so that tiles without info can be
+ * considered incomplete. Methods can be called concurrently by the
+ * update, writer and maintenance threads.
+ * </p>
+ *
+ * <p>Copyright (c) 2008</p>
+ * @author Alexandre Robin
+ * @date Mar 12, 2009
+ * @version 1.0
+ */
+public class TimeCacheIndex
+{
+    public final static int INFO_RECORD = TileStore.INFO_RECORD;
+    
+    protected TileStore store;
+    protected LinkedHashMap<Long, TileInfo> entries;
+    protected long currentSize;
+    protected int hitCount;
+    protected int missCount;
+    
+    
+    protected static class TileInfo
+    {
+        public long size;
+        public long writeTime;
+        public long readTime;
+        public boolean dirty;
+        
+        
+        public TileInfo(long size, long writeTime, long readTime)
+        {
+            this.size = size;
+            this.writeTime = writeTime;
+            this.readTime = readTime;
+        }
+    }
+    
+    
+    public TimeCacheIndex(TileStore store)
+    {
+        this.store = store;
+        this.entries = new LinkedHashMap<Long, TileInfo>(1024, 0.75f, true);
+    }
+    
+    
+    /**
+     * Loads tile info from the store, ordered by last read time.
+     * Tiles with no info record are deleted since they are either
+     * incomplete or were written by an older version.
+     * @throws IOException
+     */
+    public synchronized void load() throws IOException
+    {
+        entries.clear();
+        currentSize = 0;
+        
+        // read info records of all tiles
+        final List<Long> keys = new ArrayList<Long>();
+        final List<TileInfo> infos = new ArrayList<TileInfo>();
+        long tileKey = store.seek(0);
+        while (tileKey != TileStore.NO_KEY)
+        {
+            ByteBuffer record = store.get(tileKey, INFO_RECORD);
+            if (record != null)
+            {
+                record.position(record.position() + 1);
+                keys.add(tileKey);
+                infos.add(new TileInfo(record.getLong(), record.getLong(), record.getLong()));
+            }
+            else
+                store.delete(tileKey, tileKey + 1);
+            
+            tileKey = store.seek(tileKey + 1);
+        }
+        
+        // insert in last read order to restore LRU order
+        List<Integer> order = new ArrayList<Integer>(keys.size());
+        for (int i=0; i<keys.size(); i++)
+            order.add(i);
+        
+        Collections.sort(order, new Comparator<Integer>()
+        {
+            public int compare(Integer i1, Integer i2)
+            {
+                long t1 = infos.get(i1).readTime;
+                long t2 = infos.get(i2).readTime;
+                return (t1 < t2) ? -1 : ((t1 == t2) ? 0 : 1);
+            }
+        });
+        
+        for (int i=0; i<order.size(); i++)
+        {
+            int index = order.get(i);
+            TileInfo info = infos.get(index);
+            entries.put(keys.get(index), info);
+            currentSize += info.size;
+        }
+    }
+    
+    
+    /**
+     * Registers a newly written tile
+     * @param tileKey
+     * @param size total size of the tile records in bytes
+     */
+    public synchronized void tileWritten(long tileKey, long size)
+    {
+        long now = System.currentTimeMillis();
+        
+        try
+        {
+            putInfo(tileKey, new TileInfo(size, now, now));
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+    
+    
+    /**
+     * Records a cache hit and updates tile last read time
+     * @param tileKey
+     */
+    public synchronized void tileRead(long tileKey)
+    {
+        hitCount++;
+        
+        TileInfo info = entries.get(tileKey);
+        if (info != null)
+        {
+            info.readTime = System.currentTimeMillis();
+            info.dirty = true;
+        }
+    }
+    
+    
+    /**
+     * Records cache misses
+     * @param numTiles number of tiles that had to be requested
+     */
+    public synchronized void tilesMissed(int numTiles)
+    {
+        missCount += numTiles;
+    }
+    
+    
+    /**
+     * Removes tile info before the tile records are deleted
+     * (including the info record) so that it is not written again
+     * @param tileKey
+     */
+    public synchronized void tileRemoved(long tileKey)
+    {
+        TileInfo info = entries.remove(tileKey);
+        if (info != null)
+            currentSize -= info.size;
+    }
+    
+    
+    /**
+     * Checks if all records of a tile have been written
+     * @param tileKey
+     * @return
+     */
+    public synchronized boolean contains(long tileKey)
+    {
+        return entries.containsKey(tileKey);
+    }
+    
+    
+    /**
+     * Checks if tile was written more than maxAge ms ago.
+     * Tiles unknown to the index are never considered expired.
+     * @param tileKey
+     * @param maxAge
+     * @return
+     */
+    public synchronized boolean isExpired(long tileKey, long maxAge)
+    {
+        if (maxAge <= 0)
+            return false;
+        
+        TileInfo info = entries.get(tileKey);
+        if (info == null)
+            return false;
+        
+        return (System.currentTimeMillis() - info.writeTime > maxAge);
+    }
+    
+    
+    /**
+     * Selects tiles that should be evicted, i.e. tiles older than maxAge,
+     * then least recently read tiles until the total size is below maxSize.
+     * Tiles are not removed from the index until tileRemoved() is called.
+     * @param maxAge max tile age in ms or 0 if tiles never expire
+     * @param maxSize max cache size in bytes or 0 if size is not limited
+     * @return list of tile keys, expired tiles first
+     */
+    public synchronized List<Long> selectEvictions(long maxAge, long maxSize)
+    {
+        List<Long> evicted = new ArrayList<Long>();
+        long now = System.currentTimeMillis();
+        long size = currentSize;
+        
+        // expired tiles
+        if (maxAge > 0)
+        {
+            for (Entry<Long, TileInfo> entry: entries.entrySet())
+            {
+                TileInfo info = entry.getValue();
+                if (now - info.writeTime > maxAge)
+                {
+                    evicted.add(entry.getKey());
+                    size -= info.size;
+                }
+            }
+        }
+        
+        // least recently read tiles if still too large
+        if (maxSize > 0)
+        {
+            Iterator<Entry<Long, TileInfo>> it = entries.entrySet().iterator();
+            while (size > maxSize && it.hasNext())
+            {
+                Entry<Long, TileInfo> entry = it.next();
+                TileInfo info = entry.getValue();
+                if (maxAge <= 0 || now - info.writeTime <= maxAge)
+                {
+                    evicted.add(entry.getKey());
+                    size -= info.size;
+                }
+            }
+        }
+        
+        return evicted;
+    }
+    
+    
+    /**
+     * Writes modified read times back to the store
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException
+    {
+        for (Entry<Long, TileInfo> entry: entries.entrySet())
+        {
+            TileInfo info = entry.getValue();
+            if (info.dirty)
+                writeInfo(entry.getKey(), info);
+        }
+    }
+    
+    
+    protected void putInfo(long tileKey, TileInfo info) throws IOException
+    {
+        TileInfo oldInfo = entries.put(tileKey, info);
+        if (oldInfo != null)
+            currentSize -= oldInfo.size;
+        currentSize += info.size;
+        writeInfo(tileKey, info);
+    }
+    
+    
+    protected void writeInfo(long tileKey, TileInfo info) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(25);
+        buf.put((byte)INFO_RECORD);
+        buf.putLong(info.size);
+        buf.putLong(info.writeTime);
+        buf.putLong(info.readTime);
+        buf.flip();
+        store.put(tileKey, buf);
+        info.dirty = false;
+    }
+    
+    
+    public synchronized int getTileCount()
+    {
+        return entries.size();
+    }
+    
+    
+    public synchronized long getCurrentSize()
+    {
+        return currentSize;
+    }
+    
+    
+    public synchronized int getHitCount()
+    {
+        return hitCount;
+    }
+    
+    
+    public synchronized int getMissCount()
+    {
+        return missCount;
+    }
+    
+    
+    /**
+     * @return ratio of tiles read from cache to all tiles requested
+     */
+    public synchronized double getHitRatio()
+    {
+        int total = hitCount + missCount;
+        return (total == 0) ? 0.0 : ((double)hitCount) / total;
+    }
+}
@@ -59,6 +59,32 @@ public class TimeCacheReader extends XMLReader implements XMLModuleReader
         if (text != null)
             provider.setMaxLifeTime(Integer.parseInt(text));
         
+        // spatial grid cell size in degrees
+        text = dom.getElementValue(providerElt, "spatialTileSize");
+        if (text != null)
+            provider.setSpatialTileSize(Double.parseDouble(text));
+        
+        // location used to split data of grid cells requested together
+        text = dom.getElementValue(providerElt, "latData");
+        provider.setLatData(text);
+        text = dom.getElementValue(providerElt, "lonData");
+        provider.setLonData(text);
+        
+        // storage backend
+        text = dom.getElementValue(providerElt, "storage");
+        if (text != null)
+            provider.setStorage(text);
+        
+        // compression method for new tile records
+        text = dom.getElementValue(providerElt, "compression");
+        if (text != null)
+            provider.setCompression(TileRecordCodec.getMethod(text));
+        
+        // write tiles to DB in background thread
+        text = dom.getElementValue(providerElt, "writeBehind");
+        if (text != null)
+            provider.setWriteBehind(Boolean.parseBoolean(text));
+        
         return provider;
     }
 }
@@ -25,22 +25,14 @@
 
 package org.vast.stt.provider.google;
 
-import java.awt.image.renderable.ParameterBlock;
-import java.awt.image.*;
-import java.io.*;
-import java.net.URL;
-import java.net.URLConnection;
-import javax.media.jai.JAI;
-import javax.media.jai.RenderedOp;
 import org.sensorML.process.SRTMUtil;
 import org.vast.data.AbstractDataBlock;
 import org.vast.data.DataBlockFactory;
 import org.vast.stt.data.BlockListItem;
 import org.vast.stt.provider.tiling.QuadTreeItem;
+import org.vast.stt.provider.tiling.TileDiskCache;
 import org.vast.stt.provider.tiling.TiledMapProvider;
 import org.vast.util.SpatialExtent;
-import com.sun.media.jai.codec.MemoryCacheSeekableStream;
-import com.sun.media.jai.codec.PNGDecodeParam;
 
 
 /**
@@ -98,10 +90,10 @@ public class GoogleMapProvider extends TiledMapProvider
     protected SpatialExtent transformBbox(SpatialExtent extent)
     {
         SpatialExtent mercatorExtent = new SpatialExtent();
-        double minX = spatialExtent.getMinX() * DTR;
-        double maxX = spatialExtent.getMaxX() * DTR;
-        double minY = latToY(spatialExtent.getMinY() * DTR);
-        double maxY = latToY(spatialExtent.getMaxY() * DTR);
+        double minX = extent.getMinX() * DTR;
+        double maxX = extent.getMaxX() * DTR;
+        double minY = latToY(extent.getMinY() * DTR);
+        double maxY = latToY(extent.getMaxY() * DTR);
         mercatorExtent.setMinX(minX);
         mercatorExtent.setMaxX(maxX);
         mercatorExtent.setMinY(minY);
@@ -115,88 +107,48 @@ public class GoogleMapProvider extends TiledMapProvider
     {
         try
         {
-            // create treeObject
+            // compute tile indices
+            GoogleMapTileXYZ tileXYZGen = new GoogleMapTileXYZ();
+            item.accept(tileXYZGen);
+            int x = tileXYZGen.getX();
+            int y = tileXYZGen.getY();
+            int z = tileXYZGen.getZ();
             String urlString = null;
             
-            // update sequence string
-            String s = seqNumber == 0 ? "" : seqString.substring(0, seqNumber);
-            seqNumber = seqNumber >= seqString.length() ? 0 : seqNumber+1;
+            // update sequence string and server number
+            // synchronized since tiles are loaded by several threads
+            String s;
+            int serverNum;
+            synchronized(this)
+            {
+                s = seqNumber == 0 ? "" : seqString.substring(0, seqNumber);
+                seqNumber = seqNumber >= seqString.length() ? 0 : seqNumber+1;
+                
+                serverNum = this.serverNum++;
+                if (this.serverNum > 3)
+                    this.serverNum = 0;
+            }
             
+            // build request URL for satellite data
             if (layerId.startsWith("satellite"))
-            {
-                // build request URL for satellite data
-                GoogleMapTileXYZ tileXYZGen = new GoogleMapTileXYZ();
-                item.accept(tileXYZGen);
-                int x = tileXYZGen.getX();
-                int y = tileXYZGen.getY();
-                int z = tileXYZGen.getZ();                    
                 urlString = "http://khm" + serverNum + ".google.com/kh/v=48&x=" + x + "&y=" + y + "&z=" + z + "&s=" + s;
-            }
+            
+            // build request URL for road/boundary data
             else if (layerId.startsWith("roads"))
-            {
-                // build request URL for road/boundary data
-                GoogleMapTileXYZ tileXYZGen = new GoogleMapTileXYZ();
-                item.accept(tileXYZGen);
-                int x = tileXYZGen.getX();
-                int y = tileXYZGen.getY();
-                int z = tileXYZGen.getZ();
                 urlString = "http://mt" + serverNum + ".google.com/vt/lyrs=h@112&hl=en&x=" + x + "&y=" + y + "&z=" + z + "&s=" + s;
-            }
+            
+            // build request URL for map data
             else if (layerId.startsWith("map"))
-            {
-                // build request URL for map data
-                GoogleMapTileXYZ tileXYZGen = new GoogleMapTileXYZ();
-                item.accept(tileXYZGen);
-                int x = tileXYZGen.getX();
-                int y = tileXYZGen.getY();
-                int z = tileXYZGen.getZ();
                 urlString = "http://mt" + serverNum + ".google.com/vt/lyrs=m@112&hl=en&x=" + x + "&y=" + y + "&z=" + z + "&s=" + s;
-            }
-            
-            // increment server number
-            serverNum++;
-            if (serverNum > 3)
-                serverNum = 0;                
-                                    
-            //System.out.println(urlString);
-            URL url = new URL(urlString);
-            URLConnection connection = url.openConnection();
-            connection.addRequestProperty("Referer", "http://maps.google.com");
-            connection.addRequestProperty("Connection", "keep-alive");
-            connection.addRequestProperty("Keep-Alive", "300");
             
+            // get tile from disk cache or server
             // return if connection cannot be made
-            InputStream is = null;
-            try {is = connection.getInputStream();}
+            byte[] tileData = null;
+            try {tileData = fetchTileData(TileDiskCache.getTileKey(z, x, y), urlString, "http://maps.google.com");}
             catch (Exception e) {return;}
             
-            //long connectTime = System.currentTimeMillis();
-            MemoryCacheSeekableStream imgStream = new MemoryCacheSeekableStream(is);
-
-            ParameterBlock pb = new ParameterBlock();
-            pb.add(imgStream); 
-            
-            if (connection.getContentType().equals("image/png"))
-            {
-                PNGDecodeParam pngParams = new PNGDecodeParam();
-                pngParams.setExpandPalette(true);
-                pb.add(pngParams);
-            }                
-            
-            RenderedOp rop = JAI.create("stream", pb);
-            RenderedImage img = rop.createInstance();
-            imgStream.close();
-            
-            // if DataBufferByte, just wrap image data with a DataBlock
-            DataBuffer buf = img.getData().getDataBuffer();
-            AbstractDataBlock imageBlock = null;
-            if (buf instanceof DataBufferByte)
-            {
-                byte[] data = ((DataBufferByte)buf).getData();
-                imageBlock = DataBlockFactory.createBlock(data);
-            }
-            else
-                throw new IllegalStateException("DataBuffer Type not supported");
+            // decode directly into a pooled image block
+            AbstractDataBlock imageBlock = decodeTileImage(tileData);
             
             // build grid
             int gridWidth = 10;
@@ -251,6 +203,13 @@ public class GoogleMapProvider extends TiledMapProvider
     }
     
     
+    @Override
+    protected String getCacheLayerName()
+    {
+        return "google_" + layerId;
+    }
+    
+    
     public void setLayer(String layerId)
     {
         this.layerId = layerId;
@@ -25,6 +25,7 @@
 
 package org.vast.stt.provider.ows;
 
+import java.io.IOException;
 import java.io.InputStream;
 
 import org.vast.ows.OWSLayerCapabilities;
@@ -33,6 +34,7 @@ import org.vast.ows.OWSServiceCapabilities;
 import org.vast.ows.OWSUtils;
 import org.vast.stt.project.Service;
 import org.vast.stt.provider.AbstractProvider;
+import org.vast.stt.provider.HttpClientManager;
 
 
 /**
@@ -99,4 +101,42 @@ public abstract class OWSProvider extends AbstractProvider
     {
         this.service = service;
     }
+    
+    
+    /**
+     * Sends request as KVP using GET through the shared HTTP client
+     * so that per host limits, timeouts and retries are applied
+     * @param request
+     * @return response stream
+     * @throws IOException
+     */
+    protected InputStream sendGetRequest(OWSRequest request) throws IOException
+    {
+        return sendGetRequest(request, false);
+    }
+    
+    
+    /**
+     * Sends request as KVP using GET, without read timeout if the
+     * response is a stream that can stay idle between messages
+     * @param request
+     * @param streaming
+     * @return response stream
+     * @throws IOException
+     */
+    protected InputStream sendGetRequest(OWSRequest request, boolean streaming) throws IOException
+    {
+        String url;
+        
+        try
+        {
+            url = owsUtils.buildURLQuery(request);
+        }
+        catch (Exception e)
+        {
+            throw new IOException("Cannot build GET request: " + e.getMessage(), e);
+        }
+        
+        return HttpClientManager.getInstance().get(url, null, streaming, this);
+    }
 }
@@ -96,6 +96,34 @@ public class OWSProviderReader extends XMLReader implements XMLModuleReader
         // layerID
         provider.setLayerID(dom.getElementValue(providerElt, "layerId"));
         
+        // max number and age of blocks kept for real-time feeds
+        String maxBlockCount = dom.getAttributeValue(providerElt, "maxBlockCount");
+        if (maxBlockCount != null)
+            provider.getDataNode().setMaxBlockCount(Integer.parseInt(maxBlockCount));
+        String maxBlockAge = dom.getAttributeValue(providerElt, "maxBlockAge");
+        if (maxBlockAge != null)
+            provider.getDataNode().setMaxBlockAge(Double.parseDouble(maxBlockAge));
+        
+        // store records of scalars in columns instead of one block per record
+        String columnarStorage = dom.getAttributeValue(providerElt, "columnarStorage");
+        if (columnarStorage != null)
+            provider.getDataNode().setColumnarStorage(Boolean.parseBoolean(columnarStorage));
+        
+        // keep blocks in memory mapped files for archives larger than the heap
+        String offHeapStorage = dom.getAttributeValue(providerElt, "offHeapStorage");
+        if (offHeapStorage != null)
+            provider.getDataNode().setOffHeapStorage(Boolean.parseBoolean(offHeapStorage));
+        
+        // memory used to recycle blocks between refreshes (in MB)
+        String blockPoolMemory = dom.getAttributeValue(providerElt, "blockPoolMemory");
+        if (blockPoolMemory != null && provider instanceof SOSProvider)
+            ((SOSProvider)provider).setBlockPoolMemory(Long.parseLong(blockPoolMemory) * 1024 * 1024);
+        
+        // only request new data at each update
+        String incremental = dom.getAttributeValue(providerElt, "incremental");
+        if (incremental != null && provider instanceof SOSProvider)
+            ((SOSProvider)provider).setIncrementalUpdate(Boolean.parseBoolean(incremental));
+        
         // read service
         // TODO
         
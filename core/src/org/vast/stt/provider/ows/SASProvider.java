@@ -89,7 +89,7 @@ public class SASProvider extends OWSProvider
             if(usePost)
             	dataStream = owsUtils.sendPostRequest(request).getInputStream();
             else 
-            	dataStream = owsUtils.sendGetRequest(request).getInputStream();
+            	dataStream = sendGetRequest(request, true);
             
             // create reader and parse response
             ObservationStreamReader reader = (ObservationStreamReader)OGCRegistry.createReader("OM", "ObservationStream", request.getVersion());
@@ -140,7 +140,7 @@ public class SASProvider extends OWSProvider
             if(usePost)
             	dataStream = owsUtils.sendPostRequest(request).getInputStream();
             else 
-            	dataStream = owsUtils.sendGetRequest(request).getInputStream();
+            	dataStream = sendGetRequest(request, true);
             
             if (canceled)
                 return;
@@ -210,9 +210,19 @@ public class SASProvider extends OWSProvider
     @Override
     public void cancelUpdate()
     {
-        canceled = true;
+        super.cancelUpdate();
         endRequest();
     }
+    
+    
+    /**
+     * Alert streams stay open until canceled
+     */
+    @Override
+    public boolean isStreaming()
+    {
+        return true;
+    }
 	
 	
     @Override
@@ -26,8 +26,11 @@
 package org.vast.stt.provider.ows;
 
 import java.io.IOException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.vast.cdm.common.DataComponent;
 import org.vast.cdm.common.DataEncoding;
+import org.vast.data.AbstractDataBlock;
 import org.vast.ogc.OGCRegistry;
 import org.vast.ogc.om.ObservationStreamReader;
 import org.vast.ows.OWSRequest;
@@ -35,7 +38,13 @@ import org.vast.ows.OWSServiceCapabilities;
 import org.vast.ows.sos.GetObservationRequest;
 import org.vast.ows.sos.SOSLayerCapabilities;
 import org.vast.ows.sos.GetObservationRequest.ResponseMode;
+import org.vast.stt.data.BlockList;
+import org.vast.stt.data.BlockListItem;
+import org.vast.stt.data.BlockListTimeIndex;
+import org.vast.stt.data.DataBlockPool;
 import org.vast.stt.data.DataException;
+import org.vast.stt.event.EventType;
+import org.vast.stt.event.STTEvent;
 import org.vast.stt.provider.swe.SWEDataHandler;
 
 
@@ -46,7 +55,10 @@ import org.vast.stt.provider.swe.SWEDataHandler;
  *
  * <p><b>Description:</b><br/>
  * Requests Data from an SOS server and fill up a DataNode
- * with it.
+ * with it. In incremental mode, only data received after the last
+ * time stamp already in the DataNode is requested and appended, and
+ * blocks falling out of the time window are removed, as long as the
+ * new time window still covers the data already received.
  * </p>
  *
  * <p>Copyright (c) 2007</p>
@@ -56,9 +68,16 @@ import org.vast.stt.provider.swe.SWEDataHandler;
  */
 public class SOSProvider extends OWSProvider
 {
+    protected final static long DEFAULT_BLOCK_POOL_MEMORY = 16*1024*1024;
+    protected final static double MIN_TIME_STEP = 0.001;
+    protected Log log = LogFactory.getLog(SOSProvider.class);
     protected SOSLayerCapabilities layerCaps;
 	protected GetObservationRequest request;
 	protected boolean usePost;
+	protected boolean incrementalUpdate;
+	protected double lastReceivedTime = Double.NaN;
+	protected double lastLagTime = Double.NaN;
+	protected long blockPoolMemory = DEFAULT_BLOCK_POOL_MEMORY;
     
 
 	public SOSProvider()
@@ -89,7 +108,7 @@ public class SOSProvider extends OWSProvider
             if(usePost)
             	dataStream = owsUtils.sendPostRequest(request).getInputStream();
             else 
-            	dataStream = owsUtils.sendGetRequest(request).getInputStream();
+            	dataStream = sendGetRequest(request);
             
             // create reader and parse response
             ObservationStreamReader reader = (ObservationStreamReader)OGCRegistry.createReader("OM", "ObservationStream", request.getVersion());
@@ -103,7 +122,16 @@ public class SOSProvider extends OWSProvider
             System.out.println(dataEnc);
 
             // create BlockList
-            dataNode.createList(dataInfo.copy());
+            BlockList blockList = dataNode.createList(dataInfo.copy());
+            
+            // recycle blocks from one refresh to the next
+            // columnar and off heap lists copy data so don't need it
+            if (blockPoolMemory > 0 && !dataNode.isColumnarStorage() && !dataNode.isOffHeapStorage())
+            {
+                AbstractDataBlock template = (AbstractDataBlock)blockList.getBlockStructure().createDataBlock();
+                int atomCount = template.getAtomCount();
+                blockList.setBlockPool(new DataBlockPool(atomCount, DataBlockPool.getMaxSize(atomCount, blockPoolMemory)));
+            }
             dataNode.setNodeStructureReady(true);
         }
         catch (Exception e)
@@ -129,9 +157,12 @@ public class SOSProvider extends OWSProvider
         
         try
         {    
+            BlockList blockList = dataNode.getListArray().get(0);
+            boolean appendData = canAppendData(blockList);
+            
             // init request using spatial + time extent
-            initRequest();
-            request.setResponseMode(ResponseMode.INLINE);
+            prepareRequest(appendData);
+            lastLagTime = timeExtent.getAdjustedLagTime();
 			
             if (canceled)
                 return;
@@ -140,7 +171,7 @@ public class SOSProvider extends OWSProvider
             if(usePost)
             	dataStream = owsUtils.sendPostRequest(request).getInputStream();
             else 
-            	dataStream = owsUtils.sendGetRequest(request).getInputStream();
+            	dataStream = sendGetRequest(request);
             
             if (canceled)
                 return;
@@ -150,10 +181,28 @@ public class SOSProvider extends OWSProvider
                 (ObservationStreamReader)OGCRegistry.createReader("OM", "ObservationStream", request.getVersion());
                             
 			// create data handler
-            SWEDataHandler dataHandler = new SWEDataHandler(this, dataNode.getListArray().get(0));
+            SWEDataHandler dataHandler = new SWEDataHandler(this, blockList);
+            dataHandler.setClearOnFirstBlock(!appendData);
                         
             // launch parser
             reader.readObservationStream(dataStream, dataHandler);
+            
+            // remove blocks that fell out of time window
+            if (appendData)
+            {
+                BlockListItem[] oldItems = blockList.removeBefore(lastLagTime);
+                if (oldItems != null)
+                {
+                    dispatchEvent(new STTEvent(oldItems, EventType.PROVIDER_DATA_REMOVED), false);
+                    dispatchEvent(new STTEvent(this, EventType.PROVIDER_DATA_CHANGED), true);
+                }
+            }
+            
+            // log block pool efficiency
+            DataBlockPool blockPool = blockList.getBlockPool();
+            if (blockPool != null && log.isDebugEnabled())
+                log.debug("Block pool hits = " + blockPool.getHitCount() + ", misses = " + blockPool.getMissCount() +
+                          ", size = " + blockPool.getSize() + " (max " + blockPool.getMaxSize() + ")");
 		}
 		catch (Exception e)
 		{
@@ -167,11 +216,76 @@ public class SOSProvider extends OWSProvider
 		}
 		finally
 		{
+		    if (incrementalUpdate)
+		        updateLastReceivedTime(dataNode.getListArray().get(0));
 			endRequest();
 		}		
 	}
 	
 	
+	/**
+	 * Checks if only new data can be requested and appended to the list,
+	 * that is if the list is indexed by time, contains data, and if the
+	 * time window was not extended in the past and still contains the
+	 * last received time stamp
+	 * @param blockList
+	 * @return true if data can be appended
+	 */
+	protected boolean canAppendData(BlockList blockList)
+	{
+	    if (!incrementalUpdate || Double.isNaN(lastReceivedTime))
+	        return false;
+	    
+	    if (blockList.getTimeIndex() == null || blockList.getSize() == 0)
+	        return false;
+	    
+	    double lagTime = timeExtent.getAdjustedLagTime();
+	    double leadTime = timeExtent.getAdjustedLeadTime();
+	    return (lagTime >= lastLagTime && lastReceivedTime >= lagTime && lastReceivedTime < leadTime);
+	}
+	
+	
+	/**
+	 * Reads time stamp of the newest block in the list
+	 * @param blockList
+	 */
+	protected void updateLastReceivedTime(BlockList blockList)
+	{
+	    lastReceivedTime = Double.NaN;
+	    
+	    BlockListTimeIndex timeIndex = blockList.getTimeIndex();
+	    if (timeIndex != null)
+	    {
+	        synchronized (timeIndex)
+	        {
+	            int count = timeIndex.getCount();
+	            if (count > 0)
+	                lastReceivedTime = timeIndex.getTime(count - 1);
+	        }
+	    }
+	}
+	
+	
+	/**
+	 * Sets time range and bbox of the request from the provider extents.
+	 * When appending, only data received after the last time stamp is
+	 * requested: start time is set explicitly and stop time is kept.
+	 * @param appendData
+	 */
+	protected void prepareRequest(boolean appendData)
+	{
+	    initRequest();
+	    
+	    if (appendData)
+	    {
+	        request.getTime().setStartTime(lastReceivedTime + MIN_TIME_STEP);
+	        request.getTime().setStopTime(timeExtent.getAdjustedLeadTime());
+	    }
+	    
+	    request.setResponseMode(ResponseMode.INLINE);
+	}
+	
+	
 	protected void initRequest()
 	{
 	    // update time range
@@ -210,7 +324,7 @@ public class SOSProvider extends OWSProvider
     @Override
     public void cancelUpdate()
     {
-        canceled = true;
+        super.cancelUpdate();
         endRequest();
     }
 	
@@ -301,6 +415,66 @@ public class SOSProvider extends OWSProvider
     }
     
     
+    @Override
+    public void handleEvent(STTEvent e)
+    {
+        // data for the new region must be fully reloaded
+        if (e.type == EventType.SPATIAL_EXTENT_CHANGED)
+            lastReceivedTime = Double.NaN;
+        
+        super.handleEvent(e);
+    }
+    
+    
+    /**
+     * Gets the pool recycling data blocks between refreshes,
+     * whose hit and miss counters show how many blocks were reused
+     * @return block pool or null if blocks are not recycled
+     */
+    public DataBlockPool getBlockPool()
+    {
+        if (dataNode.getListArray().isEmpty())
+            return null;
+        
+        return dataNode.getListArray().get(0).getBlockPool();
+    }
+    
+    
+    public long getBlockPoolMemory()
+    {
+        return blockPoolMemory;
+    }
+
+
+    /**
+     * Sets the memory available to recycled blocks between refreshes.
+     * Only used by lists created after this call.
+     * @param blockPoolMemory max memory in bytes, or 0 to disable recycling
+     */
+    public void setBlockPoolMemory(long blockPoolMemory)
+    {
+        this.blockPoolMemory = blockPoolMemory;
+    }
+    
+    
+    public boolean isIncrementalUpdate()
+    {
+        return incrementalUpdate;
+    }
+
+
+    /**
+     * Enables requesting only data newer than the last received time stamp
+     * (e.g. for real-time feeds) instead of the whole time window
+     * @param incrementalUpdate
+     */
+    public void setIncrementalUpdate(boolean incrementalUpdate)
+    {
+        this.incrementalUpdate = incrementalUpdate;
+        this.lastReceivedTime = Double.NaN;
+    }
+    
+    
     public boolean isSpatialSubsetSupported()
     {
         // TODO isSpatialSubsetSupported() depends on capabilities
@@ -0,0 +1,223 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+
+package org.vast.stt.provider.ows;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import org.vast.ows.sos.GetObservationRequest;
+import org.vast.stt.data.BlockList;
+import org.vast.util.DateTimeFormat;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * SOS Provider Test
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Runs incremental updates of a SOSProvider against a local stand-in
+ * SOS serving O&M text records, and checks the time range of each
+ * GetObservation request received by the server: the first request
+ * covers the whole window, the next ones start just after the last
+ * received record and keep the stop time of the window. Also checks
+ * that records are appended without duplicates.
+ * Run with: SOSProviderTest
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Mar 16, 2009
+ * @version 1.0
+ */
+public class SOSProviderTest implements HttpHandler
+{
+    protected final static double RECORD_STEP = 600.0;
+    protected final static double WINDOW_LENGTH = 3600.0;
+    
+    protected double startTime;
+    protected List<String> eventTimes = new ArrayList<String>();
+    protected int nextRecord;
+    protected int recordsPerResponse = 3;
+    
+    
+    public SOSProviderTest() throws Exception
+    {
+        this.startTime = DateTimeFormat.parseIso("2009-03-16T00:00:00Z");
+    }
+    
+    
+    /**
+     * Records the time parameter of the request and sends
+     * the next records of the stand-in sensor
+     */
+    public void handle(HttpExchange exchange) throws IOException
+    {
+        String query = URLDecoder.decode(exchange.getRequestURI().getRawQuery(), "UTF-8");
+        for (String param: query.split("&"))
+        {
+            if (param.toLowerCase().startsWith("eventtime="))
+                eventTimes.add(param.substring(param.indexOf('=') + 1));
+        }
+        
+        byte[] response = buildResponse(recordsPerResponse).getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/xml");
+        exchange.sendResponseHeaders(200, response.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(response);
+        os.close();
+    }
+    
+    
+    protected String buildResponse(int numRecords)
+    {
+        StringBuffer values = new StringBuffer();
+        for (int i=0; i<numRecords; i++)
+        {
+            double time = startTime + (nextRecord++) * RECORD_STEP;
+            values.append(DateTimeFormat.formatIso(time, 0)).append(',').append(20.0 + nextRecord).append(' ');
+        }
+        
+        return "<om:ObservationCollection xmlns:om=\"http://www.opengis.net/om/1.0\" " +
+               "xmlns:swe=\"http://www.opengis.net/swe/1.0.1\" xmlns:gml=\"http://www.opengis.net/gml\" " +
+               "xmlns:xlink=\"http://www.w3.org/1999/xlink\">" +
+               "<om:member><om:Observation>" +
+               "<om:samplingTime><gml:TimeInstant><gml:timePosition>" + DateTimeFormat.formatIso(startTime, 0) +
+               "</gml:timePosition></gml:TimeInstant></om:samplingTime>" +
+               "<om:procedure xlink:href=\"urn:test:sensor\"/>" +
+               "<om:observedProperty xlink:href=\"urn:ogc:def:property:OGC:temperature\"/>" +
+               "<om:featureOfInterest xlink:href=\"urn:test:foi\"/>" +
+               "<om:result><swe:DataArray>" +
+               "<swe:elementCount><swe:Count><swe:value>" + numRecords + "</swe:value></swe:Count></swe:elementCount>" +
+               "<swe:elementType name=\"record\"><swe:DataRecord>" +
+               "<swe:field name=\"time\"><swe:Time definition=\"urn:ogc:def:phenomenon:time\">" +
+               "<swe:uom xlink:href=\"urn:ogc:def:unit:ISO:8601\"/></swe:Time></swe:field>" +
+               "<swe:field name=\"temp\"><swe:Quantity definition=\"urn:ogc:def:property:OGC:temperature\">" +
+               "<swe:uom code=\"Cel\"/></swe:Quantity></swe:field>" +
+               "</swe:DataRecord></swe:elementType>" +
+               "<swe:encoding><swe:TextBlock decimalSeparator=\".\" tokenSeparator=\",\" blockSeparator=\" \"/></swe:encoding>" +
+               "<swe:values>" + values + "</swe:values>" +
+               "</swe:DataArray></om:result>" +
+               "</om:Observation></om:member></om:ObservationCollection>";
+    }
+    
+    
+    /**
+     * Checks time range of the last request received by the server
+     * @param expectedStart
+     * @param expectedStop
+     */
+    protected void checkEventTime(String step, double expectedStart, double expectedStop) throws Exception
+    {
+        if (eventTimes.isEmpty())
+            throw new IllegalStateException(step + ": no time parameter received");
+        
+        String[] range = eventTimes.get(eventTimes.size() - 1).split("/");
+        double start = DateTimeFormat.parseIso(range[0]);
+        double stop = DateTimeFormat.parseIso(range[range.length - 1]);
+        
+        if (Math.abs(start - expectedStart) > 0.01 || Math.abs(stop - expectedStop) > 0.01)
+            throw new IllegalStateException(step + ": requested " + eventTimes.get(eventTimes.size() - 1) +
+                                            " instead of " + DateTimeFormat.formatIso(expectedStart, 0) +
+                                            "/" + DateTimeFormat.formatIso(expectedStop, 0));
+    }
+    
+    
+    public void run() throws Exception
+    {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/sos", this);
+        server.start();
+        
+        try
+        {
+            GetObservationRequest request = new GetObservationRequest();
+            request.setGetServer("http://localhost:" + server.getAddress().getPort() + "/sos");
+            request.setService("SOS");
+            request.setVersion("1.0");
+            request.setOffering("TEST");
+            request.setFormat("text/xml; subtype=\"om/1.0\"");
+            request.getObservables().add("urn:ogc:def:property:OGC:temperature");
+            request.getProcedures().add("urn:test:sensor");
+            request.getTime().setStartTime(startTime);
+            request.getTime().setStopTime(startTime + WINDOW_LENGTH);
+            
+            SOSProvider provider = new SOSProvider();
+            provider.setQuery(request);
+            provider.setIncrementalUpdate(true);
+            double stopTime = provider.getTimeExtent().getAdjustedLeadTime();
+            
+            // first update gets the whole window
+            provider.updateData();
+            checkEventTime("First update", startTime, stopTime);
+            BlockList blockList = provider.getDataNode().getListArray().get(0);
+            if (blockList.getSize() != 3)
+                throw new IllegalStateException("First update: " + blockList.getSize() + " records instead of 3");
+            
+            // next updates only get new records up to the same stop time
+            recordsPerResponse = 1;
+            for (int u=1; u<=2; u++)
+            {
+                double lastTime = startTime + (nextRecord - 1) * RECORD_STEP;
+                provider.updateData();
+                checkEventTime("Update " + u, lastTime + SOSProvider.MIN_TIME_STEP, stopTime);
+                
+                if (blockList.getSize() != nextRecord)
+                    throw new IllegalStateException("Update " + u + ": " + blockList.getSize() + " records instead of " + nextRecord);
+            }
+            
+            for (int i=0; i<eventTimes.size(); i++)
+                System.out.println("Request " + i + ": eventTime=" + eventTimes.get(i));
+        }
+        finally
+        {
+            server.stop(0);
+        }
+    }
+    
+    
+    public static void main(String[] args)
+    {
+        try
+        {
+            new SOSProviderTest().run();
+            System.out.println("Incremental SOS requests OK");
+            System.exit(0);
+        }
+        catch (Exception e)
+        {
+            System.out.println("Incremental SOS requests FAILED: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -25,6 +25,7 @@
 
 package org.vast.stt.provider.swe;
 
+import java.util.HashSet;
 import java.util.Hashtable;
 import org.vast.cdm.common.DataBlock;
 import org.vast.cdm.common.DataComponent;
@@ -33,10 +34,13 @@ import org.vast.cdm.common.DataType;
 import org.vast.data.AbstractDataBlock;
 import org.vast.data.DataArray;
 import org.vast.data.DataGroup;
+import org.vast.stt.data.BlockInfo;
 import org.vast.stt.data.BlockList;
+import org.vast.stt.data.BlockListItem;
 import org.vast.stt.event.EventType;
 import org.vast.stt.event.STTEvent;
 import org.vast.stt.provider.DataProvider;
+import org.vast.stt.provider.STTSpatialExtent;
 import org.vast.sweCommon.SweConstants;
 import org.vast.unit.UnitConversion;
 import org.vast.unit.UnitConverter;
@@ -49,6 +53,8 @@ import org.vast.unit.UnitConverter;
  *
  * <p><b>Description:</b><br/>
  * Handles parser events and copy data to DataNode.
+ * The lon/lat extent of each block is also computed from
+ * latitude and longitude values so that blocks can be culled.
  * </p>
  *
  * <p>Copyright (c) 2007</p>
@@ -59,15 +65,23 @@ import org.vast.unit.UnitConverter;
 public class SWEDataHandler implements DataHandler
 {
 	protected Hashtable<DataComponent, UnitConverter> converters;
+    protected HashSet<DataComponent> latComponents;
+    protected HashSet<DataComponent> lonComponents;
+    protected STTSpatialExtent blockExtent;
+    protected double lastLat = Double.NaN;
+    protected double lastLon = Double.NaN;
     protected BlockList blockList;
     protected DataProvider provider;
 	protected boolean firstBlock = true;
+	protected boolean clearOnFirstBlock = true;
     
 
 	public SWEDataHandler(DataProvider provider)
     {
         this.provider = provider;
         converters = new Hashtable<DataComponent, UnitConverter>();
+        latComponents = new HashSet<DataComponent>();
+        lonComponents = new HashSet<DataComponent>();
     }
 	
 	
@@ -88,6 +102,17 @@ public class SWEDataHandler implements DataHandler
     {
         firstBlock = true;
     }
+    
+    
+    /**
+     * Sets whether existing data is cleared when the first block is
+     * received, or if new blocks are just appended to it
+     * @param clearOnFirstBlock
+     */
+    public void setClearOnFirstBlock(boolean clearOnFirstBlock)
+    {
+        this.clearOnFirstBlock = clearOnFirstBlock;
+    }
 	
 	
 	public void endData(DataComponent info, DataBlock data)
@@ -95,11 +120,28 @@ public class SWEDataHandler implements DataHandler
 	    // clear data node before adding first block
         if (firstBlock)
         {
-            provider.getDataNode().clearAll();
+            if (clearOnFirstBlock)
+                provider.getDataNode().clearAll();
             firstBlock = false;
         }        
         
-        blockList.addBlock((AbstractDataBlock)data);
+        // attach extent to block if it has lat/lon values
+        BlockListItem newItem = new BlockListItem((AbstractDataBlock)data, null, null);
+        if (blockExtent != null)
+        {
+            BlockInfo blockInfo = new BlockInfo();
+            blockInfo.setSpatialExtent(blockExtent);
+            newItem.setInfo(blockInfo);
+            blockExtent = null;
+        }
+        
+        blockList.add(newItem);
+        
+        // send event so that resources of evicted blocks are released
+        Object[] evictedItems = provider.getDataNode().pollEvictedItems();
+        if (evictedItems != null)
+            provider.dispatchEvent(new STTEvent(evictedItems, EventType.PROVIDER_DATA_REMOVED), false);
+        
         provider.dispatchEvent(new STTEvent(this, EventType.PROVIDER_DATA_CHANGED), true);
 	}
 
@@ -113,6 +155,38 @@ public class SWEDataHandler implements DataHandler
     		double newVal = converter.convert(data.getDoubleValue());
     		data.setDoubleValue(newVal);
 		}
+		
+		// update block extent with lat/lon values
+		if (latComponents.contains(info))
+		{
+		    lastLat = data.getDoubleValue();
+		    addPointToExtent();
+		}
+		else if (lonComponents.contains(info))
+		{
+		    lastLon = data.getDoubleValue();
+		    addPointToExtent();
+		}
+	}
+	
+	
+	/**
+	 * Adds point to block extent once both lat and lon are known
+	 */
+	protected void addPointToExtent()
+	{
+	    if (Double.isNaN(lastLat) || Double.isNaN(lastLon))
+	        return;
+	    
+	    if (blockExtent == null)
+	    {
+	        blockExtent = new STTSpatialExtent();
+	        blockExtent.nullify();
+	    }
+	    
+	    blockExtent.resizeToContain(lastLon, lastLat, 0.0);
+	    lastLat = Double.NaN;
+	    lastLon = Double.NaN;
 	}
 
 
@@ -125,6 +199,18 @@ public class SWEDataHandler implements DataHandler
 	{
 		if (firstBlock)
 			convertScalarUnits(info);
+		
+		blockExtent = null;
+		lastLat = Double.NaN;
+		lastLon = Double.NaN;
+		
+		// parse into a recycled block if available
+		if (blockList != null && blockList.getBlockPool() != null)
+		{
+		    AbstractDataBlock block = blockList.getBlockPool().acquire();
+		    if (block != null)
+		        info.setData(block);
+		}
 	}
 	
 	
@@ -154,6 +240,17 @@ public class SWEDataHandler implements DataHandler
 					UnitConverter converter = UnitConversion.createConverterToSI(uom);
 					converters.put(component, converter);
 				}
+				
+				// remember lat/lon components to compute block extent
+				String def = (String)component.getProperty(SweConstants.DEF_URI);
+				if (def != null)
+				{
+				    def = def.toLowerCase();
+				    if (def.endsWith("latitude"))
+				        latComponents.add(component);
+				    else if (def.endsWith("longitude"))
+				        lonComponents.add(component);
+				}
 	        }
 		}
 	}
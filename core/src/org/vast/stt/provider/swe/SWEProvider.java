@@ -151,7 +151,7 @@ public class SWEProvider extends AbstractProvider
 	@Override
 	public void cancelUpdate()
 	{
-	    canceled = true;
+	    super.cancelUpdate();
         
         // close stream(s)
         try
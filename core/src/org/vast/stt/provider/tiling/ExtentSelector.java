@@ -82,11 +82,47 @@ public abstract class ExtentSelector implements QuadTreeVisitor
     }
     
     
+    protected boolean intersectsROI(QuadTreeItem item)
+    {
+        return item.intersects(roi1) || (splitROI && item.intersects(roi2));
+    }
+    
+    
+    /**
+     * Checks if item should be part of the selection.
+     * Default is to select items intersecting the ROI.
+     * @param item
+     * @return true if item is visible
+     */
+    protected boolean isVisible(QuadTreeItem item)
+    {
+        return intersectsROI(item);
+    }
+    
+    
+    /**
+     * Checks if item is too coarse and must be replaced by its children.
+     * Default is to refine items that are too large relative to the ROI.
+     * @param item
+     * @return true if children should be selected instead of item
+     */
+    protected boolean needsRefinement(QuadTreeItem item)
+    {
+        return item.getTileSize() * sizeRatio >= roiSize;
+    }
+    
+    
     public void visit(QuadTreeItem item)
     {
-        if (item.intersects(roi1) || (splitROI && item.intersects(roi2)))
+        visitItem(item, isVisible(item));
+    }
+    
+    
+    protected void visitItem(QuadTreeItem item, boolean visible)
+    {
+        if (visible)
         {
-            if (item.getTileSize() * sizeRatio < roiSize)
+            if (!needsRefinement(item))
             {
                 selectItem(item);
             }
@@ -34,7 +34,11 @@ import org.vast.util.SpatialExtent;
  * </p>
  *
  * <p><b>Description:</b><br/>
- * TODO QuadTree type description
+ * Quad tree of tiles covering a fixed root extent. Items are stored in
+ * an open addressing table keyed by level and Morton code of the tile
+ * indices, so that parent, child and neighbor lookups are O(1) and
+ * items don't need to keep links to each other or their own bounds.
+ * Tile bounds are computed on demand from the root extent.
  * </p>
  *
  * <p>Copyright (c) 2007</p>
@@ -44,9 +48,16 @@ import org.vast.util.SpatialExtent;
  */
 public class QuadTree
 {
+    public final static int MAX_LEVEL = 29;
+    protected final static int MIN_CAPACITY = 64;
+    
     protected QuadTreeItem rootItem;
     protected double upLevelSurfaceRatio = 9;
     protected double downLevelSurfaceRatio = 7;
+    protected double minX, minY, sizeX, sizeY;
+    protected long[] keys;
+    protected QuadTreeItem[] items;
+    protected int count;
     
     
     public QuadTree()
@@ -60,7 +71,19 @@ public class QuadTree
      */
     public void init(SpatialExtent bbox)
     {
-        rootItem = new QuadTreeItem(bbox.getMinX(), bbox.getMinY(), bbox.getMaxX(), bbox.getMaxY());
+        minX = bbox.getMinX();
+        minY = bbox.getMinY();
+        sizeX = bbox.getMaxX() - minX;
+        sizeY = bbox.getMaxY() - minY;
+        
+        synchronized (this)
+        {
+            keys = new long[MIN_CAPACITY];
+            items = new QuadTreeItem[MIN_CAPACITY];
+            count = 0;
+        }
+        
+        rootItem = new QuadTreeItem(this);
     }
     
     
@@ -69,4 +92,211 @@ public class QuadTree
         if (rootItem != null)
         	rootItem.accept(visitor);
     }
+    
+    
+    /**
+     * Looks up item with the given tile indices
+     * @param level
+     * @param x
+     * @param y
+     * @return item or null if not in tree
+     */
+    public QuadTreeItem getItem(int level, int x, int y)
+    {
+        int numTiles = 1 << level;
+        if (x < 0 || y < 0 || x >= numTiles || y >= numTiles)
+            return null;
+        
+        return get(getKey(level, x, y));
+    }
+    
+    
+    protected synchronized QuadTreeItem get(long key)
+    {
+        if (items == null)
+            return null;
+        
+        int mask = items.length - 1;
+        int slot = hash(key) & mask;
+        while (items[slot] != null)
+        {
+            if (keys[slot] == key)
+                return items[slot];
+            slot = (slot + 1) & mask;
+        }
+        
+        return null;
+    }
+    
+    
+    /**
+     * Adds item to table, replacing item with the same indices if any
+     * @param item
+     */
+    protected synchronized void put(QuadTreeItem item)
+    {
+        if (items == null)
+            throw new IllegalStateException("Quad tree is not initialized");
+        
+        // keep load factor under 1/2
+        if ((count+1) * 2 > items.length)
+            resize(items.length * 2);
+        
+        long key = item.getKey();
+        int mask = items.length - 1;
+        int slot = hash(key) & mask;
+        while (items[slot] != null)
+        {
+            if (keys[slot] == key)
+            {
+                items[slot] = item;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        
+        keys[slot] = key;
+        items[slot] = item;
+        count++;
+    }
+    
+    
+    /**
+     * Removes item with the given key, shifting following entries
+     * back so that probe sequences stay unbroken
+     * @param key
+     */
+    protected synchronized void remove(long key)
+    {
+        if (items == null)
+            return;
+        
+        int mask = items.length - 1;
+        int slot = hash(key) & mask;
+        while (items[slot] != null && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        
+        if (items[slot] == null)
+            return;
+        
+        items[slot] = null;
+        count--;
+        
+        int next = slot;
+        while (true)
+        {
+            next = (next + 1) & mask;
+            if (items[next] == null)
+                break;
+            
+            // leave entry if its home slot is cyclically in ]slot, next]
+            int home = hash(keys[next]) & mask;
+            if (slot <= next ? (slot < home && home <= next) : (slot < home || home <= next))
+                continue;
+            
+            keys[slot] = keys[next];
+            items[slot] = items[next];
+            items[next] = null;
+            slot = next;
+        }
+    }
+    
+    
+    protected void resize(int capacity)
+    {
+        long[] oldKeys = keys;
+        QuadTreeItem[] oldItems = items;
+        keys = new long[capacity];
+        items = new QuadTreeItem[capacity];
+        
+        int mask = capacity - 1;
+        for (int i=0; i<oldItems.length; i++)
+        {
+            if (oldItems[i] == null)
+                continue;
+            
+            int slot = hash(oldKeys[i]) & mask;
+            while (items[slot] != null)
+                slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            items[slot] = oldItems[i];
+        }
+    }
+    
+    
+    protected static int hash(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+    
+    
+    /**
+     * Computes table key from level and Morton code of tile indices
+     * @param level
+     * @param x
+     * @param y
+     * @return key
+     */
+    public static long getKey(int level, int x, int y)
+    {
+        return ((long)level << 58) | interleave(x) | (interleave(y) << 1);
+    }
+    
+    
+    public static int getLevel(long key)
+    {
+        return (int)(key >>> 58);
+    }
+    
+    
+    public static int getX(long key)
+    {
+        return compact(key);
+    }
+    
+    
+    public static int getY(long key)
+    {
+        return compact(key >>> 1);
+    }
+    
+    
+    /**
+     * Spreads the 29 lower bits of v to even bit positions
+     */
+    protected static long interleave(int v)
+    {
+        long x = v & 0x1FFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+    
+    
+    /**
+     * Gathers even bits of the Morton code (level bits excluded)
+     */
+    protected static int compact(long v)
+    {
+        long x = v & 0x0155555555555555L;
+        x = (x | (x >>> 1)) & 0x3333333333333333L;
+        x = (x | (x >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x >>> 4)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x >>> 8)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x >>> 16)) & 0x00000000FFFFFFFFL;
+        return (int)x;
+    }
+    
+    
+    /**
+     * @return number of items in tree
+     */
+    public synchronized int getItemCount()
+    {
+        return count;
+    }
 }
@@ -34,7 +34,10 @@ import org.vast.util.SpatialExtent;
  * </p>
  *
  * <p><b>Description:</b><br/>
- * TODO QuadTreeItem type description
+ * Tile of a quad tree, identified by its level and x,y indices.
+ * Bounds, parent and children are obtained from the tree on demand
+ * so that each item only holds its indices, score, flags and data.
+ * Indices increase from the lower left corner of the root extent.
  * </p>
  *
  * <p>Copyright (c) 2007</p>
@@ -42,29 +45,31 @@ import org.vast.util.SpatialExtent;
  * @date Aug 10, 2006
  * @version 1.0
  */
-public class QuadTreeItem extends SpatialExtent
+public class QuadTreeItem
 {
     private final static int N = 1;
     private final static int E = 2;
     private final static int S = 4;
     private final static int W = 8;
-    private final static int NE = N+E;
-    private final static int NW = N+W;
-    private final static int SE = S+E;
-    private final static int SW = S+W;
     
-    protected double tileSize;
+    protected QuadTree tree;
+    protected int x, y;
+    protected byte level;
     protected float score;
-    protected byte quadrant;
     protected Object data;
-    protected QuadTreeItem parent;
-    protected QuadTreeItem[] children;  // 0->3 from lower left, counter clockwise
     protected boolean needed;
+    protected boolean prefetched;
+    protected boolean inROI;
     
     
-    public QuadTreeItem()
+    /**
+     * Constructs the root item of the given tree
+     * @param tree
+     */
+    protected QuadTreeItem(QuadTree tree)
     {
-        children = new QuadTreeItem[4];
+        this.tree = tree;
+        tree.put(this);
     }
     
     
@@ -76,152 +81,34 @@ public class QuadTreeItem extends SpatialExtent
      */
     public QuadTreeItem(QuadTreeItem parentItem, byte quadrant)
     {
-        this();
-        this.parent = parentItem;
-        this.quadrant = quadrant;
-                
-        double dX = (parentItem.maxX - parentItem.minX) / 2;
-        double dY = (parentItem.maxY - parentItem.minY) / 2;
-        tileSize = Math.abs(dX) * Math.abs(dY);
+        if (parentItem.level >= QuadTree.MAX_LEVEL)
+            throw new IllegalStateException("Quad tree cannot have more than " + QuadTree.MAX_LEVEL + " levels");
+        
+        this.tree = parentItem.tree;
+        this.level = (byte)(parentItem.level + 1);
+        this.x = parentItem.x << 1;
+        this.y = parentItem.y << 1;
         
         switch (quadrant)
         {
-            case 0:
-                minX = parentItem.minX;
-                minY = parentItem.minY;
-                maxX = minX + dX;
-                maxY = minY + dY;
-                break;
-                
             case 1:
-                minX = parentItem.minX + dX;
-                minY = parentItem.minY;
-                maxX = minX + dX;
-                maxY = minY + dY;
+                x++;
                 break;
                 
             case 2:
-                minX = parentItem.minX + dX;
-                minY = parentItem.minY + dY;
-                maxX = minX + dX;
-                maxY = minY + dY;
+                x++;
+                y++;
                 break;
                 
             case 3:
-                minX = parentItem.minX;
-                minY = parentItem.minY + dY;
-                maxX = minX + dX;
-                maxY = minY + dY;
+                y++;
                 break;
         }
         
-        parentItem.setChild(quadrant, this);
-    }
-    
-    
-    /**
-     * Constructs a new item and set it as the parent of the given child
-     * expanding in the specified direction.
-     * @param childItem
-     * @param directionOfExpansion
-     */
-    public QuadTreeItem(QuadTreeItem childItem, int directionOfExpansion, boolean nothing)
-    {
-        this();
-        
-        double dX = (childItem.maxX - childItem.minX) * 2;
-        double dY = (childItem.maxY - childItem.minY) * 2;
-        tileSize = Math.abs(dX) * Math.abs(dY);
-        
-        switch (directionOfExpansion)
-        {
-            case N:
-            case NE:
-                children[0] = childItem;
-                childItem.quadrant = 0;
-                minX = childItem.minX;
-                minY = childItem.minY;
-                maxX = minX + dX;
-                maxY = minY + dY;
-                break;
-            
-            case E:    
-            case SE:
-                children[3] = childItem;
-                childItem.quadrant = 3;
-                minX = childItem.minX;
-                minY = childItem.maxY - dY;
-                maxX = minX + dX;
-                maxY = childItem.maxY;
-                break;
-            
-            case S:
-            case SW:
-                children[2] = childItem;
-                childItem.quadrant = 2;
-                minX = childItem.maxX - dX;
-                minY = childItem.maxY - dY;
-                maxX = childItem.maxX;
-                maxY = childItem.maxY;
-                break;
-                
-            case W:
-            case NW:
-                children[1] = childItem;
-                childItem.quadrant = 1;
-                minX = childItem.maxX - dX;
-                minY = childItem.minY;
-                maxX = childItem.maxX;
-                maxY = minY + dY;
-                break;
-        }
+        tree.put(this);
     }
     
     
-    /**
-     * Constructs a QuadTreeItem with the given coordinates
-     * @param minX
-     * @param minY
-     * @param maxX
-     * @param maxY
-     */
-    public QuadTreeItem(double minX, double minY, double maxX, double maxY)
-    {
-        this();
-        this.minX = minX;
-        this.minY = minY;
-        this.maxX = maxX;
-        this.maxY = maxY;
-        tileSize = Math.abs(maxX - minX) * Math.abs(maxY - minY);
-    }
-    
-    
-//    /**
-//     * Expand tree until the root tile contains the bbox
-//     * @param bbox
-//     * @param bboxSize
-//     * @return
-//     */
-//    public QuadTreeItem findTopItem(SpatialExtent bbox, double bboxSize)
-//    {
-//        double sizeRatio = bboxSize / tileSize;
-//        
-//        if (sizeRatio > 16 || !this.contains(bbox))
-//        {
-//            // create parent if null
-//            if (parent == null)
-//            {
-//                int dir = whereIs(bbox);
-//                parent = new QuadTreeItem(this, dir, false);
-//            }
-//            
-//            return parent.findTopItem(bbox, bboxSize);
-//        }
-//        else        
-//            return this;
-//    }
-   
-    
     /**
      * Finds out where the bbox is relative to this tile
      * @param bbox
@@ -229,8 +116,8 @@ public class QuadTreeItem extends SpatialExtent
      */
     public int whereIs(SpatialExtent bbox)
     {
-        double centerX = (minX + maxX) / 2;
-        double centerY = (minY + maxY) / 2;
+        double centerX = (getMinX() + getMaxX()) / 2;
+        double centerY = (getMinY() + getMaxY()) / 2;
         
         double dX1 = bbox.getMinX() - centerX;
         double dX2 = bbox.getMaxX() - centerX;
@@ -256,10 +143,27 @@ public class QuadTreeItem extends SpatialExtent
     }
     
     
+    /**
+     * Checks if this tile intersects the given extent
+     * @param bbox
+     * @return true if tile and bbox overlap or touch
+     */
+    public boolean intersects(SpatialExtent bbox)
+    {
+        double dX = getSizeX();
+        double dY = getSizeY();
+        double minX = tree.minX + x * dX;
+        double minY = tree.minY + y * dY;
+        
+        return !(minX + dX < bbox.getMinX() || minX > bbox.getMaxX() ||
+                 minY + dY < bbox.getMinY() || minY > bbox.getMaxY());
+    }
+    
+    
     public void removeFromParent()
     {
-        if (parent != null)
-            parent.removeChild(this.quadrant);
+        if (level > 0)
+            tree.remove(getKey());
     }
     
 
@@ -277,68 +181,69 @@ public class QuadTreeItem extends SpatialExtent
 
     public double getMinX()
     {
-        return minX;
-    }
-
-
-    public void setMinX(double minX)
-    {
-        this.minX = minX;
+        return tree.minX + x * getSizeX();
     }
 
 
     public double getMinY()
     {
-        return minY;
-    }
-
-
-    public void setMinY(double minY)
-    {
-        this.minY = minY;
+        return tree.minY + y * getSizeY();
     }
     
     
     public double getMaxX()
     {
-        return maxX;
+        return tree.minX + (x+1) * getSizeX();
     }
 
 
-    public void setMaxX(double maxX)
+    public double getMaxY()
     {
-        this.maxX = maxX;
+        return tree.minY + (y+1) * getSizeY();
     }
-
-
-    public double getMaxY()
+    
+    
+    public double getSizeX()
     {
-        return maxY;
+        return tree.sizeX / (1L << level);
     }
-
-
-    public void setMaxY(double maxY)
+    
+    
+    public double getSizeY()
     {
-        this.maxY = maxY;
+        return tree.sizeY / (1L << level);
     }
     
     
     public QuadTreeItem getChild(int i)
     {
-        return children[i];
+        int childX = x << 1;
+        int childY = y << 1;
+        if (i == 1 || i == 2)
+            childX++;
+        if (i == 2 || i == 3)
+            childY++;
+        
+        return tree.get(QuadTree.getKey(level+1, childX, childY));
     }
-
-
-    public void setChild(int i, QuadTreeItem item)
+    
+    
+    /**
+     * Gets item at the given offset on the same level
+     * @param dx
+     * @param dy
+     * @return neighbor item or null if not in tree
+     */
+    public QuadTreeItem getNeighbor(int dx, int dy)
     {
-        this.children[i] = item;
+        return tree.getItem(level, x+dx, y+dy);
     }
     
     
     public boolean hasChildren()
     {
-        for (QuadTreeItem child: children)
-            if (child != null)
+        for (int i=0; i<4; i++)
+            if (getChild(i) != null)
                 return true;
         
         return false;
@@ -347,32 +252,51 @@ public class QuadTreeItem extends SpatialExtent
     
     public void removeChild(int i)
     {
-        this.children[i].parent = null;
-        this.children[i] = null;
+        QuadTreeItem child = getChild(i);
+        if (child != null)
+            tree.remove(child.getKey());
     }
 
 
     public QuadTreeItem getParent()
     {
-        return parent;
+        if (level == 0)
+            return null;
+        
+        return tree.get(QuadTree.getKey(level-1, x >> 1, y >> 1));
     }
 
 
-    public void setParent(QuadTreeItem parentBlock)
+    public byte getQuadrant()
+    {
+        if ((y & 1) == 0)
+            return (byte)(x & 1);
+        else
+            return (byte)(3 - (x & 1));
+    }
+    
+    
+    public long getKey()
     {
-        this.parent = parentBlock;
+        return QuadTree.getKey(level, x, y);
     }
-
-
-    public byte getQuadrant()
+    
+    
+    public int getX()
     {
-        return quadrant;
+        return x;
+    }
+    
+    
+    public int getY()
+    {
+        return y;
     }
 
 
     public double getTileSize()
     {
-        return tileSize;
+        return Math.abs(getSizeX()) * Math.abs(getSizeY());
     }
 
 
@@ -394,6 +318,21 @@ public class QuadTreeItem extends SpatialExtent
     }
     
     
+    /**
+     * @return true if data was prefetched and not displayed yet
+     */
+    public boolean isPrefetched()
+    {
+        return prefetched;
+    }
+
+
+    public void setPrefetched(boolean prefetched)
+    {
+        this.prefetched = prefetched;
+    }
+    
+    
     public boolean isNeeded()
     {
         return needed;
@@ -406,30 +345,46 @@ public class QuadTreeItem extends SpatialExtent
     }
     
     
+    /**
+     * @return true if item intersected the ROI during the last selection pass
+     */
+    public boolean isInROI()
+    {
+        return inROI;
+    }
+
+
+    public void setInROI(boolean inROI)
+    {
+        this.inROI = inROI;
+    }
+    
+    
     public int getLevel()
     {
-    	int level = 0;
-    	QuadTreeItem item = this;
-    	while ((item = item.getParent()) != null)
-    		level++;
     	return level;
     }
     
     
     protected void appendId(StringBuffer buf)
     {
-        if (parent != null)
+        buf.append('q');
+        for (int l=level-1; l>=0; l--)
         {
-            parent.appendId(buf);
-            buf.append(quadrant);
+            int bx = (x >> l) & 1;
+            int by = (y >> l) & 1;
+            buf.append(by == 0 ? bx : 3 - bx);
         }
-        else
-            buf.append('q');
     }
     
     
     public String toString()
     {
+        double minX = getMinX();
+        double minY = getMinY();
+        double maxX = getMaxX();
+        double maxY = getMaxY();
+        
         StringBuffer buf = new StringBuffer();
         appendId(buf);
         buf.append(": ");
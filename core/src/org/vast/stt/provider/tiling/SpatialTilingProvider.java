@@ -85,7 +85,8 @@ public class SpatialTilingProvider extends TiledMapProvider
         maxExtent.setMaxY(+90);
         tileSelector.setMaxExtent(maxExtent);
         
-        initThreadPool(4);
+        // sub provider is reused for all tiles so load them one at a time
+        initThreadPool(1);
     }
     
     
@@ -123,6 +124,15 @@ public class SpatialTilingProvider extends TiledMapProvider
     }
     
     
+    @Override
+    protected boolean getTileLatLon(double x, double y, double[] latLon)
+    {
+        latLon[0] = y * DTR;
+        latLon[1] = x * DTR;
+        return true;
+    }
+    
+    
     @Override
     protected void getNewTile(QuadTreeItem item)
     {
@@ -0,0 +1,308 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+
+package org.vast.stt.provider.tiling;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.ParameterBlock;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import javax.media.jai.JAI;
+import javax.media.jai.RenderedOp;
+import org.vast.data.AbstractDataBlock;
+import org.vast.data.DataBlockFactory;
+import com.sun.media.jai.codec.MemoryCacheSeekableStream;
+import com.sun.media.jai.codec.PNGDecodeParam;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * Tile Decode Benchmark
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Measures tiles decoded per second and bytes allocated per tile
+ * when decoding 256x256 JPEG, RGB PNG and palette PNG tiles with
+ * TileImageDecoder into a reused array, compared with the JAI "stream"
+ * operator path the map providers used before (MemoryCacheSeekableStream,
+ * RenderedOp, then a new image block wrapping the decoded raster) and with
+ * a plain ImageIO.read. TileImageDecoder decodes into a BufferedImage
+ * reused by each thread and then copies pixels to the pooled array.
+ * Allocations are measured with the HotSpot per thread allocation
+ * counter and reported as n/a on other VMs. The JAI path is skipped
+ * if JAI is not installed.
+ * Run with: TileDecodeBenchmark [number of tiles]
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Mar 10, 2009
+ * @version 1.0
+ */
+public class TileDecodeBenchmark
+{
+    protected final static int TILE_SIZE = 256;
+    protected final static int NUM_TILE_IMAGES = 16;
+    protected final static int NUM_RUNS = 3;
+    
+    protected int numTiles;
+    protected byte[] pooledArray = new byte[TILE_SIZE*TILE_SIZE*3];
+    protected long checkSum;
+    
+    
+    protected interface TileDecoder
+    {
+        public void decode(byte[] tileData) throws Exception;
+    }
+    
+    
+    public TileDecodeBenchmark(int numTiles)
+    {
+        this.numTiles = numTiles;
+    }
+    
+    
+    /**
+     * Generates tiles looking like imagery: smooth gradients plus noise,
+     * so that compression ratios are close to those of real tiles
+     * @param format "jpeg" or "png"
+     * @param palette true to create an indexed PNG
+     * @return encoded tiles
+     */
+    protected byte[][] createTiles(String format, boolean palette) throws IOException
+    {
+        Random random = new Random(42);
+        byte[][] tiles = new byte[NUM_TILE_IMAGES][];
+        
+        for (int i=0; i<NUM_TILE_IMAGES; i++)
+        {
+            BufferedImage img;
+            if (palette)
+            {
+                byte[] r = new byte[256], g = new byte[256], b = new byte[256];
+                for (int c=0; c<256; c++)
+                {
+                    r[c] = (byte)c;
+                    g[c] = (byte)(255 - c);
+                    b[c] = (byte)(c * 7);
+                }
+                img = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_BYTE_INDEXED, new IndexColorModel(8, 256, r, g, b));
+            }
+            else
+                img = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_3BYTE_BGR);
+            
+            for (int y=0; y<TILE_SIZE; y++)
+            {
+                for (int x=0; x<TILE_SIZE; x++)
+                {
+                    int noise = random.nextInt(16);
+                    int red = (x + i*8 + noise) & 0xFF;
+                    int green = (y + noise) & 0xFF;
+                    int blue = ((x + y) / 2 + noise) & 0xFF;
+                    img.setRGB(x, y, (red << 16) | (green << 8) | blue);
+                }
+            }
+            
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            ImageIO.write(img, format, os);
+            tiles[i] = os.toByteArray();
+        }
+        
+        return tiles;
+    }
+    
+    
+    /**
+     * Decoding path of TiledMapProvider
+     */
+    protected TileDecoder createPooledDecoder()
+    {
+        return new TileDecoder()
+        {
+            public void decode(byte[] tileData) throws Exception
+            {
+                TileImageDecoder.getInstance().decode(tileData, pooledArray, TILE_SIZE, TILE_SIZE, 3);
+                checkSum += pooledArray[pooledArray.length/2];
+            }
+        };
+    }
+    
+    
+    /**
+     * Decoding path used by Google and Virtual Earth providers before
+     */
+    protected TileDecoder createJAIDecoder()
+    {
+        return new TileDecoder()
+        {
+            public void decode(byte[] tileData) throws Exception
+            {
+                MemoryCacheSeekableStream imgStream = new MemoryCacheSeekableStream(new ByteArrayInputStream(tileData));
+                
+                ParameterBlock pb = new ParameterBlock();
+                pb.add(imgStream);
+                
+                if (TileImageDecoder.isPNG(tileData))
+                {
+                    PNGDecodeParam pngParams = new PNGDecodeParam();
+                    pngParams.setExpandPalette(true);
+                    pb.add(pngParams);
+                }
+                
+                RenderedOp rop = JAI.create("stream", pb);
+                RenderedImage img = rop.createInstance();
+                imgStream.close();
+                
+                DataBuffer buf = img.getData().getDataBuffer();
+                byte[] data = ((DataBufferByte)buf).getData();
+                AbstractDataBlock imageBlock = DataBlockFactory.createBlock(data);
+                checkSum += imageBlock.getByteValue(data.length/2);
+            }
+        };
+    }
+    
+    
+    /**
+     * Plain ImageIO decoding with a new reader and image for each tile
+     */
+    protected TileDecoder createImageIODecoder()
+    {
+        return new TileDecoder()
+        {
+            public void decode(byte[] tileData) throws Exception
+            {
+                BufferedImage img = ImageIO.read(new ByteArrayInputStream(tileData));
+                checkSum += img.getRGB(TILE_SIZE/2, TILE_SIZE/2);
+            }
+        };
+    }
+    
+    
+    /**
+     * @return bytes allocated by current thread so far, or -1 if not supported
+     */
+    protected long getAllocatedBytes()
+    {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        
+        try
+        {
+            return ((com.sun.management.ThreadMXBean)threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        catch (UnsupportedOperationException e)
+        {
+            return -1;
+        }
+    }
+    
+    
+    protected void measure(String name, TileDecoder decoder, byte[][] tiles) throws Exception
+    {
+        // warm up
+        for (int i=0; i<numTiles/10 + 1; i++)
+            decoder.decode(tiles[i % tiles.length]);
+        
+        long bestTime = Long.MAX_VALUE;
+        long allocated = -1;
+        
+        for (int r=0; r<NUM_RUNS; r++)
+        {
+            long startAlloc = getAllocatedBytes();
+            long t0 = System.nanoTime();
+            
+            for (int i=0; i<numTiles; i++)
+                decoder.decode(tiles[i % tiles.length]);
+            
+            long time = System.nanoTime() - t0;
+            if (time < bestTime)
+            {
+                bestTime = time;
+                if (startAlloc >= 0)
+                    allocated = getAllocatedBytes() - startAlloc;
+            }
+        }
+        
+        double tilesPerSec = numTiles / (bestTime / 1e9);
+        String allocText = (allocated >= 0) ? (allocated / numTiles / 1024) + " KB/tile" : "n/a";
+        System.out.println("  " + name + ": " + (int)tilesPerSec + " tiles/s, " + allocText);
+    }
+    
+    
+    public void run() throws Exception
+    {
+        String[] names = {"JPEG", "PNG RGB", "PNG palette"};
+        byte[][][] tileSets = {createTiles("jpeg", false), createTiles("png", false), createTiles("png", true)};
+        
+        TileDecoder jaiDecoder = null;
+        try
+        {
+            jaiDecoder = createJAIDecoder();
+            jaiDecoder.decode(tileSets[0][0]);
+        }
+        catch (Throwable e)
+        {
+            System.out.println("JAI not available, skipping JAI path (" + e + ")");
+            jaiDecoder = null;
+        }
+        
+        for (int f=0; f<names.length; f++)
+        {
+            int avgSize = 0;
+            for (int i=0; i<tileSets[f].length; i++)
+                avgSize += tileSets[f][i].length;
+            avgSize /= tileSets[f].length;
+            
+            System.out.println(names[f] + " tiles (" + (avgSize / 1024) + " KB encoded, " + numTiles + " decodes):");
+            measure("TileImageDecoder (pooled)", createPooledDecoder(), tileSets[f]);
+            if (jaiDecoder != null)
+                measure("JAI stream op", jaiDecoder, tileSets[f]);
+            measure("ImageIO.read", createImageIODecoder(), tileSets[f]);
+        }
+        
+        System.out.println("(checksum " + checkSum + ")");
+    }
+    
+    
+    public static void main(String[] args) throws Exception
+    {
+        int numTiles = 500;
+        if (args.length > 0)
+            numTiles = Integer.parseInt(args[0]);
+        
+        new TileDecodeBenchmark(numTiles).run();
+    }
+}
@@ -0,0 +1,406 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.provider.tiling;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * Tile Disk Cache
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Persistent store of encoded map tiles shared by all tiled
+ * map providers. Tiles are stored as individual files under
+ * layer/z/x/y and are evicted in least recently used order when
+ * the total size exceeds the maximum, or when older than the
+ * configured time to live. Methods can be called concurrently by
+ * several tile loaders.
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Mar 4, 2009
+ * @version 1.0
+ */
+public class TileDiskCache
+{
+    public final static long DEFAULT_MAX_SIZE = 512L*1024*1024; // 512 MB
+    public final static long DEFAULT_TTL = 30L*24*3600*1000; // 30 days
+    protected final static String TILE_EXT = ".tile";
+    protected final static String TEMP_EXT = ".tmp";
+    
+    protected static Log log = LogFactory.getLog(TileDiskCache.class);
+    private static TileDiskCache tileCache;
+    
+    protected File cacheDir;
+    protected long maxSize;
+    protected long timeToLive;
+    protected long currentSize;
+    protected boolean indexLoaded;
+    protected LinkedHashMap<String, CacheEntry> entries;
+    protected int hitCount;
+    protected int missCount;
+    
+    
+    protected static class CacheEntry
+    {
+        public File file;
+        public long size;
+        public long writeTime;
+        
+        
+        public CacheEntry(File file, long size, long writeTime)
+        {
+            this.file = file;
+            this.size = size;
+            this.writeTime = writeTime;
+        }
+    }
+    
+    
+    public TileDiskCache(File cacheDir, long maxSize, long timeToLive)
+    {
+        this.cacheDir = cacheDir;
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<String, CacheEntry>(1024, 0.75f, true);
+    }
+    
+    
+    public synchronized static TileDiskCache getInstance()
+    {
+        if (tileCache != null)
+            return tileCache;
+        
+        String userDir = System.getProperty("user.home");
+        tileCache = new TileDiskCache(new File(userDir + "/stt/tiles"), DEFAULT_MAX_SIZE, DEFAULT_TTL);
+        return tileCache;
+    }
+    
+    
+    /**
+     * Builds the tile key from its zoom level and indices
+     * @param z
+     * @param x
+     * @param y
+     * @return
+     */
+    public static String getTileKey(int z, int x, int y)
+    {
+        return z + "/" + x + "/" + y;
+    }
+    
+    
+    /**
+     * Retrieves encoded tile from cache
+     * @param layer
+     * @param tileKey
+     * @return tile bytes or null if tile is not cached or has expired
+     */
+    public byte[] get(String layer, String tileKey)
+    {
+        String key = getKey(layer, tileKey);
+        CacheEntry entry;
+        
+        synchronized (this)
+        {
+            loadIndex();
+            entry = entries.get(key);
+            
+            if (entry != null && System.currentTimeMillis() - entry.writeTime > timeToLive)
+            {
+                removeEntry(key);
+                entry = null;
+            }
+            
+            if (entry == null)
+            {
+                missCount++;
+                return null;
+            }
+        }
+        
+        // read file outside of lock
+        try
+        {
+            byte[] data = readFile(entry.file, (int)entry.size);
+            
+            synchronized (this)
+            {
+                hitCount++;
+            }
+            
+            return data;
+        }
+        catch (IOException e)
+        {
+            // file was evicted or corrupted
+            synchronized (this)
+            {
+                if (entries.get(key) == entry)
+                    removeEntry(key);
+                missCount++;
+            }
+            
+            return null;
+        }
+    }
+    
+    
+    /**
+     * Stores encoded tile in cache, evicting least recently
+     * used tiles if cache becomes too large
+     * @param layer
+     * @param tileKey
+     * @param data
+     */
+    public void put(String layer, String tileKey, byte[] data)
+    {
+        String key = getKey(layer, tileKey);
+        File tileFile = new File(cacheDir, key + TILE_EXT);
+        
+        // write to temp file first so that readers never see partial tiles
+        try
+        {
+            File tileDir = tileFile.getParentFile();
+            tileDir.mkdirs();
+            File tempFile = File.createTempFile("tile", TEMP_EXT, tileDir);
+            
+            OutputStream os = new FileOutputStream(tempFile);
+            try
+            {
+                os.write(data);
+            }
+            finally
+            {
+                os.close();
+            }
+            
+            synchronized (this)
+            {
+                loadIndex();
+                
+                if (entries.containsKey(key))
+                    removeEntry(key);
+                
+                if (!tempFile.renameTo(tileFile))
+                {
+                    tempFile.delete();
+                    return;
+                }
+                
+                entries.put(key, new CacheEntry(tileFile, data.length, System.currentTimeMillis()));
+                currentSize += data.length;
+                evict();
+            }
+        }
+        catch (IOException e)
+        {
+            log.warn("Cannot write tile " + key + " to disk cache", e);
+        }
+    }
+    
+    
+    /**
+     * Removes least recently used tiles until size is below maximum
+     */
+    protected void evict()
+    {
+        Iterator<CacheEntry> it = entries.values().iterator();
+        while (currentSize > maxSize && it.hasNext())
+        {
+            CacheEntry entry = it.next();
+            entry.file.delete();
+            currentSize -= entry.size;
+            it.remove();
+        }
+    }
+    
+    
+    protected void removeEntry(String key)
+    {
+        CacheEntry entry = entries.remove(key);
+        if (entry != null)
+        {
+            entry.file.delete();
+            currentSize -= entry.size;
+        }
+    }
+    
+    
+    /**
+     * Scans cache directory to rebuild index of stored tiles.
+     * Tiles written first are considered least recently used.
+     */
+    protected void loadIndex()
+    {
+        if (indexLoaded)
+            return;
+        
+        indexLoaded = true;
+        if (!cacheDir.isDirectory())
+            return;
+        
+        List<File> tileFiles = new ArrayList<File>();
+        listFiles(cacheDir, tileFiles);
+        
+        Collections.sort(tileFiles, new Comparator<File>()
+        {
+            public int compare(File f1, File f2)
+            {
+                long t1 = f1.lastModified();
+                long t2 = f2.lastModified();
+                return (t1 < t2) ? -1 : ((t1 == t2) ? 0 : 1);
+            }
+        });
+        
+        int rootLength = cacheDir.getPath().length() + 1;
+        for (int i=0; i<tileFiles.size(); i++)
+        {
+            File file = tileFiles.get(i);
+            String path = file.getPath();
+            String key = path.substring(rootLength, path.length() - TILE_EXT.length());
+            key = key.replace(File.separatorChar, '/');
+            entries.put(key, new CacheEntry(file, file.length(), file.lastModified()));
+            currentSize += file.length();
+        }
+        
+        evict();
+        
+        if (log.isDebugEnabled())
+            log.debug("Tile cache loaded: " + entries.size() + " tiles, " + currentSize + " bytes");
+    }
+    
+    
+    protected void listFiles(File dir, List<File> tileFiles)
+    {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        
+        for (int i=0; i<files.length; i++)
+        {
+            File file = files[i];
+            
+            if (file.isDirectory())
+                listFiles(file, tileFiles);
+            else if (file.getName().endsWith(TILE_EXT))
+                tileFiles.add(file);
+            else if (file.getName().endsWith(TEMP_EXT))
+                file.delete(); // left over by an interrupted write
+        }
+    }
+    
+    
+    protected byte[] readFile(File file, int size) throws IOException
+    {
+        byte[] data = new byte[size];
+        InputStream is = new FileInputStream(file);
+        
+        try
+        {
+            int offset = 0;
+            while (offset < size)
+            {
+                int count = is.read(data, offset, size - offset);
+                if (count < 0)
+                    throw new IOException("Truncated tile file " + file);
+                offset += count;
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+        
+        return data;
+    }
+    
+    
+    protected String getKey(String layer, String tileKey)
+    {
+        // make sure layer name can be used as a directory name
+        return layer.replaceAll("[^A-Za-z0-9_.\\-]", "_") + "/" + tileKey;
+    }
+    
+    
+    public synchronized int getHitCount()
+    {
+        return hitCount;
+    }
+    
+    
+    public synchronized int getMissCount()
+    {
+        return missCount;
+    }
+    
+    
+    public synchronized long getCurrentSize()
+    {
+        return currentSize;
+    }
+
+
+    public synchronized long getMaxSize()
+    {
+        return maxSize;
+    }
+
+
+    public synchronized void setMaxSize(long maxSize)
+    {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+
+    public synchronized long getTimeToLive()
+    {
+        return timeToLive;
+    }
+
+
+    public synchronized void setTimeToLive(long timeToLive)
+    {
+        this.timeToLive = timeToLive;
+    }
+}
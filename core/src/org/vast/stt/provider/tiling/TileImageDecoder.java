@@ -0,0 +1,325 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.provider.tiling;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * Tile Image Decoder
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Decodes PNG or JPEG tiles directly into an interleaved RGB or RGBA
+ * byte array, typically the backing array of a pooled image block.
+ * Each loader thread gets its own decoder so that ImageIO readers and
+ * destination images can be reused from one tile to the next without
+ * locking. Indexed images are expanded through their palette.
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Mar 10, 2009
+ * @version 1.0
+ */
+public class TileImageDecoder
+{
+    private static ThreadLocal<TileImageDecoder> decoders = new ThreadLocal<TileImageDecoder>()
+    {
+        @Override
+        protected TileImageDecoder initialValue()
+        {
+            return new TileImageDecoder();
+        }
+    };
+    
+    private static long decodeCount;
+    private static long totalDecodeTime;
+    
+    protected ImageReader pngReader;
+    protected ImageReader jpegReader;
+    protected ImageTypeSpecifier pngDestType, jpegDestType;
+    protected BufferedImage pngDestImage, jpegDestImage;
+    protected int[] rowBuffer;
+    protected int[] palette = new int[256];
+    
+    
+    /**
+     * @return decoder dedicated to the calling thread
+     */
+    public static TileImageDecoder getInstance()
+    {
+        return decoders.get();
+    }
+    
+    
+    protected TileImageDecoder()
+    {
+        pngReader = getReader("png");
+        jpegReader = getReader("jpeg");
+    }
+    
+    
+    protected ImageReader getReader(String format)
+    {
+        Iterator<ImageReader> it = ImageIO.getImageReadersByFormatName(format);
+        if (it.hasNext())
+            return it.next();
+        return null;
+    }
+    
+    
+    /**
+     * Decodes encoded tile into the destination array
+     * @param data encoded PNG or JPEG image
+     * @param dest destination array of size width*height*numBands
+     * @param width expected image width
+     * @param height expected image height
+     * @param numBands 3 for RGB or 4 for RGBA
+     * @throws IOException if image cannot be decoded or has the wrong size
+     */
+    public void decode(byte[] data, byte[] dest, int width, int height, int numBands) throws IOException
+    {
+        long startTime = System.nanoTime();
+        boolean png = isPNG(data);
+        ImageReader reader = png ? pngReader : jpegReader;
+        if (reader == null)
+            throw new IOException("No image reader available for tile");
+        
+        if (dest.length < width*height*numBands)
+            throw new IllegalArgumentException("Destination array is too small");
+        
+        ImageInputStream is = new MemoryCacheImageInputStream(new ByteArrayInputStream(data));
+        try
+        {
+            reader.setInput(is, true, true);
+            if (reader.getWidth(0) != width || reader.getHeight(0) != height)
+                throw new IOException("Tile image should be " + width + "x" + height);
+            
+            // reuse destination image if image type hasn't changed
+            // images with palettes are never reused since palettes can differ
+            ImageReadParam param = reader.getDefaultReadParam();
+            ImageTypeSpecifier destType = reader.getImageTypes(0).next();
+            if (!(destType.getColorModel() instanceof IndexColorModel))
+            {
+                if (png)
+                {
+                    if (!destType.equals(pngDestType))
+                    {
+                        pngDestType = destType;
+                        pngDestImage = destType.createBufferedImage(width, height);
+                    }
+                    param.setDestination(pngDestImage);
+                }
+                else
+                {
+                    if (!destType.equals(jpegDestType))
+                    {
+                        jpegDestType = destType;
+                        jpegDestImage = destType.createBufferedImage(width, height);
+                    }
+                    param.setDestination(jpegDestImage);
+                }
+            }
+            
+            BufferedImage img = reader.read(0, param);
+            copyPixels(img, dest, numBands);
+        }
+        finally
+        {
+            reader.setInput(null);
+            is.close();
+        }
+        
+        long decodeTime = System.nanoTime() - startTime;
+        synchronized (TileImageDecoder.class)
+        {
+            decodeCount++;
+            totalDecodeTime += decodeTime;
+        }
+    }
+    
+    
+    /**
+     * Copies pixels to dest in R,G,B(,A) order, adding opaque alpha
+     * or dropping alpha as needed
+     * @param img
+     * @param dest
+     * @param numBands
+     */
+    protected void copyPixels(BufferedImage img, byte[] dest, int numBands)
+    {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        Raster raster = img.getRaster();
+        ColorModel colorModel = img.getColorModel();
+        SampleModel sampleModel = raster.getSampleModel();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        
+        // fast path for byte component images (JPEG, RGB/RGBA/gray PNG)
+        if (colorModel instanceof ComponentColorModel &&
+            sampleModel instanceof ComponentSampleModel &&
+            dataBuffer instanceof DataBufferByte &&
+            raster.getParent() == null)
+        {
+            ComponentSampleModel csm = (ComponentSampleModel)sampleModel;
+            byte[] src = ((DataBufferByte)dataBuffer).getData(0);
+            int[] bandOffsets = csm.getBandOffsets();
+            int pixelStride = csm.getPixelStride();
+            int scanlineStride = csm.getScanlineStride();
+            int srcBands = bandOffsets.length;
+            boolean gray = (colorModel.getNumColorComponents() == 1);
+            boolean srcAlpha = colorModel.hasAlpha();
+            
+            // offsets of R,G,B,A in source pixel
+            int r = bandOffsets[0];
+            int g = gray ? r : bandOffsets[1];
+            int b = gray ? r : bandOffsets[2];
+            int a = srcAlpha ? bandOffsets[srcBands-1] : -1;
+            
+            int d = 0;
+            for (int y=0; y<height; y++)
+            {
+                int s = y * scanlineStride;
+                for (int x=0; x<width; x++)
+                {
+                    dest[d++] = src[s + r];
+                    dest[d++] = src[s + g];
+                    dest[d++] = src[s + b];
+                    if (numBands == 4)
+                        dest[d++] = (a >= 0) ? src[s + a] : (byte)0xFF;
+                    s += pixelStride;
+                }
+            }
+            
+            return;
+        }
+        
+        // fast path for 8-bit palette images (PNG map tiles)
+        if (colorModel instanceof IndexColorModel &&
+            sampleModel instanceof ComponentSampleModel &&
+            dataBuffer instanceof DataBufferByte &&
+            colorModel.getPixelSize() == 8 &&
+            raster.getParent() == null)
+        {
+            IndexColorModel icm = (IndexColorModel)colorModel;
+            int mapSize = icm.getMapSize();
+            icm.getRGBs(palette);
+            Arrays.fill(palette, mapSize, palette.length, 0);
+            
+            ComponentSampleModel csm = (ComponentSampleModel)sampleModel;
+            byte[] src = ((DataBufferByte)dataBuffer).getData(0);
+            int offset = csm.getBandOffsets()[0];
+            int pixelStride = csm.getPixelStride();
+            int scanlineStride = csm.getScanlineStride();
+            
+            int d = 0;
+            for (int y=0; y<height; y++)
+            {
+                int s = y * scanlineStride + offset;
+                for (int x=0; x<width; x++)
+                {
+                    int argb = palette[src[s] & 0xFF];
+                    dest[d++] = (byte)(argb >> 16);
+                    dest[d++] = (byte)(argb >> 8);
+                    dest[d++] = (byte)argb;
+                    if (numBands == 4)
+                        dest[d++] = (byte)(argb >>> 24);
+                    s += pixelStride;
+                }
+            }
+            
+            return;
+        }
+        
+        // generic path through ARGB values (packed palettes, 16-bit PNG)
+        if (rowBuffer == null || rowBuffer.length < width)
+            rowBuffer = new int[width];
+        
+        int d = 0;
+        for (int y=0; y<height; y++)
+        {
+            img.getRGB(0, y, width, 1, rowBuffer, 0, width);
+            for (int x=0; x<width; x++)
+            {
+                int argb = rowBuffer[x];
+                dest[d++] = (byte)(argb >> 16);
+                dest[d++] = (byte)(argb >> 8);
+                dest[d++] = (byte)argb;
+                if (numBands == 4)
+                    dest[d++] = (byte)(argb >>> 24);
+            }
+        }
+    }
+    
+    
+    /**
+     * Checks PNG signature of encoded image
+     * @param data
+     * @return true if data is a PNG image
+     */
+    public static boolean isPNG(byte[] data)
+    {
+        return (data.length > 4 && (data[0] & 0xFF) == 0x89 &&
+                data[1] == 'P' && data[2] == 'N' && data[3] == 'G');
+    }
+    
+    
+    public synchronized static long getDecodeCount()
+    {
+        return decodeCount;
+    }
+    
+    
+    /**
+     * @return average decoding time per tile, in ms
+     */
+    public synchronized static double getAverageDecodeTime()
+    {
+        if (decodeCount == 0)
+            return 0.0;
+        return totalDecodeTime / 1e6 / decodeCount;
+    }
+}
@@ -0,0 +1,405 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.provider.tiling;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.vast.data.AbstractDataBlock;
+import org.vast.stt.data.BlockListItem;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * Tile Memory Cache
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Global byte budget for decoded tiles attached to quad tree items
+ * of all tiled map providers. When the budget is exceeded, least
+ * recently used tiles that are not currently displayed are discarded
+ * by their provider, which sends a PROVIDER_DATA_REMOVED event so
+ * that textures and display lists can be released. Tile visibility
+ * is checked without holding the cache lock since it locks provider
+ * lists. Providers purge their entries when they are disabled.
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Mar 5, 2009
+ * @version 1.0
+ */
+public class TileMemoryCache
+{
+    public final static long DEFAULT_MAX_BYTES = 256L*1024*1024; // 256 MB
+    
+    private static TileMemoryCache memoryCache;
+    protected LinkedHashMap<QuadTreeItem, CacheEntry> entries;
+    protected long maxBytes;
+    protected long residentBytes;
+    protected long hitCount;
+    protected long missCount;
+    protected long evictionCount;
+    
+    
+    protected static class CacheEntry
+    {
+        public TiledMapProvider provider;
+        public QuadTreeItem item;
+        public long size;
+        
+        
+        public CacheEntry(TiledMapProvider provider, QuadTreeItem item, long size)
+        {
+            this.provider = provider;
+            this.item = item;
+            this.size = size;
+        }
+    }
+    
+    
+    public TileMemoryCache(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+        this.entries = new LinkedHashMap<QuadTreeItem, CacheEntry>(1024, 0.75f, true);
+    }
+    
+    
+    public synchronized static TileMemoryCache getInstance()
+    {
+        if (memoryCache != null)
+            return memoryCache;
+        
+        memoryCache = new TileMemoryCache(DEFAULT_MAX_BYTES);
+        return memoryCache;
+    }
+    
+    
+    /**
+     * Registers data newly attached to the item and discards
+     * least recently used tiles if budget is exceeded
+     * @param provider provider owning the item
+     * @param item
+     */
+    public void put(TiledMapProvider provider, QuadTreeItem item)
+    {
+        BlockListItem[] itemBlocks = (BlockListItem[])item.getData();
+        if (itemBlocks == null)
+            return;
+        
+        long size = 0;
+        for (int b=0; b<itemBlocks.length; b++)
+        {
+            if (itemBlocks[b] != null)
+                size += getSize(itemBlocks[b].getData());
+        }
+        
+        synchronized (this)
+        {
+            CacheEntry oldEntry = entries.put(item, new CacheEntry(provider, item, size));
+            if (oldEntry != null)
+                residentBytes -= oldEntry.size;
+            residentBytes += size;
+        }
+        
+        evict();
+    }
+    
+    
+    /**
+     * Marks the item as recently used if it is in the cache.
+     * Called each time a tile is selected for display.
+     * @param item
+     * @return true if the item data was in memory
+     */
+    public synchronized boolean touch(QuadTreeItem item)
+    {
+        if (entries.get(item) != null)
+        {
+            hitCount++;
+            return true;
+        }
+        
+        missCount++;
+        return false;
+    }
+    
+    
+    /**
+     * Marks the item as recently used without counting a hit.
+     * Used for ancestors displayed while children are loading.
+     * @param item
+     */
+    public synchronized void refresh(QuadTreeItem item)
+    {
+        entries.get(item);
+    }
+    
+    
+    /**
+     * Forgets the item when its data is discarded by its provider
+     * @param item
+     */
+    public synchronized void remove(QuadTreeItem item)
+    {
+        CacheEntry entry = entries.remove(item);
+        if (entry != null)
+            residentBytes -= entry.size;
+    }
+    
+    
+    /**
+     * Forgets all items of the given provider, so that the provider
+     * can release their data when it is disabled or disposed
+     * @param provider
+     * @return list of items that were in the cache
+     */
+    public synchronized List<QuadTreeItem> removeProvider(TiledMapProvider provider)
+    {
+        List<QuadTreeItem> items = new ArrayList<QuadTreeItem>();
+        Iterator<CacheEntry> it = entries.values().iterator();
+        
+        while (it.hasNext())
+        {
+            CacheEntry entry = it.next();
+            if (entry.provider == provider)
+            {
+                it.remove();
+                residentBytes -= entry.size;
+                items.add(entry.item);
+            }
+        }
+        
+        return items;
+    }
+    
+    
+    /**
+     * Discards least recently used tiles until resident size is below
+     * budget, skipping tiles that are currently displayed.
+     * Candidates are selected under the cache lock but their visibility
+     * is checked without holding it.
+     */
+    protected void evict()
+    {
+        HashSet<QuadTreeItem> displayedItems = null;
+        
+        while (true)
+        {
+            // select least recently used candidates covering excess size
+            List<CacheEntry> candidates = new ArrayList<CacheEntry>();
+            synchronized (this)
+            {
+                long excess = residentBytes - maxBytes;
+                Iterator<CacheEntry> it = entries.values().iterator();
+                while (excess > 0 && it.hasNext())
+                {
+                    CacheEntry entry = it.next();
+                    if (displayedItems != null && displayedItems.contains(entry.item))
+                        continue;
+                    
+                    candidates.add(entry);
+                    excess -= entry.size;
+                }
+            }
+            
+            if (candidates.isEmpty())
+                return;
+            
+            // skip tiles that are currently displayed
+            List<CacheEntry> victims = new ArrayList<CacheEntry>(candidates.size());
+            for (int i=0; i<candidates.size(); i++)
+            {
+                CacheEntry entry = candidates.get(i);
+                if (entry.provider.isTileDisplayed(entry.item))
+                {
+                    if (displayedItems == null)
+                        displayedItems = new HashSet<QuadTreeItem>();
+                    displayedItems.add(entry.item);
+                }
+                else
+                    victims.add(entry);
+            }
+            
+            // remove victims unless they were put again in the meantime
+            synchronized (this)
+            {
+                Iterator<CacheEntry> it = victims.iterator();
+                while (it.hasNext())
+                {
+                    CacheEntry entry = it.next();
+                    CacheEntry currentEntry = entries.remove(entry.item);
+                    if (currentEntry != entry)
+                    {
+                        if (currentEntry != null)
+                            entries.put(entry.item, currentEntry);
+                        it.remove();
+                        continue;
+                    }
+                    
+                    residentBytes -= entry.size;
+                    evictionCount++;
+                }
+            }
+            
+            discard(victims);
+        }
+    }
+    
+    
+    /**
+     * Asks providers to discard the given tiles.
+     * Must be called without holding the cache lock.
+     * @param victims
+     */
+    protected void discard(List<CacheEntry> victims)
+    {
+        if (victims == null || victims.isEmpty())
+            return;
+        
+        // group tiles by provider to send one event per provider
+        Map<TiledMapProvider, List<QuadTreeItem>> itemsByProvider = new HashMap<TiledMapProvider, List<QuadTreeItem>>();
+        for (int i=0; i<victims.size(); i++)
+        {
+            CacheEntry entry = victims.get(i);
+            List<QuadTreeItem> items = itemsByProvider.get(entry.provider);
+            if (items == null)
+            {
+                items = new ArrayList<QuadTreeItem>();
+                itemsByProvider.put(entry.provider, items);
+            }
+            items.add(entry.item);
+        }
+        
+        Iterator<Map.Entry<TiledMapProvider, List<QuadTreeItem>>> it = itemsByProvider.entrySet().iterator();
+        while (it.hasNext())
+        {
+            Map.Entry<TiledMapProvider, List<QuadTreeItem>> next = it.next();
+            next.getKey().discardTiles(next.getValue());
+        }
+    }
+    
+    
+    /**
+     * Estimates memory used by a data block
+     * @param block
+     * @return size in bytes
+     */
+    protected long getSize(AbstractDataBlock block)
+    {
+        if (block == null)
+            return 0;
+        
+        Object data = block.getUnderlyingObject();
+        
+        if (data instanceof byte[])
+            return ((byte[])data).length;
+        else if (data instanceof short[])
+            return ((short[])data).length * 2L;
+        else if (data instanceof int[])
+            return ((int[])data).length * 4L;
+        else if (data instanceof float[])
+            return ((float[])data).length * 4L;
+        else if (data instanceof long[])
+            return ((long[])data).length * 8L;
+        else if (data instanceof double[])
+            return ((double[])data).length * 8L;
+        else if (data instanceof AbstractDataBlock[])
+        {
+            // mixed blocks
+            AbstractDataBlock[] children = (AbstractDataBlock[])data;
+            long size = 0;
+            for (int i=0; i<children.length; i++)
+                size += getSize(children[i]);
+            return size;
+        }
+        
+        return block.getAtomCount() * 8L;
+    }
+    
+    
+    public synchronized long getResidentBytes()
+    {
+        return residentBytes;
+    }
+    
+    
+    public synchronized int getTileCount()
+    {
+        return entries.size();
+    }
+    
+    
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+    
+    
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+    
+    
+    public synchronized long getEvictionCount()
+    {
+        return evictionCount;
+    }
+    
+    
+    /**
+     * @return ratio of selected tiles that were found in memory
+     */
+    public synchronized double getHitRate()
+    {
+        long total = hitCount + missCount;
+        if (total == 0)
+            return 0.0;
+        return (double)hitCount / (double)total;
+    }
+
+
+    public synchronized long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+
+    public void setMaxBytes(long maxBytes)
+    {
+        synchronized (this)
+        {
+            this.maxBytes = maxBytes;
+        }
+        
+        evict();
+    }
+}
@@ -0,0 +1,127 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+package org.vast.stt.provider.tiling;
+
+
+/**
+ * <p><b>Title:</b>
+ * Tile Prefetch Selector
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Selects tiles intersecting a predicted view extent and adds the
+ * ones that are not loaded yet to the provider prefetch queue.
+ * Unlike TiledMapSelector, it doesn't modify block lists or the
+ * needed flags of quad tree items, and it only visits items that
+ * already exist in the tree so that speculative selection never
+ * grows the tree. Deepest existing items are selected instead.
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Mar 6, 2009
+ * @version 1.0
+ */
+public class TilePrefetchSelector extends ExtentSelector
+{
+    protected TiledMapProvider provider;
+    protected int maxTiles = 64;
+    protected int selectedCount;
+    
+    
+    public TilePrefetchSelector(int minLevel, int maxLevel, TiledMapProvider provider)
+    {
+        super(minLevel, maxLevel);
+        this.provider = provider;
+    }
+    
+    
+    @Override
+    public void visit(QuadTreeItem item)
+    {
+        if (selectedCount >= maxTiles)
+            return;
+        
+        if (!item.intersects(roi1) && !(splitROI && item.intersects(roi2)))
+            return;
+        
+        if (item.getTileSize() * sizeRatio < roiSize)
+        {
+            selectItem(item);
+        }
+        else
+        {
+            currentLevel++;
+            
+            if (currentLevel < maxLevel && item.hasChildren())
+                visitChildren(item);
+            else
+                selectItem(item);
+            
+            currentLevel--;
+        }
+    }
+    
+    
+    @Override
+    protected void selectItem(QuadTreeItem item)
+    {
+        if (item.getData() != null)
+            return;
+        
+        synchronized(provider.itemsToLoad)
+        {
+            provider.itemsToPrefetch.add(item);
+        }
+        
+        selectedCount++;
+    }
+    
+    
+    @Override
+    protected void deselectItem(QuadTreeItem item)
+    {
+    }
+    
+    
+    public void reset()
+    {
+        selectedCount = 0;
+        currentLevel = 0;
+    }
+
+
+    public int getMaxTiles()
+    {
+        return maxTiles;
+    }
+
+
+    public void setMaxTiles(int maxTiles)
+    {
+        this.maxTiles = maxTiles;
+    }
+}
@@ -0,0 +1,312 @@
+/***************************** BEGIN LICENSE BLOCK ***************************
+
+ The contents of this file are subject to the Mozilla Public License Version
+ 1.1 (the "License"); you may not use this file except in compliance with
+ the License. You may obtain a copy of the License at
+ http://www.mozilla.org/MPL/MPL-1.1.html
+ 
+ Software distributed under the License is distributed on an "AS IS" basis,
+ WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License
+ for the specific language governing rights and limitations under the License.
+ 
+ The Original Code is the "Space Time Toolkit".
+ 
+ The Initial Developer of the Original Code is the VAST team at the
+ University of Alabama in Huntsville (UAH). <http://vast.uah.edu>
+ Portions created by the Initial Developer are Copyright (C) 2007
+ the Initial Developer. All Rights Reserved.
+ 
+ Please Contact Mike Botts <mike.botts@uah.edu> for more information.
+ 
+ Contributor(s): 
+    Alexandre Robin <robin@nsstc.uah.edu>
+ 
+******************************* END LICENSE BLOCK ***************************/
+
+
+package org.vast.stt.provider.tiling;
+
+import org.vast.stt.dynamics.ViewFrustum;
+import org.vast.util.SpatialExtent;
+
+
+/**
+ * <p><b>Title:</b><br/>
+ * Tile Selector Benchmark
+ * </p>
+ *
+ * <p><b>Description:</b><br/>
+ * Compares the screen space error selection with horizon and frustum
+ * culling used in globe views with the extent based selection used
+ * before, on a mercator quad tree (256x256 tiles, 18 levels) and a few
+ * typical globe views, from the whole earth down to a city, nadir and
+ * tilted toward the horizon. For each view and selector, it reports
+ * the number of tiles selected (i.e. to fetch when the cache is empty),
+ * the number of tiles culled, and selection time for the first pass
+ * (quad tree items are created) and for the next ones (items reused).
+ * ROI and tile ratio are computed as SceneBboxUpdater and
+ * Projection_ECEF do for a 1024x768 view with a 45 deg field of view.
+ * Run with: TileSelectorBenchmark [number of passes]
+ * </p>
+ *
+ * <p>Copyright (c) 2007</p>
+ * @author Alexandre Robin
+ * @date Mar 11, 2009
+ * @version 1.0
+ */
+public class TileSelectorBenchmark
+{
+    protected final static double DTR = Math.PI/180.;
+    protected final static double RTD = 180./Math.PI;
+    protected final static double EARTH_RADIUS = 6378137.0;
+    protected final static int VIEW_WIDTH = 1024;
+    protected final static int VIEW_HEIGHT = 768;
+    protected final static double CAMERA_FOV = 45.0;
+    protected final static int TILE_SIZE = 256;
+    
+    protected int numPasses;
+    
+    
+    /**
+     * Mercator tile provider with the layout of Virtual Earth tiles,
+     * only used to run selections (tiles are never loaded)
+     */
+    protected static class MercatorProvider extends TiledMapProvider
+    {
+        public MercatorProvider()
+        {
+            super(TILE_SIZE, TILE_SIZE, 18);
+            
+            SpatialExtent maxBbox = new SpatialExtent();
+            maxBbox.setMinX(-Math.PI);
+            maxBbox.setMaxX(+Math.PI);
+            maxBbox.setMinY(-Math.PI);
+            maxBbox.setMaxY(+Math.PI);
+            quadTree.init(maxBbox);
+            tileSelector.setMaxExtent(maxBbox.copy());
+        }
+        
+        
+        @Override
+        protected SpatialExtent transformBbox(SpatialExtent extent)
+        {
+            SpatialExtent mercatorExtent = new SpatialExtent();
+            mercatorExtent.setMinX(extent.getMinX() * DTR);
+            mercatorExtent.setMaxX(extent.getMaxX() * DTR);
+            mercatorExtent.setMinY(latToY(extent.getMinY() * DTR));
+            mercatorExtent.setMaxY(latToY(extent.getMaxY() * DTR));
+            return mercatorExtent;
+        }
+        
+        
+        @Override
+        protected void getNewTile(QuadTreeItem item)
+        {
+        }
+    }
+    
+    
+    /**
+     * Camera looking at a point on the earth surface
+     */
+    protected static class TestView
+    {
+        protected String name;
+        protected double[] cameraPos = new double[3];
+        protected double[] targetPos = new double[3];
+        protected double[] upDir = new double[3];
+        protected double orthoWidth;
+        protected double targetLat, targetLon;
+        
+        
+        /**
+         * @param name
+         * @param lat latitude of target in degrees
+         * @param lon longitude of target in degrees
+         * @param distance distance from camera to target in meters
+         * @param tilt angle between view direction and vertical in degrees
+         */
+        protected TestView(String name, double lat, double lon, double distance, double tilt)
+        {
+            this.name = name;
+            this.targetLat = lat;
+            this.targetLon = lon;
+            
+            double cosLat = Math.cos(lat*DTR), sinLat = Math.sin(lat*DTR);
+            double cosLon = Math.cos(lon*DTR), sinLon = Math.sin(lon*DTR);
+            double[] vertical = {cosLat*cosLon, cosLat*sinLon, sinLat};
+            double[] north = {-sinLat*cosLon, -sinLat*sinLon, cosLat};
+            
+            // camera is south of target and looks north
+            double cosTilt = Math.cos(tilt*DTR), sinTilt = Math.sin(tilt*DTR);
+            for (int i=0; i<3; i++)
+            {
+                targetPos[i] = EARTH_RADIUS * vertical[i];
+                cameraPos[i] = targetPos[i] + distance * (cosTilt*vertical[i] - sinTilt*north[i]);
+                upDir[i] = (tilt < 1e-3) ? north[i] : vertical[i];
+            }
+            
+            // width of view at target distance
+            orthoWidth = 2 * distance * Math.tan(CAMERA_FOV/2*DTR) * VIEW_WIDTH / VIEW_HEIGHT;
+        }
+        
+        
+        protected ViewFrustum getViewFrustum()
+        {
+            return new ViewFrustum(cameraPos, targetPos, upDir, CAMERA_FOV, orthoWidth,
+                                   false, true, VIEW_WIDTH, VIEW_HEIGHT);
+        }
+        
+        
+        /**
+         * Computes lat/lon bbox as Projection_ECEF.fitBboxToView does
+         */
+        protected SpatialExtent getBbox()
+        {
+            SpatialExtent bbox = new SpatialExtent();
+            double c = Math.min(EARTH_RADIUS, orthoWidth/2);
+            double dX = Math.asin(c/EARTH_RADIUS) * RTD * (1 + Math.abs(targetLat)/90);
+            double dY = dX;
+            if (90 - Math.abs(targetLat) < dX) dX = 180;
+            
+            bbox.setMinX(targetLon - dX);
+            bbox.setMaxX(targetLon + dX);
+            bbox.setMinY(Math.max(targetLat - dY, -90));
+            bbox.setMaxY(Math.min(targetLat + dY, +90));
+            return bbox;
+        }
+        
+        
+        /**
+         * Computes tile ratio as SceneBboxUpdater does
+         */
+        protected double getTileRatio()
+        {
+            double tiltFactor = 1.;
+            double[] diff = new double[3];
+            double norm = 0;
+            for (int i=0; i<3; i++)
+            {
+                diff[i] = cameraPos[i] - targetPos[i];
+                norm += diff[i]*diff[i];
+            }
+            
+            norm = Math.sqrt(norm);
+            if (diff[2] != 0)
+                tiltFactor = Math.min(norm / diff[2], 2);
+            tiltFactor *= 1.1;
+            
+            double xTiles = (double)VIEW_WIDTH / TILE_SIZE * tiltFactor;
+            double yTiles = (double)VIEW_HEIGHT / TILE_SIZE * tiltFactor;
+            return xTiles * yTiles;
+        }
+    }
+    
+    
+    public TileSelectorBenchmark(int numPasses)
+    {
+        this.numPasses = numPasses;
+    }
+    
+    
+    /**
+     * Runs selection on a new provider, the same way TiledMapProvider.updateData does
+     * @return selector after the last pass
+     */
+    protected TiledMapSelector runSelection(TestView view, boolean useFrustum, long[] times)
+    {
+        MercatorProvider provider = new MercatorProvider();
+        TiledMapSelector selector = provider.tileSelector;
+        SpatialExtent roi = provider.transformBbox(view.getBbox());
+        ViewFrustum frustum = useFrustum ? view.getViewFrustum() : null;
+        
+        for (int p=0; p<=numPasses; p++)
+        {
+            provider.itemsToLoad.clear();
+            provider.itemsToHide.clear();
+            
+            long t0 = System.nanoTime();
+            selector.setROI(roi);
+            selector.setCurrentLevel(0);
+            selector.setSizeRatio(view.getTileRatio()*0.35);
+            selector.setViewFrustum(frustum);
+            provider.quadTree.accept(selector);
+            long time = System.nanoTime() - t0;
+            
+            // first pass creates quad tree items
+            if (p == 0)
+                times[0] = time;
+            else
+                times[1] += time;
+        }
+        
+        if (numPasses > 0)
+            times[1] /= numPasses;
+        
+        return selector;
+    }
+    
+    
+    public void run()
+    {
+        TestView[] views = new TestView[]
+        {
+            new TestView("Whole earth", 30, 0, 20000e3, 0),
+            new TestView("Continent", 45, 5, 3000e3, 0),
+            new TestView("Region 60 deg tilt", 45, 5, 500e3, 60),
+            new TestView("Horizon 80 deg tilt", 45, 5, 50e3, 80),
+            new TestView("City", 45, 5, 5e3, 0),
+        };
+        
+        // warm up
+        for (int v=0; v<views.length; v++)
+        {
+            runSelection(views[v], false, new long[2]);
+            runSelection(views[v], true, new long[2]);
+        }
+        
+        System.out.println("View                  Selector   Tiles  Culled  Visited  1st pass  Next passes");
+        for (int v=0; v<views.length; v++)
+        {
+            for (int s=0; s<2; s++)
+            {
+                boolean useFrustum = (s == 1);
+                long[] times = new long[2];
+                TiledMapSelector selector = runSelection(views[v], useFrustum, times);
+                
+                System.out.println(pad(views[v].name, 22) + pad(useFrustum ? "SSE" : "extent", 9) +
+                                   padLeft(selector.getSelectCount(), 7) + padLeft(selector.getCullCount(), 8) +
+                                   padLeft(selector.getVisitCount(), 9) + padLeft(times[0] / 1000, 8) + "us" +
+                                   padLeft(times[1] / 1000, 11) + "us");
+            }
+        }
+    }
+    
+    
+    protected static String pad(String text, int length)
+    {
+        StringBuffer buf = new StringBuffer(text);
+        while (buf.length() < length)
+            buf.append(' ');
+        return buf.toString();
+    }
+    
+    
+    protected static String padLeft(long value, int length)
+    {
+        StringBuffer buf = new StringBuffer(Long.toString(value));
+        while (buf.length() < length)
+            buf.insert(0, ' ');
+        return buf.toString();
+    }
+    
+    
+    public static void main(String[] args)
+    {
+        int numPasses = 20;
+        if (args.length > 0)
+            numPasses = Integer.parseInt(args[0]);
+        
+        new TileSelectorBenchmark(numPasses).run();
+    }
+}
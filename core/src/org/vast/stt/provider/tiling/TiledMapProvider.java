@@ -25,23 +25,46 @@
 
 package org.vast.stt.provider.tiling;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.vast.cdm.common.DataType;
+import org.vast.data.AbstractDataBlock;
 import org.vast.data.DataArray;
+import org.vast.data.DataBlockFactory;
 import org.vast.data.DataGroup;
 import org.vast.data.DataValue;
+import org.vast.stt.data.BlockInfo;
 import org.vast.stt.data.BlockList;
 import org.vast.stt.data.BlockListItem;
+import org.vast.stt.data.DataBlockPool;
 import org.vast.stt.data.DataException;
 import org.vast.stt.data.DataNode;
 import org.vast.stt.dynamics.SceneBboxUpdater;
 import org.vast.stt.dynamics.SpatialExtentUpdater;
+import org.vast.stt.dynamics.ViewFrustum;
 import org.vast.stt.event.EventType;
 import org.vast.stt.event.STTEvent;
 import org.vast.stt.provider.AbstractProvider;
+import org.vast.stt.provider.HttpClientManager;
+import org.vast.stt.provider.STTSpatialExtent;
 import org.vast.stt.provider.tiling.QuadTree;
 import org.vast.util.SpatialExtent;
 
@@ -52,6 +75,9 @@ public abstract class TiledMapProvider extends AbstractProvider
     
     protected final static double DTR = Math.PI/180.;
     protected final static double RTD = 180./Math.PI;
+    protected final static int MAX_LOADER_THREADS = 16;
+    protected final static int IMAGE_POOL_SIZE = 32;
+    private static ExecutorService loaderPool;
     
     protected double fixedAltitude = 0.0;
     protected QuadTree quadTree;
@@ -61,111 +87,252 @@ public abstract class TiledMapProvider extends AbstractProvider
     protected boolean useDEM = false;
     protected SpatialExtent maxBbox;
     protected TiledMapSelector tileSelector;
-    protected LinkedList<QuadTreeItem> itemsToLoad;
-    protected LinkedList<QuadTreeItem> itemsToHide;
-    protected LinkedList<QuadTreeItem> itemsToDiscard;
+    protected PriorityQueue<QuadTreeItem> itemsToLoad;
+    protected LinkedList<QuadTreeItem> itemsToPrefetch;
+    protected LinkedHashSet<QuadTreeItem> itemsToHide;
     protected int tileWidth, tileHeight;
-    protected TileThread[] threadPool;
+    protected TileDiskCache tileCache = TileDiskCache.getInstance();
+    protected TileMemoryCache memoryCache = TileMemoryCache.getInstance();
+    protected DataBlockPool imageBlockPool;
+    protected TileLoader tileLoader;
+    protected int numLoaders = 1;
+    protected int activeLoaders;
+    protected TilePrefetchSelector prefetchSelector;
+    protected int prefetchCount;
+    protected int prefetchUsedCount;
+    protected int prefetchWastedCount;
+    protected long selectionTime;
+    protected AtomicLong fetchCount = new AtomicLong();
+    protected AtomicLong fetchedBytes = new AtomicLong();
+    protected HashSet<HttpClientManager.ResponseStream> openStreams = new HashSet<HttpClientManager.ResponseStream>();
     
     
-    protected class TileThread extends Thread
+    /**
+     * Loads queued tiles by decreasing score until the queue is empty.
+     * Several loaders can run concurrently on the same provider.
+     */
+    protected class TileLoader implements Runnable
     {
         public void run()
         {
-            while (!itemsToLoad.isEmpty())
+            try
             {
-                // find best item
-                QuadTreeItem bestItem = itemsToLoad.getFirst();
-                Iterator<QuadTreeItem> it = itemsToLoad.iterator();
-                while (it.hasNext())
+                while (!canceled)
                 {
-                    QuadTreeItem nextItem = it.next();
-                    if (nextItem.getScore() > bestItem.getScore())
-                        bestItem = nextItem;
-                }
-                
-                // remove from queue
-                //System.out.println("Loading " + bestItem);
-                itemsToLoad.remove(bestItem);
-                
-                if (canceled)
-                    return;
-                
-                // load and update lists
-                getNewTile(bestItem);
-                
-                //BlockListItem[] itemBlocks = (BlockListItem[])bestItem.getData();
-                //System.out.println(itemBlocks[0] + " loaded");
-                
-                if (canceled)
-                    return;                
-                
-                tileSelector.appendToBlockLists(bestItem);
-                tileSelector.removeDescendantsFromBlockLists(bestItem);
-                tileSelector.removeHiddenAncestorsFromBlockLists(bestItem);
-                
-                //System.out.println(itemBlocks[0] + " added to block list");
-                
-                // send event for redraw
-                dispatchEvent(new STTEvent(this, EventType.PROVIDER_DATA_CHANGED), true);
-            }
-                        
-            
-            /*QuadTreeItem bestItem = null;
-            
-            while (true)
-            {
-                synchronized(itemsToLoad)
-                {
-                    try
+                    // get item with best score
+                    // prefetch only when no tile is needed for display
+                    QuadTreeItem bestItem;
+                    boolean prefetch = false;
+                    synchronized(itemsToLoad)
                     {
-                        while (itemsToLoad.isEmpty())
-                            itemsToLoad.wait();
-                        if (itemsToLoad.isEmpty())
-                            return;
-                        
-                        // get item with best score
-                        bestItem = itemsToLoad.getFirst();
-                        Iterator<QuadTreeItem> it = itemsToLoad.iterator();
-                        while (it.hasNext())
+                        bestItem = itemsToLoad.poll();
+                        if (bestItem == null)
+                        {
+                            bestItem = itemsToPrefetch.poll();
+                            prefetch = true;
+                        }
+                    }
+                    
+                    if (bestItem == null)
+                        return;
+                    
+                    // skip prefetch if tile was already loaded
+                    if (prefetch && bestItem.getData() != null)
+                        continue;
+                    
+                    // load tile
+                    getNewTile(bestItem);
+                    computeBlockInfo(bestItem);
+                    memoryCache.put(TiledMapProvider.this, bestItem);
+                    
+                    if (canceled)
+                        return;
+                    
+                    // prefetched tiles are only kept in memory
+                    if (prefetch)
+                    {
+                        synchronized(tileSelector)
                         {
-                            QuadTreeItem nextItem = it.next();
-                            if (nextItem.getScore() > bestItem.getScore())
-                                bestItem = nextItem;
+                            if (bestItem.getData() != null)
+                            {
+                                bestItem.setPrefetched(true);
+                                prefetchCount++;
+                            }
                         }
                         
-                        itemsToLoad.remove(bestItem);
+                        continue;
                     }
-                    catch (InterruptedException e)
+                    
+                    // update lists
+                    // skip if tile left the view while it was loading
+                    synchronized(tileSelector)
                     {
-                        break;
+                        if (!bestItem.isNeeded())
+                            continue;
+                        
+                        tileSelector.appendToBlockLists(bestItem);
+                        tileSelector.removeDescendantsFromBlockLists(bestItem);
+                        tileSelector.removeHiddenAncestorsFromBlockLists(bestItem);
                     }
+                    
+                    // send event for redraw
+                    dispatchEvent(new STTEvent(this, EventType.PROVIDER_DATA_CHANGED), true);
                 }
-                
-                getNewTile(bestItem);
-                
-                // update lists
-                tileSelector.appendToBlockLists(bestItem);
-                tileSelector.removeDescendantsFromBlockLists(bestItem);
-                tileSelector.removeHiddenAncestorsFromBlockLists(bestItem);
-                
-                // send event for redraw
-                dispatchEvent(new STTEvent(this, EventType.PROVIDER_DATA_CHANGED));
-            }*/
+            }
+            finally
+            {
+                synchronized(itemsToLoad)
+                {
+                    activeLoaders--;
+                    itemsToLoad.notifyAll();
+                }
+            }
         }
     };
     
     
+    /**
+     * Orders tiles by decreasing score
+     */
+    protected static class TileScoreComparator implements Comparator<QuadTreeItem>
+    {
+        public int compare(QuadTreeItem item1, QuadTreeItem item2)
+        {
+            return Float.compare(item2.getScore(), item1.getScore());
+        }
+    }
+    
+    
     protected abstract void getNewTile(QuadTreeItem item);
     protected abstract SpatialExtent transformBbox(SpatialExtent extent);
     
     
+    /**
+     * Gets the name of the layer used to store tiles in the disk cache.
+     * Subclasses must override to enable disk caching.
+     * @return layer name or null if tiles should not be cached
+     */
+    protected String getCacheLayerName()
+    {
+        return null;
+    }
+    
+    
+    /**
+     * Fetches encoded tile data from the disk cache if available,
+     * or from the server, in which case the data is added to the cache
+     * @param tileKey key of tile in layer (z/x/y)
+     * @param urlString tile request URL
+     * @param referer value of HTTP referer header or null
+     * @return encoded tile bytes
+     * @throws IOException if tile cannot be downloaded
+     */
+    protected byte[] fetchTileData(String tileKey, String urlString, String referer) throws IOException
+    {
+        String layer = getCacheLayerName();
+        
+        // look in disk cache first
+        if (layer != null)
+        {
+            byte[] data = tileCache.get(layer, tileKey);
+            if (data != null)
+                return data;
+        }
+        
+        Map<String, String> headers = null;
+        if (referer != null)
+        {
+            headers = new HashMap<String, String>();
+            headers.put("Referer", referer);
+        }
+        
+        // read whole tile using shared client (per host limits + retries)
+        // stream is registered so that cancelUpdate can abort the transfer
+        InputStream is = HttpClientManager.getInstance().get(urlString, headers, false, this);
+        HttpClientManager.ResponseStream rs = (is instanceof HttpClientManager.ResponseStream) ? (HttpClientManager.ResponseStream)is : null;
+        if (rs != null)
+        {
+            synchronized(openStreams)
+            {
+                openStreams.add(rs);
+            }
+            
+            // cancel may have been called before registration
+            if (canceled)
+                rs.abort();
+        }
+        
+        ByteArrayOutputStream os = new ByteArrayOutputStream(16384);
+        try
+        {
+            byte[] buf = new byte[8192];
+            int count;
+            while ((count = is.read(buf)) > 0)
+                os.write(buf, 0, count);
+        }
+        finally
+        {
+            if (rs != null)
+            {
+                synchronized(openStreams)
+                {
+                    openStreams.remove(rs);
+                }
+            }
+            
+            is.close();
+        }
+        
+        if (canceled)
+            throw new IOException("Tile transfer canceled");
+        
+        byte[] data = os.toByteArray();
+        fetchCount.incrementAndGet();
+        fetchedBytes.addAndGet(data.length);
+        if (layer != null && !canceled)
+            tileCache.put(layer, tileKey, data);
+        
+        return data;
+    }
+    
+    
+    /**
+     * Decodes encoded tile data into an RGB or RGBA image block,
+     * reusing a block from the pool when possible
+     * @param tileData encoded PNG or JPEG tile
+     * @return image block
+     * @throws IOException if tile cannot be decoded
+     */
+    protected AbstractDataBlock decodeTileImage(byte[] tileData) throws IOException
+    {
+        int numBands = useAlpha ? 4 : 3;
+        AbstractDataBlock imageBlock = null;
+        if (imageBlockPool != null)
+            imageBlock = imageBlockPool.acquire();
+        if (imageBlock == null)
+            imageBlock = DataBlockFactory.createBlock(new byte[tileWidth*tileHeight*numBands]);
+        
+        try
+        {
+            byte[] pixels = (byte[])imageBlock.getUnderlyingObject();
+            TileImageDecoder.getInstance().decode(tileData, pixels, tileWidth, tileHeight, numBands);
+            return imageBlock;
+        }
+        catch (IOException e)
+        {
+            if (imageBlockPool != null)
+                imageBlockPool.release(imageBlock);
+            throw e;
+        }
+    }
+    
+    
     public TiledMapProvider()
     {
     	quadTree = new QuadTree();
-    	itemsToLoad = new LinkedList<QuadTreeItem>();
-    	itemsToHide = new LinkedList<QuadTreeItem>();
-    	itemsToDiscard = new LinkedList<QuadTreeItem>();
+    	itemsToLoad = new PriorityQueue<QuadTreeItem>(64, new TileScoreComparator());
+    	itemsToPrefetch = new LinkedList<QuadTreeItem>();
+    	itemsToHide = new LinkedHashSet<QuadTreeItem>();
     }
     
     
@@ -178,14 +345,118 @@ public abstract class TiledMapProvider extends AbstractProvider
     }
     
     
+    /**
+     * Sets the number of tiles that can be loaded concurrently.
+     * Subclasses must only use more than one thread if getNewTile is thread safe.
+     * @param numThreads
+     */
     protected void initThreadPool(int numThreads)
     {
-        threadPool = new TileThread[numThreads];
+        this.numLoaders = Math.max(1, Math.min(numThreads, MAX_LOADER_THREADS));
+        this.tileLoader = new TileLoader();
+    }
+    
+    
+    protected synchronized static ExecutorService getLoaderPool()
+    {
+        if (loaderPool != null)
+            return loaderPool;
         
-        for (int t=0; t<numThreads; t++)
+        ThreadFactory threadFactory = new ThreadFactory()
         {
-            threadPool[t] = new TileThread();
-            //threadPool[t].start();
+            private int threadCount = 0;
+            
+            public synchronized Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "STT Tile Loader " + (++threadCount));
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_LOADER_THREADS, MAX_LOADER_THREADS,
+                                                         60L, TimeUnit.SECONDS,
+                                                         new LinkedBlockingQueue<Runnable>(),
+                                                         threadFactory);
+        pool.allowCoreThreadTimeOut(true);
+        loaderPool = pool;
+        return loaderPool;
+    }
+    
+    
+    /**
+     * Loads all queued tiles using up to numLoaders threads.
+     * The calling thread is one of the loaders and this method only
+     * returns once all loaders are done so that updates don't overlap.
+     * Prefetch loaders still running from the previous update are
+     * waited for first, they exit after their current tile since
+     * the queues have been cleared.
+     */
+    protected void loadTiles()
+    {
+        if (tileLoader == null)
+            initThreadPool(1);
+        
+        waitForLoaders();
+        
+        int numHelpers;
+        synchronized(itemsToLoad)
+        {
+            numHelpers = Math.min(numLoaders, itemsToLoad.size() + itemsToPrefetch.size()) - 1;
+            if (numHelpers < 0)
+                return;
+            activeLoaders += numHelpers + 1;
+        }
+        
+        for (int t=0; t<numHelpers; t++)
+            getLoaderPool().execute(tileLoader);
+        
+        tileLoader.run();
+        waitForLoaders();
+    }
+    
+    
+    /**
+     * Starts loading queued prefetch tiles in the background using up
+     * to numLoaders threads, and returns without waiting for them
+     */
+    protected void startPrefetchLoaders()
+    {
+        if (tileLoader == null)
+            initThreadPool(1);
+        
+        int numHelpers;
+        synchronized(itemsToLoad)
+        {
+            numHelpers = Math.min(numLoaders - activeLoaders, itemsToPrefetch.size());
+            if (numHelpers <= 0)
+                return;
+            activeLoaders += numHelpers;
+        }
+        
+        for (int t=0; t<numHelpers; t++)
+            getLoaderPool().execute(tileLoader);
+    }
+    
+    
+    /**
+     * Waits until all loaders of this provider are done
+     */
+    protected void waitForLoaders()
+    {
+        synchronized(itemsToLoad)
+        {
+            while (activeLoaders > 0)
+            {
+                try
+                {
+                    itemsToLoad.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    // loaders check canceled flag and exit after their current tile
+                }
+            }
         }
     }
     
@@ -209,6 +480,7 @@ public abstract class TiledMapProvider extends AbstractProvider
         imageData.addComponent(rowData);
         imageData.setName("image");
         blockLists[0] = dataNode.createList(imageData);
+        imageBlockPool = new DataBlockPool(tileWidth*tileHeight*(useAlpha ? 4 : 3), IMAGE_POOL_SIZE);
         //System.out.println(imageData);
         
         // create block list for grid
@@ -252,72 +524,86 @@ public abstract class TiledMapProvider extends AbstractProvider
         SpatialExtent newExtent = transformBbox(spatialExtent);
         
         // query tree for matching and unused items 
-        itemsToLoad.clear();
-        itemsToHide.clear();
-        itemsToDiscard.clear();
-        tileSelector.setROI(newExtent);
-        tileSelector.setCurrentLevel(0);
-        double tileRatio = spatialExtent.getXTiles() * spatialExtent.getYTiles();
-        tileSelector.setSizeRatio(tileRatio*0.35);
-        tileSelector.setMaxDistance(Math.sqrt(tileRatio));
-        tileSelector.setHidePartiallyVisibleParents(useAlpha);
-        quadTree.accept(tileSelector);
-        
-        // remove hidden items from block lists
-        while (!itemsToHide.isEmpty())
+        // this also cancels prefetching since real demand has changed
+        synchronized(itemsToLoad)
         {
-            QuadTreeItem item = itemsToHide.poll();
-            BlockListItem[] itemBlocks = (BlockListItem[])item.getData();
-            if (itemBlocks != null)
-                for (int b=0; b<itemBlocks.length; b++)
-                    blockLists[b].remove(itemBlocks[b]);
+            itemsToLoad.clear();
+            itemsToPrefetch.clear();
         }
-
-        // send event for redraw
-        if (!canceled)
-            dispatchEvent(new STTEvent(this, EventType.PROVIDER_DATA_CHANGED), true);
         
-        // discard items
-        if (itemsToDiscard.size() > 0)
+        // tiles can be discarded concurrently by the memory cache
+        synchronized(tileSelector)
         {
-            LinkedList<Object> blocksToDiscard = new LinkedList<Object>();
-            while (!itemsToDiscard.isEmpty())
+            itemsToHide.clear();
+            tileSelector.setROI(newExtent);
+            tileSelector.setCurrentLevel(0);
+            double tileRatio = spatialExtent.getXTiles() * spatialExtent.getYTiles();
+            tileSelector.setSizeRatio(tileRatio*0.35);
+            tileSelector.setHidePartiallyVisibleParents(useAlpha);
+            
+            // use screen space error selection in globe views
+            ViewFrustum viewFrustum = null;
+            SpatialExtentUpdater updater = spatialExtent.getUpdater();
+            if (updater instanceof SceneBboxUpdater)
+                viewFrustum = ((SceneBboxUpdater)updater).getViewFrustum();
+            if (viewFrustum != null && !viewFrustum.isGlobeView())
+                viewFrustum = null;
+            tileSelector.setViewFrustum(viewFrustum);
+            
+            long startTime = System.nanoTime();
+            quadTree.accept(tileSelector);
+            selectionTime = System.nanoTime() - startTime;
+            
+            // remove hidden items from block lists
+            // their data stays in memory until evicted by the memory cache
+            Iterator<QuadTreeItem> it = itemsToHide.iterator();
+            while (it.hasNext())
             {
-                QuadTreeItem item = itemsToDiscard.poll();
-                                
-                // add blocks to be deleted
+                QuadTreeItem item = it.next();
                 BlockListItem[] itemBlocks = (BlockListItem[])item.getData();
-                
-                if (itemBlocks != null && blockLists[0].contains(itemBlocks[0]))
-                    log.debug(">>>>" + itemBlocks[0] + " STILL IN LIST !!");
-                
-                if (itemBlocks != null)// && !blockLists[0].contains(itemBlocks[0]))
+                if (itemBlocks != null)
                     for (int b=0; b<itemBlocks.length; b++)
-                        blocksToDiscard.add(itemBlocks[b]);
-                
-                item.setData(null);
-                
-                // need to make sure we don't have children with data
-                // since they can still have associated textures and DL
-                // if not, we can even remove quad tree item
-                //if (!item.hasChildren())
-                //    item.removeFromParent(); 
+                        blockLists[b].remove(itemBlocks[b]);
             }
-            
-            //System.out.println(blocksToDiscard.size() + " items to be deleted");
-            if (blocksToDiscard.size() > 0)
-                dispatchEvent(new STTEvent(blocksToDiscard.toArray(), EventType.PROVIDER_DATA_REMOVED), false);
+            itemsToHide.clear();
         }
+
+        // send event for redraw
+        if (!canceled)
+            dispatchEvent(new STTEvent(this, EventType.PROVIDER_DATA_CHANGED), true);
         
-        // run synchronously for now
+        // load new tiles
         if (!canceled)
-            threadPool[0].run();
+            loadTiles();
+        
+        // prefetch tiles the view is about to reach
+        if (!canceled)
+            prefetchTiles();
         
         // print debug info
         if (log.isDebugEnabled())
         {
             //blockLists[0].checkConsistency();
             log.debug("Block lists size = " + blockLists[0].getSize() + ", " + blockLists[1].getSize());
+            log.debug("Tile selection: " + tileSelector.getVisitCount() + " items visited, " +
+                      tileSelector.getSkipCount() + " subtrees skipped in " + (selectionTime / 1000) + "us");
+            log.debug("Quad tree size = " + quadTree.getItemCount() + " items");
+            log.debug("Tiles selected = " + tileSelector.getSelectCount() + ", culled = " +
+                      tileSelector.getCullCount() + " (" + (tileSelector.getViewFrustum() != null ?
+                      "screen space error" : "extent") + " selection)");
+            log.debug("Tiles fetched since last update = " + fetchCount.getAndSet(0) + ", " +
+                      fetchedBytes.getAndSet(0) + " bytes");
+            log.debug("Prefetched tiles: " + prefetchCount + " loaded, " + prefetchUsedCount +
+                      " used, " + prefetchWastedCount + " discarded unused");
+            log.debug("Tile memory cache: " + memoryCache.getTileCount() + " tiles, " +
+                      memoryCache.getResidentBytes() + " bytes, hit rate = " +
+                      (int)(memoryCache.getHitRate()*100) + "%");
+            log.debug("Tile decoding: " + TileImageDecoder.getDecodeCount() + " tiles, " +
+                      TileImageDecoder.getAverageDecodeTime() + "ms/tile");
+            if (imageBlockPool != null)
+                log.debug("Image block pool hits = " + imageBlockPool.getHitCount() +
+                          ", misses = " + imageBlockPool.getMissCount());
+            HttpClientManager.getInstance().logStatistics();
             //QuadTreeItemCounter counter = new QuadTreeItemCounter();
             //quadTree.accept(counter);
             //System.out.println("quadtree size = " + counter.numItems + " ("
@@ -326,6 +612,22 @@ public abstract class TiledMapProvider extends AbstractProvider
     }
     
     
+    /**
+     * Also releases all tiles kept in memory when provider is disabled
+     */
+    @Override
+    public void setEnabled(boolean enabled)
+    {
+        super.setEnabled(enabled);
+        
+        if (!enabled)
+        {
+            cancelUpdate();
+            discardAllTiles();
+        }
+    }
+    
+    
     @Override
     public void cancelUpdate()
     {
@@ -334,10 +636,217 @@ public abstract class TiledMapProvider extends AbstractProvider
         synchronized(itemsToLoad)
         {
             itemsToLoad.clear();
+            itemsToPrefetch.clear();
+        }
+        
+        // abort tile transfers since socket reads ignore interrupts
+        synchronized(openStreams)
+        {
+            Iterator<HttpClientManager.ResponseStream> it = openStreams.iterator();
+            while (it.hasNext())
+                it.next().abort();
+            openStreams.clear();
+        }
+    }
+    
+    
+    /**
+     * Queues tiles intersecting the view extent predicted from camera
+     * motion, and loads them in the background so that the update is
+     * not held by speculative loads. The next update cancels them.
+     */
+    protected void prefetchTiles()
+    {
+        SpatialExtentUpdater updater = spatialExtent.getUpdater();
+        if (!(updater instanceof SceneBboxUpdater))
+            return;
+        
+        SpatialExtent predictedExtent = ((SceneBboxUpdater)updater).getPredictedExtent();
+        if (predictedExtent == null)
+            return;
+        
+        synchronized(tileSelector)
+        {
+            if (prefetchSelector == null)
+                prefetchSelector = new TilePrefetchSelector(0, tileSelector.getMaxLevel(), this);
+            
+            prefetchSelector.reset();
+            prefetchSelector.setMaxExtent(tileSelector.getMaxExtent());
+            prefetchSelector.setROI(transformBbox(predictedExtent));
+            prefetchSelector.setSizeRatio(tileSelector.getSizeRatio());
+            quadTree.accept(prefetchSelector);
+        }
+        
+        startPrefetchLoaders();
+    }
+    
+    
+    /**
+     * Checks if data of the given item is currently in the block lists
+     * @param item
+     * @return
+     */
+    protected boolean isTileDisplayed(QuadTreeItem item)
+    {
+        BlockListItem[] itemBlocks = (BlockListItem[])item.getData();
+        if (itemBlocks == null)
+            return false;
+        
+        for (int b=0; b<itemBlocks.length; b++)
+        {
+            if (itemBlocks[b] != null && blockLists[b].contains(itemBlocks[b]))
+                return true;
+        }
+        
+        return false;
+    }
+    
+    
+    /**
+     * Releases data of the given items and notifies listeners so that
+     * associated textures and display lists are also released.
+     * Items displayed again in the meantime are kept.
+     * @param items
+     */
+    protected void discardTiles(List<QuadTreeItem> items)
+    {
+        LinkedList<Object> blocksToDiscard = new LinkedList<Object>();
+        LinkedList<AbstractDataBlock> imagesToRecycle = new LinkedList<AbstractDataBlock>();
+        LinkedList<QuadTreeItem> itemsToKeep = null;
+        
+        synchronized(tileSelector)
+        {
+            for (int i=0; i<items.size(); i++)
+            {
+                QuadTreeItem item = items.get(i);
+                BlockListItem[] itemBlocks = (BlockListItem[])item.getData();
+                if (itemBlocks == null)
+                    continue;
+                
+                if (isTileDisplayed(item))
+                {
+                    if (itemsToKeep == null)
+                        itemsToKeep = new LinkedList<QuadTreeItem>();
+                    itemsToKeep.add(item);
+                    continue;
+                }
+                
+                for (int b=0; b<itemBlocks.length; b++)
+                    if (itemBlocks[b] != null)
+                        blocksToDiscard.add(itemBlocks[b]);
+                
+                if (itemBlocks[0] != null)
+                    imagesToRecycle.add(itemBlocks[0].getData());
+                
+                if (item.isPrefetched())
+                {
+                    item.setPrefetched(false);
+                    prefetchWastedCount++;
+                }
+                
+                item.setData(null);
+            }
+        }
+        
+        if (blocksToDiscard.size() > 0)
+            dispatchEvent(new STTEvent(blocksToDiscard.toArray(), EventType.PROVIDER_DATA_REMOVED), false);
+        
+        // give image buffers back to the pool for next tiles
+        // once stylers and renderers can no longer read them
+        if (imageBlockPool != null && !imagesToRecycle.isEmpty())
+        {
+            AbstractDataBlock[] images = imagesToRecycle.toArray(new AbstractDataBlock[imagesToRecycle.size()]);
+            blockLists[0].recycle(imageBlockPool, images);
+        }
+        
+        // put back items that were displayed again
+        if (itemsToKeep != null)
+        {
+            for (int i=0; i<itemsToKeep.size(); i++)
+                memoryCache.put(this, itemsToKeep.get(i));
         }
     }
     
     
+    /**
+     * Removes all tiles of this provider from the memory cache and from
+     * the block lists, and releases their data
+     */
+    protected void discardAllTiles()
+    {
+        List<QuadTreeItem> items = memoryCache.removeProvider(this);
+        if (items.isEmpty())
+            return;
+        
+        // hide tiles first so that displayed ones are also discarded
+        synchronized(tileSelector)
+        {
+            for (int i=0; i<items.size(); i++)
+            {
+                BlockListItem[] itemBlocks = (BlockListItem[])items.get(i).getData();
+                if (itemBlocks != null)
+                    for (int b=0; b<itemBlocks.length; b++)
+                        if (itemBlocks[b] != null)
+                            blockLists[b].remove(itemBlocks[b]);
+            }
+        }
+        
+        discardTiles(items);
+    }
+    
+    
+    /**
+     * Attaches the lon/lat extent of the tile to all its blocks
+     * so that they can be culled by stylers. Tile corners are converted
+     * with getTileLatLon() so that this works with any tiling scheme.
+     * Blocks of tiles that cannot be located get no extent.
+     * @param item
+     */
+    protected void computeBlockInfo(QuadTreeItem item)
+    {
+        BlockListItem[] itemBlocks = (BlockListItem[])item.getData();
+        if (itemBlocks == null)
+            return;
+        
+        BlockInfo info = new BlockInfo();
+        double[] minLatLon = new double[2];
+        double[] maxLatLon = new double[2];
+        if (getTileLatLon(item.getMinX(), item.getMinY(), minLatLon) &&
+            getTileLatLon(item.getMaxX(), item.getMaxY(), maxLatLon))
+        {
+            STTSpatialExtent extent = info.getSpatialExtent();
+            extent.setMinX(Math.min(minLatLon[1], maxLatLon[1]));
+            extent.setMaxX(Math.max(minLatLon[1], maxLatLon[1]));
+            extent.setMinY(Math.min(minLatLon[0], maxLatLon[0]));
+            extent.setMaxY(Math.max(minLatLon[0], maxLatLon[0]));
+        }
+        
+        // some blocks may not be allocated yet
+        for (int b=0; b<itemBlocks.length; b++)
+        {
+            if (itemBlocks[b] != null)
+                itemBlocks[b].setInfo(info);
+        }
+    }
+    
+    
+    /**
+     * Converts tile coordinates to geographic coordinates, so that tiles
+     * can be located on the globe for screen space error selection.
+     * Default assumes longitude and mercator y in radians.
+     * @param x
+     * @param y
+     * @param latLon array receiving lat and lon in radians
+     * @return false if tiles cannot be located on the globe
+     */
+    protected boolean getTileLatLon(double x, double y, double[] latLon)
+    {
+        latLon[0] = yToLat(y);
+        latLon[1] = x;
+        return true;
+    }
+    
+    
     protected double yToLat(double y)
     {
         double lat = 0;
@@ -363,6 +872,26 @@ public abstract class TiledMapProvider extends AbstractProvider
     }
     
     
+    /**
+     * @return number of prefetched tiles loaded since provider creation
+     */
+    public int getPrefetchCount()
+    {
+        return prefetchCount;
+    }
+    
+    
+    /**
+     * @return ratio of prefetched tiles discarded before being displayed
+     */
+    public double getPrefetchWasteRatio()
+    {
+        if (prefetchCount == 0)
+            return 0.0;
+        return (double)prefetchWastedCount / (double)prefetchCount;
+    }
+    
+    
     @Override
     public DataNode getDataNode()
     {
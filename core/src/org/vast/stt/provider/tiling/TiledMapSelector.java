@@ -28,6 +28,7 @@ package org.vast.stt.provider.tiling;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.vast.stt.data.BlockListItem;
+import org.vast.stt.dynamics.ViewFrustum;
 import org.vast.stt.provider.tiling.ExtentSelector;
 import org.vast.stt.provider.tiling.QuadTreeItem;
 import org.vast.util.SpatialExtent;
@@ -36,11 +37,27 @@ import org.vast.util.SpatialExtent;
 public class TiledMapSelector extends ExtentSelector
 {
     protected Log log = LogFactory.getLog(TiledMapSelector.class);
+    protected final static double EARTH_RADIUS = 6378137.0;
+    protected final static int MIN_CULLING_LEVEL = 2;
     
     protected TiledMapProvider provider;
     protected BlockListItem[] firstSelectedBlocks;
-    protected double maxDistance2; // square of max distance in number of tiles
     protected boolean hidePartiallyVisibleParents;
+    protected int visitCount;
+    protected int skipCount;
+    protected int selectCount;
+    protected int cullCount;
+    
+    // screen space error selection (globe views only)
+    protected ViewFrustum viewFrustum;
+    protected double maxPixelError = 1.5;
+    protected QuadTreeItem sphereItem;
+    protected boolean sphereValid;
+    protected double[] sphereCenter = new double[3];
+    protected double sphereRadius;
+    protected double tileExtent;
+    protected double[] latLon = new double[2];
+    protected double[][] samplePoints = new double[9][3];
     
     
     public TiledMapSelector(int minLevel, int maxLevel, TiledMapProvider provider)
@@ -59,6 +76,154 @@ public class TiledMapSelector extends ExtentSelector
         // reset first block pointers to null
         for (int i=0; i<firstSelectedBlocks.length; i++)
             firstSelectedBlocks[i] = null;
+        
+        visitCount = 0;
+        skipCount = 0;
+        selectCount = 0;
+        cullCount = 0;
+        sphereItem = null;
+    }
+    
+    
+    /**
+     * Only revisits subtrees that intersect the new ROI or that
+     * intersected the previous one. Subtrees that were already outside
+     * the ROI were hidden when they left it, so nothing changes for them.
+     */
+    @Override
+    public void visit(QuadTreeItem item)
+    {
+        boolean inROI = isVisible(item);
+        if (!inROI && !item.isInROI())
+        {
+            skipCount++;
+            return;
+        }
+        
+        visitCount++;
+        item.setInROI(inROI);
+        visitItem(item, inROI);
+    }
+    
+    
+    /**
+     * In globe views, culls items that are beyond the horizon
+     * or outside of the view frustum
+     */
+    @Override
+    protected boolean isVisible(QuadTreeItem item)
+    {
+        if (!intersectsROI(item))
+            return false;
+        
+        if (viewFrustum == null || item.getLevel() < MIN_CULLING_LEVEL)
+            return true;
+        
+        if (!computeBoundingSphere(item))
+            return true;
+        
+        if (viewFrustum.isBeyondHorizon(sphereCenter, sphereRadius, EARTH_RADIUS) ||
+            !viewFrustum.intersectsSphere(sphereCenter, sphereRadius))
+        {
+            cullCount++;
+            return false;
+        }
+        
+        return true;
+    }
+    
+    
+    /**
+     * In globe views, refines items whose texels would appear larger
+     * than maxPixelError pixels on screen. Foreshortening is taken into
+     * account so that tiles seen at grazing angles are refined less.
+     */
+    @Override
+    protected boolean needsRefinement(QuadTreeItem item)
+    {
+        if (viewFrustum == null || !computeBoundingSphere(item))
+            return super.needsRefinement(item);
+        
+        if (item.getLevel() < MIN_CULLING_LEVEL)
+            return true;
+        
+        double texelSize = tileExtent / provider.tileWidth;
+        double pixelsPerMeter = viewFrustum.getPixelsPerMeter(sphereCenter, sphereRadius);
+        double cosIncidence = Math.max(viewFrustum.getCosIncidence(sphereCenter), 0.0);
+        double screenError = texelSize * pixelsPerMeter * (0.5 + 0.5*cosIncidence);
+        
+        return screenError > maxPixelError;
+    }
+    
+    
+    /**
+     * Computes ECEF bounding sphere and ground size of item
+     * from 9 points sampled on its edges (spherical earth)
+     * @param item
+     * @return false if tiles cannot be located on the globe
+     */
+    protected boolean computeBoundingSphere(QuadTreeItem item)
+    {
+        if (item == sphereItem)
+            return sphereValid;
+        
+        sphereItem = item;
+        sphereValid = false;
+        
+        double minX = item.getMinX();
+        double minY = item.getMinY();
+        double dX = item.getSizeX() / 2;
+        double dY = item.getSizeY() / 2;
+        
+        for (int j=0; j<3; j++)
+        {
+            for (int i=0; i<3; i++)
+            {
+                if (!provider.getTileLatLon(minX + i*dX, minY + j*dY, latLon))
+                    return false;
+                
+                double[] p = samplePoints[j*3+i];
+                double cosLat = Math.cos(latLon[0]);
+                p[0] = EARTH_RADIUS * cosLat * Math.cos(latLon[1]);
+                p[1] = EARTH_RADIUS * cosLat * Math.sin(latLon[1]);
+                p[2] = EARTH_RADIUS * Math.sin(latLon[0]);
+            }
+        }
+        
+        // center point is sample 4
+        double[] center = samplePoints[4];
+        sphereCenter[0] = center[0];
+        sphereCenter[1] = center[1];
+        sphereCenter[2] = center[2];
+        
+        double maxDist2 = 0;
+        for (int s=0; s<9; s++)
+        {
+            double[] p = samplePoints[s];
+            double dx = p[0] - center[0];
+            double dy = p[1] - center[1];
+            double dz = p[2] - center[2];
+            maxDist2 = Math.max(maxDist2, dx*dx + dy*dy + dz*dz);
+        }
+        
+        // add margin for the curvature between samples
+        sphereRadius = Math.sqrt(maxDist2) * 1.1;
+        
+        // ground size is the longest of the two mid lines
+        tileExtent = Math.max(distance(samplePoints[3], samplePoints[5]),
+                              distance(samplePoints[1], samplePoints[7]));
+        
+        sphereValid = true;
+        return true;
+    }
+    
+    
+    protected double distance(double[] p1, double[] p2)
+    {
+        double dx = p1[0] - p2[0];
+        double dy = p1[1] - p2[1];
+        double dz = p1[2] - p2[2];
+        return Math.sqrt(dx*dx + dy*dy + dz*dz);
     }
     
     
@@ -102,10 +267,10 @@ public class TiledMapSelector extends ExtentSelector
                 if (firstSelectedBlocks[b] == null)
                     firstSelectedBlocks[b] = itemBlocks[b];
             }
+            
+            // cancel hiding if item was hidden earlier in this pass
+            provider.itemsToHide.remove(item);
         }
-        
-        // make sure item is not in discard list
-        provider.itemsToDiscard.remove(item);
     }
     
     
@@ -118,14 +283,10 @@ public class TiledMapSelector extends ExtentSelector
         if (log.isDebugEnabled())
             log.debug("Item removed " + item);
         
-        // add to hidden list
-        provider.itemsToHide.add(item);
-        
-        // also add to discard list if too far
-        boolean tooFar = (distanceTo(item) > item.getTileSize()*maxDistance2);
-        if (tooFar)
-            provider.itemsToDiscard.add(item);
-        
+        // add to hidden set
+        // data is kept in memory until evicted by the memory cache
+        if (item.getData() != null)
+            provider.itemsToHide.add(item);
         item.setNeeded(false);
     }
     
@@ -207,6 +368,7 @@ public class TiledMapSelector extends ExtentSelector
     @Override
     protected void selectItem(QuadTreeItem item)
     {
+        selectCount++;
         double distance = distanceTo(item);
         item.setScore((float)(1./distance));
         
@@ -214,8 +376,16 @@ public class TiledMapSelector extends ExtentSelector
             log.debug("Item selected " + item);
         
         // add blocks to list now if data is available in cache
+        provider.memoryCache.touch(item);
         if (item.data != null)
         {
+            // count prefetched tiles that were actually used
+            if (item.isPrefetched())
+            {
+                item.setPrefetched(false);
+                provider.prefetchUsedCount++;
+            }
+            
             appendToBlockLists(item);
             removeDescendantsFromBlockLists(item);
             removeHiddenAncestorsFromBlockLists(item);
@@ -247,10 +417,10 @@ public class TiledMapSelector extends ExtentSelector
                             else
                                 provider.blockLists[b].add(blockArray[b]);
                         }
-                        
-                        // make sure item is not in discard list
-                        provider.itemsToDiscard.remove(parentItem);
                     }
+                    
+                    // mark ancestor as recently used
+                    provider.memoryCache.refresh(parentItem);
                 }
             }
             
@@ -268,14 +438,72 @@ public class TiledMapSelector extends ExtentSelector
     }
     
     
-    public void setMaxDistance(double maxDistance)
+    public void setHidePartiallyVisibleParents(boolean alwaysRemoveParents)
+    {
+        this.hidePartiallyVisibleParents = alwaysRemoveParents;
+    }
+    
+    
+    /**
+     * @return number of items visited during last selection pass
+     */
+    public int getVisitCount()
+    {
+        return visitCount;
+    }
+    
+    
+    /**
+     * @return number of subtrees skipped during last selection pass
+     */
+    public int getSkipCount()
+    {
+        return skipCount;
+    }
+    
+    
+    /**
+     * @return number of tiles selected during last selection pass
+     */
+    public int getSelectCount()
     {
-    	this.maxDistance2 = maxDistance * maxDistance;
+        return selectCount;
+    }
+    
+    
+    /**
+     * @return number of tiles culled by horizon or frustum during last pass
+     */
+    public int getCullCount()
+    {
+        return cullCount;
+    }
+    
+    
+    /**
+     * Sets the camera used for screen space error selection
+     * @param viewFrustum frustum or null to use extent based selection
+     */
+    public void setViewFrustum(ViewFrustum viewFrustum)
+    {
+        this.viewFrustum = viewFrustum;
+    }
+    
+    
+    public ViewFrustum getViewFrustum()
+    {
+        return viewFrustum;
     }
 
 
-    public void setHidePartiallyVisibleParents(boolean alwaysRemoveParents)
+    public double getMaxPixelError()
     {
-        this.hidePartiallyVisibleParents = alwaysRemoveParents;
+        return maxPixelError;
+    }
+
+
+    public void setMaxPixelError(double maxPixelError)
+    {
+        this.maxPixelError = maxPixelError;
     }
 }
@@ -25,22 +25,14 @@
 
 package org.vast.stt.provider.ve;
 
-import java.awt.image.renderable.ParameterBlock;
-import java.awt.image.*;
-import java.io.*;
-import java.net.URL;
-import java.net.URLConnection;
-import javax.media.jai.JAI;
-import javax.media.jai.RenderedOp;
 import org.sensorML.process.SRTMUtil;
 import org.vast.data.AbstractDataBlock;
 import org.vast.data.DataBlockFactory;
 import org.vast.stt.data.BlockListItem;
 import org.vast.stt.provider.tiling.QuadTreeItem;
+import org.vast.stt.provider.tiling.TileDiskCache;
 import org.vast.stt.provider.tiling.TiledMapProvider;
 import org.vast.util.SpatialExtent;
-import com.sun.media.jai.codec.MemoryCacheSeekableStream;
-import com.sun.media.jai.codec.PNGDecodeParam;
 
 
 /**
@@ -94,10 +86,10 @@ public class VirtualEarthProvider extends TiledMapProvider
     protected SpatialExtent transformBbox(SpatialExtent extent)
     {
         SpatialExtent mercatorExtent = new SpatialExtent();
-        double minX = spatialExtent.getMinX() * DTR;
-        double maxX = spatialExtent.getMaxX() * DTR;
-        double minY = latToY(spatialExtent.getMinY() * DTR);
-        double maxY = latToY(spatialExtent.getMaxY() * DTR);
+        double minX = extent.getMinX() * DTR;
+        double maxX = extent.getMaxX() * DTR;
+        double minY = latToY(extent.getMinY() * DTR);
+        double maxY = latToY(extent.getMaxY() * DTR);
         mercatorExtent.setMinX(minX);
         mercatorExtent.setMaxX(maxX);
         mercatorExtent.setMinY(minY);
@@ -126,41 +118,12 @@ public class VirtualEarthProvider extends TiledMapProvider
             else
                 urlString += ".jpeg?g=25";
             
-            //System.out.println(urlString);
-            URL url = new URL(urlString);
-            URLConnection connection = url.openConnection();
-            connection.addRequestProperty("Referer", "http://local.live.com");
-            connection.addRequestProperty("Connection", "keep-alive");
-            connection.addRequestProperty("Keep-Alive", "300");
-            //long startTime = System.currentTimeMillis();
-            InputStream is = connection.getInputStream();
-            //long connectTime = System.currentTimeMillis();
-            MemoryCacheSeekableStream imgStream = new MemoryCacheSeekableStream(is);
-
-            ParameterBlock pb = new ParameterBlock();
-            pb.add(imgStream);
-            
-            if (connection.getContentType().equals("image/png"))
-            {
-                PNGDecodeParam pngParams = new PNGDecodeParam();
-                pngParams.setExpandPalette(true);
-                pb.add(pngParams);
-            }
+            // get tile from disk cache or server
+            String tileKey = TileDiskCache.getTileKey(tileNumberGen.getZ(), tileNumberGen.getX(), tileNumberGen.getY());
+            byte[] tileData = fetchTileData(tileKey, urlString, "http://local.live.com");
             
-            RenderedOp rop = JAI.create("stream", pb);
-            RenderedImage img = rop.createInstance();
-            imgStream.close();
-            
-            // if DataBufferByte, just wrap image data with a DataBlock
-            DataBuffer buf = img.getData().getDataBuffer();
-            AbstractDataBlock imageBlock = null;
-            if (buf instanceof DataBufferByte)
-            {
-                byte[] data = ((DataBufferByte)buf).getData();
-                imageBlock = DataBlockFactory.createBlock(data);
-            }
-            else
-                throw new IllegalStateException("DataBuffer Type not supported");
+            // decode directly into a pooled image block
+            AbstractDataBlock imageBlock = decodeTileImage(tileData);
             
             // build grid
             int gridWidth = 10;
@@ -215,6 +178,13 @@ public class VirtualEarthProvider extends TiledMapProvider
     }
         
     
+    @Override
+    protected String getCacheLayerName()
+    {
+        return "ve_" + layerId;
+    }
+    
+    
     public void setLayer(String layerId)
     {
         this.layerId = layerId;
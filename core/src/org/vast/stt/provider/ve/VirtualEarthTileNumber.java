@@ -88,4 +88,37 @@ public class VirtualEarthTileNumber implements QuadTreeVisitor
     {
         return buf.toString();
     }
+    
+    
+    /**
+     * @return zoom level of tile (= length of tile number)
+     */
+    public int getZ()
+    {
+        return buf.length();
+    }
+    
+    
+    /**
+     * @return column index of tile at its zoom level
+     */
+    public int getX()
+    {
+        int x = 0;
+        for (int i=0; i<buf.length(); i++)
+            x = (x << 1) | ((buf.charAt(i) - '0') & 1);
+        return x;
+    }
+    
+    
+    /**
+     * @return row index of tile at its zoom level, from the top
+     */
+    public int getY()
+    {
+        int y = 0;
+        for (int i=0; i<buf.length(); i++)
+            y = (y << 1) | (((buf.charAt(i) - '0') >> 1) & 1);
+        return y;
+    }
 }
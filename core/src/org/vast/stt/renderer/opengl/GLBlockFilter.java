@@ -27,9 +27,13 @@ package org.vast.stt.renderer.opengl;
 
 import javax.media.opengl.GL;
 import javax.media.opengl.glu.GLU;
-
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.vast.stt.data.BlockFilter;
 import org.vast.stt.data.BlockInfo;
+import org.vast.stt.project.world.Projection;
+import org.vast.stt.project.world.WorldScene;
+import org.vast.util.SpatialExtent;
 
 
 /**
@@ -38,7 +42,10 @@ import org.vast.stt.data.BlockInfo;
  * </p>
  *
  * <p><b>Description:</b><br/>
- * Filter whole blocks based on time and bbox
+ * Filter whole blocks based on time and bbox.
+ * Blocks are rejected when their spatial extent doesn't intersect
+ * the lon/lat region currently visible in the view. Blocks with no
+ * extent info are always accepted.
  * </p>
  *
  * <p>Copyright (c) 2007</p>
@@ -48,19 +55,132 @@ import org.vast.stt.data.BlockInfo;
  */
 public class GLBlockFilter implements BlockFilter
 {
+    protected final static double DTR = Math.PI/180.;
+    protected final static double VIEW_MARGIN = 0.25;
+    protected Log log = LogFactory.getLog(GLBlockFilter.class);
     protected GL gl;
     protected GLU glu;
+    protected SpatialExtent viewBbox;
+    protected SpatialExtent viewExtent;
+    protected boolean enabled;
+    protected int acceptedCount;
+    protected int rejectedCount;
     
     
     public GLBlockFilter(GL gl, GLU glu)
     {
         this.gl = gl;
         this.glu = glu;
+        this.viewBbox = new SpatialExtent();
+        this.viewExtent = new SpatialExtent();
+    }
+    
+    
+    /**
+     * Updates the filter window with the lon/lat region visible
+     * in the given scene and resets block counters
+     * @param scene
+     */
+    public void setView(WorldScene scene)
+    {
+        acceptedCount = 0;
+        rejectedCount = 0;
+        enabled = false;
+        
+        Projection projection = scene.getViewSettings().getProjection();
+        if (projection == null || scene.getRenderer().getViewWidth() <= 0)
+            return;
+        
+        // get view bbox in degrees
+        projection.fitBboxToView(viewBbox, scene);
+        double minX = viewBbox.getMinX();
+        double maxX = viewBbox.getMaxX();
+        double minY = viewBbox.getMinY();
+        double maxY = viewBbox.getMaxY();
+        if (Double.isNaN(minX) || Double.isNaN(maxX) || Double.isNaN(minY) || Double.isNaN(maxY))
+            return;
+        
+        // add margin since view bbox is only approximate
+        double dX = (maxX - minX) * VIEW_MARGIN;
+        double dY = (maxY - minY) * VIEW_MARGIN;
+        
+        // convert to radians
+        viewExtent.setMinX((minX - dX) * DTR);
+        viewExtent.setMaxX((maxX + dX) * DTR);
+        viewExtent.setMinY(Math.max(minY - dY, -90) * DTR);
+        viewExtent.setMaxY(Math.min(maxY + dY, +90) * DTR);
+        enabled = true;
     }
     
     
     public boolean filterBlock(BlockInfo blockInfo)
     {
+        if (!enabled || blockInfo == null || !blockInfo.hasSpatialExtent())
+            return false;
+        
+        SpatialExtent blockExtent = blockInfo.getSpatialExtent();
+        if (blockExtent.isNull() || intersects(blockExtent))
+        {
+            acceptedCount++;
+            return false;
+        }
+        
+        rejectedCount++;
+        return true;
+    }
+    
+    
+    public SpatialExtent getSpatialExtent()
+    {
+        if (!enabled)
+            return null;
+        
+        return viewExtent;
+    }
+    
+    
+    /**
+     * Checks if block extent intersects view extent,
+     * taking care of wrapping around the date line
+     * @param blockExtent
+     * @return true if they intersect
+     */
+    protected boolean intersects(SpatialExtent blockExtent)
+    {
+        if (blockExtent.getMinY() > viewExtent.getMaxY() || blockExtent.getMaxY() < viewExtent.getMinY())
+            return false;
+        
+        double minX = viewExtent.getMinX();
+        double maxX = viewExtent.getMaxX();
+        if (maxX - minX >= 2*Math.PI)
+            return true;
+        
+        for (int i = -1; i <= 1; i++)
+        {
+            double shift = i * 2*Math.PI;
+            if (blockExtent.getMinX() <= maxX + shift && blockExtent.getMaxX() >= minX + shift)
+                return true;
+        }
+        
         return false;
     }
+    
+    
+    public void logStatistics()
+    {
+        if (log.isDebugEnabled() && enabled)
+            log.debug("Blocks accepted = " + acceptedCount + ", rejected = " + rejectedCount);
+    }
+    
+    
+    public int getAcceptedCount()
+    {
+        return acceptedCount;
+    }
+    
+    
+    public int getRejectedCount()
+    {
+        return rejectedCount;
+    }
 }
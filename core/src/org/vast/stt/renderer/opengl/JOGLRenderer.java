@@ -455,6 +455,9 @@ public class JOGLRenderer extends WorldSceneRenderer implements StylerVisitor
         ViewSettings view = scene.getViewSettings();
         setupMatrices(view);
         
+        // update block filter with new view region
+        blockFilter.setView(scene);
+        
         // draw camera target if enabled
         if (view.isShowCameraTarget())
             this.drawCameraTarget(view);
@@ -486,6 +489,9 @@ public class JOGLRenderer extends WorldSceneRenderer implements StylerVisitor
         // swap buffers        
         canvas.swapBuffers();
         
+        // log number of blocks skipped during this frame
+        blockFilter.logStatistics();
+        
         // remove unused display lists and textures
         doCleanup();
         
@@ -844,6 +850,7 @@ public class JOGLRenderer extends WorldSceneRenderer implements StylerVisitor
     public void visit(PolygonStyler styler)
     {
         BlockListItem block;
+        styler.setBlockFilter(blockFilter);
         styler.resetIterators();        
         polygonRenderer.setStyler(styler);
         
@@ -965,6 +972,7 @@ public class JOGLRenderer extends WorldSceneRenderer implements StylerVisitor
     public void visit(GridBorderStyler styler)
     {
         GridPatchGraphic patch;
+        styler.setBlockFilter(blockFilter);
         styler.resetIterators();
         gridBorderRenderer.setStyler(styler);
         
@@ -991,6 +999,7 @@ public class JOGLRenderer extends WorldSceneRenderer implements StylerVisitor
     public void visit(GridMeshStyler styler)
     {
         GridPatchGraphic patch;
+        styler.setBlockFilter(blockFilter);
         styler.resetIterators();
         gridRenderer.setStyler(styler);
         
@@ -1011,6 +1020,7 @@ public class JOGLRenderer extends WorldSceneRenderer implements StylerVisitor
     public void visit(GridFillStyler styler)
     {
         GridPatchGraphic patch;
+        styler.setBlockFilter(blockFilter);
         styler.resetIterators();
         gridRenderer.setStyler(styler);
         
@@ -1038,6 +1048,7 @@ public class JOGLRenderer extends WorldSceneRenderer implements StylerVisitor
     public void visit(TextureStyler styler)
     {
         TexturePatchGraphic patch;        
+        styler.setBlockFilter(blockFilter);
         styler.resetIterators();
         textureRenderer.setStyler(styler);
 
@@ -63,17 +63,21 @@ public abstract class AbstractGridStyler extends AbstractStyler
     {
         ListInfo listInfo = dataLists[0];
         
-        // if no more items in the list, just return null
-        if (!listInfo.blockIterator.hasNext())
+        BlockListItem nextItem;
+        do
         {
-            clearBlockData();
-            return null;
+            // if no more items in the list, just return null
+            if (!listInfo.blockIterator.hasNext())
+            {
+                clearBlockData();
+                return null;
+            }
+            
+            // otherwise get the next item
+            nextItem = listInfo.blockIterator.next();
         }
-        
-        // otherwise get the next item
-        BlockListItem nextItem = listInfo.blockIterator.next();
-        
-        // TODO implement block filtering here
+        // skip filtered blocks unless grid spans several blocks
+        while (listInfo.indexOffset < 0 && isFiltered(nextItem));
         
         // setup indexer with new data 
         AbstractDataBlock nextBlock = nextItem.getData();
@@ -99,7 +103,7 @@ public abstract class AbstractGridStyler extends AbstractStyler
             // get all the data left (or max 256) and render it
             if (patch.block.blockCount == 0)
             {
-                int newBlockCount = listInfo.blockIterator.getList().getSize() - blockOffset;
+                int newBlockCount = listInfo.blockIterator.getCount() - blockOffset;
                 if (newBlockCount < 2)
                     return null;
                 patch.block.blockCount = Math.min(newBlockCount, 256);
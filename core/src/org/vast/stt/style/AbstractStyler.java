@@ -30,6 +30,7 @@ import org.vast.data.AbstractDataBlock;
 import org.vast.data.DataIndexer;
 import org.vast.ows.sld.ScalarParameter;
 import org.vast.ows.sld.Symbolizer;
+import org.vast.stt.data.BlockFilter;
 import org.vast.stt.data.BlockList;
 import org.vast.stt.data.BlockListItem;
 import org.vast.stt.data.BlockListIterator;
@@ -59,19 +60,54 @@ public abstract class AbstractStyler implements DataStyler
 {
     protected class ListInfo
     {
+        protected BlockList blockList;
         protected BlockListIterator blockIterator;
+        protected BlockListItem currentBlock;
         protected DataIndexer blockIndexer;
         protected int indexOffset = -1; // use when grid/image dim should map along the list dim itself
+        protected boolean windowed;
         
         public ListInfo(BlockList blockList, DataIndexer dataIndexer)
         {
+            this.blockList = blockList;
             this.blockIndexer = dataIndexer;
             this.blockIterator = blockList.getIterator();
         }
         
+        public void resetIterator()
+        {
+            // use time window iterator if a window is set
+            // only with a single list since lists must stay in sync
+            if (!Double.isNaN(timeWindowStart) && dataLists.length == 1 &&
+                indexOffset < 0 && blockList.getTimeIndex() != null)
+            {
+                blockIterator.close();
+                blockIterator = blockList.getIterator(timeWindowStart, timeWindowStop);
+                windowed = true;
+            }
+            
+            // use spatial index if blocks are filtered spatially
+            // only with a single list since lists must stay in sync
+            else if (blockFilter != null && blockFilter.getSpatialExtent() != null &&
+                     dataLists.length == 1 && indexOffset < 0 && blockList.getSpatialIndex() != null)
+            {
+                blockIterator.close();
+                blockIterator = blockList.getIterator(blockFilter.getSpatialExtent());
+                windowed = true;
+            }
+            else if (windowed)
+            {
+                blockIterator.close();
+                blockIterator = blockList.getIterator();
+                windowed = false;
+            }
+            else
+                blockIterator.reset();
+        }
+        
         public void getBlock(int index)
         {
-            AbstractDataBlock dataBlock = blockIterator.getList().get(index);
+            AbstractDataBlock dataBlock = blockIterator.get(index);
             blockIndexer.setData(dataBlock);
             blockIndexer.reset();
             blockIndexer.next();
@@ -103,6 +139,9 @@ public abstract class AbstractStyler implements DataStyler
     protected int blockOffset = 0;
     protected boolean mappingsUpdated = false;
     protected boolean allConstant = false;
+    protected double timeWindowStart = Double.NaN;
+    protected double timeWindowStop = Double.NaN;
+    protected BlockFilter blockFilter;
     
     
     public abstract void setSymbolizer(Symbolizer symbolizer);
@@ -189,11 +228,52 @@ public abstract class AbstractStyler implements DataStyler
         for (int i = 0; i < dataLists.length; i++)
         {
             ListInfo info = dataLists[i];
-            info.blockIterator.reset();
+            info.resetIterator();
         }
     }
     
     
+    /**
+     * Restricts block iteration to blocks whose time stamp is
+     * within the given window. This is only effective for lists
+     * that are indexed by time, other lists are still fully visited.
+     * Use NaN to disable the time window.
+     * @param startTime
+     * @param stopTime
+     */
+    public void setTimeWindow(double startTime, double stopTime)
+    {
+        this.timeWindowStart = startTime;
+        this.timeWindowStop = stopTime;
+    }
+    
+    
+    /**
+     * Sets the filter used to skip whole blocks before they are styled.
+     * Filtering is only applied when one block is processed at a time.
+     * Use null to disable block filtering.
+     * @param blockFilter
+     */
+    public void setBlockFilter(BlockFilter blockFilter)
+    {
+        this.blockFilter = blockFilter;
+    }
+    
+    
+    /**
+     * Checks if the given block should be skipped
+     * @param block
+     * @return true if block is filtered out
+     */
+    protected boolean isFiltered(BlockListItem block)
+    {
+        if (blockFilter == null)
+            return false;
+        
+        return blockFilter.filterBlock(block.getInfo());
+    }
+    
+    
     protected void setCrs(String crs)
     {
         if (crs == null)
@@ -209,6 +289,10 @@ public abstract class AbstractStyler implements DataStyler
     
     public void clearAllMappers()
     {
+        // let lists recycle blocks seen by previous iterators
+        for (int i = 0; i < dataLists.length; i++)
+            dataLists[i].blockIterator.close();
+        
         dataLists = new ListInfo[0];
         treeBuilders.clear();
         mappingsUpdated = false;
@@ -217,12 +301,10 @@ public abstract class AbstractStyler implements DataStyler
     
     protected boolean checkTime(double time)
     {
-        if (Double.isNaN(time))
+        if (Double.isNaN(time) || Double.isNaN(timeWindowStart))
             return true;
-        else
-        {
-            return false;
-        }
+        
+        return (time >= timeWindowStart && time <= timeWindowStop);
     }
     
     
@@ -246,19 +328,37 @@ public abstract class AbstractStyler implements DataStyler
     public BlockListItem nextBlock()
     {
         BlockListItem nextItem = null;
+        boolean filtered;
         
+        do
+        {
+            filtered = false;
+            
+            for (int i = 0; i < dataLists.length; i++)
+            {
+                ListInfo info = dataLists[i]; 
+                            
+                if (!info.blockIterator.hasNext())
+                {
+                    clearBlockData();
+                    return null;
+                }
+                
+                nextItem = info.blockIterator.next();
+                info.currentBlock = nextItem;
+                if (isFiltered(nextItem))
+                    filtered = true;
+            }
+        }
+        while (filtered);
+        
+        // load data only for blocks that are not filtered
         for (int i = 0; i < dataLists.length; i++)
         {
             ListInfo info = dataLists[i]; 
             DataIndexer nextIndexer = info.blockIndexer;
-                        
-            if (!info.blockIterator.hasNext())
-            {
-                clearBlockData();
-                return null;
-            }
             
-            nextItem = info.blockIterator.next();
+            nextItem = info.currentBlock;
             AbstractDataBlock nextBlock = nextItem.getData();
             nextIndexer.reset();
             nextIndexer.setData(nextBlock);
@@ -340,13 +440,39 @@ public abstract class AbstractStyler implements DataStyler
     }
     
    
+    /**
+     * Computes extents with all blocks, even the ones
+     * that are filtered out when rendering
+     */
+    protected void computeFullExtent()
+    {
+        BlockFilter filter = blockFilter;
+        double windowStart = timeWindowStart;
+        double windowStop = timeWindowStop;
+        blockFilter = null;
+        timeWindowStart = Double.NaN;
+        timeWindowStop = Double.NaN;
+        
+        try
+        {
+            this.computeBoundingBox();
+            computeExtent = false;
+        }
+        finally
+        {
+            blockFilter = filter;
+            timeWindowStart = windowStart;
+            timeWindowStop = windowStop;
+        }
+    }
+    
+    
     public STTSpatialExtent getBoundingBox()
     {      
         if (computeExtent)
         {
             bbox.nullify();
-            this.computeBoundingBox();
-            computeExtent = false;
+            this.computeFullExtent();
         }
             
         return bbox;
@@ -358,8 +484,7 @@ public abstract class AbstractStyler implements DataStyler
         if (computeExtent)
         {
             timeExtent.nullify();
-            this.computeBoundingBox();
-            computeExtent = false;
+            this.computeFullExtent();
         }
             
         return timeExtent;
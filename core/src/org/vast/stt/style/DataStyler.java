@@ -26,6 +26,7 @@
 package org.vast.stt.style;
 
 import org.vast.ows.sld.Symbolizer;
+import org.vast.stt.data.BlockFilter;
 import org.vast.stt.project.tree.DataItem;
 import org.vast.stt.project.world.Projection;
 import org.vast.stt.provider.STTSpatialExtent;
@@ -67,6 +68,12 @@ public interface DataStyler
     public void setProjection(Projection projection);
     
     
+    public void setTimeWindow(double startTime, double stopTime);
+    
+    
+    public void setBlockFilter(BlockFilter blockFilter);
+    
+    
     public Projection getProjection();
 
 	
@@ -94,7 +94,7 @@ public class LabelStyler extends AbstractStyler implements DataStyler1D
             return 1;
         
         if (dataLists[0].indexOffset == 0)
-            return dataLists[0].blockIterator.getList().getSize();
+            return dataLists[0].blockIterator.getCount();
         
         return 0;
     }
@@ -111,7 +111,7 @@ public class LabelStyler extends AbstractStyler implements DataStyler1D
         {    
             if (dataLists[0].indexOffset == 0)
             {
-                AbstractDataBlock dataBlock = dataLists[0].blockIterator.getList().get(u);
+                AbstractDataBlock dataBlock = dataLists[0].blockIterator.get(u);
                 dataLists[0].blockIndexer.setData(dataBlock);
                 dataLists[0].blockIndexer.reset();
                 dataLists[0].blockIndexer.next();
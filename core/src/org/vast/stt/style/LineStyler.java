@@ -128,7 +128,7 @@ public class LineStyler extends AbstractStyler implements DataStyler1D
     public int getNumPoints()
     {
         if (dataLists[0].indexOffset == 0)
-            return dataLists[0].blockIterator.getList().getSize();
+            return dataLists[0].blockIterator.getCount();
         else
             return segment.segmentSize;
     }
@@ -144,7 +144,7 @@ public class LineStyler extends AbstractStyler implements DataStyler1D
         
         if (dataLists[0].indexOffset == 0)
         {
-            AbstractDataBlock dataBlock = dataLists[0].blockIterator.getList().get(u);
+            AbstractDataBlock dataBlock = dataLists[0].blockIterator.get(u);
             dataLists[0].blockIndexer.setData(dataBlock);
             dataLists[0].blockIndexer.reset();
             dataLists[0].blockIndexer.next();
@@ -98,7 +98,7 @@ public class PointStyler extends AbstractStyler implements DataStyler1D
             return 1;
         
         if (dataLists[0].indexOffset == 0)
-            return dataLists[0].blockIterator.getList().getSize();
+            return dataLists[0].blockIterator.getCount();
         
         return 0;
     }
@@ -115,7 +115,7 @@ public class PointStyler extends AbstractStyler implements DataStyler1D
         {    
             if (dataLists[0].indexOffset == 0)
             {
-                AbstractDataBlock dataBlock = dataLists[0].blockIterator.getList().get(u);
+                AbstractDataBlock dataBlock = dataLists[0].blockIterator.get(u);
                 dataLists[0].blockIndexer.setData(dataBlock);
                 dataLists[0].blockIndexer.reset();
                 dataLists[0].blockIndexer.next();
@@ -63,7 +63,7 @@ public class PolygonStyler extends AbstractStyler
 	public int getNumPoints()
     {
         if (dataLists[0].indexOffset == 0)
-            return dataLists[0].blockIterator.getList().getSize();
+            return dataLists[0].blockIterator.getCount();
         else
             return poly.numPoints;
     }
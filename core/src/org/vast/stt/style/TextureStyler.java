@@ -69,15 +69,28 @@ public class TextureStyler extends AbstractStyler
     
     public TexturePatchGraphic nextTile()
     {      
-        // if no more items one of the lists, just return null
-        if (!(gridBlocks.blockIterator.hasNext() && texBlocks.blockIterator.hasNext()))
+        BlockListItem nextGrid;
+        do
         {
-            clearBlockData();
-            return null;
+            // if no more items one of the lists, just return null
+            if (!(gridBlocks.blockIterator.hasNext() && texBlocks.blockIterator.hasNext()))
+            {
+                clearBlockData();
+                return null;
+            }
+            
+            // get grid block for next tile
+            nextGrid = gridBlocks.blockIterator.next();
+            
+            // skip texture block too if grid block is filtered
+            if (gridBlocks.indexOffset < 0 && isFiltered(nextGrid))
+            {
+                if (gridBlocks != texBlocks)
+                    texBlocks.blockIterator.next();
+                nextGrid = null;
+            }
         }
-        
-        // get grid block for next tile
-        BlockListItem nextGrid = gridBlocks.blockIterator.next();
+        while (nextGrid == null);
         
         // setup grid indexer with new data
         AbstractDataBlock nextGridBlock = nextGrid.getData();
@@ -118,7 +131,7 @@ public class TextureStyler extends AbstractStyler
             // get all the data left (or max 256) and render it
             if (nextGrid.blockCount == 0)
             {
-                int newBlockCount = gridBlocks.blockIterator.getList().getSize() - blockOffset;
+                int newBlockCount = gridBlocks.blockIterator.getCount() - blockOffset;
                 if (newBlockCount < 2)
                     return null;
                 nextGrid.blockCount = Math.min(newBlockCount, 256);
@@ -216,7 +216,7 @@ public class PhenomenaDetectionProvider extends AbstractProvider
     @Override
     public void cancelUpdate()
     {
-        canceled = true;
+        super.cancelUpdate();
         endRequest();
     }
 
@@ -25,23 +25,15 @@
 
 package org.vast.sttx.provider.worldwind;
 
-import java.awt.image.renderable.ParameterBlock;
-import java.awt.image.*;
-import java.io.*;
-import java.net.URL;
-import java.net.URLConnection;
-import javax.media.jai.JAI;
-import javax.media.jai.RenderedOp;
 import org.vast.data.AbstractDataBlock;
 import org.vast.data.DataBlockFactory;
 import org.vast.stt.data.BlockListItem;
 import org.vast.stt.data.DataException;
 import org.vast.data.DataArray;
 import org.vast.stt.provider.tiling.QuadTreeItem;
+import org.vast.stt.provider.tiling.TileDiskCache;
 import org.vast.stt.provider.tiling.TiledMapProvider;
 import org.vast.util.SpatialExtent;
-import com.sun.media.jai.codec.MemoryCacheSeekableStream;
-import com.sun.media.jai.codec.PNGDecodeParam;
 
 
 /**
@@ -89,10 +81,10 @@ public class WorldwindMapProvider extends TiledMapProvider
     protected SpatialExtent transformBbox(SpatialExtent extent)
     {
         SpatialExtent mercatorExtent = new SpatialExtent();
-        double minX = spatialExtent.getMinX() * DTR;
-        double maxX = spatialExtent.getMaxX() * DTR;
-        double minY = latToY(spatialExtent.getMinY() * DTR);
-        double maxY = latToY(spatialExtent.getMaxY() * DTR);
+        double minX = extent.getMinX() * DTR;
+        double maxX = extent.getMaxX() * DTR;
+        double minY = latToY(extent.getMinY() * DTR);
+        double maxY = latToY(extent.getMaxY() * DTR);
         mercatorExtent.setMinX(minX);
         mercatorExtent.setMaxX(maxX);
         mercatorExtent.setMinY(minY);
@@ -109,63 +101,40 @@ public class WorldwindMapProvider extends TiledMapProvider
             // create treeObject
             String urlString = null;
             
+            // increment server number
+            // synchronized since tiles are loaded by several threads
+            int serverNum;
+            synchronized(this)
+            {
+                serverNum = this.serverNum++;
+                if (this.serverNum > 25)
+                    this.serverNum = 24;
+            }
+            
+            // compute tile indices
+            WorldwindMapTileXYZ tileXYZGen = new WorldwindMapTileXYZ();
+            item.accept(tileXYZGen);
+            int tileX = tileXYZGen.getX();
+            int tileY = tileXYZGen.getY();
+            int tileZ = tileXYZGen.getZoom();
+            
             if (layerId.startsWith("satellite"))
             {
                 // build request URL for road/boundary data
-                WorldwindMapTileXYZ tileXYZGen = new WorldwindMapTileXYZ();
-                item.accept(tileXYZGen);
-                int x = tileXYZGen.getX();
-                int y = tileXYZGen.getY();
-                int z = tileXYZGen.getZoom();
                 urlString = "http://worldwind" + serverNum +
-                            ".arc.nasa.gov/tile/tile.aspx?T=bmng.topo.bathy.200411&L=" + z + "&X=" + x + "&Y=" + (y-1);
+                            ".arc.nasa.gov/tile/tile.aspx?T=bmng.topo.bathy.200411&L=" + tileZ + "&X=" + tileX + "&Y=" + (tileY-1);
             }
             
             System.out.println(urlString);
             
-            // increment server number
-            serverNum++;
-            if (serverNum > 25)
-                serverNum = 24;                
-                                    
-            //System.out.println(urlString);
-            URL url = new URL(urlString);
-            URLConnection connection = url.openConnection();
-            connection.addRequestProperty("Connection", "keep-alive");
-            connection.addRequestProperty("Keep-Alive", "300");
-            
+            // get tile from disk cache or server
             // return if connection cannot be made
-            InputStream is = null;
-            try {is = connection.getInputStream();}
+            byte[] tileData = null;
+            try {tileData = fetchTileData(TileDiskCache.getTileKey(tileZ, tileX, tileY), urlString, null);}
             catch (Exception e) {return;}
             
-            //long connectTime = System.currentTimeMillis();
-            MemoryCacheSeekableStream imgStream = new MemoryCacheSeekableStream(is);
-
-            ParameterBlock pb = new ParameterBlock();
-            pb.add(imgStream);
-            
-            if (connection.getContentType().equals("image/png"))
-            {
-                PNGDecodeParam pngParams = new PNGDecodeParam();
-                pngParams.setExpandPalette(true);
-                pb.add(pngParams);
-            }
-            
-            RenderedOp rop = JAI.create("stream", pb);
-            RenderedImage img = rop.createInstance();
-            imgStream.close();
-            
-            // if DataBufferByte, just wrap image data with a DataBlock
-            DataBuffer buf = img.getData().getDataBuffer();
-            AbstractDataBlock imageBlock = null;
-            if (buf instanceof DataBufferByte)
-            {
-                byte[] data = ((DataBufferByte)buf).getData();
-                imageBlock = DataBlockFactory.createBlock(data);
-            }
-            else
-                throw new IllegalStateException("DataBuffer Type not supported");
+            // decode directly into a pooled image block
+            AbstractDataBlock imageBlock = decodeTileImage(tileData);
             
             // build grid
             int gridWidth = 10;
@@ -208,6 +177,13 @@ public class WorldwindMapProvider extends TiledMapProvider
     }
     
     
+    @Override
+    protected String getCacheLayerName()
+    {
+        return "worldwind_" + layerId;
+    }
+    
+    
     public void setLayer(String layerId)
     {
         this.layerId = layerId;
@@ -55,12 +55,14 @@ import org.vast.math.Vector3d;
 import org.vast.util.Bbox;
 import org.vast.util.SpatialExtent;
 import org.vast.sensorML.ProcessLoader;
+import org.vast.stt.data.BlockInfo;
 import org.vast.stt.data.BlockListItem;
 import org.vast.stt.data.DataException;
 import org.vast.stt.dynamics.SceneBboxUpdater;
 import org.vast.stt.dynamics.SpatialExtentUpdater;
 import org.vast.stt.event.EventType;
 import org.vast.stt.event.STTEvent;
+import org.vast.stt.provider.STTSpatialExtent;
 import org.vast.stt.provider.tiling.QuadTreeItem;
 import org.vast.stt.provider.tiling.TiledMapProvider;
 import org.vast.stt.provider.tiling.TiledMapSelector;
@@ -93,6 +95,7 @@ public class JPIPProvider extends TiledMapProvider implements JPIPListener
     protected BlkImgDataSrc decodedImage;
     protected JPIPBitstreamReader jpipReader;
     protected InverseWT inverseWT;
+    protected Object decoderLock = new Object();
     
     protected byte[] imgData;
     protected int imgResLevel = 3;
@@ -110,6 +113,7 @@ public class JPIPProvider extends TiledMapProvider implements JPIPListener
     {
     	ProcessLoader.processMap.put("urn:ogc:def:process:CSM:RPC:1.0", "org.sensorML.process.RPC_Process");
     	mat.inverse();
+    	initThreadPool(4);
     }
     
     
@@ -166,33 +170,77 @@ public class JPIPProvider extends TiledMapProvider implements JPIPListener
     }
     
     
+    @Override
+    protected void computeBlockInfo(QuadTreeItem item)
+    {
+        BlockListItem[] itemBlocks = (BlockListItem[])item.getData();
+        if (itemBlocks == null)
+            return;
+        
+        // transform the 4 tile corners to lon/lat
+        BlockInfo info = new BlockInfo();
+        STTSpatialExtent extent = info.getSpatialExtent();
+        extent.nullify();
+        for (int c=0; c<4; c++)
+        {
+            double u = (c % 2 == 0) ? item.getMinX() : item.getMaxX();
+            double v = (c < 2) ? item.getMinY() : item.getMaxY();
+            double x = lon0 + offULon * u + offVLon * v;
+            double y = lat0 + offULat * u + offVLat * v;
+            extent.resizeToContain(x * DTR, y * DTR, 0.0);
+        }
+        
+        for (int b=0; b<itemBlocks.length; b++)
+            itemBlocks[b].setInfo(info);
+    }
+    
+    
+    @Override
+    protected boolean getTileLatLon(double x, double y, double[] latLon)
+    {
+        // tile coordinates are u,v in the image footprint
+        latLon[0] = (lat0 + offULat * x + offVLat * y) * DTR;
+        latLon[1] = (lon0 + offULon * x + offVLon * y) * DTR;
+        return true;
+    }
+    
+    
     @Override
     protected void getNewTile(QuadTreeItem item)
     {
         try
         {
-            // set resolution levels
-            int resLevel = item.getLevel();
-            inverseWT.setImgResLevel(resLevel);
-            inverseWT.setTile(0, 0);
+            int tileWidth, tileHeight;
+            byte[] tileData;
+            
+            // JPIP reader and decoder are shared by all tiles so only
+            // one tile is decoded at a time, grids are built concurrently
+            synchronized (decoderLock)
+            {
+                // set resolution levels
+                int resLevel = item.getLevel();
+                inverseWT.setImgResLevel(resLevel);
+                inverseWT.setTile(0, 0);
+                
+                // prepare tile
+                int width = decodedImage.getImgWidth();
+                int height = decodedImage.getImgHeight();
+                tileWidth = (int)(item.getSizeX() * width);
+                tileHeight = (int)(item.getSizeY() * height);
+                int tileOX = (int)(item.getMinX() * width);
+                int tileOY = (int)(item.getMinY() * height);
+                tileData = new byte[tileWidth*tileHeight*3];
+                                
+                // retrieve jpip data and build image
+                int[] fsiz = new int[] { width, height, ViewWindowField.CLOSEST };
+                int[] rsiz = new int[] { tileWidth, tileHeight };
+                int[] roff = new int[] { tileOX, tileOY };
+                int[][] comps = new int[][] { { 0, 2 } };
+                int layers = 10;
+                jpipReader.requestData(fsiz, rsiz, roff, comps, layers);
+                refreshTile(decodedImage, tileData, tileOX, tileOY, tileWidth, tileHeight, 3);
+            }
             
-            // prepare tile
-            int width = decodedImage.getImgWidth();
-            int height = decodedImage.getImgHeight();
-            int tileWidth = (int)(item.getSizeX() * width);
-            int tileHeight = (int)(item.getSizeY() * height);
-            int tileOX = (int)(item.getMinX() * width);
-            int tileOY = (int)(item.getMinY() * height);
-            byte[] tileData = new byte[tileWidth*tileHeight*3];
-                            
-            // retrieve jpip data and build image
-            int[] fsiz = new int[] { width, height, ViewWindowField.CLOSEST };
-            int[] rsiz = new int[] { tileWidth, tileHeight };
-            int[] roff = new int[] { tileOX, tileOY };
-            int[][] comps = new int[][] { { 0, 2 } };
-            int layers = 10;
-            jpipReader.requestData(fsiz, rsiz, roff, comps, layers);
-            refreshTile(decodedImage, tileData, tileOX, tileOY, tileWidth, tileHeight, 3);
             DataBlockByte imageArrayBlock = DataBlockFactory.createBlock(tileData);
             DataBlockInt imageWidthBlock = DataBlockFactory.createBlock(new int[] {tileWidth});
             DataBlockInt imageHeightBlock = DataBlockFactory.createBlock(new int[] {tileHeight});